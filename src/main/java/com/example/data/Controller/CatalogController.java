@@ -0,0 +1,49 @@
+package com.example.data.Controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.data.Model.CatalogFile;
+import com.example.data.Model.TransferHistoryEntry;
+import com.example.data.Services.CatalogService;
+
+@CrossOrigin(origins = "*")
+@RestController
+public class CatalogController {
+
+    @Autowired
+    private CatalogService catalogService;
+
+    // Endpoint qui liste les fichiers servis, du plus récemment servi au plus ancien
+    @GetMapping(path = "/catalog/files", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CatalogFile> getFiles() {
+        return catalogService.getFiles();
+    }
+
+    // Endpoint qui retourne un fichier du catalogue en fonction du paramètre "path"
+    @GetMapping(path = "/catalog/file", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CatalogFile> getFile(@RequestParam(name = "path") String path) {
+        CatalogFile file = catalogService.getFile(path);
+        return file == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(file);
+    }
+
+    // Endpoint qui retourne les fichiers du catalogue ayant le hash "hash"
+    @GetMapping(path = "/catalog/hash", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CatalogFile> getFilesByHash(@RequestParam(name = "hash") String hash) {
+        return catalogService.getFilesByHash(hash);
+    }
+
+    // Endpoint qui retourne les derniers transferts terminés, du plus récent au plus ancien
+    @GetMapping(path = "/catalog/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<TransferHistoryEntry> getHistory(
+            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return catalogService.getHistory(Math.max(0, limit));
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.data.Controller;
 
+import java.util.UUID;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -8,11 +10,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 
 import com.example.data.Model.MessageResponse;
 
 import com.example.data.Services.ClientService;
+import com.example.data.Services.TransferProgressService;
 //import com.example.data.Model.ServerModel;
 
 
@@ -23,19 +27,33 @@ public class ClientController {
 	 @Autowired
 	    private ClientService clientService;
 
+    @Autowired
+    private TransferProgressService transferProgressService;
+
     // Endpoint pour obtenir le message en fonction des paramètres "port" et "path"
     @GetMapping(path = "/client/getMessage", produces = MediaType.APPLICATION_JSON_VALUE)
     public MessageResponse getMessageByPortAndPath(
             @RequestParam(name = "port") int port,
             @RequestParam(name = "path") String path ,
-            @RequestParam(name = "addressIp") String addressIp) {
-        String message = clientService.getMessageByPortAndPath(port, path, addressIp);
+            @RequestParam(name = "addressIp") String addressIp,
+            @RequestParam(name = "transferId", required = false) String transferId) {
+        // L'identifiant peut être choisi par le frontend pour s'abonner avant le démarrage
+        if (transferId == null || transferId.isBlank()) {
+            transferId = UUID.randomUUID().toString();
+        }
+        String message = clientService.getMessageByPortAndPath(port, path, addressIp, transferId);
 
         // Créer l'objet MessageResponse
-        MessageResponse response = new MessageResponse(message);
+        MessageResponse response = new MessageResponse(message, transferId);
         return response;
     }
 
+    // Endpoint SSE qui pousse la progression du transfert "transferId" (octets, débit, ETA, hash)
+    @GetMapping(path = "/client/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamProgress(@RequestParam(name = "transferId") String transferId) {
+        return transferProgressService.subscribe(transferId);
+    }
+
     // Endpoint pour déclencher le traitement avec les données fournies par le frontend
     // Note: You can choose to keep or remove this endpoint based on your requirements
     // If you only need the getMessageByPortAndPath, you can remove this endpoint.
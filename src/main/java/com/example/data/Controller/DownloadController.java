@@ -0,0 +1,176 @@
+package com.example.data.Controller;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.example.data.Services.CatalogService;
+import com.example.data.download.ServedRoot;
+
+/**
+ * Streams files straight from the web server, so standard HTTP clients and proxies can download them.
+ * <p>
+ * Supports Range and If-Range, multipart byte ranges, and conditional requests with an ETag built from the
+ * file hash. A full file or a single range is handed to Tomcat's sendfile, so the data goes from the page
+ * cache to the socket without being copied through the JVM.
+ * <p>
+ * Only the files under 'transfer.download.root' are served, every request gets 404 while it is not set. Unlike the
+ * other controllers, cross-origin requests are not allowed, so a web page cannot read the served files through
+ * the browser of a local user.
+ */
+@RestController
+public class DownloadController {
+
+    /** Request attribute set by Tomcat when the connector supports sendfile */
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private final ResourceRegionHttpMessageConverter regionConverter = new ResourceRegionHttpMessageConverter();
+
+    @Autowired
+    private CatalogService catalogService;
+
+    /** Null while no root directory is configured, nothing is served then */
+    private final ServedRoot servedRoot;
+
+    public DownloadController(@Value("${transfer.download.root:}") String root) throws IOException {
+        this.servedRoot = root.isEmpty() ? null : new ServedRoot(Path.of(root));
+        if (servedRoot == null) {
+            System.out.println("transfer.download.root is not set, /server/download serves no file");
+        }
+    }
+
+    // Endpoint qui télécharge le fichier "path" en HTTP, avec prise en charge des en-têtes Range
+    @GetMapping(path = "/server/download")
+    public void download(@RequestParam(name = "path") String path, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Path file = servedRoot == null ? null : servedRoot.resolve(path);
+        if (file == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        long length = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + catalogService.getHash(file.toString()) + "\"";
+
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        MediaType mediaType = MediaTypeFactory.getMediaType(file.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        List<HttpRange> ranges;
+        try {
+            ranges = isIfRangeSatisfied(request, etag, lastModified)
+                    ? HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE))
+                    : Collections.emptyList();
+        } catch (IllegalArgumentException invalidRange) {
+            sendRangeNotSatisfiable(response, length);
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            sendRegion(request, response, file, mediaType, 0, length, length, HttpStatus.OK);
+            return;
+        }
+
+        List<ResourceRegion> regions;
+        try {
+            regions = HttpRange.toResourceRegions(ranges, new FileSystemResource(file));
+        } catch (IllegalArgumentException unsatisfiableRange) {
+            sendRangeNotSatisfiable(response, length);
+            return;
+        }
+        if (regions.size() == 1) {
+            ResourceRegion region = regions.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + region.getPosition() + "-"
+                    + (region.getPosition() + region.getCount() - 1) + "/" + length);
+            sendRegion(request, response, file, mediaType, region.getPosition(), region.getCount(), length,
+                    HttpStatus.PARTIAL_CONTENT);
+            return;
+        }
+
+        // Several ranges are sent as multipart/byteranges
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if ("HEAD".equals(request.getMethod())) {
+            response.setContentType("multipart/byteranges");
+            return;
+        }
+        regionConverter.write(regions, null, mediaType,
+                new ServletServerHttpResponse(response));
+    }
+
+    /**
+     * A Range header only applies if the If-Range validator, when present, still matches the file.
+     * Only strong comparison is allowed for If-Range.
+     */
+    private static boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            // HTTP dates have a one second resolution
+            return lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException invalidDate) {
+            return false;
+        }
+    }
+
+    private void sendRegion(HttpServletRequest request, HttpServletResponse response, Path file,
+            MediaType mediaType, long position, long count, long length, HttpStatus status) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(mediaType.toString());
+        response.setContentLengthLong(count);
+        if (count == 0 || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            // Tomcat writes the region with sendfile once the request returns
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toString());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, position);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, position + count);
+            return;
+        }
+        ResourceRegion region = new ResourceRegion(new FileSystemResource(file), position, count);
+        if (status == HttpStatus.PARTIAL_CONTENT) {
+            regionConverter.write(region, mediaType, new ServletServerHttpResponse(response));
+        } else {
+            Files.copy(file, response.getOutputStream());
+        }
+    }
+
+    private static void sendRangeNotSatisfiable(HttpServletResponse response, long length) throws IOException {
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.data.Model;
+
+/**
+ * What the transfer catalog knows about one served file.
+ */
+public class CatalogFile {
+
+    private String path;
+    private long size;
+    private long lastModified;
+    private String hash;
+    private long serveCount;
+    private long completedCount;
+    private long bytesServed;
+    private long lastServed;
+
+    public CatalogFile(String path, long size, long lastModified, String hash, long serveCount,
+            long completedCount, long bytesServed, long lastServed) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+        this.serveCount = serveCount;
+        this.completedCount = completedCount;
+        this.bytesServed = bytesServed;
+        this.lastServed = lastServed;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public long getServeCount() {
+        return serveCount;
+    }
+
+    public void setServeCount(long serveCount) {
+        this.serveCount = serveCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public void setCompletedCount(long completedCount) {
+        this.completedCount = completedCount;
+    }
+
+    public long getBytesServed() {
+        return bytesServed;
+    }
+
+    public void setBytesServed(long bytesServed) {
+        this.bytesServed = bytesServed;
+    }
+
+    public long getLastServed() {
+        return lastServed;
+    }
+
+    public void setLastServed(long lastServed) {
+        this.lastServed = lastServed;
+    }
+
+}
@@ -4,10 +4,17 @@ public class MessageResponse {
 	
 	private String message;
 
+	private String transferId;
+
     public MessageResponse(String message) {
         this.message = message;
     }
 
+    public MessageResponse(String message, String transferId) {
+        this.message = message;
+        this.transferId = transferId;
+    }
+
 	public String getMessage() {
 		return message;
 	}
@@ -16,6 +23,14 @@ public class MessageResponse {
 		this.message = message;
 	}
 
+	public String getTransferId() {
+		return transferId;
+	}
+
+	public void setTransferId(String transferId) {
+		this.transferId = transferId;
+	}
+
    
 
 }
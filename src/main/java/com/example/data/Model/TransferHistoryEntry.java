@@ -0,0 +1,93 @@
+package com.example.data.Model;
+
+/**
+ * One finished transfer of the transfer catalog history.
+ */
+public class TransferHistoryEntry {
+
+    private String transferId;
+    private String role;
+    private String path;
+    private String peer;
+    private long bytes;
+    private String state;
+    private long startTime;
+    private long endTime;
+
+    public TransferHistoryEntry(String transferId, String role, String path, String peer, long bytes,
+            String state, long startTime, long endTime) {
+        this.transferId = transferId;
+        this.role = role;
+        this.path = path;
+        this.peer = peer;
+        this.bytes = bytes;
+        this.state = state;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+}
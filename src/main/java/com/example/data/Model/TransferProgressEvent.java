@@ -0,0 +1,93 @@
+package com.example.data.Model;
+
+/**
+ * One progress update of a transfer, as pushed to the frontend over Server-Sent Events.
+ */
+public class TransferProgressEvent {
+
+    private String transferId;
+    private String state;
+    private long bytesDone;
+    private long totalBytes;
+    private long bytesPerSecond;
+    private long etaSeconds;
+    private String hash;
+    private String hashStatus;
+
+    public TransferProgressEvent(String transferId, String state, long bytesDone, long totalBytes,
+            long bytesPerSecond, long etaSeconds, String hash, String hashStatus) {
+        this.transferId = transferId;
+        this.state = state;
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.etaSeconds = etaSeconds;
+        this.hash = hash;
+        this.hashStatus = hashStatus;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    public void setBytesDone(long bytesDone) {
+        this.bytesDone = bytesDone;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getHashStatus() {
+        return hashStatus;
+    }
+
+    public void setHashStatus(String hashStatus) {
+        this.hashStatus = hashStatus;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.example.data.Services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.data.Model.CatalogFile;
+import com.example.data.Model.TransferHistoryEntry;
+import com.example.data.download.TransferCatalog;
+import com.example.data.download.TransferProgress;
+
+/**
+ * Keeps the embedded {@link TransferCatalog} of served files and transfer history, and flushes it to disk
+ * in the background.
+ */
+@Service
+public class CatalogService {
+
+	private final TransferCatalog catalog;
+
+	private final ScheduledExecutorService flusher;
+
+	public CatalogService(
+			@Value("${transfer.catalog.path:${user.home}/.data-transfer/catalog.db}") String catalogPath,
+			@Value("${transfer.catalog.history-size:10000}") int historySize,
+			@Value("${transfer.catalog.flush-interval-ms:5000}") long flushIntervalMillis) throws IOException {
+		this.catalog = new TransferCatalog(Path.of(catalogPath), historySize);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "transfer-catalog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Records that a file starts being served, and adds the transfer to the history once it finishes.
+	 */
+	public void recordTransfer(String transferId, String role, String path, String peer, TransferProgress progress) {
+		TransferCatalog.FileEntry entry = catalog.recordServed(path);
+		if (entry == null) {
+			return;
+		}
+		long size = entry.getSize();
+		long lastModified = entry.getLastModified();
+		progress.getCompletion().thenAccept(finished -> {
+			// The hash was computed before sending, it still matches the file if size and mtime did not change
+			catalog.recordHash(path, size, lastModified, finished.getHash());
+			catalog.recordTransfer(new TransferCatalog.TransferRecord(transferId, role, path, peer,
+					finished.getBytesDone(), finished.getState(), finished.getStartTime(), finished.getEndTime()));
+		});
+	}
+
+	/**
+	 * Returns the hash of a file, only hashing it again if it changed since it was last hashed.
+	 */
+	public String getHash(String path) {
+		return catalog.getOrComputeHash(path);
+	}
+
+	public List<CatalogFile> getFiles() {
+		return catalog.getFiles().stream().map(CatalogService::toCatalogFile).collect(Collectors.toList());
+	}
+
+	public CatalogFile getFile(String path) {
+		TransferCatalog.FileEntry entry = catalog.getFile(path);
+		return entry == null ? null : toCatalogFile(entry);
+	}
+
+	public List<CatalogFile> getFilesByHash(String hash) {
+		return catalog.getFilesByHash(hash).stream().map(CatalogService::toCatalogFile).collect(Collectors.toList());
+	}
+
+	public List<TransferHistoryEntry> getHistory(int limit) {
+		return catalog.getHistory(limit).stream().map(record -> new TransferHistoryEntry(record.getTransferId(),
+				record.getRole(), record.getFilePath(), record.getPeer(), record.getBytes(), record.getState().name(),
+				record.getStartTime(), record.getEndTime())).collect(Collectors.toList());
+	}
+
+	private void flush() {
+		try {
+			catalog.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		flusher.shutdownNow();
+		flush();
+	}
+
+	private static CatalogFile toCatalogFile(TransferCatalog.FileEntry entry) {
+		return new CatalogFile(entry.getPath(), entry.getSize(), entry.getLastModified(), entry.getHash(),
+				entry.getServeCount(), entry.getCompletedCount(), entry.getBytesServed(), entry.getLastServed());
+	}
+}
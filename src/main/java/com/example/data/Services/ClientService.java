@@ -2,28 +2,69 @@ package com.example.data.Services;
 
 
 
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.example.data.download.ClientMain;
+import com.example.data.download.TransferEngine;
+import com.example.data.download.TransferJournal;
+import com.example.data.download.TransferMode;
+import com.example.data.download.TransferProgress;
 
 
 
 
 @Service
 public class ClientService {
+
+    @Autowired
+    private TransferProgressService transferProgressService;
+
+    @Autowired
+    private TransferJournalService transferJournalService;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @Autowired
+    private StripingService stripingService;
+
+    // Moteur utilisé pour envoyer le fichier, BLOCKING, ASYNC, UDP ou STRIPED
+    @Value("${transfer.engine:BLOCKING}")
+    private TransferEngine transferEngine;
 	
 	
 	// Méthode pour récupérer un message basé sur les paramètres "port" et "path"
     public String getMessageByPortAndPath(int port, String path,String addressIp) {
+        return getMessageByPortAndPath(port, path, addressIp, null);
+    }
+
+    // Même traitement, la progression est publiée sous l'identifiant "transferId"
+    public String getMessageByPortAndPath(int port, String path,String addressIp, String transferId) {
     	
     	// Créez une instance de ServerMain
         ClientMain  clientMain  = new  ClientMain ();
+        clientMain.setEngine(transferEngine);
+        // Connexions réparties sur plusieurs interfaces avec le moteur STRIPED
+        clientMain.setLocalAddresses(stripingService.getLocalAddresses());
+        clientMain.setRemoteAddresses(stripingService.getRemoteAddresses());
+        if (transferId == null) {
+            transferId = UUID.randomUUID().toString();
+        }
+        TransferProgress progress = transferProgressService.register(transferId);
+        // Le transfert est journalisé pour pouvoir reprendre après un redémarrage
+        transferJournalService.begin(new TransferJournal.Job(transferId, TransferJournal.Role.CLIENT, addressIp, port,
+                path, TransferMode.RAW, 0), progress);
+        catalogService.recordTransfer(transferId, "CLIENT", path, addressIp + ":" + port, progress);
     	
         // Traitement des paramètres pour générer le message
     	// Simulating loading delay for demonstration purposes
         try {
         	
-        	 clientMain.start( addressIp,port,path);
+        	 clientMain.start( addressIp,port,path, progress);
             Thread.sleep(2000); // Wait for 2 seconds to simulate loading
         
         }
@@ -0,0 +1,42 @@
+package com.example.data.Services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.data.download.PageCacheWarmer;
+import com.example.data.download.SmallFileCache;
+
+/**
+ * Holds the {@link SmallFileCache} shared by every transfer the application serves, or none if
+ * 'transfer.cache.capacity-bytes' is 0, and the {@link PageCacheWarmer} of the served files, or none if
+ * 'transfer.warmup.max-file-bytes' is 0.
+ */
+@Service
+public class FileCacheService {
+
+	private final SmallFileCache cache;
+
+	private final PageCacheWarmer pageCacheWarmer;
+
+	public FileCacheService(
+			@Value("${transfer.cache.max-file-bytes:1048576}") int maxFileBytes,
+			@Value("${transfer.cache.capacity-bytes:67108864}") long capacityBytes,
+			@Value("${transfer.warmup.max-file-bytes:268435456}") long warmupMaxFileBytes) {
+		this.cache = capacityBytes > 0 ? new SmallFileCache(maxFileBytes, capacityBytes) : null;
+		this.pageCacheWarmer = warmupMaxFileBytes > 0 ? new PageCacheWarmer(warmupMaxFileBytes) : null;
+	}
+
+	/**
+	 * @return the cache, or null if caching is disabled.
+	 */
+	public SmallFileCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the warmer, or null if warming is disabled.
+	 */
+	public PageCacheWarmer getPageCacheWarmer() {
+		return pageCacheWarmer;
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.data.Services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.example.data.download.NamedFileServer;
+
+/**
+ * Runs a {@link NamedFileServer} serving the configured root directory on a single port, for the lifetime
+ * of the application. Only created when 'transfer.named.root' is set.
+ * <p>
+ * The server is started as an application runner rather than from the constructor: nothing injects this bean,
+ * so with lazy initialization the constructor would never run, while the runners are always created.
+ */
+@Service
+@ConditionalOnProperty(name = "transfer.named.root")
+public class NamedFileService implements ApplicationRunner {
+
+	private final String root;
+
+	private final int port;
+
+	private final long metadataTtlMillis;
+
+	private final int maxOpenFiles;
+
+	private final int maxConnections;
+
+	private NamedFileServer server;
+
+	public NamedFileService(
+			@Value("${transfer.named.root}") String root,
+			@Value("${transfer.named.port:9000}") int port,
+			@Value("${transfer.named.metadata-ttl-ms:1000}") long metadataTtlMillis,
+			@Value("${transfer.named.max-open-files:256}") int maxOpenFiles,
+			@Value("${transfer.named.max-connections:64}") int maxConnections) {
+		this.root = root;
+		this.port = port;
+		this.metadataTtlMillis = metadataTtlMillis;
+		this.maxOpenFiles = maxOpenFiles;
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Starts the server, and fails the startup of the application if it cannot serve the root directory.
+	 */
+	@Override
+	public synchronized void run(ApplicationArguments args) throws IOException {
+		server = new NamedFileServer(port, Path.of(root), metadataTtlMillis, maxOpenFiles, maxConnections);
+		NamedFileServer.Result result = server.start();
+		System.out.println("NamedFileServer start result = " + result);
+		if (result != NamedFileServer.Result.SUCCESS) {
+			throw new IllegalStateException("Cannot serve " + root + " on port " + port + ": " + result);
+		}
+	}
+
+	/**
+	 * @return the port the server listens on, or -1 if it is not started.
+	 */
+	public synchronized int getPort() {
+		return server == null ? -1 : server.getLocalPort();
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+}
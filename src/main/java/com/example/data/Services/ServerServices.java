@@ -1,18 +1,62 @@
 package com.example.data.Services;
 
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.example.data.download.ServerMain;
+import com.example.data.download.TransferEngine;
+import com.example.data.download.TransferJournal;
+import com.example.data.download.TransferMode;
+import com.example.data.download.TransferProgress;
 
 @Service
 //@Validated
 public class ServerServices {
+
+    @Autowired
+    private TransferProgressService transferProgressService;
+
+    @Autowired
+    private TransferJournalService transferJournalService;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @Autowired
+    private FileCacheService fileCacheService;
+
+    @Autowired
+    private StripingService stripingService;
+
+    // Moteur utilisé pour envoyer le fichier, BLOCKING, ASYNC, UDP ou STRIPED
+    @Value("${transfer.engine:BLOCKING}")
+    private TransferEngine transferEngine;
 	
 	// Méthode pour récupérer un message basé sur les paramètres "port" et "path"
     public String getMessageByPortAndPath(int port, String path) {
+        return getMessageByPortAndPath(port, path, null);
+    }
+
+    // Même traitement, la progression est publiée sous l'identifiant "transferId"
+    public String getMessageByPortAndPath(int port, String path, String transferId) {
     	
     	// Créez une instance de ServerMain
         ServerMain serverMain = new ServerMain();
+        serverMain.setEngine(transferEngine);
+        serverMain.setFileCache(fileCacheService.getCache());
+        serverMain.setPageCacheWarmer(fileCacheService.getPageCacheWarmer());
+        serverMain.setLocalAddresses(stripingService.getLocalAddresses());
+        if (transferId == null) {
+            transferId = UUID.randomUUID().toString();
+        }
+        TransferProgress progress = transferProgressService.register(transferId);
+        // Le transfert est journalisé pour pouvoir reprendre après un redémarrage
+        transferJournalService.begin(new TransferJournal.Job(transferId, TransferJournal.Role.SERVER, null, port, path,
+                TransferMode.RAW, 0), progress);
+        catalogService.recordTransfer(transferId, "SERVER", path, null, progress);
 
     	
         // Traitement des paramètres pour générer le message
@@ -20,7 +64,7 @@ public class ServerServices {
         try {
         	
         	   // Appelez la méthode start avec les paramètres
-            serverMain.start(port, path);
+            serverMain.start(port, path, progress);
             Thread.sleep(2000); // Wait for 2 seconds to simulate loading
         	
         } catch (InterruptedException e) {
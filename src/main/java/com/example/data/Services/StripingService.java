@@ -0,0 +1,40 @@
+package com.example.data.Services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the address pairs the STRIPED engine opens its connections between, one address per network
+ * interface: 'transfer.striping.local-addresses' on this host and 'transfer.striping.remote-addresses' on the
+ * peer, both empty by default.
+ */
+@Service
+public class StripingService {
+
+	private final List<String> localAddresses;
+
+	private final List<String> remoteAddresses;
+
+	public StripingService(
+			@Value("${transfer.striping.local-addresses:}") List<String> localAddresses,
+			@Value("${transfer.striping.remote-addresses:}") List<String> remoteAddresses) {
+		this.localAddresses = List.copyOf(localAddresses);
+		this.remoteAddresses = List.copyOf(remoteAddresses);
+	}
+
+	/**
+	 * @return the addresses of this host the servers listen on and the clients bind to, empty for any.
+	 */
+	public List<String> getLocalAddresses() {
+		return localAddresses;
+	}
+
+	/**
+	 * @return the addresses of the peer the clients connect to, empty for the address of the request only.
+	 */
+	public List<String> getRemoteAddresses() {
+		return remoteAddresses;
+	}
+}
@@ -0,0 +1,127 @@
+package com.example.data.Services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import com.example.data.download.ClientMain;
+import com.example.data.download.ServerMain;
+import com.example.data.download.TransferEngine;
+import com.example.data.download.TransferJournal;
+import com.example.data.download.TransferProgress;
+
+/**
+ * Records every transfer started by the services in the {@link TransferJournal}, and restarts the transfers
+ * that were still running when the application stopped.
+ * <p>
+ * A restarted transfer sends the whole file again: the wire formats carry no offset the peer could place the
+ * data at, so resuming in the middle of the file would leave it with a gap or misaligned data.
+ */
+@Service
+public class TransferJournalService implements ApplicationRunner {
+
+	/** Maximum time to wait for the START record of a job to be durable */
+	private static final long BEGIN_TIMEOUT_MILLIS = 1_000;
+
+	private final TransferJournal journal;
+
+	private final TransferProgressService transferProgressService;
+
+	private final boolean resumeOnStartup;
+
+	private final TransferEngine transferEngine;
+
+	private final FileCacheService fileCacheService;
+
+	private final StripingService stripingService;
+
+	public TransferJournalService(TransferProgressService transferProgressService, FileCacheService fileCacheService,
+			StripingService stripingService,
+			@Value("${transfer.journal.path:${user.home}/.data-transfer/journal.wal}") String journalPath,
+			@Value("${transfer.journal.commit-interval-ms:50}") long commitIntervalMillis,
+			@Value("${transfer.journal.checkpoint-interval-ms:1000}") long checkpointIntervalMillis,
+			@Value("${transfer.journal.compact-threshold-bytes:1048576}") long compactThreshold,
+			@Value("${transfer.journal.resume-on-startup:true}") boolean resumeOnStartup,
+			@Value("${transfer.engine:BLOCKING}") TransferEngine transferEngine) throws IOException {
+		this.transferProgressService = transferProgressService;
+		this.resumeOnStartup = resumeOnStartup;
+		this.transferEngine = transferEngine;
+		this.fileCacheService = fileCacheService;
+		this.stripingService = stripingService;
+		this.journal = new TransferJournal(Path.of(journalPath), commitIntervalMillis, checkpointIntervalMillis,
+				compactThreshold);
+	}
+
+	/**
+	 * Records the start of a job and waits, for a bounded time, until the record is durable.
+	 * The job's progress object is then sampled for checkpoints and for the END record.
+	 */
+	public void begin(TransferJournal.Job job, TransferProgress progress) {
+		try {
+			journal.begin(job, progress).get(BEGIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			// The transfer still runs, it only cannot be resumed after a crash
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Restarts the jobs left unfinished by the previous run, each in its own thread.
+	 */
+	@Override
+	public void run(ApplicationArguments args) {
+		for (TransferJournal.Job job : journal.getInterruptedJobs()) {
+			if (!resumeOnStartup) {
+				journal.end(job.getId(), TransferProgress.State.ABORTED);
+				continue;
+			}
+			System.out.println("Restarting transfer " + job.getId() + " of " + job.getFilePath()
+					+ ", interrupted at offset " + job.getOffset());
+			Thread resumeThread = new Thread(() -> resume(job), "transfer-resume-" + job.getId());
+			resumeThread.setDaemon(true);
+			resumeThread.start();
+		}
+	}
+
+	private void resume(TransferJournal.Job job) {
+		TransferProgress progress = transferProgressService.register(job.getId());
+		// Aucun format ne transmet l'offset au pair : le fichier est renvoyé depuis le début
+		TransferJournal.Job restartedJob = new TransferJournal.Job(job.getId(), job.getRole(), job.getHost(),
+				job.getPort(), job.getFilePath(), job.getTransferMode(), 0);
+		begin(restartedJob, progress);
+		try {
+			if (job.getRole() == TransferJournal.Role.SERVER) {
+				ServerMain serverMain = new ServerMain();
+				serverMain.setEngine(transferEngine);
+				serverMain.setFileCache(fileCacheService.getCache());
+				serverMain.setPageCacheWarmer(fileCacheService.getPageCacheWarmer());
+				serverMain.setLocalAddresses(stripingService.getLocalAddresses());
+				serverMain.start(job.getPort(), job.getFilePath(), progress);
+			} else {
+				ClientMain clientMain = new ClientMain();
+				clientMain.setEngine(transferEngine);
+				clientMain.setLocalAddresses(stripingService.getLocalAddresses());
+				clientMain.setRemoteAddresses(stripingService.getRemoteAddresses());
+				clientMain.start(job.getHost(), job.getPort(), job.getFilePath(), progress);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		journal.close();
+	}
+}
@@ -0,0 +1,252 @@
+package com.example.data.Services;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.data.Model.TransferProgressEvent;
+import com.example.data.download.TransferProgress;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps track of running transfers and pushes their progress to Server-Sent Events subscribers.
+ * <p>
+ * Transfers only update their {@link TransferProgress} counters. A single scheduler thread samples every
+ * watched transfer once per interval, serializes one event and sends that same payload to every watcher,
+ * so the number of watchers never reaches the transfer threads.
+ * <p>
+ * Watchers are added and events published under the lock of the transfer entry. A watcher arriving after the
+ * final event went out gets that event on its own and is completed at once, so no watcher is left open on a
+ * finished transfer.
+ */
+@Service
+public class TransferProgressService {
+
+	/** How long a finished transfer stays queryable after its final event */
+	private static final long FINISHED_RETENTION_MILLIS = 60_000;
+	/** How long a transfer may stay pending before it is forgotten */
+	private static final long PENDING_RETENTION_MILLIS = 10 * 60_000;
+	/** Weight of the newest sample in the smoothed rate used for the ETA */
+	private static final double RATE_SMOOTHING = 0.3;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService scheduler;
+
+	private final ObjectMapper objectMapper;
+
+	public TransferProgressService(ObjectMapper objectMapper,
+			@Value("${transfer.progress.interval-ms:500}") long intervalMillis) {
+		this.objectMapper = objectMapper;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "transfer-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the progress object of the given transfer, creating it if needed.
+	 * Subscribers may register before the transfer starts.
+	 */
+	public TransferProgress register(String transferId) {
+		return entries.computeIfAbsent(transferId, Entry::new).progress;
+	}
+
+	/**
+	 * Subscribes to the progress of the given transfer.
+	 */
+	public SseEmitter subscribe(String transferId) {
+		SseEmitter emitter = new SseEmitter(0L);
+		// An entry expired in the meantime takes no watcher, a new one is created then
+		while (!entries.computeIfAbsent(transferId, Entry::new).add(emitter)) {
+		}
+		return emitter;
+	}
+
+	/**
+	 * Samples every transfer once and sends one coalesced event to its watchers.
+	 */
+	private void publish() {
+		long now = System.currentTimeMillis();
+		for (Entry entry : entries.values()) {
+			try {
+				entry.publish(now);
+			} catch (RuntimeException exception) {
+				exception.printStackTrace();
+			}
+			entry.removeIfExpired(now);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private class Entry {
+
+		private final TransferProgress progress;
+
+		private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+		private final long createdTime = System.currentTimeMillis();
+
+		private long lastSampleTime;
+
+		private long lastBytesDone;
+
+		private double smoothedRate;
+
+		/** The rate of the last sample, repeated in the final event sent to a late watcher */
+		private long lastRate;
+
+		private boolean finalEventSent;
+
+		/** Set once the entry left the map, it takes no new watcher then */
+		private boolean removed;
+
+		Entry(String transferId) {
+			this.progress = new TransferProgress(transferId);
+		}
+
+		/**
+		 * Adds a watcher, or sends it the final event and completes it if that event already went out.
+		 *
+		 * @return false if the entry was removed and the watcher must go to a new one.
+		 */
+		synchronized boolean add(SseEmitter emitter) {
+			if (removed) {
+				return false;
+			}
+			if (finalEventSent) {
+				SseEmitter.SseEventBuilder event = buildEvent(progress.getBytesDone(), lastRate);
+				if (event != null) {
+					send(emitter, event, true);
+				} else {
+					emitter.complete();
+				}
+				return true;
+			}
+			emitters.add(emitter);
+			emitter.onCompletion(() -> emitters.remove(emitter));
+			emitter.onTimeout(() -> emitters.remove(emitter));
+			emitter.onError(error -> emitters.remove(emitter));
+			return true;
+		}
+
+		synchronized void publish(long now) {
+			if (finalEventSent) {
+				return;
+			}
+			boolean finished = progress.isFinished();
+			long bytesDone = progress.getBytesDone();
+			long rate = sampleRate(now, bytesDone);
+			lastRate = rate;
+			if (emitters.isEmpty()) {
+				finalEventSent = finished;
+				return;
+			}
+
+			SseEmitter.SseEventBuilder event = buildEvent(bytesDone, rate);
+			if (event == null) {
+				return;
+			}
+			for (SseEmitter emitter : emitters) {
+				send(emitter, event, finished);
+			}
+			finalEventSent = finished;
+		}
+
+		synchronized void removeIfExpired(long now) {
+			if (isExpired(now)) {
+				removed = true;
+				entries.remove(progress.getTransferId(), this);
+			}
+		}
+
+		private SseEmitter.SseEventBuilder buildEvent(long bytesDone, long rate) {
+			String payload;
+			try {
+				payload = objectMapper.writeValueAsString(toEvent(bytesDone, rate));
+			} catch (JsonProcessingException exception) {
+				exception.printStackTrace();
+				return null;
+			}
+			return SseEmitter.event()
+					.name("progress")
+					.data(payload, MediaType.APPLICATION_JSON);
+		}
+
+		private void send(SseEmitter emitter, SseEmitter.SseEventBuilder event, boolean isFinal) {
+			try {
+				emitter.send(event);
+				if (isFinal) {
+					emitter.complete();
+				}
+			} catch (IOException | IllegalStateException exception) {
+				// The watcher went away
+				emitters.remove(emitter);
+			}
+		}
+
+		private long sampleRate(long now, long bytesDone) {
+			if (lastSampleTime == 0) {
+				lastSampleTime = Math.max(progress.getStartTime(), createdTime);
+			}
+			long elapsed = now - lastSampleTime;
+			if (elapsed <= 0) {
+				return (long) smoothedRate;
+			}
+			double rate = (bytesDone - lastBytesDone) * 1000.0 / elapsed;
+			smoothedRate = smoothedRate == 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * smoothedRate;
+			lastSampleTime = now;
+			lastBytesDone = bytesDone;
+			return (long) rate;
+		}
+
+		private TransferProgressEvent toEvent(long bytesDone, long rate) {
+			long totalBytes = progress.getTotalBytes();
+			long eta = -1;
+			if (progress.getState() == TransferProgress.State.COMPLETED) {
+				eta = 0;
+			} else if (totalBytes >= 0 && smoothedRate >= 1) {
+				eta = (long) Math.ceil((totalBytes - bytesDone) / smoothedRate);
+			}
+			String hash = progress.getHash();
+			String hashStatus;
+			if (hash == null) {
+				hashStatus = "PENDING";
+			} else if (hash.isEmpty()) {
+				hashStatus = "FAILED";
+			} else {
+				hashStatus = "COMPUTED";
+			}
+			return new TransferProgressEvent(progress.getTransferId(), progress.getState().name(), bytesDone,
+					totalBytes, rate, eta, hash, hashStatus);
+		}
+
+		private boolean isExpired(long now) {
+			if (progress.isFinished()) {
+				return finalEventSent && now - progress.getEndTime() > FINISHED_RETENTION_MILLIS;
+			}
+			return progress.getState() == TransferProgress.State.PENDING
+					&& emitters.isEmpty()
+					&& now - createdTime > PENDING_RETENTION_MILLIS;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.example.data;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops the application as soon as it has started when 'startup.training-run' is true.
+ * The fast-startup build profile uses it to dump the AppCDS archive of everything loaded during startup.
+ */
+@Component
+@ConditionalOnProperty(name = "startup.training-run", havingValue = "true")
+public class StartupTrainingRun implements ApplicationRunner {
+
+	private final ApplicationContext context;
+
+	public StartupTrainingRun(ApplicationContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		System.out.println("Training run finished, exiting");
+		System.exit(SpringApplication.exit(context));
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Completion-handler counterpart of {@link LocalFastDownloadClient}: connects to the server and sends it the
+ * file in the RAW wire format, with no thread waiting for the transfer.
+ * <p>
+ * start() waits for the connection, at most for the timeout, so it returns the same Result codes as the
+ * blocking client. The file reads and the socket writes then chain through completion handlers on the threads
+ * shared by all asynchronous transfers, see {@link AsyncFileSender}.
+ */
+public class AsyncDownloadClient {
+
+    /** The IP address of the server host */
+    private final String mHost;
+    /** The TCP port of the server host */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server, 0 to wait forever */
+    private final int mTimeout;
+    /** The path to the file to send to the server */
+    private final String mFilepath;
+
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The maximum time in milliseconds a socket write may take before the transfer fails */
+    private long mWriteTimeout = AsyncFileSender.DEFAULT_WRITE_TIMEOUT;
+
+    /** Sends the file once connected */
+    private AsyncFileSender sender;
+
+    /**
+     * Creates a client instance using given parameters.
+     *
+     * @param host     The IP address of the server host.
+     * @param port     The TCP port of the server host.
+     * @param timeout  The timeout in milliseconds for making connection to the server.
+     * @param filepath The path to the file to send to the server.
+     */
+    public AsyncDownloadClient(String host, int port, int timeout, String filepath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mFilepath = filepath;
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the maximum time a socket write may take, a peer that stops reading for longer fails the transfer.
+     * Must be called before start().
+     *
+     * @param writeTimeout the time in milliseconds.
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        mWriteTimeout = writeTimeout;
+    }
+
+    /**
+     * Validates the file, connects to server, and starts sending the file data without blocking.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public LocalFastDownloadClient.Result start() {
+        if (mFilepath == null || !new File(mFilepath).isFile()) {
+            System.err.println(mFilepath + " is NOT valid!");
+            return LocalFastDownloadClient.Result.FILE_PATH_INVALID;
+        }
+
+        System.out.println("Connecting to SERVER " + mHost + " on port " + mPort);
+        AsynchronousSocketChannel socketChannel = null;
+        try {
+            socketChannel = AsynchronousSocketChannel.open(AsyncFileSender.channelGroup());
+            Future<Void> connection = socketChannel.connect(new InetSocketAddress(mHost, mPort));
+            if (mTimeout > 0) {
+                connection.get(mTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                connection.get();
+            }
+            System.out.println("Just connected to SERVER " + socketChannel.getRemoteAddress());
+
+            AsynchronousFileChannel fileChannel = AsynchronousFileChannel.open(Path.of(mFilepath),
+                    Set.of(StandardOpenOption.READ), AsyncFileSender.fileExecutor());
+            long fileLength = fileChannel.size();
+            if (mProgress != null) {
+                mProgress.begin(fileLength);
+            }
+            System.out.println("Sending ...");
+            sender = new AsyncFileSender(mFilepath, fileChannel, socketChannel, 0, fileLength, mProgress,
+                    this::finishProgress);
+            sender.setWriteTimeout(mWriteTimeout);
+            sender.start();
+            return LocalFastDownloadClient.Result.SUCCESS;
+        } catch (ExecutionException executionException) {
+            executionException.getCause().printStackTrace();
+            closeQuietly(socketChannel);
+            return executionException.getCause() instanceof ConnectException
+                    ? LocalFastDownloadClient.Result.SERVER_NOT_STARTED : LocalFastDownloadClient.Result.IO_ERROR;
+        } catch (TimeoutException timeoutException) {
+            // Timeout expires before connecting
+            timeoutException.printStackTrace();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.SOCKET_TIMEOUT;
+        } catch (UnresolvedAddressException unresolvedAddressException) {
+            unresolvedAddressException.printStackTrace();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.UNKNOWN_HOST;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.IO_ERROR;
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            closeQuietly(socketChannel);
+            return LocalFastDownloadClient.Result.IO_ERROR;
+        }
+    }
+
+    /**
+     * Aborts the process of sending data to server.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (sender != null && !sender.isFinished()) {
+            sender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (sender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+
+        return false;
+    }
+
+    private void finishProgress(TransferProgress.State state) {
+        if (mProgress != null) {
+            mProgress.finish(state);
+        }
+    }
+
+    private static void closeQuietly(AsynchronousSocketChannel socketChannel) {
+        try {
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+}
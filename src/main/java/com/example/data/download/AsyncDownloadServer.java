@@ -0,0 +1,263 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Completion-handler counterpart of {@link LocalFastDownloadServer}: waits for one client and sends it the
+ * file in the RAW wire format, with no thread waiting for the connection or the transfer.
+ * <p>
+ * start() returns as soon as the port is bound, with the same Result codes as the blocking server. The accept,
+ * the file reads and the socket writes then chain through completion handlers on the threads shared by all
+ * asynchronous transfers, see {@link AsyncFileSender}. A client that does not connect within the timeout
+ * fails the transfer, which is reported to the progress object as FAILED.
+ */
+public class AsyncDownloadServer {
+
+    /** Default maximum time in milliseconds to wait for client connection */
+    private static final int DEFAULT_SOCKET_TIMEOUT = 90_000;
+
+    /** The tcp port number on which server waits for client connection */
+    private final int mPort;
+    /** The maximum time in milliseconds to wait for client connection */
+    private final int mTimeout;
+    /** The path to file to send to client */
+    private final String mFilePath;
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The maximum time in milliseconds a socket write may take before the transfer fails */
+    private long mWriteTimeout = AsyncFileSender.DEFAULT_WRITE_TIMEOUT;
+    /** Reads the file into the page cache while waiting for the client, null to leave it cold */
+    private PageCacheWarmer mPageCacheWarmer;
+
+    /** Holds the channel opened on port 'mPort' and used to wait for client connection */
+    private AsynchronousServerSocketChannel serverChannel;
+    /** Sends the file once a client is connected */
+    private volatile AsyncFileSender sender;
+    /** This flag is used to abort the transfer, also while waiting for the client */
+    private volatile boolean isAborted = false;
+
+    /**
+     * Creates a server instance with given port, default socket timeout and given filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public AsyncDownloadServer(int port, String filePath) {
+        this(port, DEFAULT_SOCKET_TIMEOUT, filePath);
+    }
+
+    /**
+     * Creates a server instance with given port, socket timeout and filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param timeout  indicates maximum time in milliseconds to wait for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public AsyncDownloadServer(int port, int timeout, String filePath) {
+        mPort = port;
+        mTimeout = timeout;
+        mFilePath = filePath;
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the maximum time a socket write may take, a peer that stops reading for longer fails the transfer.
+     * Must be called before start().
+     *
+     * @param writeTimeout the time in milliseconds.
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        mWriteTimeout = writeTimeout;
+    }
+
+    /**
+     * Sets the warmer reading the file into the page cache while the server waits for its client.
+     * Must be called before start().
+     *
+     * @param pageCacheWarmer the warmer shared by the servers, or null.
+     */
+    public void setPageCacheWarmer(PageCacheWarmer pageCacheWarmer) {
+        mPageCacheWarmer = pageCacheWarmer;
+    }
+
+    /**
+     * Validates the file, binds the port and starts waiting for the client without blocking.
+     *
+     * @return Returns a Result enum case to indicate the result of preparation work.
+     */
+    public LocalFastDownloadServer.Result start() {
+        if (serverChannel != null && serverChannel.isOpen() || sender != null && !sender.isFinished()) {
+            return LocalFastDownloadServer.Result.SERVER_ALREADY_RUNNING;
+        }
+        if (mFilePath == null || !new File(mFilePath).isFile()) {
+            System.err.println(mFilePath + " is NOT valid!");
+            return LocalFastDownloadServer.Result.FILE_PATH_INVALID;
+        }
+
+        try {
+            serverChannel = AsynchronousServerSocketChannel.open(AsyncFileSender.channelGroup());
+            serverChannel.bind(new InetSocketAddress(mPort));
+            if (mPort == 0) {
+                System.out.println("Automatically Allocated Port: " + getLocalPort());
+            }
+        } catch (BindException bindException) {
+            // Port already in use
+            bindException.printStackTrace();
+            releaseServer();
+            return LocalFastDownloadServer.Result.PORT_ALREADY_IN_USE;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Port outside the specified range of valid port values, which is between 0 and 65535
+            illegalArgumentException.printStackTrace();
+            releaseServer();
+            return LocalFastDownloadServer.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            // A security manager exists and its checkListen method doesn't allow the operation
+            securityException.printStackTrace();
+            releaseServer();
+            return LocalFastDownloadServer.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening the socket
+            ioException.printStackTrace();
+            releaseServer();
+            return LocalFastDownloadServer.Result.IO_ERROR;
+        }
+
+        if (mPageCacheWarmer != null) {
+            mPageCacheWarmer.warm(mFilePath);
+        }
+        System.out.println("Waiting for CLIENT connection on port " + getLocalPort());
+        AsynchronousServerSocketChannel channel = serverChannel;
+        channel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel socketChannel, Void attachment) {
+                releaseServer();
+                startSending(socketChannel);
+            }
+
+            @Override
+            public void failed(Throwable throwable, Void attachment) {
+                releaseServer();
+                if (throwable instanceof AsynchronousCloseException) {
+                    System.err.println(isAborted ? "Aborted while waiting for CLIENT connection"
+                            : "Timeout waiting for CLIENT connection");
+                } else {
+                    throwable.printStackTrace();
+                }
+                finishProgress(isAborted ? TransferProgress.State.ABORTED : TransferProgress.State.FAILED);
+            }
+        });
+        // Closing the channel makes the pending accept fail
+        CompletableFuture.delayedExecutor(mTimeout, TimeUnit.MILLISECONDS).execute(() -> {
+            if (sender == null) {
+                closeQuietly(channel);
+            }
+        });
+        return LocalFastDownloadServer.Result.SUCCESS;
+    }
+
+    /**
+     * @return the port the server listens on, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        try {
+            return serverChannel == null ? -1 : ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException ioException) {
+            return -1;
+        }
+    }
+
+    private void startSending(AsynchronousSocketChannel socketChannel) {
+        try {
+            System.out.println("Just connected to CLIENT " + socketChannel.getRemoteAddress());
+            AsynchronousFileChannel fileChannel = AsynchronousFileChannel.open(Path.of(mFilePath),
+                    Set.of(StandardOpenOption.READ), AsyncFileSender.fileExecutor());
+            long fileLength = fileChannel.size();
+            if (mProgress != null) {
+                mProgress.begin(fileLength);
+            }
+            sender = new AsyncFileSender(mFilePath, fileChannel, socketChannel, 0, fileLength, mProgress,
+                    this::finishProgress);
+            sender.setWriteTimeout(mWriteTimeout);
+            if (isAborted) {
+                sender.abort();
+            }
+            sender.start();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            closeQuietly(socketChannel);
+            finishProgress(TransferProgress.State.FAILED);
+        }
+    }
+
+    /**
+     * This method is used to abort the file data sending process that is in progress, or the wait for the client.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        AsyncFileSender currentSender = sender;
+        if (currentSender != null && !currentSender.isFinished()) {
+            isAborted = true;
+            currentSender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+        if (currentSender == null && serverChannel != null && serverChannel.isOpen()) {
+            isAborted = true;
+            releaseServer();
+            System.out.println("Aborting ...");
+            return true;
+        }
+        if (currentSender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+        return false;
+    }
+
+    private void finishProgress(TransferProgress.State state) {
+        if (mProgress != null) {
+            mProgress.finish(state);
+        }
+    }
+
+    /**
+     * This method is used to close the server channel once the client is connected or will not come.
+     */
+    private void releaseServer() {
+        closeQuietly(serverChannel);
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+}
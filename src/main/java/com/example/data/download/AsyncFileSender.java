@@ -0,0 +1,320 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Sends a region of a file to a socket with completion handlers only, so no thread waits for the transfer.
+ * <p>
+ * Up to DEFAULT_READ_AHEAD positional reads of the file are in flight ahead of the socket, each into its own buffer.
+ * Reads may complete in any order, but the buffers are written to the socket strictly in file order, one write
+ * at a time. Every completed write frees its buffer for the next read.
+ * <p>
+ * A write that does not complete within the write timeout, because the peer stopped reading, fails the
+ * transfer. Aborting closes the socket, so a write stuck on such a peer fails right away as ABORTED.
+ */
+class AsyncFileSender {
+
+    /** Default size in bytes of each buffer */
+    static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    /** Default number of reads in flight ahead of the socket */
+    static final int DEFAULT_READ_AHEAD = 4;
+    /** Default maximum time in milliseconds a socket write may take */
+    static final long DEFAULT_WRITE_TIMEOUT = 90_000;
+
+    /** The path of the file to send, for the recorded events */
+    private final String mFilePath;
+    /** The file to send */
+    private final AsynchronousFileChannel mFileChannel;
+    /** The socket the file is sent to */
+    private final AsynchronousSocketChannel mSocketChannel;
+    /** File offset of the first byte to send */
+    private final long mStartOffset;
+    /** File offset after the last byte to send */
+    private final long mEndOffset;
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private final TransferProgress mProgress;
+    /** Called once with the final state, after both channels are closed */
+    private final Consumer<TransferProgress.State> mOnFinished;
+    /** The maximum time in milliseconds a socket write may take */
+    private long mWriteTimeout = DEFAULT_WRITE_TIMEOUT;
+
+    /** The buffers, chunk n of the region goes into buffer n % length */
+    private final ByteBuffer[] mBuffers;
+    /** Whether the read of the chunk held by each buffer completed */
+    private final boolean[] mReady;
+    /** Index of the next chunk to read */
+    private long mNextRead;
+    /** Index of the next chunk to write */
+    private long mNextWrite;
+    /** Set while a socket write is in flight */
+    private boolean isWriting;
+    /** Set once the final state is reported */
+    private boolean isFinished;
+
+    /** This flag is used to abort sending data */
+    private volatile boolean isAborted;
+
+    /**
+     * @param filePath      the path of the file to send.
+     * @param fileChannel   the file to send, closed when the sending finishes.
+     * @param socketChannel the connected socket, closed when the sending finishes.
+     * @param startOffset   the file offset of the first byte to send.
+     * @param endOffset     the file offset after the last byte to send.
+     * @param progress      receives the progress of the sending process, or null.
+     * @param onFinished    called once with COMPLETED, ABORTED or FAILED.
+     */
+    AsyncFileSender(String filePath, AsynchronousFileChannel fileChannel, AsynchronousSocketChannel socketChannel,
+            long startOffset, long endOffset, TransferProgress progress, Consumer<TransferProgress.State> onFinished) {
+        mFilePath = filePath;
+        mFileChannel = fileChannel;
+        mSocketChannel = socketChannel;
+        mStartOffset = startOffset;
+        mEndOffset = endOffset;
+        mProgress = progress;
+        mOnFinished = onFinished;
+        mBuffers = new ByteBuffer[DEFAULT_READ_AHEAD];
+        mReady = new boolean[DEFAULT_READ_AHEAD];
+        for (int index = 0; index < mBuffers.length; index++) {
+            mBuffers[index] = ByteBuffer.allocateDirect(DEFAULT_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Sets the maximum time a socket write may take before the transfer fails. Must be called before start().
+     *
+     * @param writeTimeout the time in milliseconds.
+     */
+    void setWriteTimeout(long writeTimeout) {
+        mWriteTimeout = writeTimeout;
+    }
+
+    /**
+     * Issues the first reads and returns immediately.
+     */
+    synchronized void start() {
+        if (mStartOffset >= mEndOffset) {
+            finish(TransferProgress.State.COMPLETED);
+            return;
+        }
+        issueReads();
+    }
+
+    /**
+     * Stops the sending. A write in flight fails once the socket is closed, the reads in flight complete.
+     */
+    void abort() {
+        isAborted = true;
+        try {
+            mSocketChannel.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    private long chunkOffset(long chunk) {
+        return mStartOffset + chunk * DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Fills every free buffer with a read. Must be called with the lock held.
+     */
+    private void issueReads() {
+        while (!isFinished && mNextRead < mNextWrite + mBuffers.length && chunkOffset(mNextRead) < mEndOffset) {
+            long chunk = mNextRead++;
+            ByteBuffer buffer = mBuffers[(int) (chunk % mBuffers.length)];
+            buffer.clear();
+            buffer.limit((int) Math.min(DEFAULT_CHUNK_SIZE, mEndOffset - chunkOffset(chunk)));
+            read(chunk, buffer);
+        }
+    }
+
+    private void read(long chunk, ByteBuffer buffer) {
+        long position = chunkOffset(chunk) + buffer.position();
+        mFileChannel.read(buffer, position, chunk, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer bytes, Long readChunk) {
+                synchronized (AsyncFileSender.this) {
+                    if (isFinished) {
+                        return;
+                    }
+                    if (bytes < 0) {
+                        fail(new IOException("File truncated while sending"));
+                        return;
+                    }
+                    if (buffer.hasRemaining()) {
+                        // Short read, the rest of the chunk is read into the same buffer
+                        read(readChunk, buffer);
+                        return;
+                    }
+                    mReady[(int) (readChunk % mBuffers.length)] = true;
+                    writeNext();
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable, Long readChunk) {
+                synchronized (AsyncFileSender.this) {
+                    fail(throwable);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the next chunk in file order if its read completed and no write is in flight.
+     * Must be called with the lock held.
+     */
+    private void writeNext() {
+        if (isFinished || isWriting) {
+            return;
+        }
+        if (isAborted) {
+            finish(TransferProgress.State.ABORTED);
+            return;
+        }
+        int index = (int) (mNextWrite % mBuffers.length);
+        if (!mReady[index]) {
+            return;
+        }
+        isWriting = true;
+        ByteBuffer buffer = mBuffers[index];
+        buffer.flip();
+        write(buffer, ChunkWriteEvent.sample(mNextWrite));
+    }
+
+    private void write(ByteBuffer buffer, ChunkWriteEvent chunkEvent) {
+        mSocketChannel.write(buffer, mWriteTimeout, TimeUnit.MILLISECONDS, null,
+                new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer bytes, Void attachment) {
+                        synchronized (AsyncFileSender.this) {
+                            if (isFinished) {
+                                return;
+                            }
+                            // Checked before any accounting: the chunk may be written only in part
+                            if (isAborted) {
+                                finish(TransferProgress.State.ABORTED);
+                                return;
+                            }
+                            if (buffer.hasRemaining()) {
+                                write(buffer, chunkEvent);
+                                return;
+                            }
+                            if (chunkEvent != null) {
+                                chunkEvent.end(mFilePath, getPeer(), chunkOffset(mNextWrite), buffer.limit());
+                            }
+                            mReady[(int) (mNextWrite % mBuffers.length)] = false;
+                            mNextWrite++;
+                            isWriting = false;
+                            long position = Math.min(chunkOffset(mNextWrite), mEndOffset);
+                            if (mProgress != null) {
+                                mProgress.set(position);
+                            }
+                            if (position >= mEndOffset) {
+                                finish(TransferProgress.State.COMPLETED);
+                                return;
+                            }
+                            issueReads();
+                            writeNext();
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable, Void attachment) {
+                        synchronized (AsyncFileSender.this) {
+                            fail(throwable);
+                        }
+                    }
+                });
+    }
+
+    private Object getPeer() {
+        try {
+            return mSocketChannel.getRemoteAddress();
+        } catch (IOException ioException) {
+            return null;
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        if (!isFinished) {
+            if (throwable instanceof InterruptedByTimeoutException) {
+                System.err.println("Timeout writing to the peer");
+            } else if (!isAborted) {
+                throwable.printStackTrace();
+            }
+            finish(isAborted ? TransferProgress.State.ABORTED : TransferProgress.State.FAILED);
+        }
+    }
+
+    private void finish(TransferProgress.State state) {
+        isFinished = true;
+        try {
+            mFileChannel.close();
+            mSocketChannel.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        System.out.println(state == TransferProgress.State.COMPLETED ? "Sending Completed" : "Sending " + state);
+        mOnFinished.accept(state);
+    }
+
+    /**
+     * @return the channel group shared by the sockets of every asynchronous transfer.
+     */
+    static AsynchronousChannelGroup channelGroup() {
+        return Engine.GROUP;
+    }
+
+    /**
+     * @return the executor running the file reads of every asynchronous transfer.
+     */
+    static ExecutorService fileExecutor() {
+        return Engine.FILE_EXECUTOR;
+    }
+
+    /**
+     * Holds the threads shared by all asynchronous transfers, created on first use.
+     */
+    private static class Engine {
+        private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private static final AsynchronousChannelGroup GROUP;
+        private static final ExecutorService FILE_EXECUTOR = Executors.newFixedThreadPool(THREADS,
+                daemonThreads("async-file-"));
+
+        static {
+            try {
+                GROUP = AsynchronousChannelGroup.withFixedThreadPool(THREADS, daemonThreads("async-socket-"));
+            } catch (IOException ioException) {
+                throw new ExceptionInInitializerError(ioException);
+            }
+        }
+
+        private static ThreadFactory daemonThreads(String prefix) {
+            AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Reads a file once, front to back, into a fixed-size ring buffer consumed by several socket writers.
+ * <p>
+ * The reader only overwrites a region once every attached consumer has written it, so it goes at the pace
+ * of the slowest consumer. When that pace holds back a consumer that already caught up with the reader for
+ * longer than the detach grace, the consumers blocking the reader are detached: they continue with direct
+ * reads of the file, and the others keep sharing a single read of the data. A detached consumer leaves the
+ * ring once it has written its current slot, so the data it is writing is never overwritten.
+ * <p>
+ * A consumer can only read from the ring at a position still held by it. A late consumer attaches behind the
+ * ring: it reads the beginning of the file directly while the reader waits for it like for any slow consumer,
+ * and reads from the ring once it reaches the data still held. Without holding the reader back, a late consumer
+ * going at the same pace as the others would never catch up.
+ */
+class BroadcastRing {
+
+    /** How long the reader waits before checking again whether it should detach consumers, in milliseconds */
+    private static final long READER_POLL_MILLIS = 20;
+
+    /** The file to read */
+    private final FileChannel mFileChannel;
+    /** Number of bytes of the file, read when the ring is created */
+    private final long mFileLength;
+    /** Holds the ring data, off-heap so socket channels can write from it without a copy */
+    private final ByteBuffer mBuffer;
+    /** Number of bytes read from the file at once */
+    private final int mSlotSize;
+    /** The time in milliseconds a caught-up consumer waits on slower ones before they are detached */
+    private final long mDetachGraceMillis;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    /** Signalled when data is published, a consumer advances or detaches, or the ring closes */
+    private final Condition mChanged = mLock.newCondition();
+
+    /** The attached consumers */
+    private final List<Cursor> mCursors = new ArrayList<>();
+    /** File offset up to which the data is in the ring */
+    private long mWritePosition;
+    /** Lowest file offset still in the ring, a consumer cannot attach before it */
+    private long mTailPosition;
+    /** Number of attached consumers waiting for data that is not read yet */
+    private int mWaitingConsumers;
+    /** Set once the reader stopped, because the whole file was read, nobody is attached anymore, or an error */
+    private boolean isClosed;
+    /** Set if the reader stopped on an error */
+    private boolean isFailed;
+
+    /** Counts the bytes read from the file, shared with the owner of the ring */
+    private final AtomicLong mBytesRead;
+
+    /**
+     * Creates a ring over an open file. The reader only starts with start().
+     *
+     * @param fileChannel       the file to read, not closed by the ring.
+     * @param slotSize          the number of bytes read from the file at once.
+     * @param slotCount         the number of slots of the ring.
+     * @param detachGraceMillis the time a caught-up consumer waits on slower ones before they are detached.
+     * @param bytesRead         counts the bytes read from the file.
+     * @throws IOException if the file size cannot be read.
+     */
+    BroadcastRing(FileChannel fileChannel, int slotSize, int slotCount, long detachGraceMillis, AtomicLong bytesRead)
+            throws IOException {
+        mFileChannel = fileChannel;
+        mFileLength = fileChannel.size();
+        mSlotSize = slotSize;
+        mBuffer = ByteBuffer.allocateDirect(slotSize * slotCount);
+        mDetachGraceMillis = detachGraceMillis;
+        mBytesRead = bytesRead;
+    }
+
+    /**
+     * Starts reading the file in a separate thread.
+     */
+    void start() {
+        Thread reader = new Thread(this::readFile, "broadcast-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Attaches a consumer at the given file offset.
+     *
+     * @return the consumer cursor, or null if the data at that offset is no longer in the ring, or the ring is closed.
+     */
+    Cursor attach(long position) {
+        mLock.lock();
+        try {
+            if (isClosed && position < mFileLength || position < mTailPosition || position > mWritePosition) {
+                return null;
+            }
+            Cursor cursor = new Cursor(position);
+            mCursors.add(cursor);
+            return cursor;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Attaches a consumer behind the ring, at a file offset whose data already left it. The consumer writes the
+     * data up to getTailPosition() from direct reads, reporting them with advance(), and only calls next() from
+     * there. Meanwhile the reader waits for it, within the detach grace like for any slow consumer.
+     *
+     * @return the consumer cursor, or null if the ring is closed.
+     */
+    Cursor attachBehind(long position) {
+        mLock.lock();
+        try {
+            if (isClosed || position > mWritePosition) {
+                return null;
+            }
+            Cursor cursor = new Cursor(position);
+            mCursors.add(cursor);
+            return cursor;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the lowest file offset still in the ring.
+     */
+    long getTailPosition() {
+        mLock.lock();
+        try {
+            return mTailPosition;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return whether the reader stopped.
+     */
+    boolean isClosed() {
+        mLock.lock();
+        try {
+            return isClosed;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the data at the cursor position and returns a view of it, from the position to the end of
+     * the published data or of its slot, whichever comes first. The view stays valid until advance() is called.
+     *
+     * @return the view, empty at the end of the file, or null if the cursor has been detached or the ring failed.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    ByteBuffer next(Cursor cursor) throws InterruptedException {
+        mLock.lock();
+        try {
+            while (cursor.isAttached && cursor.mPosition >= mWritePosition && !isClosed) {
+                mWaitingConsumers++;
+                try {
+                    mChanged.await();
+                } finally {
+                    mWaitingConsumers--;
+                }
+            }
+            if (!cursor.isAttached || cursor.isLagging || isFailed || cursor.mPosition > mWritePosition
+                    || cursor.mPosition == mWritePosition && mWritePosition < mFileLength) {
+                detach(cursor);
+                return null;
+            }
+            int index = (int) (cursor.mPosition % mBuffer.capacity());
+            int length = (int) Math.min(mWritePosition - cursor.mPosition, mSlotSize - index % mSlotSize);
+            return mBuffer.duplicate().position(index).limit(index + length).slice();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the cursor forward once the data returned by next() has been written.
+     */
+    void advance(Cursor cursor, long bytes) {
+        mLock.lock();
+        try {
+            cursor.mPosition += bytes;
+            if (cursor.isLagging) {
+                // Its slot is written, the reader no longer has to wait for it
+                mCursors.remove(cursor);
+                cursor.isAttached = false;
+            }
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Releases a cursor, so the reader no longer waits for it. Called when the consumer finished or stopped.
+     */
+    void detach(Cursor cursor) {
+        mLock.lock();
+        try {
+            if (mCursors.remove(cursor)) {
+                cursor.isAttached = false;
+                mChanged.signalAll();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the reader and detaches every consumer.
+     */
+    void close() {
+        mLock.lock();
+        try {
+            isClosed = true;
+            for (Cursor cursor : mCursors) {
+                cursor.isAttached = false;
+            }
+            mCursors.clear();
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void readFile() {
+        try {
+            while (true) {
+                long slotStart;
+                int slotLength;
+                mLock.lock();
+                try {
+                    if (!awaitFreeSlot()) {
+                        return;
+                    }
+                    slotStart = mWritePosition;
+                    slotLength = (int) Math.min(mSlotSize - slotStart % mSlotSize, mFileLength - slotStart);
+                    // The region about to be overwritten leaves the ring before it is read into
+                    mTailPosition = Math.max(mTailPosition, slotStart + slotLength - mBuffer.capacity());
+                } finally {
+                    mLock.unlock();
+                }
+
+                int index = (int) (slotStart % mBuffer.capacity());
+                ByteBuffer slot = mBuffer.duplicate().position(index).limit(index + slotLength).slice();
+                while (slot.hasRemaining()) {
+                    if (mFileChannel.read(slot, slotStart + slot.position()) < 0) {
+                        throw new IOException("File truncated while broadcasting");
+                    }
+                }
+                mBytesRead.addAndGet(slotLength);
+
+                mLock.lock();
+                try {
+                    mWritePosition = slotStart + slotLength;
+                    mChanged.signalAll();
+                } finally {
+                    mLock.unlock();
+                }
+            }
+        } catch (IOException | InterruptedException exception) {
+            exception.printStackTrace();
+            mLock.lock();
+            try {
+                isFailed = true;
+            } finally {
+                mLock.unlock();
+            }
+            close();
+        }
+    }
+
+    /**
+     * Waits until the next slot can be overwritten. Must be called with the lock held.
+     *
+     * @return false if the reader should stop.
+     */
+    private boolean awaitFreeSlot() throws InterruptedException {
+        long blockedSince = 0;
+        while (true) {
+            if (isClosed) {
+                return false;
+            }
+            if (mWritePosition >= mFileLength || mCursors.isEmpty()) {
+                // Done, or nobody left to read for: later consumers start a new ring
+                isClosed = true;
+                mChanged.signalAll();
+                return false;
+            }
+            long reusedEnd = mWritePosition + mSlotSize - mBuffer.capacity();
+            Cursor slowest = null;
+            for (Cursor cursor : mCursors) {
+                if (slowest == null || cursor.mPosition < slowest.mPosition) {
+                    slowest = cursor;
+                }
+            }
+            if (slowest.mPosition >= reusedEnd) {
+                return true;
+            }
+            if (mWaitingConsumers == 0) {
+                // Everybody is slow, the reader simply follows
+                blockedSince = 0;
+            } else if (blockedSince == 0) {
+                blockedSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - blockedSince >= mDetachGraceMillis) {
+                detachLaggards(reusedEnd);
+                blockedSince = 0;
+                continue;
+            }
+            mChanged.await(READER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flags the consumers blocking the reader. They leave the ring in advance(), once their current slot is written.
+     */
+    private void detachLaggards(long reusedEnd) {
+        for (Cursor cursor : mCursors) {
+            if (cursor.mPosition < reusedEnd) {
+                cursor.isLagging = true;
+            }
+        }
+        mChanged.signalAll();
+    }
+
+    /**
+     * The position of one consumer in the file.
+     */
+    static class Cursor {
+        /** The file offset of the next byte the consumer writes */
+        private long mPosition;
+        /** Cleared once the consumer no longer reads from the ring */
+        private boolean isAttached = true;
+        /** Set if the consumer was detached for holding back the others */
+        private boolean isLagging;
+
+        Cursor(long position) {
+            mPosition = position;
+        }
+
+        /**
+         * @return whether the consumer was detached for holding back the others, rather than by itself.
+         */
+        boolean isLagging() {
+            return isLagging;
+        }
+    }
+}
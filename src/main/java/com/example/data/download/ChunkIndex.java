@@ -0,0 +1,143 @@
+package com.example.data.download;
+
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Open-addressing hash table from a chunk hash to the location of the chunk, stored off-heap.
+ * <p>
+ * Every entry is a fixed-size slot of one direct buffer: the 32 bytes of the hash, the offset and the length
+ * of the chunk. An entry costs 48 bytes of native memory and no Java object at all, where a HashMap would
+ * hold several objects per entry for the collector to trace. Keys are SHA-256 hashes, so their first
+ * bytes are already uniformly distributed and serve as the slot number. Collisions are resolved by linear
+ * probing, and the table doubles once it is 70% full.
+ * <p>
+ * Entries cannot be removed. Not thread safe.
+ */
+class ChunkIndex {
+
+    /** Size in bytes of a slot: hash, offset, length, padding */
+    private static final int SLOT_SIZE = 48;
+    private static final int OFFSET_FIELD = TreeHash.HASH_SIZE;
+    private static final int LENGTH_FIELD = OFFSET_FIELD + Long.BYTES;
+    /** Largest number of slots, so the table fits in one direct buffer */
+    private static final int MAX_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+    private static final float MAX_LOAD = 0.7f;
+
+    /** The slots, a slot whose offset is 0 is free */
+    private ByteBuffer mSlots;
+    /** Number of slots, a power of two */
+    private int mCapacity;
+    /** Number of entries */
+    private int mSize;
+
+    /**
+     * @param expectedEntries the number of entries the table holds without growing.
+     */
+    ChunkIndex(int expectedEntries) {
+        int capacity = 16;
+        while (capacity < expectedEntries / MAX_LOAD && capacity < MAX_SLOTS) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mCapacity = capacity;
+        mSlots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        mSize = 0;
+    }
+
+    /**
+     * Adds an entry, or replaces the location of an existing hash.
+     *
+     * @param hash   the chunk hash.
+     * @param offset the location of the chunk, greater than 0.
+     * @param length the length of the chunk.
+     * @throws IllegalStateException if the table is full and cannot grow anymore.
+     */
+    void put(byte[] hash, long offset, int length) {
+        if (offset <= 0) {
+            throw new IllegalArgumentException("Offset must be positive: " + offset);
+        }
+        if (mSize + 1 > mCapacity * MAX_LOAD) {
+            grow();
+        }
+        int slot = find(hash);
+        int base = slot * SLOT_SIZE;
+        if (mSlots.getLong(base + OFFSET_FIELD) == 0) {
+            mSlots.put(base, hash, 0, TreeHash.HASH_SIZE);
+            mSize++;
+        }
+        mSlots.putLong(base + OFFSET_FIELD, offset);
+        mSlots.putInt(base + LENGTH_FIELD, length);
+    }
+
+    /**
+     * @return the offset of the chunk, or -1 if the hash is not in the table.
+     */
+    long getOffset(byte[] hash) {
+        long offset = mSlots.getLong(find(hash) * SLOT_SIZE + OFFSET_FIELD);
+        return offset == 0 ? -1 : offset;
+    }
+
+    /**
+     * @return the length of the chunk, or -1 if the hash is not in the table.
+     */
+    int getLength(byte[] hash) {
+        int base = find(hash) * SLOT_SIZE;
+        return mSlots.getLong(base + OFFSET_FIELD) == 0 ? -1 : mSlots.getInt(base + LENGTH_FIELD);
+    }
+
+    boolean contains(byte[] hash) {
+        return getOffset(hash) != -1;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the slot holding the hash, or the free slot where it would go.
+     */
+    private int find(byte[] hash) {
+        ByteBuffer key = ByteBuffer.wrap(hash);
+        int mask = mCapacity - 1;
+        int slot = (int) (key.getLong(0) & mask);
+        while (true) {
+            int base = slot * SLOT_SIZE;
+            if (mSlots.getLong(base + OFFSET_FIELD) == 0 || matches(base, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int base, ByteBuffer key) {
+        for (int index = 0; index < TreeHash.HASH_SIZE; index += Long.BYTES) {
+            if (mSlots.getLong(base + index) != key.getLong(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        if (mCapacity >= MAX_SLOTS) {
+            throw new IllegalStateException("Chunk index full with " + mSize + " entries");
+        }
+        ByteBuffer oldSlots = mSlots;
+        int oldCapacity = mCapacity;
+        allocate(oldCapacity * 2);
+        byte[] hash = new byte[TreeHash.HASH_SIZE];
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int base = slot * SLOT_SIZE;
+            long offset = oldSlots.getLong(base + OFFSET_FIELD);
+            if (offset != 0) {
+                oldSlots.get(base, hash);
+                put(hash, offset, oldSlots.getInt(base + LENGTH_FIELD));
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+
+/**
+ * Content-addressed store of file chunks on the receiving side, so content repeated across files is kept once.
+ * <p>
+ * Chunks are appended to a single pack file as {@code hash, length, data} records, and located through a
+ * {@link ChunkIndex} kept off-heap. The index is not persisted: opening the store rebuilds it from the record
+ * headers. Appends are not forced one by one, so after a crash a record may be cut short, or hold zeros or stale
+ * bytes behind a valid header. {@link #force()} makes the chunks added so far durable, then records the length
+ * of the pack it forced in a small watermark file. On open the records below the watermark are trusted and only
+ * their headers are read; the data of the records past it is checked against their hash, the pack is cut at the
+ * first record that does not check, and the chunks from there on are requested again by later transfers.
+ * <p>
+ * Chunks are identified by their SHA-256 hash. Thread safe.
+ */
+public class ChunkStore implements AutoCloseable {
+
+    /** Name of the pack file in the store directory */
+    static final String PACK_FILE = "chunks.pack";
+    /** Name of the file holding the length of the pack known to be on the disk */
+    static final String WATERMARK_FILE = "chunks.verified";
+    /** Identifies a watermark file */
+    private static final int WATERMARK_MAGIC = 0x43484B56;
+    /** Size in bytes of the watermark file: magic, length and the CRC32 of both */
+    private static final int WATERMARK_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    /** Size in bytes of a record header: hash and length */
+    private static final int RECORD_HEADER_SIZE = TreeHash.HASH_SIZE + Integer.BYTES;
+    /** Largest chunk the store accepts, bounds the buffers of the readers */
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    /** Number of chunks the index holds before growing the first time */
+    private static final int INITIAL_INDEX_ENTRIES = 64 * 1024;
+
+    /** The pack file */
+    private final FileChannel mPack;
+    /** The watermark file */
+    private final FileChannel mWatermark;
+    /** The pack length last written to the watermark file */
+    private long mWatermarkOffset;
+    /** Locates the data of every chunk in the pack */
+    private final ChunkIndex mIndex;
+    /** The pack file offset where the next record goes */
+    private long mEndOffset;
+    /** Number of data bytes in the pack */
+    private long mStoredBytes;
+
+    /**
+     * Opens the store in a directory, creating it if needed, and rebuilds its index.
+     *
+     * @param directory the store directory.
+     * @throws IOException if the pack file cannot be opened or read.
+     */
+    public ChunkStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        mPack = FileChannel.open(directory.resolve(PACK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        mIndex = new ChunkIndex(INITIAL_INDEX_ENTRIES);
+        try {
+            mWatermark = FileChannel.open(directory.resolve(WATERMARK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException ioException) {
+            mPack.close();
+            throw ioException;
+        }
+        try {
+            rebuildIndex();
+        } catch (IOException ioException) {
+            mPack.close();
+            mWatermark.close();
+            throw ioException;
+        }
+    }
+
+    /**
+     * Indexes the records of the pack: the ones below the watermark from their header alone, the ones past it if
+     * their data matches their hash, up to the first that does not.
+     */
+    private void rebuildIndex() throws IOException {
+        long packLength = mPack.size();
+        long verifiedLength = readWatermark();
+        if (verifiedLength > packLength) {
+            // The pack was cut behind the store's back, nothing in it can be trusted
+            verifiedLength = 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] hash = new byte[TreeHash.HASH_SIZE];
+        byte[] data = new byte[0];
+        long offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= verifiedLength) {
+            header.clear();
+            readFully(header, offset);
+            header.flip();
+            header.get(hash);
+            int length = header.getInt();
+            long dataOffset = offset + RECORD_HEADER_SIZE;
+            if (length < 0 || length > MAX_CHUNK_SIZE || dataOffset + length > verifiedLength) {
+                // The watermark does not fall on a record boundary, check the data from this record on
+                break;
+            }
+            mIndex.put(hash, dataOffset, length);
+            mStoredBytes += length;
+            offset = dataOffset + length;
+        }
+        while (offset + RECORD_HEADER_SIZE <= packLength) {
+            header.clear();
+            readFully(header, offset);
+            header.flip();
+            header.get(hash);
+            int length = header.getInt();
+            long dataOffset = offset + RECORD_HEADER_SIZE;
+            if (length < 0 || length > MAX_CHUNK_SIZE || dataOffset + length > packLength) {
+                break;
+            }
+            if (data.length < length) {
+                data = new byte[Math.max(length, Math.min(2 * data.length, MAX_CHUNK_SIZE))];
+            }
+            readFully(ByteBuffer.wrap(data, 0, length), dataOffset);
+            if (!MessageDigest.isEqual(hash, hash(data, 0, length))) {
+                break;
+            }
+            mIndex.put(hash, dataOffset, length);
+            mStoredBytes += length;
+            offset = dataOffset + length;
+        }
+        if (offset < packLength) {
+            System.err.println("Dropping " + (packLength - offset) + " bytes from a chunk record that does not check");
+            mPack.truncate(offset);
+            mPack.force(true);
+        }
+        mEndOffset = offset;
+        if (mEndOffset != verifiedLength) {
+            // The records just checked may still be only in the page cache
+            mPack.force(false);
+            writeWatermark(mEndOffset);
+        } else {
+            mWatermarkOffset = verifiedLength;
+        }
+    }
+
+    /**
+     * @return the pack length recorded in the watermark file, or 0 if the file is missing or damaged.
+     */
+    private long readWatermark() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WATERMARK_SIZE);
+        while (buffer.hasRemaining()) {
+            if (mWatermark.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        buffer.flip();
+        int magic = buffer.getInt();
+        long length = buffer.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, Integer.BYTES + Long.BYTES);
+        if (magic != WATERMARK_MAGIC || length < 0 || buffer.getInt() != (int) crc.getValue()) {
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * Records that the pack is on the disk up to a length. The pack must have been forced up to there.
+     */
+    private void writeWatermark(long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WATERMARK_SIZE);
+        buffer.putInt(WATERMARK_MAGIC).putLong(length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, Integer.BYTES + Long.BYTES);
+        buffer.putInt((int) crc.getValue()).flip();
+        while (buffer.hasRemaining()) {
+            mWatermark.write(buffer, buffer.position());
+        }
+        mWatermark.force(false);
+        mWatermarkOffset = length;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        long start = offset - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (mPack.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Chunk pack truncated");
+            }
+        }
+    }
+
+    /**
+     * Computes the hash identifying a chunk.
+     */
+    public static byte[] hash(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
+    /**
+     * @return whether the store holds the chunk.
+     */
+    public synchronized boolean contains(byte[] hash) {
+        return mIndex.contains(hash);
+    }
+
+    /**
+     * Adds a chunk, unless the store already holds it. The caller is trusted to pass the hash of the data. The
+     * chunk is only durable once {@link #force()} returned.
+     *
+     * @return true if the chunk was added, false if it was already stored.
+     * @throws IOException if an I/O error occurs, or the chunk is larger than MAX_CHUNK_SIZE.
+     */
+    public synchronized boolean put(byte[] hash, byte[] data, int offset, int length) throws IOException {
+        if (length > MAX_CHUNK_SIZE) {
+            throw new IOException("Chunk of " + length + " bytes is too large for the store");
+        }
+        if (mIndex.contains(hash)) {
+            return false;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.put(hash).putInt(length).put(data, offset, length).flip();
+        long position = mEndOffset;
+        while (record.hasRemaining()) {
+            position += mPack.write(record, position);
+        }
+        mIndex.put(hash, mEndOffset + RECORD_HEADER_SIZE, length);
+        mEndOffset = position;
+        mStoredBytes += length;
+        return true;
+    }
+
+    /**
+     * Reads a chunk.
+     *
+     * @param hash   the chunk hash.
+     * @param buffer receives the chunk data from its start, must be large enough.
+     * @return the length of the chunk, or -1 if the store does not hold it.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int read(byte[] hash, byte[] buffer) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            offset = mIndex.getOffset(hash);
+            length = mIndex.getLength(hash);
+        }
+        if (offset < 0) {
+            return -1;
+        }
+        // Records are never moved nor overwritten, so they are read outside the lock
+        readFully(ByteBuffer.wrap(buffer, 0, length), offset);
+        return length;
+    }
+
+    /**
+     * Forces the chunks added so far to the disk, and moves the watermark past them so the next open does not
+     * check them again.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void force() throws IOException {
+        mPack.force(false);
+        if (mEndOffset != mWatermarkOffset) {
+            writeWatermark(mEndOffset);
+        }
+    }
+
+    /**
+     * @return the number of chunks stored.
+     */
+    public synchronized int getChunkCount() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return the number of data bytes stored, without the record headers.
+     */
+    public synchronized long getStoredBytes() {
+        return mStoredBytes;
+    }
+
+    /**
+     * Forces the stored chunks to the disk and closes the pack and watermark files.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            force();
+        } finally {
+            mPack.close();
+            mWatermark.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.data.download;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight Recorder event timing a write of file data to the socket, for one write out of SAMPLE_INTERVAL.
+ * <p>
+ * Unsampled writes only cost a modulo, and sampled ones an allocation while no recording is running.
+ */
+@Name("com.example.data.download.ChunkWrite")
+@Label("Transfer Chunk Write")
+@Category({"Data", "Transfer"})
+@Description("A sampled write of file data to the socket of a transfer")
+@StackTrace(false)
+class ChunkWriteEvent extends Event {
+
+    /** One write out of this many is timed */
+    static final int SAMPLE_INTERVAL = 64;
+
+    @Label("File")
+    String file;
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Offset")
+    long offset;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Starts timing a write if it is sampled.
+     *
+     * @param writeIndex the number of writes of the transfer before this one.
+     * @return the started event, or null if the write is not sampled or not recorded.
+     */
+    static ChunkWriteEvent sample(long writeIndex) {
+        if (writeIndex % SAMPLE_INTERVAL != 0) {
+            return null;
+        }
+        ChunkWriteEvent event = new ChunkWriteEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the write and records it if a recording wants it.
+     */
+    void end(String file, Object peer, long offset, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.file = file;
+            this.peer = peer == null ? null : peer.toString();
+            this.offset = offset;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
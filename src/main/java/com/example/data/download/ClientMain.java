@@ -1,17 +1,105 @@
 package com.example.data.download;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
 public class ClientMain {
+
+	    /** The wire format used to send the file, RAW by default */
+	    private TransferMode mTransferMode = TransferMode.RAW;
+
+	    /** The engine moving the file data to the socket, BLOCKING by default */
+	    private TransferEngine mEngine = TransferEngine.BLOCKING;
+
+	    /** The addresses the paths of the STRIPED engine are bound to, empty to let the system choose */
+	    private List<String> mLocalAddresses = new ArrayList<>();
+
+	    /** The addresses of the server the paths of the STRIPED engine connect to, empty for the server address only */
+	    private List<String> mRemoteAddresses = new ArrayList<>();
+
+	    /**
+	     * Sets the wire format used to send the file.
+	     */
+	    public void setTransferMode(TransferMode transferMode) {
+	        mTransferMode = transferMode;
+	    }
+
+	    /**
+	     * Sets the engine moving the file data to the socket. ASYNC only applies to the RAW wire format, UDP and
+	     * STRIPED always send the whole file in the RAW wire format.
+	     */
+	    public void setEngine(TransferEngine engine) {
+	        mEngine = engine;
+	    }
+
+	    /**
+	     * Sets the addresses the paths of the STRIPED engine are bound to, one per network interface.
+	     */
+	    public void setLocalAddresses(List<String> localAddresses) {
+	        mLocalAddresses = new ArrayList<>(localAddresses);
+	    }
+
+	    /**
+	     * Sets the addresses of the server the paths of the STRIPED engine connect to, as 'host' or 'host:port'.
+	     */
+	    public void setRemoteAddresses(List<String> remoteAddresses) {
+	        mRemoteAddresses = new ArrayList<>(remoteAddresses);
+	    }
+
 	 public  void start(String serverIpAddress,int serverPort, String filepath ) throws InterruptedException {
+	        start(serverIpAddress, serverPort, filepath, null);
+	    }
+
+	    /**
+	     * Starts the client and reports the hash and the sending progress to the given progress object.
+	     */
+	    public  void start(String serverIpAddress,int serverPort, String filepath, TransferProgress progress ) throws InterruptedException {
 	     
 
-	        // create hash value for demo app
-	        String hash = FileUtils.createHash(filepath);
+	        // create hash value for demo app, the tree root for the TREE wire format
+	        TransferPhaseEvent hashEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.HASH, filepath);
+	        TreeHash treeHash = mTransferMode == TransferMode.TREE ? FileUtils.createTreeHash(filepath) : null;
+	        String hash = treeHash != null ? treeHash.getRootHex() : FileUtils.createHash(filepath);
+	        hashEvent.end(null, hashEvent.isEnabled() ? new File(filepath).length() : 0);
 	        System.out.println("Hash: " + hash);
 
 	        int timeout = 2_000;
-	        LocalFastDownloadClient client = new LocalFastDownloadClient(serverIpAddress, serverPort, timeout, filepath);
-	        LocalFastDownloadClient.Result result = client.start();
+	        if (progress != null) {
+	            progress.setHash(hash);
+	        }
+	        LocalFastDownloadClient.Result result;
+	        BooleanSupplier abortAction;
+	        if (mEngine == TransferEngine.UDP) {
+	            UdpDownloadClient client = new UdpDownloadClient(serverIpAddress, serverPort, timeout, filepath);
+	            client.setProgress(progress);
+	            result = client.start();
+	            abortAction = client::abort;
+	        } else if (mEngine == TransferEngine.STRIPED) {
+	            StripedDownloadClient client = new StripedDownloadClient(serverIpAddress, serverPort, timeout, filepath);
+	            client.setLocalAddresses(mLocalAddresses);
+	            client.setRemoteAddresses(mRemoteAddresses);
+	            client.setProgress(progress);
+	            result = client.start();
+	            abortAction = client::abort;
+	        } else if (mEngine == TransferEngine.ASYNC && mTransferMode == TransferMode.RAW) {
+	            AsyncDownloadClient client = new AsyncDownloadClient(serverIpAddress, serverPort, timeout, filepath);
+	            client.setProgress(progress);
+	            result = client.start();
+	            abortAction = client::abort;
+	        } else {
+	            LocalFastDownloadClient client = new LocalFastDownloadClient(serverIpAddress, serverPort, timeout, filepath);
+	            client.setProgress(progress);
+	            client.setTransferMode(mTransferMode);
+	            client.setTreeHash(treeHash);
+	            result = client.start();
+	            abortAction = client::abort;
+	        }
 	        System.out.println("LocalFastDownloadClient start result = " + result);
+	        if (result != LocalFastDownloadClient.Result.SUCCESS && progress != null) {
+	            progress.finish(TransferProgress.State.FAILED);
+	        }
 	        switch (result) {
 	            // This means client just connects and begins sending data to server
 	            case SUCCESS:
@@ -19,7 +107,7 @@ public class ClientMain {
 	                if (wantToAbort) {
 	                    // Wait until time to abort
 	                    Thread.sleep(100);
-	                    boolean abortResult = client.abort();
+	                    boolean abortResult = abortAction.getAsBoolean();
 	                    System.out.println("LocalFastDownloadClient abort result = " + abortResult);
 	                }
 	                break;
@@ -0,0 +1,201 @@
+package com.example.data.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reads a stream written by {@link DedupStreamWriter}, stores the new chunks and rebuilds the file from the store.
+ * <p>
+ * A chunk is needed if the {@link ChunkStore} does not hold it and no earlier chunk of the same file has the
+ * same hash, so content repeated inside the file also crosses the wire once. Every received chunk is checked
+ * against its hash before it is stored, and the store is forced to the disk before the file is rebuilt from it.
+ * <p>
+ * The recipe arrays grow as the entries arrive, so a sender announcing a huge chunk count cannot make the reader
+ * allocate more than the entries it actually sends.
+ */
+public class DedupStreamReader {
+
+    /** Number of recipe entries the arrays hold before growing the first time */
+    private static final int INITIAL_RECIPE_CHUNKS = 1024;
+
+    /** The stream the recipe and the chunks are read from */
+    private final DataInputStream mInputStream;
+    /** The stream the needed chunks are requested on */
+    private final DataOutputStream mOutputStream;
+    /** Stores the chunks the file is rebuilt from */
+    private final ChunkStore mStore;
+    /** The destination file */
+    private final RandomAccessFile mTarget;
+    /** The channel used for positional writes to the destination file */
+    private final FileChannel mTargetChannel;
+
+    /** The length of each chunk, in file order */
+    private int[] mLengths;
+    /** The hash of each chunk, back to back */
+    private byte[] mHashes;
+    /** The file length announced by the header, -1 until the header is read */
+    private long mFileLength = -1;
+    /** The chunks requested from the sender */
+    private BitSet mNeeded;
+    /** Holds the data of one chunk at a time */
+    private byte[] mBuffer;
+
+    /** Index of the next chunk to receive */
+    private int mNextChunk;
+    /** Number of data bytes received so far */
+    private long mReceivedBytes;
+
+    /**
+     * Creates a reader.
+     *
+     * @param inputStream  the stream the recipe and the chunks are read from.
+     * @param outputStream the stream the needed chunks are requested on.
+     * @param store        stores the chunks the file is rebuilt from.
+     * @param target       the destination file.
+     */
+    public DedupStreamReader(DataInputStream inputStream, DataOutputStream outputStream, ChunkStore store,
+            RandomAccessFile target) {
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+        mStore = store;
+        mTarget = target;
+        mTargetChannel = target.getChannel();
+    }
+
+    /**
+     * Reads the recipe of the file and requests the chunks the store lacks.
+     *
+     * @throws IOException if an I/O error occurs or the recipe is malformed.
+     */
+    public void readHeader() throws IOException {
+        int magic = mInputStream.readInt();
+        if (magic != DedupStreamWriter.MAGIC) {
+            throw new IOException("Not a dedup stream, magic = " + Integer.toHexString(magic));
+        }
+        long fileLength = mInputStream.readLong();
+        int chunkCount = mInputStream.readInt();
+        // Every chunk holds at least one byte
+        if (fileLength < 0 || chunkCount < 0 || chunkCount > fileLength
+                || chunkCount > Integer.MAX_VALUE / TreeHash.HASH_SIZE) {
+            throw new IOException("Invalid recipe of " + chunkCount + " chunks for file length " + fileLength);
+        }
+        int capacity = Math.min(chunkCount, INITIAL_RECIPE_CHUNKS);
+        mLengths = new int[capacity];
+        mHashes = new byte[Math.multiplyExact(capacity, TreeHash.HASH_SIZE)];
+        long totalLength = 0;
+        int maxLength = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int length = mInputStream.readInt();
+            if (length <= 0 || length > ChunkStore.MAX_CHUNK_SIZE || totalLength + length > fileLength) {
+                throw new IOException("Invalid chunk length " + length);
+            }
+            if (chunk == mLengths.length) {
+                capacity = (int) Math.min((long) chunk * 2, chunkCount);
+                mLengths = Arrays.copyOf(mLengths, capacity);
+                mHashes = Arrays.copyOf(mHashes, Math.multiplyExact(capacity, TreeHash.HASH_SIZE));
+            }
+            mLengths[chunk] = length;
+            mInputStream.readFully(mHashes, chunk * TreeHash.HASH_SIZE, TreeHash.HASH_SIZE);
+            totalLength += length;
+            maxLength = Math.max(maxLength, length);
+        }
+        if (totalLength != fileLength) {
+            throw new IOException("Chunks add up to " + totalLength + " bytes for file length " + fileLength);
+        }
+        mFileLength = fileLength;
+        mBuffer = new byte[maxLength];
+
+        // The same content can appear several times in the file, it is requested once
+        ChunkIndex requested = new ChunkIndex(16);
+        mNeeded = new BitSet(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            byte[] hash = getHash(chunk);
+            if (!mStore.contains(hash) && !requested.contains(hash)) {
+                requested.put(hash, chunk + 1L, mLengths[chunk]);
+                mNeeded.set(chunk);
+            }
+        }
+        mOutputStream.writeInt(mNeeded.cardinality());
+        if (!mNeeded.isEmpty()) {
+            mOutputStream.write(Arrays.copyOf(mNeeded.toByteArray(), (chunkCount + 7) / 8));
+        }
+        mOutputStream.flush();
+        mNextChunk = mNeeded.nextSetBit(0);
+    }
+
+    /**
+     * Reads the next needed chunk, checks it and stores it.
+     *
+     * @return false once every needed chunk has been received; otherwise true.
+     * @throws IOException if an I/O error occurs or the chunk does not match its hash.
+     */
+    public boolean readNextChunk() throws IOException {
+        if (mNextChunk < 0) {
+            return false;
+        }
+        int length = mLengths[mNextChunk];
+        mInputStream.readFully(mBuffer, 0, length);
+        byte[] hash = getHash(mNextChunk);
+        if (!MessageDigest.isEqual(hash, ChunkStore.hash(mBuffer, 0, length))) {
+            throw new IOException("Chunk " + mNextChunk + " does not match its hash");
+        }
+        mStore.put(hash, mBuffer, 0, length);
+        mReceivedBytes += length;
+        mNextChunk = mNeeded.nextSetBit(mNextChunk + 1);
+        return mNextChunk >= 0;
+    }
+
+    /**
+     * Writes the whole file from the chunks of the store. Called once every needed chunk has been received.
+     *
+     * @throws IOException if an I/O error occurs or a chunk is missing from the store.
+     */
+    public void rebuild() throws IOException {
+        // The file is only written from chunks that survive a crash
+        mStore.force();
+        long position = 0;
+        for (int chunk = 0; chunk < mLengths.length; chunk++) {
+            int length = mStore.read(getHash(chunk), mBuffer);
+            if (length != mLengths[chunk]) {
+                throw new IOException("Chunk " + chunk + " is missing from the store");
+            }
+            ByteBuffer data = ByteBuffer.wrap(mBuffer, 0, length);
+            while (data.hasRemaining()) {
+                position += mTargetChannel.write(data, position);
+            }
+        }
+        mTarget.setLength(mFileLength);
+    }
+
+    private byte[] getHash(int chunk) {
+        return Arrays.copyOfRange(mHashes, chunk * TreeHash.HASH_SIZE, (chunk + 1) * TreeHash.HASH_SIZE);
+    }
+
+    /**
+     * @return the file length announced by the sender, -1 if the header has not been read yet.
+     */
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    /**
+     * @return the number of data bytes received so far.
+     */
+    public long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    /**
+     * @return the number of bytes of the file that did not cross the wire, taken from the store.
+     */
+    public long getReusedBytes() {
+        return mFileLength - mReceivedBytes;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.data.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Writes a file in the DEDUP wire format, sending only the chunks the receiver does not already store.
+ * <p>
+ * The file is cut into content-defined chunks by a {@link FastCdcChunker}. The header offers the recipe of the
+ * file, the length and hash of every chunk in order; the receiver answers with the chunks missing from its
+ * {@link ChunkStore}, and only those cross the wire. The receiver then rebuilds the file from its store.
+ * <p>
+ * Wire format: {@code MAGIC, fileLength, chunkCount, (length, hash)...}. The receiver answers
+ * {@code neededCount}, followed by a bitmap of the needed chunks unless the count is 0. The data of the needed
+ * chunks then follows in file order, without framing.
+ */
+public class DedupStreamWriter {
+
+    /** Marks the start of a DEDUP stream ("CDCS") */
+    static final int MAGIC = 0x43444353;
+
+    /** The channel of the file to send */
+    private final FileChannel mSource;
+    /** The stream the recipe and the chunks are written to */
+    private final DataOutputStream mOutputStream;
+    /** The stream the receiver answers on */
+    private final DataInputStream mInputStream;
+    /** Cuts the file into chunks */
+    private final FastCdcChunker mChunker;
+    /** Holds the data of one chunk at a time */
+    private final byte[] mBuffer;
+
+    /** The length of each chunk, in file order */
+    private int[] mLengths = new int[1024];
+    /** The hash of each chunk, back to back */
+    private byte[] mHashes = new byte[1024 * TreeHash.HASH_SIZE];
+    /** Number of chunks of the file */
+    private int mChunkCount;
+    /** The length of the file when it was chunked */
+    private long mFileLength;
+    /** The chunks the receiver asked for */
+    private BitSet mNeeded;
+
+    /** Index of the next chunk to consider sending */
+    private int mNextChunk;
+    /** The file offset of the next chunk */
+    private long mPosition;
+    /** Number of data bytes sent so far */
+    private long mSentBytes;
+
+    /**
+     * Creates a writer with the default chunk sizes.
+     *
+     * @param source       the channel of the file to send.
+     * @param outputStream the stream the recipe and the chunks are written to.
+     * @param inputStream  the stream the receiver answers on.
+     */
+    public DedupStreamWriter(FileChannel source, DataOutputStream outputStream, DataInputStream inputStream) {
+        this(source, outputStream, inputStream, new FastCdcChunker());
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param source       the channel of the file to send.
+     * @param outputStream the stream the recipe and the chunks are written to.
+     * @param inputStream  the stream the receiver answers on.
+     * @param chunker      cuts the file into chunks.
+     */
+    public DedupStreamWriter(FileChannel source, DataOutputStream outputStream, DataInputStream inputStream,
+            FastCdcChunker chunker) {
+        mSource = source;
+        mOutputStream = outputStream;
+        mInputStream = inputStream;
+        mChunker = chunker;
+        mBuffer = new byte[chunker.getMaxSize()];
+    }
+
+    /**
+     * Chunks the file, offers its recipe and reads which chunks the receiver needs.
+     * Must be called once before {@link #writeNextChunk()}.
+     *
+     * @throws IOException if an I/O error occurs or the answer is malformed.
+     */
+    public void writeHeader() throws IOException {
+        mChunker.chunk(mSource, (fileOffset, data, offset, length) -> addChunk(length,
+                ChunkStore.hash(data, offset, length)));
+        mOutputStream.writeInt(MAGIC);
+        mOutputStream.writeLong(mFileLength);
+        mOutputStream.writeInt(mChunkCount);
+        for (int chunk = 0; chunk < mChunkCount; chunk++) {
+            mOutputStream.writeInt(mLengths[chunk]);
+            mOutputStream.write(mHashes, chunk * TreeHash.HASH_SIZE, TreeHash.HASH_SIZE);
+        }
+        mOutputStream.flush();
+
+        int neededCount = mInputStream.readInt();
+        if (neededCount < 0 || neededCount > mChunkCount) {
+            throw new IOException("Invalid count of needed chunks: " + neededCount);
+        }
+        if (neededCount == 0) {
+            mNeeded = new BitSet();
+        } else {
+            byte[] bitmap = new byte[(mChunkCount + 7) / 8];
+            mInputStream.readFully(bitmap);
+            mNeeded = BitSet.valueOf(bitmap);
+        }
+        System.out.println("Receiver needs " + neededCount + " of " + mChunkCount + " chunks");
+    }
+
+    private void addChunk(int length, byte[] hash) {
+        if (mChunkCount == mLengths.length) {
+            mLengths = Arrays.copyOf(mLengths, mChunkCount * 2);
+            mHashes = Arrays.copyOf(mHashes, mChunkCount * 2 * TreeHash.HASH_SIZE);
+        }
+        mLengths[mChunkCount] = length;
+        System.arraycopy(hash, 0, mHashes, mChunkCount * TreeHash.HASH_SIZE, TreeHash.HASH_SIZE);
+        mChunkCount++;
+        mFileLength += length;
+    }
+
+    /**
+     * Writes the next chunk the receiver needs.
+     *
+     * @return false once every needed chunk has been written; otherwise true.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean writeNextChunk() throws IOException {
+        int chunk = mNeeded.nextSetBit(mNextChunk);
+        if (chunk < 0 || chunk >= mChunkCount) {
+            mPosition = mFileLength;
+            return false;
+        }
+        // Skipped chunks are already stored by the receiver
+        while (mNextChunk < chunk) {
+            mPosition += mLengths[mNextChunk++];
+        }
+        int length = mLengths[chunk];
+        ByteBuffer data = ByteBuffer.wrap(mBuffer, 0, length);
+        while (data.hasRemaining()) {
+            if (mSource.read(data, mPosition + data.position()) < 0) {
+                throw new IOException("File truncated while sending");
+            }
+        }
+        mOutputStream.write(mBuffer, 0, length);
+        mSentBytes += length;
+        mPosition += length;
+        mNextChunk++;
+        return mNeeded.nextSetBit(mNextChunk) >= 0;
+    }
+
+    /**
+     * Flushes the chunks written.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeEnd() throws IOException {
+        mOutputStream.flush();
+    }
+
+    /**
+     * @return the file offset after the last chunk written or skipped.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return the length of the file when it was chunked.
+     */
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    /**
+     * @return the number of data bytes sent so far, the chunks the receiver already stores excluded.
+     */
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SplittableRandom;
+
+
+/**
+ * Cuts data into content-defined chunks with the FastCDC algorithm.
+ * <p>
+ * A rolling gear hash is updated with every byte, and a chunk ends where the hash matches a mask. Boundaries
+ * only depend on the bytes just before them, so an insertion or a deletion in a file only changes the chunks
+ * around it, and the rest of the file cuts into the same chunks as before. That is what lets versions of a file
+ * share most of their chunks.
+ * <p>
+ * Chunks are at least 'minSize' and at most 'maxSize' bytes. Normalized chunking uses a stricter mask before
+ * 'avgSize' and a looser one after it, which keeps most chunks close to the average size.
+ */
+public class FastCdcChunker {
+
+    /** Default smallest chunk size in bytes */
+    public static final int DEFAULT_MIN_SIZE = 2 * 1024;
+    /** Default average chunk size in bytes */
+    public static final int DEFAULT_AVG_SIZE = 8 * 1024;
+    /** Default largest chunk size in bytes */
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    /** Size in bytes of the buffer the file is read into, a multiple of the largest chunk */
+    private static final int READ_BUFFER_CHUNKS = 16;
+
+    /**
+     * One random value per byte value. The seed is fixed, and SplittableRandom's sequence is specified,
+     * so every sender cuts the same content into the same chunks.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x46415354_43444321L);
+        for (int index = 0; index < GEAR.length; index++) {
+            GEAR[index] = random.nextLong();
+        }
+    }
+
+    private final int mMinSize;
+    private final int mAvgSize;
+    private final int mMaxSize;
+    /** Mask used before the average size, with more bits so a cut is less likely */
+    private final long mMaskSmall;
+    /** Mask used after the average size, with fewer bits so a cut is more likely */
+    private final long mMaskLarge;
+
+    /**
+     * Creates a chunker with the default sizes.
+     */
+    public FastCdcChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a chunker.
+     *
+     * @param minSize the smallest chunk size in bytes.
+     * @param avgSize the average chunk size in bytes, a power of two.
+     * @param maxSize the largest chunk size in bytes.
+     */
+    public FastCdcChunker(int minSize, int avgSize, int maxSize) {
+        if (Integer.bitCount(avgSize) != 1 || minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes " + minSize + "/" + avgSize + "/" + maxSize);
+        }
+        mMinSize = minSize;
+        mAvgSize = avgSize;
+        mMaxSize = maxSize;
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        // The hash is shifted left for every byte, so its high bits depend on the most bytes
+        mMaskSmall = -1L << (Long.SIZE - (bits + 2));
+        mMaskLarge = -1L << (Long.SIZE - (bits - 2));
+    }
+
+    /**
+     * Finds the end of the chunk starting at 'offset'.
+     *
+     * @param data   the data to cut.
+     * @param offset the start of the chunk.
+     * @param length the number of bytes available from the offset. Unless this is the end of the data,
+     *               it must be at least the largest chunk size.
+     * @return the length of the chunk.
+     */
+    public int cut(byte[] data, int offset, int length) {
+        int end = Math.min(length, mMaxSize);
+        if (end <= mMinSize) {
+            return end;
+        }
+        int normal = Math.min(mAvgSize, end);
+        long fingerprint = 0;
+        int index = mMinSize;
+        for (; index < normal; index++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + index] & 0xFF];
+            if ((fingerprint & mMaskSmall) == 0) {
+                return index + 1;
+            }
+        }
+        for (; index < end; index++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + index] & 0xFF];
+            if ((fingerprint & mMaskLarge) == 0) {
+                return index + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Cuts a whole file into chunks, front to back.
+     *
+     * @param source  the file to cut.
+     * @param handler receives every chunk in file order.
+     * @throws IOException if an I/O error occurs, or thrown by the handler.
+     */
+    public void chunk(FileChannel source, ChunkHandler handler) throws IOException {
+        byte[] buffer = new byte[mMaxSize * READ_BUFFER_CHUNKS];
+        ByteBuffer window = ByteBuffer.wrap(buffer);
+        long fileOffset = 0;
+        long readOffset = 0;
+        int position = 0;
+        boolean isEnd = false;
+        while (true) {
+            if (window.position() - position < mMaxSize && !isEnd) {
+                // Move the unprocessed bytes to the front and fill the rest of the buffer
+                int pending = window.position() - position;
+                System.arraycopy(buffer, position, buffer, 0, pending);
+                window.position(pending);
+                position = 0;
+                while (window.hasRemaining()) {
+                    int read = source.read(window, readOffset);
+                    if (read < 0) {
+                        isEnd = true;
+                        break;
+                    }
+                    readOffset += read;
+                }
+            }
+            int available = window.position() - position;
+            if (available == 0) {
+                return;
+            }
+            int length = cut(buffer, position, available);
+            handler.onChunk(fileOffset, buffer, position, length);
+            position += length;
+            fileOffset += length;
+        }
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Receives the chunks of a file.
+     */
+    public interface ChunkHandler {
+        /**
+         * Called for every chunk, in file order. The data is only valid during the call.
+         *
+         * @param fileOffset the file offset of the chunk.
+         * @param data       holds the chunk data.
+         * @param offset     the start of the chunk in 'data'.
+         * @param length     the length of the chunk.
+         * @throws IOException to stop the chunking.
+         */
+        void onChunk(long fileOffset, byte[] data, int offset, int length) throws IOException;
+    }
+}
@@ -2,8 +2,11 @@ package com.example.data.download;
 
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -22,14 +25,17 @@ public class FileUtils {
 	     * @return Computes and returns the hash value for the file's data.
 	     */
 	    public static String createHash(String filePath) {
-	        try {
-	            File fileToSend = new File(filePath);
-	            FileInputStream fileInputStream = new FileInputStream(fileToSend);
-	            System.out.println("Sending : " + fileToSend.getPath());
-	            byte[] fileData = fileInputStream.readAllBytes();
-	            fileInputStream.close();
+	        File fileToSend = new File(filePath);
+	        System.out.println("Sending : " + fileToSend.getPath());
+	        // The file is read ahead in large reads and digested as it comes, never held in memory as a whole
+	        try (FileChannel fileChannel = FileChannel.open(fileToSend.toPath(), StandardOpenOption.READ);
+	             ReadAheadReader reader = new ReadAheadReader(fileChannel, 0)) {
 	            MessageDigest messageDigest = MessageDigest.getInstance(HASH_ALGORITHM_MD5);
-	            messageDigest.update(fileData);
+	            ByteBuffer buffer;
+	            while ((buffer = reader.next()) != null) {
+	                messageDigest.update(buffer);
+	                reader.recycle(buffer);
+	            }
 	            return convertToHex(messageDigest.digest());
 	        } catch (IOException e) {
 	            System.out.println("IOException :" + e);
@@ -39,6 +45,38 @@ public class FileUtils {
 	        return "";
 	    }
 
+	    /**
+	     * Computes the same hash as createHash(String) for data already in memory.
+	     *
+	     * @param data the file data, consumed from its position to its limit.
+	     * @return the hash value for the data.
+	     */
+	    public static String createHash(ByteBuffer data) {
+	        try {
+	            MessageDigest messageDigest = MessageDigest.getInstance(HASH_ALGORITHM_MD5);
+	            messageDigest.update(data);
+	            return convertToHex(messageDigest.digest());
+	        } catch (NoSuchAlgorithmException ex) {
+	            System.out.println("NoSuchAlgorithmException " + ex);
+	        }
+	        return "";
+	    }
+
+	    /**
+	     * Computes the Merkle tree hash of a file, its leaves being hashed in parallel on every core.
+	     *
+	     * @param filePath is path of file.
+	     * @return the tree hash, whose root identifies the file data, or null if the file cannot be read.
+	     */
+	    public static TreeHash createTreeHash(String filePath) {
+	        try {
+	            return TreeHash.compute(Path.of(filePath));
+	        } catch (IOException e) {
+	            System.out.println("IOException :" + e);
+	        }
+	        return null;
+	    }
+
 	    private static String convertToHex(byte[] bytes) {
 
 	        char[] result = new char[bytes.length * 2];
@@ -0,0 +1,423 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+
+/**
+ * Drives many simulated clients against a {@link NamedFileServer} through a {@link TcpImpairmentProxy}, and
+ * reports the throughput and the percentiles of the transfer durations.
+ * <p>
+ * The served files are generated in the work directory with sizes drawn from the configured distribution.
+ * At most FILE_POOL_SIZE distinct files are generated and each client fetches one of them at random, so the
+ * sizes the clients see follow the distribution without filling the disk. Each client is a
+ * {@link LocalFastDownloadReceiver}, and at most 'concurrency' of them run at the same time. A transfer only
+ * counts as completed if the received file has the content of the served one, and a transfer still running
+ * after the transfer timeout is aborted and counted as failed. The generated and received files are deleted
+ * once the run is over.
+ */
+public class LoadHarness {
+
+    /** Largest number of distinct files served */
+    private static final int FILE_POOL_SIZE = 32;
+    /** The timeout in milliseconds for making connection to the server */
+    private static final int CONNECT_TIMEOUT = 10_000;
+    /** The default time in milliseconds a transfer may take before it counts as failed */
+    private static final long DEFAULT_TRANSFER_TIMEOUT = 10 * 60 * 1000;
+
+    /** The directory the served and received files are written to */
+    private final Path mWorkDirectory;
+
+    /** The number of transfers of the run */
+    private int mClientCount = 1;
+    /** The largest number of transfers running at the same time */
+    private int mConcurrency = 1;
+    /** The distribution the sizes of the served files are drawn from */
+    private FileSizes mFileSizes = FileSizes.fixed(1024 * 1024);
+    /** The wire format of the transfers, RAW by default */
+    private TransferMode mTransferMode = TransferMode.RAW;
+    /** The time in milliseconds a transfer may take before it is aborted and counts as failed */
+    private long mTransferTimeout = DEFAULT_TRANSFER_TIMEOUT;
+    /** Seeds the file sizes, contents and choices, so two runs with the same settings fetch the same files */
+    private long mSeed = 1;
+
+    /** The impairments of the simulated link, none by default */
+    private long mDelayMillis;
+    private long mJitterMillis;
+    private long mBandwidth;
+    private double mLossRate;
+
+    /**
+     * @param workDirectory the directory the served and received files are written to, created if needed.
+     */
+    public LoadHarness(Path workDirectory) {
+        mWorkDirectory = workDirectory;
+    }
+
+    /**
+     * @param clientCount the number of transfers of the run.
+     */
+    public void setClientCount(int clientCount) {
+        mClientCount = clientCount;
+    }
+
+    /**
+     * @param concurrency the largest number of transfers running at the same time.
+     */
+    public void setConcurrency(int concurrency) {
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * @param fileSizes the distribution the sizes of the served files are drawn from.
+     */
+    public void setFileSizes(FileSizes fileSizes) {
+        mFileSizes = fileSizes;
+    }
+
+    /**
+     * @param transferMode the wire format of the transfers, RAW by default.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        mTransferMode = transferMode;
+    }
+
+    /**
+     * @param transferTimeout the time in milliseconds a transfer may take before it is aborted and counts as
+     *                        failed, 10 minutes by default.
+     */
+    public void setTransferTimeout(long transferTimeout) {
+        mTransferTimeout = transferTimeout;
+    }
+
+    /**
+     * @param seed seeds the file sizes, contents and choices of the run.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Sets the impairments of the simulated link, see {@link TcpImpairmentProxy}.
+     *
+     * @param delayMillis  the one-way delay in milliseconds.
+     * @param jitterMillis the largest random delay in milliseconds added to the fixed one.
+     * @param bandwidth    the capacity of the link in bytes per second, 0 for no limit.
+     * @param lossRate     the probability for a segment to be lost, between 0 and 1.
+     */
+    public void setLink(long delayMillis, long jitterMillis, long bandwidth, double lossRate) {
+        mDelayMillis = delayMillis;
+        mJitterMillis = jitterMillis;
+        mBandwidth = bandwidth;
+        mLossRate = lossRate;
+    }
+
+    /**
+     * Generates the files, starts the server and the proxy, runs every client and waits for them.
+     *
+     * @return the report of the run.
+     * @throws IOException          if the files cannot be generated or the server cannot start.
+     * @throws InterruptedException if the current thread is interrupted while waiting for the clients.
+     */
+    public Report run() throws IOException, InterruptedException {
+        Random random = new Random(mSeed);
+        Path servedDirectory = mWorkDirectory.resolve("served");
+        Path receivedDirectory = mWorkDirectory.resolve("received");
+        Path chunkDirectory = mWorkDirectory.resolve("chunks");
+
+        ChunkStore chunkStore = null;
+        NamedFileServer server = null;
+        TcpImpairmentProxy proxy = null;
+        ExecutorService clients = null;
+        try {
+            Files.createDirectories(servedDirectory);
+            Files.createDirectories(receivedDirectory);
+            long[] fileLengths = new long[Math.min(mClientCount, FILE_POOL_SIZE)];
+            for (int file = 0; file < fileLengths.length; file++) {
+                fileLengths[file] = mFileSizes.sample(random);
+                writeRandomFile(servedDirectory.resolve(fileName(file)), fileLengths[file], random);
+            }
+            if (mTransferMode == TransferMode.DEDUP) {
+                chunkStore = new ChunkStore(chunkDirectory);
+            }
+
+            server = new NamedFileServer(0, servedDirectory, NamedFileServer.DEFAULT_METADATA_TTL_MILLIS,
+                    NamedFileServer.DEFAULT_MAX_OPEN_FILES, mConcurrency);
+            NamedFileServer.Result result = server.start();
+            if (result != NamedFileServer.Result.SUCCESS) {
+                throw new IOException("NamedFileServer start result = " + result);
+            }
+            proxy = new TcpImpairmentProxy(0, "127.0.0.1", server.getLocalPort());
+            proxy.setDelayMillis(mDelayMillis);
+            proxy.setJitterMillis(mJitterMillis);
+            proxy.setBandwidth(mBandwidth);
+            proxy.setLossRate(mLossRate);
+            proxy.open();
+
+            AtomicInteger clientNumber = new AtomicInteger();
+            clients = Executors.newFixedThreadPool(mConcurrency, runnable -> {
+                Thread thread = new Thread(runnable, "load-client-" + clientNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long startTime = System.nanoTime();
+            int[] fetchedFiles = new int[mClientCount];
+            List<Future<Long>> durations = new ArrayList<>(mClientCount);
+            for (int client = 0; client < mClientCount; client++) {
+                int file = random.nextInt(fileLengths.length);
+                fetchedFiles[client] = file;
+                Path destination = receivedDirectory.resolve("client-" + client + ".bin");
+                int port = proxy.getLocalPort();
+                ChunkStore store = chunkStore;
+                Path served = servedDirectory.resolve(fileName(file));
+                durations.add(clients.submit(() -> fetch(port, served, destination, store)));
+            }
+
+            long[] completedDurations = new long[mClientCount];
+            int completed = 0;
+            long completedBytes = 0;
+            for (int client = 0; client < mClientCount; client++) {
+                try {
+                    long duration = durations.get(client).get();
+                    if (duration >= 0) {
+                        completedDurations[completed++] = duration;
+                        completedBytes += fileLengths[fetchedFiles[client]];
+                    }
+                } catch (ExecutionException executionException) {
+                    executionException.getCause().printStackTrace();
+                }
+            }
+            return new Report(mClientCount, Arrays.copyOf(completedDurations, completed), completedBytes,
+                    System.nanoTime() - startTime, proxy.getLostSegments());
+        } finally {
+            if (clients != null) {
+                clients.shutdownNow();
+            }
+            if (proxy != null) {
+                proxy.shutdown();
+            }
+            if (server != null) {
+                server.stop();
+            }
+            if (chunkStore != null) {
+                chunkStore.close();
+            }
+            deleteTree(servedDirectory);
+            deleteTree(receivedDirectory);
+            deleteTree(chunkDirectory);
+        }
+    }
+
+    /**
+     * Runs one simulated client.
+     *
+     * @param served the served file to fetch, compared with the received one.
+     * @return the duration of the transfer in nanoseconds, from the connection to the last byte written, or -1
+     * if it failed, timed out or received other content.
+     */
+    private long fetch(int port, Path served, Path destination, ChunkStore chunkStore)
+            throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        LocalFastDownloadReceiver receiver = new LocalFastDownloadReceiver("127.0.0.1", port, CONNECT_TIMEOUT,
+                destination.toString());
+        receiver.setTransferMode(mTransferMode);
+        receiver.setRequestedName(served.getFileName().toString());
+        receiver.setChunkStore(chunkStore);
+        try {
+            if (receiver.start() != LocalFastDownloadReceiver.Result.SUCCESS) {
+                return -1;
+            }
+            if (!receiver.awaitCompletion(mTransferTimeout) && receiver.abort()) {
+                System.err.println("Transfer of " + served.getFileName() + " timed out after " + mTransferTimeout
+                        + " ms");
+                // Lets the receiver close the destination before it is deleted
+                receiver.awaitCompletion(CONNECT_TIMEOUT);
+                return -1;
+            }
+            // Returns at once, the receiver may also have finished right after the timeout
+            if (!receiver.awaitCompletion(0)) {
+                return -1;
+            }
+            long duration = System.nanoTime() - startTime;
+            return Files.mismatch(served, destination) == -1 ? duration : -1;
+        } finally {
+            Files.deleteIfExists(destination);
+        }
+    }
+
+    private static String fileName(int file) {
+        return "file-" + file + ".bin";
+    }
+
+    private static void writeRandomFile(Path path, long length, Random random) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            for (long written = 0; written < length; written += block.length) {
+                random.nextBytes(block);
+                outputStream.write(block, 0, (int) Math.min(block.length, length - written));
+            }
+        }
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Draws the size in bytes of a served file.
+     */
+    @FunctionalInterface
+    public interface FileSizes {
+
+        long sample(Random random);
+
+        /**
+         * @return a distribution giving always the same size.
+         */
+        static FileSizes fixed(long size) {
+            return random -> size;
+        }
+
+        /**
+         * @return a distribution giving any size between min and max, both included, with the same probability.
+         */
+        static FileSizes uniform(long min, long max) {
+            return random -> min + (long) (random.nextDouble() * (max - min + 1));
+        }
+
+        /**
+         * @return a log-normal distribution, the usual shape of file sizes: most files are around the median and
+         * a few are much larger.
+         */
+        static FileSizes logNormal(long median, double sigma) {
+            return random -> Math.max(0, Math.round(median * Math.exp(sigma * random.nextGaussian())));
+        }
+
+        /**
+         * Parses 'fixed:&lt;size&gt;', 'uniform:&lt;min&gt;-&lt;max&gt;' or 'lognormal:&lt;median&gt;,&lt;sigma&gt;', sizes
+         * in bytes with an optional k, m or g suffix.
+         *
+         * @throws IllegalArgumentException if the text is not a distribution.
+         */
+        static FileSizes parse(String text) {
+            int colon = text.indexOf(':');
+            String kind = colon < 0 ? "" : text.substring(0, colon);
+            String[] values = text.substring(colon + 1).split("[-,]");
+            switch (kind.toLowerCase(Locale.ROOT)) {
+                case "fixed":
+                    if (values.length == 1) {
+                        return fixed(parseSize(values[0]));
+                    }
+                    break;
+                case "uniform":
+                    if (values.length == 2) {
+                        return uniform(parseSize(values[0]), parseSize(values[1]));
+                    }
+                    break;
+                case "lognormal":
+                    if (values.length == 2) {
+                        return logNormal(parseSize(values[0]), Double.parseDouble(values[1]));
+                    }
+                    break;
+                default:
+                    break;
+            }
+            throw new IllegalArgumentException("Not a file size distribution: " + text);
+        }
+
+        private static long parseSize(String text) {
+            String size = text.trim().toLowerCase(Locale.ROOT);
+            int shift = size.endsWith("k") ? 10 : size.endsWith("m") ? 20 : size.endsWith("g") ? 30 : 0;
+            if (shift > 0) {
+                size = size.substring(0, size.length() - 1);
+            }
+            return Long.parseLong(size) << shift;
+        }
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Report {
+
+        private final int mClientCount;
+        /** The durations in nanoseconds of the completed transfers, sorted */
+        private final long[] mDurations;
+        private final long mCompletedBytes;
+        private final long mWallTime;
+        private final long mLostSegments;
+
+        Report(int clientCount, long[] durations, long completedBytes, long wallTime, long lostSegments) {
+            mClientCount = clientCount;
+            mDurations = durations;
+            Arrays.sort(mDurations);
+            mCompletedBytes = completedBytes;
+            mWallTime = wallTime;
+            mLostSegments = lostSegments;
+        }
+
+        public int getCompleted() {
+            return mDurations.length;
+        }
+
+        public int getFailed() {
+            return mClientCount - mDurations.length;
+        }
+
+        public long getCompletedBytes() {
+            return mCompletedBytes;
+        }
+
+        /**
+         * @return the bytes of the completed transfers per second of the whole run.
+         */
+        public double getThroughput() {
+            return mCompletedBytes * 1e9 / Math.max(1, mWallTime);
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100.
+         * @return the duration in milliseconds the given percentage of the completed transfers did not exceed,
+         * 0 if none completed.
+         */
+        public double getDurationMillis(double percentile) {
+            if (mDurations.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * mDurations.length);
+            return mDurations[Math.min(Math.max(rank, 1), mDurations.length) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d completed, %d failed, %d bytes in %.1f s, %.2f MB/s, %d lost segments%n"
+                            + "duration ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+                    getCompleted(), getFailed(), mCompletedBytes, mWallTime / 1e9, getThroughput() / 1e6,
+                    mLostSegments, getDurationMillis(50), getDurationMillis(90), getDurationMillis(99),
+                    getDurationMillis(100));
+        }
+    }
+}
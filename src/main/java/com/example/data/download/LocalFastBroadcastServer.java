@@ -0,0 +1,366 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Sends one file to every client connecting to its port, in the RAW wire format, until stopped.
+ * <p>
+ * Clients downloading at the same time share a single read of the file through a {@link BroadcastRing}:
+ * the file is read once into the ring, and each connection writes from it at its own pace. A connection too
+ * slow to keep up is detached from the ring and continues with direct reads of the file, and a connection
+ * arriving late reads the beginning directly, holding the ring back, and joins it once it reaches the data the
+ * ring still holds. So N simultaneous downloads of a file cost about one read of it.
+ */
+public class LocalFastBroadcastServer {
+
+    /** Default number of bytes read from the file at once by the ring */
+    public static final int DEFAULT_SLOT_SIZE = 1024 * 1024;
+    /** Default number of slots of the ring */
+    public static final int DEFAULT_SLOT_COUNT = 16;
+    /** Default time in milliseconds a caught-up connection waits on slower ones before they are detached */
+    public static final long DEFAULT_DETACH_GRACE_MILLIS = 200;
+    /** Size in bytes of the direct reads of a connection that does not use the ring */
+    private static final long DIRECT_SLICE = 1024 * 1024;
+
+    /** The tcp port number on which server waits for client connections */
+    private final int mPort;
+    /** The path to file to send to clients */
+    private final String mFilePath;
+    /** The number of bytes read from the file at once by the ring */
+    private int mSlotSize = DEFAULT_SLOT_SIZE;
+    /** The number of slots of the ring */
+    private int mSlotCount = DEFAULT_SLOT_COUNT;
+    /** The time in milliseconds a caught-up connection waits on slower ones before they are detached */
+    private long mDetachGraceMillis = DEFAULT_DETACH_GRACE_MILLIS;
+
+    /** Holds the ServerSocketChannel the server listens on */
+    private ServerSocketChannel serverChannel;
+    /** The file, shared by the ring reader and the direct reads */
+    private FileChannel fileChannel;
+    /** Holds the thread accepting connections */
+    private ListenerThread listenerThread;
+    /** The ring of the current round of simultaneous downloads, null before the first download */
+    private BroadcastRing ring;
+
+    /** Number of bytes read from the file by the rings */
+    private final AtomicLong mRingBytes = new AtomicLong();
+    /** Number of bytes read directly from the file by connections not using a ring */
+    private final AtomicLong mDirectBytes = new AtomicLong();
+
+    /** This flag is used to stop the server */
+    private volatile boolean isStopped = false;
+
+    /**
+     * Creates a server instance with given port and filePath.
+     *
+     * @param port     indicates port number on which server waits for client connections.
+     * @param filePath indicates path to file to send to clients.
+     */
+    public LocalFastBroadcastServer(int port, String filePath) {
+        mPort = port;
+        mFilePath = filePath;
+    }
+
+    /**
+     * Sets the ring geometry. Must be called before start().
+     *
+     * @param slotSize  the number of bytes read from the file at once.
+     * @param slotCount the number of slots of the ring.
+     */
+    public void setRingSize(int slotSize, int slotCount) {
+        mSlotSize = slotSize;
+        mSlotCount = slotCount;
+    }
+
+    /**
+     * Sets how long a connection that caught up with the ring reader waits on slower connections before they
+     * are detached. Must be called before start().
+     *
+     * @param detachGraceMillis the time in milliseconds.
+     */
+    public void setDetachGraceMillis(long detachGraceMillis) {
+        mDetachGraceMillis = detachGraceMillis;
+    }
+
+    /**
+     * Validates the file, binds the port and starts accepting connections in a separate thread.
+     *
+     * @return Returns a Result enum case to indicate the result of starting the server.
+     */
+    public Result start() {
+        if (listenerThread != null && listenerThread.isAlive()) {
+            return Result.SERVER_ALREADY_RUNNING;
+        }
+        if (mFilePath == null || !new File(mFilePath).isFile()) {
+            System.err.println(mFilePath + " is NOT valid!");
+            return Result.FILE_PATH_INVALID;
+        }
+        try {
+            fileChannel = FileChannel.open(Path.of(mFilePath), StandardOpenOption.READ);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(mPort));
+            if (mPort == 0) {
+                System.out.println("Automatically Allocated Port: " + serverChannel.socket().getLocalPort());
+            }
+        } catch (BindException bindException) {
+            // Port already in use
+            bindException.printStackTrace();
+            closeQuietly();
+            return Result.PORT_ALREADY_IN_USE;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Port outside the specified range of valid port values, which is between 0 and 65535
+            illegalArgumentException.printStackTrace();
+            closeQuietly();
+            return Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            // A security manager exists and its checkListen method doesn't allow the operation
+            securityException.printStackTrace();
+            closeQuietly();
+            return Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening the file or the socket
+            ioException.printStackTrace();
+            closeQuietly();
+            return Result.IO_ERROR;
+        }
+
+        isStopped = false;
+        listenerThread = new ListenerThread();
+        listenerThread.start();
+        return Result.SUCCESS;
+    }
+
+    /**
+     * @return the port the server listens on, or -1 if it is not started.
+     */
+    public int getLocalPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of bytes read from the file so far, by the rings and the direct reads.
+     */
+    public long getDiskBytesRead() {
+        return mRingBytes.get() + mDirectBytes.get();
+    }
+
+    /**
+     * Stops accepting connections and aborts the downloads in progress.
+     */
+    public void stop() {
+        isStopped = true;
+        synchronized (this) {
+            if (ring != null) {
+                ring.close();
+            }
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * Attaches a connection to the current ring. A connection at the beginning of the file starts a new ring
+     * once the current one stopped reading; while it still reads, the connection attaches behind it and catches
+     * up with direct reads.
+     *
+     * @return the ring and the cursor, or null if the connection has to read directly.
+     */
+    private synchronized Attachment attach(long position) throws IOException {
+        if (isStopped) {
+            return null;
+        }
+        if (ring != null) {
+            BroadcastRing.Cursor cursor = ring.attach(position);
+            if (cursor == null) {
+                cursor = ring.attachBehind(position);
+            }
+            if (cursor != null) {
+                return new Attachment(ring, cursor);
+            }
+        }
+        if (position != 0 || ring != null && !ring.isClosed()) {
+            return null;
+        }
+        ring = new BroadcastRing(fileChannel, mSlotSize, mSlotCount, mDetachGraceMillis, mRingBytes);
+        BroadcastRing.Cursor cursor = ring.attach(0);
+        ring.start();
+        return new Attachment(ring, cursor);
+    }
+
+    /**
+     * A connection attached to a ring.
+     */
+    private static class Attachment {
+        private final BroadcastRing mRing;
+        private final BroadcastRing.Cursor mCursor;
+
+        Attachment(BroadcastRing ring, BroadcastRing.Cursor cursor) {
+            mRing = ring;
+            mCursor = cursor;
+        }
+    }
+
+    /**
+     * A Thread subclass accepting connections and starting a StreamHandler for each one.
+     */
+    class ListenerThread extends Thread {
+
+        ListenerThread() {
+            super("broadcast-listener");
+        }
+
+        @Override
+        public void run() {
+            System.out.println("Waiting for CLIENT connections on port " + getLocalPort());
+            while (!isStopped) {
+                try {
+                    SocketChannel socketChannel = serverChannel.accept();
+                    System.out.println("Just connected to CLIENT " + socketChannel.getRemoteAddress());
+                    new StreamHandler(socketChannel).start();
+                } catch (IOException ioException) {
+                    if (!isStopped) {
+                        ioException.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A Thread subclass sending the file to one connected client, from the ring while it keeps up.
+     */
+    class StreamHandler extends Thread {
+
+        /** Holds the socket channel connected to the client */
+        private final SocketChannel mSocketChannel;
+
+        StreamHandler(SocketChannel socketChannel) {
+            mSocketChannel = socketChannel;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long fileLength = 0;
+            long position = 0;
+            long sharedBytes = 0;
+            boolean isLagging = false;
+            Attachment attachment = null;
+            try {
+                fileLength = fileChannel.size();
+                while (position < fileLength && !isStopped) {
+                    if (attachment == null && !isLagging) {
+                        attachment = attach(position);
+                    }
+                    long directEnd = attachment == null ? fileLength : attachment.mRing.getTailPosition();
+                    if (position < directEnd) {
+                        long count = Math.min(DIRECT_SLICE, directEnd - position);
+                        long transferred = fileChannel.transferTo(position, count, mSocketChannel);
+                        if (transferred <= 0) {
+                            break;
+                        }
+                        mDirectBytes.addAndGet(transferred);
+                        position += transferred;
+                        if (attachment != null) {
+                            // Catching up behind the ring, which waits for this connection meanwhile
+                            attachment.mRing.advance(attachment.mCursor, transferred);
+                        }
+                        continue;
+                    }
+
+                    ByteBuffer view = attachment.mRing.next(attachment.mCursor);
+                    if (view == null) {
+                        // Detached, for being too slow or because the ring stopped
+                        isLagging = attachment.mCursor.isLagging();
+                        attachment = null;
+                        continue;
+                    }
+                    int length = view.remaining();
+                    while (view.hasRemaining()) {
+                        mSocketChannel.write(view);
+                    }
+                    attachment.mRing.advance(attachment.mCursor, length);
+                    position += length;
+                    sharedBytes += length;
+                }
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (attachment != null) {
+                    attachment.mRing.detach(attachment.mCursor);
+                }
+                try {
+                    mSocketChannel.close();
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                }
+            }
+            System.out.println("Sending " + (position >= fileLength ? "Completed" : "Aborted") + ": "
+                    + sharedBytes + " bytes from the ring, " + (position - sharedBytes) + " bytes read directly"
+                    + (isLagging ? " after falling behind" : ""));
+        }
+    }
+
+    /**
+     * Represents every 'Result' type that can happen and return when start() method is called.
+     */
+    public enum Result {
+        /**
+         * This means that server listens and sends the file to every connecting client.
+         */
+        SUCCESS,
+
+        // Error results
+        /**
+         * This means that start() method is called again while server already runs.
+         */
+        SERVER_ALREADY_RUNNING,
+        /**
+         * Invalid file path.
+         */
+        FILE_PATH_INVALID,
+        /**
+         * Port already in use.
+         */
+        PORT_ALREADY_IN_USE,
+        /**
+         * Port outside the specified range of valid port values, which is between 0 and 65535.
+         */
+        PORT_OUT_OF_RANGE,
+        /**
+         * A security manager exists and its checkListen method doesn't allow the operation.
+         */
+        SECURITY_ERROR,
+        /**
+         * An I/O error occurs when opening the file or the socket.
+         */
+        IO_ERROR
+    }
+}
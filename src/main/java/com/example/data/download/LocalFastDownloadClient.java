@@ -2,6 +2,8 @@ package com.example.data.download;
 
 
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -11,8 +13,10 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 
 public class LocalFastDownloadClient {
@@ -32,6 +36,15 @@ public class LocalFastDownloadClient {
     /** The path to the file to send to the server */
     private final String mFilepath;
 
+    /** The wire format used to send the file, RAW by default */
+    private TransferMode mTransferMode = TransferMode.RAW;
+
+    /** The tree hash of the file for the TREE wire format, null to compute it when the stream starts */
+    private TreeHash mTreeHash;
+
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+
     /** This flag is used to abort sending data to server */
     private volatile boolean isAborted = false;
 
@@ -65,6 +78,34 @@ public class LocalFastDownloadClient {
         mFilepath = filepath;
     }
 
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the tree hash of the file, already computed by the caller, for the TREE wire format.
+     * Must be called before start().
+     *
+     * @param treeHash the tree hash of the file, or null to compute it when the stream starts.
+     */
+    public void setTreeHash(TreeHash treeHash) {
+        mTreeHash = treeHash;
+    }
+
+    /**
+     * Sets the wire format used to send the file. Must be called before start().
+     *
+     * @param transferMode the wire format the server is configured with.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        mTransferMode = transferMode;
+    }
+
     /**
      * Initializes 'fileToSend' field, connects to server, and starts the process of sending file data to server.
      *
@@ -112,10 +153,12 @@ public class LocalFastDownloadClient {
     private Result connect() {
         System.out.println("Connecting to SERVER " + mHost + " on port " + mPort);
 
+        TransferPhaseEvent connectEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.CONNECT, mFilepath);
         try {
             socket = new Socket();
             SocketAddress address = new InetSocketAddress(mHost, mPort);
             socket.connect(address, mTimeout);
+            connectEvent.end(address, 0);
         } catch (ConnectException connectException) {
             connectException.printStackTrace();
             return Result.SERVER_NOT_STARTED;
@@ -169,14 +212,21 @@ public class LocalFastDownloadClient {
         /** Holds BufferedOutputStream object used to write file data to send to the server */
         private DataOutputStream mOutputStream;
 
+        /** Times the stream until the first file data is written, null once recorded */
+        private TransferPhaseEvent mFirstWriteEvent;
+        /** Number of writes of file data so far, used to sample them */
+        private long mWriteCount;
+
         @Override
         public void run() {
             try {
                 mOutputStream = new DataOutputStream(socket.getOutputStream());
                 startStream();
                 stopStream();
+                finishProgress(isAborted ? TransferProgress.State.ABORTED : TransferProgress.State.COMPLETED);
             } catch (IOException ioException) {
                 ioException.printStackTrace();
+                finishProgress(TransferProgress.State.FAILED);
             }
         }
 
@@ -187,8 +237,22 @@ public class LocalFastDownloadClient {
          */
         private void startStream() throws IOException {
             System.out.println("Sending ...");
-            byte[] fileData = Files.readAllBytes(Path.of(mFilepath));
-
+            mFirstWriteEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.FIRST_WRITE, mFilepath);
+            if (mTransferMode == TransferMode.SPARSE) {
+                mOutputStream.flush();
+                writeSparseToServer();
+                return;
+            }
+            if (mTransferMode == TransferMode.DEDUP) {
+                mOutputStream.flush();
+                writeDedupToServer();
+                return;
+            }
+            if (mTransferMode == TransferMode.TREE) {
+                mOutputStream.flush();
+                writeTreeToServer();
+                return;
+            }
             mOutputStream.flush();
             // Here for PCL to finish flush data in output stream.
             try {
@@ -197,24 +261,151 @@ public class LocalFastDownloadClient {
                 e.printStackTrace();
             }
             // write data to output stream
-            writeToServer(fileData);
+            writeToServer();
+        }
+
+        /**
+         * Sends the file in the SPARSE wire format, so zero-filled regions only cost a hole marker.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeSparseToServer() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilepath), StandardOpenOption.READ)) {
+                SparseStreamWriter writer = new SparseStreamWriter(fileChannel, mOutputStream);
+                writer.writeHeader();
+                beginProgress(fileChannel.size());
+                while (!isAborted) {
+                    long position = writer.getPosition();
+                    ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                    boolean hasMore = writer.writeNextBlock();
+                    endWrite(chunkEvent, position, writer.getPosition() - position);
+                    if (!hasMore) {
+                        break;
+                    }
+                    updateProgress(writer.getPosition());
+                }
+                updateProgress(writer.getPosition());
+                if (!isAborted) {
+                    writer.writeEnd();
+                }
+            }
         }
 
-        private void writeToServer(byte[] fileData) throws IOException {
-            int chunkSize = DEFAULT_CHUNK_SIZE;
-            int offSet = 0;
-            while (true) {
-                if (isAborted) {
-                    break;
+        /**
+         * Sends the file in the DEDUP wire format, so only the chunks the server does not store cross the wire.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeDedupToServer() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilepath), StandardOpenOption.READ)) {
+                DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(mOutputStream, DEFAULT_CHUNK_SIZE));
+                DedupStreamWriter writer = new DedupStreamWriter(fileChannel, outputStream, new DataInputStream(socket.getInputStream()));
+                writer.writeHeader();
+                beginProgress(writer.getFileLength());
+                while (!isAborted) {
+                    long sentBytes = writer.getSentBytes();
+                    ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                    boolean hasMore = writer.writeNextChunk();
+                    endWrite(chunkEvent, writer.getPosition(), writer.getSentBytes() - sentBytes);
+                    updateProgress(writer.getPosition());
+                    if (!hasMore) {
+                        break;
+                    }
                 }
-                int availableSize = fileData.length - offSet;
-                if (availableSize > chunkSize) {
-                    mOutputStream.write(fileData, offSet, chunkSize);
-                } else {
-                    mOutputStream.write(fileData, offSet, availableSize);
-                    break;
+                if (!isAborted) {
+                    writer.writeEnd();
+                    updateProgress(writer.getFileLength());
                 }
-                offSet += chunkSize;
+            }
+        }
+
+        /**
+         * Sends the file in the TREE wire format, then sends again the pieces the server could not verify.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeTreeToServer() throws IOException {
+            Path path = Path.of(mFilepath);
+            TreeHash tree = mTreeHash != null ? mTreeHash : TreeHash.compute(path);
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(mOutputStream, DEFAULT_CHUNK_SIZE));
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                TreeStreamWriter writer = new TreeStreamWriter(fileChannel, tree, outputStream, inputStream);
+                writer.writeHeader();
+                beginProgress(tree.getLength());
+                do {
+                    while (!isAborted) {
+                        long position = writer.getPosition();
+                        ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                        boolean hasMore = writer.writeNextPiece();
+                        endWrite(chunkEvent, position, writer.getPosition() - position);
+                        updateProgress(writer.getPosition());
+                        if (!hasMore) {
+                            break;
+                        }
+                    }
+                } while (!isAborted && writer.writeEnd());
+            }
+        }
+
+        /**
+         * Sends the file in the RAW wire format. The file is read in large sequential reads, ahead of the socket.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeToServer() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilepath), StandardOpenOption.READ)) {
+                long fileLength = fileChannel.size();
+                long offSet = 0;
+                beginProgress(fileLength);
+                try (ReadAheadReader reader = new ReadAheadReader(fileChannel, offSet)) {
+                    ByteBuffer buffer;
+                    while (!isAborted && (buffer = reader.next()) != null) {
+                        while (buffer.hasRemaining() && !isAborted) {
+                            int length = Math.min(buffer.remaining(), DEFAULT_CHUNK_SIZE);
+                            ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                            mOutputStream.write(buffer.array(), buffer.position(), length);
+                            endWrite(chunkEvent, offSet, length);
+                            buffer.position(buffer.position() + length);
+                            offSet += length;
+                            updateProgress(offSet);
+                        }
+                        reader.recycle(buffer);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Records a write of file data, if sampled, and the end of the first write phase.
+         */
+        private void endWrite(ChunkWriteEvent chunkEvent, long offset, long bytes) {
+            if (chunkEvent != null) {
+                chunkEvent.end(mFilepath, socket.getRemoteSocketAddress(), offset, bytes);
+            }
+            if (mFirstWriteEvent != null) {
+                mFirstWriteEvent.end(socket.getRemoteSocketAddress(), bytes);
+                mFirstWriteEvent = null;
+            }
+        }
+
+        private void beginProgress(long totalBytes) {
+            if (mProgress != null) {
+                mProgress.begin(totalBytes);
+            }
+        }
+
+        private void updateProgress(long bytesDone) {
+            if (mProgress != null) {
+                mProgress.set(bytesDone);
+            }
+        }
+
+        private void finishProgress(TransferProgress.State state) {
+            if (mProgress != null) {
+                mProgress.finish(state);
             }
         }
 
@@ -223,9 +414,11 @@ public class LocalFastDownloadClient {
          */
         private void stopStream() throws IOException {
             System.out.println("stop stream");
+            TransferPhaseEvent closeEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.CLOSE, mFilepath);
             mOutputStream.flush();
             mOutputStream.close();
             socket.close();
+            closeEvent.end(socket.getRemoteSocketAddress(), 0);
 
             if (isAborted) {
                 System.out.println("Sending Aborted");
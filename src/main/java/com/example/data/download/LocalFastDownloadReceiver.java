@@ -0,0 +1,394 @@
+package com.example.data.download;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+
+/**
+ * Connects to a {@link LocalFastDownloadServer} and writes the file data it sends to a destination file.
+ * With a requested name, connects to a {@link NamedFileServer} instead and asks it for that file.
+ */
+public class LocalFastDownloadReceiver {
+
+    /** Default size in bytes per read from the server */
+    private static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /** The IP address of the server host */
+    private final String mHost;
+    /** The TCP port of the server host */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server */
+    private final int mTimeout;
+    /** The path to the file the received data is written to */
+    private final String mDestinationPath;
+
+    /** The wire format the server sends, RAW by default */
+    private TransferMode mTransferMode = TransferMode.RAW;
+
+    /** Stores the chunks of DEDUP transfers, null for the other wire formats */
+    private ChunkStore mChunkStore;
+
+    /** The name of the file requested from a NamedFileServer, null for a LocalFastDownloadServer */
+    private String mRequestedName;
+
+    /** Holds a Socket connection to server */
+    private Socket socket;
+
+    /** This flag is used to abort receiving data from server */
+    private volatile boolean isAborted = false;
+
+    /** Number of bytes written to the destination file, holes excluded */
+    private volatile long mBytesWritten;
+
+    /** Set when the stream ended without any error */
+    private volatile boolean isCompleted = false;
+
+    /** Holds a StreamHandler object */
+    private StreamHandler streamHandler;
+
+
+    /**
+     * Creates a receiver instance using given parameters.
+     *
+     * @param host            The IP address of the server host.
+     * @param port            The TCP port of the server host.
+     * @param timeout         The timeout in milliseconds for making connection to the server.
+     * @param destinationPath The path to the file the received data is written to.
+     */
+    public LocalFastDownloadReceiver(String host, int port, int timeout, String destinationPath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mDestinationPath = destinationPath;
+    }
+
+    /**
+     * Sets the wire format expected from the server. Must be called before start().
+     *
+     * @param transferMode the wire format the server is configured with.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        mTransferMode = transferMode;
+    }
+
+    /**
+     * Sets the chunk store the file is rebuilt from, required by the DEDUP wire format. The received chunks are
+     * added to it. Must be called before start().
+     *
+     * @param chunkStore the chunk store, shared by all the receivers of the process.
+     */
+    public void setChunkStore(ChunkStore chunkStore) {
+        mChunkStore = chunkStore;
+    }
+
+    /**
+     * Requests a file by name from a {@link NamedFileServer} instead of receiving the single file of a
+     * {@link LocalFastDownloadServer}. Must be called before start().
+     *
+     * @param requestedName the name of the file, relative to the root directory of the server.
+     */
+    public void setRequestedName(String requestedName) {
+        mRequestedName = requestedName;
+    }
+
+    /**
+     * Validates the destination, connects to server, and starts receiving the file data in a separate thread.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public Result start() {
+        if (mTransferMode == TransferMode.DEDUP && mChunkStore == null) {
+            return Result.CHUNK_STORE_MISSING;
+        }
+        Result result = validateDestination();
+        if (result != Result.SUCCESS) {
+            return result;
+        }
+
+        result = connect();
+        if (result != Result.SUCCESS) {
+            return result;
+        }
+
+        streamHandler = new StreamHandler();
+        streamHandler.start();
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Validates field 'mDestinationPath'.
+     *
+     * @return Returns a Result enum case to indicate the destination validation result.
+     */
+    private Result validateDestination() {
+        if (mDestinationPath == null) {
+            return Result.DESTINATION_INVALID;
+        }
+        File destination = new File(mDestinationPath);
+        File parent = destination.getAbsoluteFile().getParentFile();
+        if (destination.isDirectory() || parent == null || !parent.isDirectory()) {
+            System.err.println(mDestinationPath + " is NOT valid!");
+            return Result.DESTINATION_INVALID;
+        }
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Makes socket connection to the server.
+     *
+     * @return Returns a Result enum case to indicate the connection result.
+     */
+    private Result connect() {
+        System.out.println("Connecting to SERVER " + mHost + " on port " + mPort);
+
+        TransferPhaseEvent connectEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.CONNECT, mDestinationPath);
+        try {
+            socket = new Socket();
+            SocketAddress address = new InetSocketAddress(mHost, mPort);
+            socket.connect(address, mTimeout);
+            connectEvent.end(address, 0);
+        } catch (ConnectException connectException) {
+            connectException.printStackTrace();
+            return Result.SERVER_NOT_STARTED;
+        } catch (UnknownHostException unknownHostException) {
+            unknownHostException.printStackTrace();
+            return Result.UNKNOWN_HOST;
+        } catch (SocketTimeoutException socketTimeoutException) {
+            // Timeout expires before connecting
+            socketTimeoutException.printStackTrace();
+            return Result.SOCKET_TIMEOUT;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return Result.IO_ERROR;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            return Result.SECURITY_ERROR;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            return Result.PORT_OUT_OF_RANGE;
+        }
+
+        System.out.println("Just connected to SERVER " + socket.getRemoteSocketAddress());
+
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Sets 'isAborted' flag to signify aborting the process of receiving data from server.
+     *
+     * @return true if the receiving process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (streamHandler != null && streamHandler.isAlive()) {
+            isAborted = true;
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (streamHandler != null) {
+            System.out.println("Too late to abort as the receiving process Already Completed");
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the receiving process to finish.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait forever.
+     * @return true if the whole file has been received; otherwise false.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        if (streamHandler == null) {
+            return false;
+        }
+        streamHandler.join(timeoutMillis);
+        return isCompleted;
+    }
+
+    /**
+     * @return the number of bytes written to the destination file so far, holes excluded.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * A Thread subclass to receive all the file's data chunk by chunk from the connected server.
+     */
+    class StreamHandler extends Thread {
+
+        /** Holds the socket's input stream object used to receive data from the server */
+        private DataInputStream mInputStream;
+
+        @Override
+        public void run() {
+            try {
+                mInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DEFAULT_CHUNK_SIZE));
+                if (mRequestedName != null && !requestFile()) {
+                    return;
+                }
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+                stopStream();
+                return;
+            }
+            try (RandomAccessFile destination = new RandomAccessFile(mDestinationPath, "rw")) {
+                // Holes are only kept if the data is written into an empty file
+                destination.setLength(0);
+                startStream(destination);
+                isCompleted = !isAborted;
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            } finally {
+                stopStream();
+            }
+        }
+
+        /**
+         * Sends the request header for 'mRequestedName' and reads the response status.
+         *
+         * @return true if the server sends the file; otherwise false, and the connection is closed.
+         * @throws IOException if an I/O error occurs.
+         */
+        private boolean requestFile() throws IOException {
+            NamedFileServer.writeRequest(new DataOutputStream(socket.getOutputStream()), mRequestedName,
+                    mTransferMode);
+            byte status = mInputStream.readByte();
+            mInputStream.readLong();
+            if (status != NamedFileServer.STATUS_OK) {
+                System.err.println(mRequestedName + " is NOT served (status " + status + ")");
+                stopStream();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Reads data from the server and writes it to the destination file.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void startStream(RandomAccessFile destination) throws IOException {
+            System.out.println("Receiving ...");
+            if (mTransferMode == TransferMode.SPARSE) {
+                readSparseFromServer(destination);
+            } else if (mTransferMode == TransferMode.TREE) {
+                readTreeFromServer(destination);
+            } else if (mTransferMode == TransferMode.DEDUP) {
+                readDedupFromServer(destination);
+            } else {
+                readFromServer(destination);
+            }
+        }
+
+        private void readFromServer(RandomAccessFile destination) throws IOException {
+            byte[] chunk = new byte[DEFAULT_CHUNK_SIZE];
+            while (!isAborted) {
+                int read = mInputStream.read(chunk);
+                if (read < 0) {
+                    break;
+                }
+                destination.write(chunk, 0, read);
+                mBytesWritten += read;
+            }
+        }
+
+        private void readSparseFromServer(RandomAccessFile destination) throws IOException {
+            SparseStreamReader reader = new SparseStreamReader(mInputStream, destination);
+            reader.readHeader();
+            while (!isAborted && reader.readNextExtent()) {
+                mBytesWritten = reader.getDataBytes();
+            }
+            mBytesWritten = reader.getDataBytes();
+        }
+
+        private void readTreeFromServer(RandomAccessFile destination) throws IOException {
+            TreeStreamReader reader = new TreeStreamReader(mInputStream,
+                    new DataOutputStream(socket.getOutputStream()), destination);
+            reader.readHeader();
+            while (!isAborted && reader.readNextPiece()) {
+                mBytesWritten = reader.getVerifiedBytes();
+            }
+            mBytesWritten = reader.getVerifiedBytes();
+            if (reader.getCorruptedPieces() > 0) {
+                System.out.println(reader.getCorruptedPieces() + " corrupted piece(s) received again");
+            }
+            System.out.println("Tree Hash: " + reader.getTree().getRootHex());
+        }
+
+        private void readDedupFromServer(RandomAccessFile destination) throws IOException {
+            DedupStreamReader reader = new DedupStreamReader(mInputStream,
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())), mChunkStore, destination);
+            reader.readHeader();
+            while (!isAborted && reader.readNextChunk()) {
+                mBytesWritten = reader.getReceivedBytes();
+            }
+            mBytesWritten = reader.getReceivedBytes();
+            if (!isAborted) {
+                reader.rebuild();
+                System.out.println("Received " + reader.getReceivedBytes() + " bytes, " + reader.getReusedBytes()
+                        + " bytes taken from the chunk store");
+            }
+        }
+
+        /**
+         * Closes socket and its input stream.
+         */
+        private void stopStream() {
+            System.out.println("stop stream");
+            try {
+                socket.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+
+            if (isAborted) {
+                System.out.println("Receiving Aborted");
+            } else {
+                System.out.println("Receiving Completed");
+            }
+        }
+
+    }
+
+    /**
+     * Represents every 'Result' type that can happen and return when start() method is called.
+     */
+    public enum Result {
+        /** This means that receiver connects successfully and begins receiving file data from server. */
+        SUCCESS,
+
+        /** Path to the destination file is not valid */
+        DESTINATION_INVALID,
+
+        /** When receiver starts server is not started yet. */
+        SERVER_NOT_STARTED,
+        /** The IP address of the host could not be determined. */
+        UNKNOWN_HOST,
+        /** Timeout expires before connecting. */
+        SOCKET_TIMEOUT,
+        /** An I/O error occurs when creating the socket. */
+        IO_ERROR,
+        /** A security manager exists and its checkConnect method doesn't allow the operation. */
+        SECURITY_ERROR,
+        /** Port outside the specified range of valid port values, which is between 0 and 65535. */
+        PORT_OUT_OF_RANGE,
+        /** The DEDUP wire format is selected but no chunk store was set. */
+        CHUNK_STORE_MISSING
+    }
+
+}
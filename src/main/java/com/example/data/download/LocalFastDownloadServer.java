@@ -1,16 +1,21 @@
 package com.example.data.download;
 
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 
 public class LocalFastDownloadServer {
@@ -36,6 +41,22 @@ public class LocalFastDownloadServer {
      * The path to file to send to client
      */
     private final String mFilePath;
+    /**
+     * The wire format used to send the file, RAW by default
+     */
+    private TransferMode mTransferMode = TransferMode.RAW;
+    /**
+     * Receives the progress of the sending process, null if nobody watches it
+     */
+    private TransferProgress mProgress;
+    /**
+     * Holds the content of small files, null to always read the file
+     */
+    private SmallFileCache mFileCache;
+    /** The tree hash of the file for the TREE wire format, null to compute it when the stream starts */
+    private TreeHash mTreeHash;
+    /** Reads the file into the page cache while waiting for the client, null to leave it cold */
+    private PageCacheWarmer mPageCacheWarmer;
 
     /**
      * Holds a ServerSocket object that is opened on port 'mPort' and used to wait for client connection
@@ -69,6 +90,54 @@ public class LocalFastDownloadServer {
         mFilePath = filePath;
     }
 
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the cache of small files. A cached file is sent from memory, without reading the disk.
+     * Only the RAW wire format uses it. Must be called before start().
+     *
+     * @param fileCache the cache to use, or null.
+     */
+    public void setFileCache(SmallFileCache fileCache) {
+        mFileCache = fileCache;
+    }
+
+    /**
+     * Sets the tree hash of the file, already computed by the caller, for the TREE wire format.
+     * Must be called before start().
+     *
+     * @param treeHash the tree hash of the file, or null to compute it when the stream starts.
+     */
+    public void setTreeHash(TreeHash treeHash) {
+        mTreeHash = treeHash;
+    }
+
+    /**
+     * Sets the warmer reading the file into the page cache while the server waits for its client.
+     * Must be called before start().
+     *
+     * @param pageCacheWarmer the warmer shared by the servers, or null.
+     */
+    public void setPageCacheWarmer(PageCacheWarmer pageCacheWarmer) {
+        mPageCacheWarmer = pageCacheWarmer;
+    }
+
+    /**
+     * Sets the wire format used to send the file. Must be called before start().
+     *
+     * @param transferMode the wire format the receiver is configured with.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        mTransferMode = transferMode;
+    }
+
     /**
      * This method does all the preparation work before server actually sends file to client in a separate thread.
      *
@@ -85,6 +154,9 @@ public class LocalFastDownloadServer {
         Result initResult = initServer();
         if (initResult != Result.SUCCESS) return initResult;
 
+        if (mPageCacheWarmer != null) {
+            mPageCacheWarmer.warm(mFilePath);
+        }
         return startListener();
     }
 
@@ -122,12 +194,21 @@ public class LocalFastDownloadServer {
         try {
             // Only creates ServerSocket object once per LocalFastDownloadServer instance
             if (serverSocket == null) {
-                serverSocket = new ServerSocket(mPort);
-                if (mPort == 0) {
-                    System.out.println("Automatically Allocated Port: " + serverSocket.getLocalPort());
+                // Opened from a channel, so the accepted sockets can write direct buffers
+                ServerSocket boundSocket = ServerSocketChannel.open().socket();
+                try {
+                    boundSocket.bind(new InetSocketAddress(mPort));
+                    if (mPort == 0) {
+                        System.out.println("Automatically Allocated Port: " + boundSocket.getLocalPort());
+                    }
+                    boundSocket.setReuseAddress(true);
+                    boundSocket.setSoTimeout(mTimeout);
+                } catch (IOException | RuntimeException exception) {
+                    // Closed and not kept, so the next start() binds again
+                    boundSocket.close();
+                    throw exception;
                 }
-                serverSocket.setReuseAddress(true);
-                serverSocket.setSoTimeout(mTimeout);
+                serverSocket = boundSocket;
             }
         } catch (BindException bindException) {
             // Port already in use: JVM_Bind
@@ -159,7 +240,9 @@ public class LocalFastDownloadServer {
     private Result startListener() {
         try {
             System.out.println("Waiting for CLIENT connection on port " + serverSocket.getLocalPort());
+            TransferPhaseEvent acceptEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.ACCEPT, mFilePath);
             final Socket socket = serverSocket.accept();
+            acceptEvent.end(socket.getRemoteSocketAddress(), 0);
             System.out.println("Just connected to CLIENT " + socket.getRemoteSocketAddress());
             streamHandler = new StreamHandler(socket);
             // start stream handler
@@ -235,6 +318,15 @@ public class LocalFastDownloadServer {
          */
         private volatile boolean isAborted = false;
 
+        /**
+         * Times the stream until the first file data is written, null once recorded
+         */
+        private TransferPhaseEvent mFirstWriteEvent;
+        /**
+         * Number of writes of file data so far, used to sample them
+         */
+        private long mWriteCount;
+
         /**
          * Creates a StreamHandler instance with given socket.
          *
@@ -255,8 +347,10 @@ public class LocalFastDownloadServer {
             try {
                 startStream();
                 stopStream();
+                finishProgress(isAborted ? TransferProgress.State.ABORTED : TransferProgress.State.COMPLETED);
             } catch (IOException exception) {
                 exception.printStackTrace();
+                finishProgress(TransferProgress.State.FAILED);
             }
         }
 
@@ -267,28 +361,189 @@ public class LocalFastDownloadServer {
          */
         private void startStream() throws IOException {
             System.out.println("startStream");
-            byte[] fileData = Files.readAllBytes(Path.of(mFilePath));
-
+            mFirstWriteEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.FIRST_WRITE, mFilePath);
+            if (mTransferMode == TransferMode.SPARSE) {
+                writeSparseToClient();
+                return;
+            }
+            if (mTransferMode == TransferMode.DEDUP) {
+                mOutputStream.flush();
+                writeDedupToClient();
+                return;
+            }
+            if (mTransferMode == TransferMode.TREE) {
+                writeTreeToClient();
+                return;
+            }
+            SmallFileCache.Entry cachedFile = mFileCache == null ? null : mFileCache.get(mFilePath);
+            if (cachedFile != null) {
+                mOutputStream.flush();
+                writeCachedToClient(cachedFile);
+                return;
+            }
             mOutputStream.flush();
             // write data to output stream
-            writeToClient(fileData);
+            writeToClient();
+        }
+
+        /**
+         * Sends a cached file straight from its off-heap buffer.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeCachedToClient(SmallFileCache.Entry cachedFile) throws IOException {
+            ByteBuffer content = cachedFile.getContent();
+            beginProgress(content.limit());
+            while (content.hasRemaining() && !isAborted) {
+                int position = content.position();
+                ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                mSocket.getChannel().write(content);
+                endWrite(chunkEvent, position, content.position() - position);
+                updateProgress(content.position());
+            }
+        }
+
+        /**
+         * Sends the file in the RAW wire format. The file is read in large sequential reads, ahead of the socket.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeToClient() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilePath), StandardOpenOption.READ)) {
+                long fileLength = fileChannel.size();
+                long offSet = 0;
+                beginProgress(fileLength);
+                try (ReadAheadReader reader = new ReadAheadReader(fileChannel, offSet)) {
+                    ByteBuffer buffer;
+                    while (!isAborted && (buffer = reader.next()) != null) {
+                        while (buffer.hasRemaining() && !isAborted) {
+                            int length = Math.min(buffer.remaining(), DEFAULT_CHUNK_SIZE);
+                            ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                            mOutputStream.write(buffer.array(), buffer.position(), length);
+                            endWrite(chunkEvent, offSet, length);
+                            buffer.position(buffer.position() + length);
+                            offSet += length;
+                            updateProgress(offSet);
+                        }
+                        reader.recycle(buffer);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Records a write of file data, if sampled, and the end of the first write phase.
+         */
+        private void endWrite(ChunkWriteEvent chunkEvent, long offset, long bytes) {
+            if (chunkEvent != null) {
+                chunkEvent.end(mFilePath, mSocket.getRemoteSocketAddress(), offset, bytes);
+            }
+            if (mFirstWriteEvent != null) {
+                mFirstWriteEvent.end(mSocket.getRemoteSocketAddress(), bytes);
+                mFirstWriteEvent = null;
+            }
+        }
+
+        private void beginProgress(long totalBytes) {
+            if (mProgress != null) {
+                mProgress.begin(totalBytes);
+            }
+        }
+
+        private void updateProgress(long bytesDone) {
+            if (mProgress != null) {
+                mProgress.set(bytesDone);
+            }
         }
 
-        private void writeToClient(byte[] fileData) throws IOException {
-            int chunkSize = DEFAULT_CHUNK_SIZE;
-            int offSet = 0;
-            while (true) {
-                if (isAborted) {
-                    break;
+        private void finishProgress(TransferProgress.State state) {
+            if (mProgress != null) {
+                mProgress.finish(state);
+            }
+        }
+
+        /**
+         * Sends the file in the SPARSE wire format, so zero-filled regions only cost a hole marker.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeSparseToClient() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilePath), StandardOpenOption.READ)) {
+                SparseStreamWriter writer = new SparseStreamWriter(fileChannel, mOutputStream);
+                writer.writeHeader();
+                beginProgress(fileChannel.size());
+                while (!isAborted) {
+                    long position = writer.getPosition();
+                    ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                    boolean hasMore = writer.writeNextBlock();
+                    endWrite(chunkEvent, position, writer.getPosition() - position);
+                    if (!hasMore) {
+                        break;
+                    }
+                    updateProgress(writer.getPosition());
                 }
-                int availableSize = fileData.length - offSet;
-                if (availableSize > chunkSize) {
-                    mOutputStream.write(fileData, offSet, chunkSize);
-                } else {
-                    mOutputStream.write(fileData, offSet, availableSize);
-                    break;
+                updateProgress(writer.getPosition());
+                if (!isAborted) {
+                    writer.writeEnd();
                 }
-                offSet += chunkSize;
+            }
+        }
+
+        /**
+         * Sends the file in the DEDUP wire format, so only the chunks the client does not store cross the wire.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeDedupToClient() throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(Path.of(mFilePath), StandardOpenOption.READ)) {
+                DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(mOutputStream, DEFAULT_CHUNK_SIZE));
+                DedupStreamWriter writer = new DedupStreamWriter(fileChannel, outputStream, mInputStream);
+                writer.writeHeader();
+                beginProgress(writer.getFileLength());
+                while (!isAborted) {
+                    long sentBytes = writer.getSentBytes();
+                    ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                    boolean hasMore = writer.writeNextChunk();
+                    endWrite(chunkEvent, writer.getPosition(), writer.getSentBytes() - sentBytes);
+                    updateProgress(writer.getPosition());
+                    if (!hasMore) {
+                        break;
+                    }
+                }
+                if (!isAborted) {
+                    writer.writeEnd();
+                    updateProgress(writer.getFileLength());
+                }
+            }
+        }
+
+        /**
+         * Sends the file in the TREE wire format, then sends again the pieces the client could not verify.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        private void writeTreeToClient() throws IOException {
+            Path path = Path.of(mFilePath);
+            TreeHash tree = mTreeHash != null ? mTreeHash : TreeHash.compute(path);
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(mOutputStream, DEFAULT_CHUNK_SIZE));
+                TreeStreamWriter writer = new TreeStreamWriter(fileChannel, tree, outputStream, mInputStream);
+                writer.writeHeader();
+                beginProgress(tree.getLength());
+                do {
+                    while (!isAborted) {
+                        long position = writer.getPosition();
+                        ChunkWriteEvent chunkEvent = ChunkWriteEvent.sample(mWriteCount++);
+                        boolean hasMore = writer.writeNextPiece();
+                        endWrite(chunkEvent, position, writer.getPosition() - position);
+                        updateProgress(writer.getPosition());
+                        if (!hasMore) {
+                            break;
+                        }
+                    }
+                } while (!isAborted && writer.writeEnd());
             }
         }
 
@@ -299,6 +554,7 @@ public class LocalFastDownloadServer {
          */
         private void stopStream() throws IOException {
             System.out.println("stopStream");
+            TransferPhaseEvent closeEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.CLOSE, mFilePath);
             // Here for PCL to finish writing the msg
             try {
                 Thread.sleep(1000);
@@ -309,6 +565,7 @@ public class LocalFastDownloadServer {
             mOutputStream.flush();
             mOutputStream.close();
             mSocket.close();
+            closeEvent.end(mSocket.getRemoteSocketAddress(), 0);
 
             if (isAborted) {
                 System.out.println("Aborted");
@@ -0,0 +1,541 @@
+package com.example.data.download;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Serves every file of a root directory on a single port.
+ * <p>
+ * Unlike {@link LocalFastDownloadServer}, which binds one port per file, the client names the file it wants in
+ * a small request header. Names are resolved with {@link ServedRoot}, so they cannot leave the root directory.
+ * The metadata and the open channel of each served file are cached by real path, so serving a request costs
+ * resolving the name, a map lookup and a zero-copy transfer from the file channel to the socket.
+ * <p>
+ * Request: {@code MAGIC, name (UTF), transfer mode (UTF)}.
+ * Response: {@code status, file length}, followed by the file data in the requested wire format when the
+ * status is {@link #STATUS_OK}. The server closes the connection after the data.
+ */
+public class NamedFileServer {
+
+    /** Marks a named file request ("NAME") */
+    static final int MAGIC = 0x4E414D45;
+
+    /** The file follows */
+    public static final byte STATUS_OK = 0;
+    /** The name does not resolve to a served file */
+    public static final byte STATUS_NOT_FOUND = 1;
+    /** The request header is malformed */
+    public static final byte STATUS_BAD_REQUEST = 2;
+
+    /** Default time in milliseconds during which cached file metadata is trusted without checking the disk */
+    public static final long DEFAULT_METADATA_TTL_MILLIS = 1_000;
+    /** Default maximum number of files whose channel is kept open */
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+    /** Default number of connections served at the same time */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    /** Maximum time in milliseconds to wait for the request header of a connection */
+    private static final int REQUEST_TIMEOUT = 10_000;
+    /** Size in bytes of the slices handed to transferTo, so abort is checked regularly */
+    private static final long TRANSFER_SLICE = 8 * 1024 * 1024;
+
+    /** The tcp port number on which the server listens */
+    private final int mPort;
+    /** Resolves the requested names against the served root directory */
+    private final ServedRoot mServedRoot;
+    /** The time in milliseconds during which cached file metadata is trusted */
+    private final long mMetadataTtl;
+    /** The maximum number of files whose channel is kept open */
+    private final int mMaxOpenFiles;
+    /** The number of connections served at the same time */
+    private final int mMaxConnections;
+
+    /** The open files, by real path, so every name of the same file shares one entry */
+    private final Map<String, CachedFile> mCache = new ConcurrentHashMap<>();
+
+    /** The number of files opened since the server was created, each one is a cache miss */
+    private final AtomicLong mOpenedFiles = new AtomicLong();
+
+    /** Holds the ServerSocketChannel the server listens on */
+    private ServerSocketChannel serverChannel;
+    /** Holds the thread accepting connections */
+    private ListenerThread listenerThread;
+    /** Runs the connection handlers */
+    private ExecutorService handlers;
+
+    /** This flag is used to stop the server */
+    private volatile boolean isStopped = false;
+
+    /**
+     * Creates a server instance with default cache and connection limits.
+     *
+     * @param port the tcp port number on which the server listens.
+     * @param root the served root directory.
+     * @throws IOException if the root directory does not exist.
+     */
+    public NamedFileServer(int port, Path root) throws IOException {
+        this(port, root, DEFAULT_METADATA_TTL_MILLIS, DEFAULT_MAX_OPEN_FILES, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates a server instance.
+     *
+     * @param port           the tcp port number on which the server listens.
+     * @param root           the served root directory.
+     * @param metadataTtl    the time in milliseconds during which cached file metadata is trusted.
+     * @param maxOpenFiles   the maximum number of files whose channel is kept open.
+     * @param maxConnections the number of connections served at the same time.
+     * @throws IOException if the root directory does not exist.
+     */
+    public NamedFileServer(int port, Path root, long metadataTtl, int maxOpenFiles, int maxConnections)
+            throws IOException {
+        mPort = port;
+        mServedRoot = new ServedRoot(root);
+        mMetadataTtl = metadataTtl;
+        mMaxOpenFiles = maxOpenFiles;
+        mMaxConnections = maxConnections;
+    }
+
+    /**
+     * Binds the port and starts accepting connections in a separate thread.
+     *
+     * @return Returns a Result enum case to indicate the result of starting the server.
+     */
+    public Result start() {
+        if (listenerThread != null && listenerThread.isAlive()) {
+            return Result.SERVER_ALREADY_RUNNING;
+        }
+        // Only published once bound, so a failed start leaves neither an open channel nor a stale port behind
+        ServerSocketChannel channel = null;
+        try {
+            channel = ServerSocketChannel.open();
+            ServerSocket serverSocket = channel.socket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(mPort));
+            if (mPort == 0) {
+                System.out.println("Automatically Allocated Port: " + serverSocket.getLocalPort());
+            }
+        } catch (BindException bindException) {
+            // Port already in use
+            bindException.printStackTrace();
+            closeQuietly(channel);
+            return Result.PORT_ALREADY_IN_USE;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Port outside the specified range of valid port values, which is between 0 and 65535
+            illegalArgumentException.printStackTrace();
+            closeQuietly(channel);
+            return Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            // A security manager exists and its checkListen method doesn't allow the operation
+            securityException.printStackTrace();
+            closeQuietly(channel);
+            return Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening the socket
+            ioException.printStackTrace();
+            closeQuietly(channel);
+            return Result.IO_ERROR;
+        }
+        serverChannel = channel;
+
+        isStopped = false;
+        AtomicInteger handlerCount = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(mMaxConnections, runnable -> {
+            Thread thread = new Thread(runnable, "named-file-handler-" + handlerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        listenerThread = new ListenerThread();
+        listenerThread.start();
+        return Result.SUCCESS;
+    }
+
+    /**
+     * @return the port the server listens on, or -1 if it is not started.
+     */
+    public int getLocalPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of files opened since the server was created, each one is a cache miss.
+     */
+    public long getOpenedFileCount() {
+        return mOpenedFiles.get();
+    }
+
+    /**
+     * Stops accepting connections, aborts the transfers in progress and closes the cached files.
+     */
+    public void stop() {
+        isStopped = true;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        if (handlers != null) {
+            handlers.shutdownNow();
+        }
+        for (Iterator<CachedFile> iterator = mCache.values().iterator(); iterator.hasNext(); ) {
+            CachedFile cachedFile = iterator.next();
+            iterator.remove();
+            cachedFile.evict();
+        }
+    }
+
+    /**
+     * Returns the cached file for a name, opening it or refreshing it when its metadata is too old.
+     * The name is always resolved, so a name whose target changed never gets the file it used to point to.
+     * The returned file is retained and must be released by the caller.
+     *
+     * @return the retained file, or null if the name does not resolve to a served file.
+     */
+    private CachedFile acquire(String name) throws IOException {
+        Path path = mServedRoot.resolve(name);
+        if (path == null) {
+            return null;
+        }
+        String key = path.toString();
+        long now = System.currentTimeMillis();
+        CachedFile cachedFile = mCache.get(key);
+        if (cachedFile != null && now - cachedFile.mCheckedTime < mMetadataTtl && cachedFile.retain()) {
+            return cachedFile;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (cachedFile != null && cachedFile.mSize == attributes.size()
+                && cachedFile.mLastModified == attributes.lastModifiedTime().toMillis() && cachedFile.retain()) {
+            cachedFile.mCheckedTime = now;
+            return cachedFile;
+        }
+
+        CachedFile openedFile = new CachedFile(path, attributes, now);
+        mOpenedFiles.incrementAndGet();
+        openedFile.retain();
+        CachedFile replacedFile = mCache.put(key, openedFile);
+        if (replacedFile != null) {
+            replacedFile.evict();
+        }
+        trimCache(key);
+        return openedFile;
+    }
+
+    /**
+     * Closes some cached files once more than 'mMaxOpenFiles' are open. Files in use stay open until released.
+     */
+    private void trimCache(String keptKey) {
+        Iterator<Map.Entry<String, CachedFile>> iterator = mCache.entrySet().iterator();
+        while (mCache.size() > mMaxOpenFiles && iterator.hasNext()) {
+            Map.Entry<String, CachedFile> entry = iterator.next();
+            if (!entry.getKey().equals(keptKey) && mCache.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().evict();
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a request header. Used by receivers before reading the response.
+     *
+     * @param outputStream the stream connected to the server.
+     * @param name         the name of the requested file, relative to the served root.
+     * @param transferMode the wire format the file is requested in.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void writeRequest(DataOutputStream outputStream, String name, TransferMode transferMode)
+            throws IOException {
+        outputStream.writeInt(MAGIC);
+        outputStream.writeUTF(name);
+        outputStream.writeUTF(transferMode.name());
+        outputStream.flush();
+    }
+
+    /**
+     * A Thread subclass accepting connections and handing them to the handler pool.
+     */
+    class ListenerThread extends Thread {
+
+        ListenerThread() {
+            super("named-file-listener");
+        }
+
+        @Override
+        public void run() {
+            System.out.println("Waiting for CLIENT connections on port " + getLocalPort() + " for "
+                    + mServedRoot.getRoot());
+            while (!isStopped) {
+                SocketChannel socketChannel = null;
+                try {
+                    socketChannel = serverChannel.accept();
+                    handlers.execute(new ConnectionHandler(socketChannel));
+                } catch (IOException ioException) {
+                    if (!isStopped) {
+                        ioException.printStackTrace();
+                    }
+                } catch (RejectedExecutionException rejectedExecutionException) {
+                    // The server is stopping, the connection is not served
+                    closeQuietly(socketChannel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves one request of a connection.
+     */
+    class ConnectionHandler implements Runnable {
+
+        /** Holds the socket channel connected to the client */
+        private final SocketChannel mSocketChannel;
+
+        ConnectionHandler(SocketChannel socketChannel) {
+            mSocketChannel = socketChannel;
+        }
+
+        @Override
+        public void run() {
+            Socket socket = mSocketChannel.socket();
+            try {
+                socket.setSoTimeout(REQUEST_TIMEOUT);
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+                serve(inputStream, outputStream);
+            } catch (IOException ioException) {
+                if (!isStopped) {
+                    ioException.printStackTrace();
+                }
+            } finally {
+                try {
+                    mSocketChannel.close();
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                }
+            }
+        }
+
+        private void serve(DataInputStream inputStream, DataOutputStream outputStream) throws IOException {
+            String name;
+            TransferMode transferMode;
+            try {
+                if (inputStream.readInt() != MAGIC) {
+                    throw new IllegalArgumentException("Bad magic");
+                }
+                name = inputStream.readUTF();
+                transferMode = TransferMode.valueOf(inputStream.readUTF());
+            } catch (IllegalArgumentException | IOException badRequest) {
+                outputStream.writeByte(STATUS_BAD_REQUEST);
+                outputStream.writeLong(-1);
+                outputStream.flush();
+                return;
+            }
+
+            CachedFile cachedFile = acquire(name);
+            if (cachedFile == null) {
+                System.err.println(name + " is NOT valid!");
+                outputStream.writeByte(STATUS_NOT_FOUND);
+                outputStream.writeLong(-1);
+                outputStream.flush();
+                return;
+            }
+            try {
+                outputStream.writeByte(STATUS_OK);
+                outputStream.writeLong(cachedFile.mSize);
+                outputStream.flush();
+                if (transferMode == TransferMode.SPARSE) {
+                    writeSparse(cachedFile, outputStream);
+                } else if (transferMode == TransferMode.DEDUP) {
+                    writeDedup(cachedFile, inputStream, outputStream);
+                } else if (transferMode == TransferMode.TREE) {
+                    writeTree(cachedFile, inputStream, outputStream);
+                } else {
+                    writeRaw(cachedFile);
+                }
+            } finally {
+                cachedFile.release();
+            }
+        }
+
+        private void writeRaw(CachedFile cachedFile) throws IOException {
+            // Blocking socket channel, transferTo goes through sendfile where the platform supports it
+            mSocketChannel.configureBlocking(true);
+            long position = 0;
+            while (position < cachedFile.mSize && !isStopped) {
+                long count = Math.min(TRANSFER_SLICE, cachedFile.mSize - position);
+                long transferred = cachedFile.mChannel.transferTo(position, count, mSocketChannel);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+
+        private void writeSparse(CachedFile cachedFile, DataOutputStream outputStream) throws IOException {
+            SparseStreamWriter writer = new SparseStreamWriter(cachedFile.mChannel, outputStream);
+            writer.writeHeader();
+            while (!isStopped && writer.writeNextBlock()) {
+                // Keep scanning until the end of file or stop
+            }
+            if (!isStopped) {
+                writer.writeEnd();
+            }
+        }
+
+        private void writeDedup(CachedFile cachedFile, DataInputStream inputStream, DataOutputStream outputStream)
+                throws IOException {
+            DedupStreamWriter writer = new DedupStreamWriter(cachedFile.mChannel,
+                    new DataOutputStream(new BufferedOutputStream(outputStream)), inputStream);
+            writer.writeHeader();
+            while (!isStopped && writer.writeNextChunk()) {
+                // Keep sending until every needed chunk is written or stop
+            }
+            if (!isStopped) {
+                writer.writeEnd();
+            }
+        }
+
+        private void writeTree(CachedFile cachedFile, DataInputStream inputStream, DataOutputStream outputStream)
+                throws IOException {
+            // Buffered so the leaf hashes of the header do not cost one write each
+            TreeStreamWriter writer = new TreeStreamWriter(cachedFile.mChannel, cachedFile.getTreeHash(),
+                    new DataOutputStream(new BufferedOutputStream(outputStream)), inputStream);
+            writer.writeHeader();
+            do {
+                while (!isStopped && writer.writeNextPiece()) {
+                    // Keep sending until every piece of the round is written or stop
+                }
+            } while (!isStopped && writer.writeEnd());
+        }
+    }
+
+    /**
+     * An open served file and its metadata, shared by all the requests for the same file.
+     * The channel is closed once the file is evicted from the cache and no request uses it anymore.
+     */
+    private static class CachedFile {
+        private final Path mPath;
+        private final FileChannel mChannel;
+        private final long mSize;
+        private final long mLastModified;
+        private volatile long mCheckedTime;
+        /** The tree hash of the file, computed by the first TREE request */
+        private TreeHash mTreeHash;
+        /** Number of requests using the file, plus one while the file is in the cache */
+        private final AtomicInteger mReferences = new AtomicInteger(1);
+
+        CachedFile(Path path, BasicFileAttributes attributes, long checkedTime) throws IOException {
+            mPath = path;
+            mChannel = FileChannel.open(path, StandardOpenOption.READ);
+            mSize = attributes.size();
+            mLastModified = attributes.lastModifiedTime().toMillis();
+            mCheckedTime = checkedTime;
+        }
+
+        /**
+         * @return the tree hash of the file, computed once for all the requests while the file is unchanged.
+         */
+        synchronized TreeHash getTreeHash() throws IOException {
+            if (mTreeHash == null) {
+                mTreeHash = TreeHash.compute(mPath);
+            }
+            return mTreeHash;
+        }
+
+        /**
+         * @return false if the file has already been closed.
+         */
+        boolean retain() {
+            while (true) {
+                int references = mReferences.get();
+                if (references == 0) {
+                    return false;
+                }
+                if (mReferences.compareAndSet(references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (mReferences.decrementAndGet() == 0) {
+                try {
+                    mChannel.close();
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                }
+            }
+        }
+
+        void evict() {
+            release();
+        }
+    }
+
+    /**
+     * Represents every 'Result' type that can happen and return when start() method is called.
+     */
+    public enum Result {
+        /**
+         * This means that server listens and serves the files of its root directory.
+         */
+        SUCCESS,
+
+        // Error results
+        /**
+         * This means that start() method is called again while server already runs.
+         */
+        SERVER_ALREADY_RUNNING,
+        /**
+         * Port already in use.
+         */
+        PORT_ALREADY_IN_USE,
+        /**
+         * Port outside the specified range of valid port values, which is between 0 and 65535.
+         */
+        PORT_OUT_OF_RANGE,
+        /**
+         * A security manager exists and its checkListen method doesn't allow the operation.
+         */
+        SECURITY_ERROR,
+        /**
+         * An I/O error occurs when opening the socket.
+         */
+        IO_ERROR
+    }
+}
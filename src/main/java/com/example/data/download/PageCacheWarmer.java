@@ -0,0 +1,130 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+/**
+ * Reads the files queued for transfer in the background, so their first reads hit the page cache.
+ * <p>
+ * A server waits for its client before it reads the file, and meanwhile the other transfers keep sending.
+ * Warming the file while it waits means the handover to it does not stall on cold reads from a spinning disk
+ * or a network share. One thread warms the files one at a time, in the order they were queued, with large
+ * sequential reads into a single buffer. Only the first 'maxFileBytes' of a file are read: warming more than the
+ * page cache holds would only evict the files being sent.
+ */
+public class PageCacheWarmer {
+
+    /** Default number of bytes read from each file */
+    public static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+    /** Size in bytes of a read */
+    private static final int READ_SIZE = 1024 * 1024;
+
+    /** The number of bytes read from each file */
+    private final long mMaxFileBytes;
+
+    /** The files waiting to be warmed, without duplicates, in queue order */
+    private final LinkedHashSet<Path> mQueue = new LinkedHashSet<>();
+    /** Warms the queued files, null until the first file is queued */
+    private WarmerThread mWarmerThread;
+
+    /** Number of bytes read so far */
+    private volatile long mWarmedBytes;
+
+    /**
+     * Creates a warmer reading at most DEFAULT_MAX_FILE_BYTES of each file.
+     */
+    public PageCacheWarmer() {
+        this(DEFAULT_MAX_FILE_BYTES);
+    }
+
+    /**
+     * @param maxFileBytes the number of bytes read from the beginning of each file.
+     */
+    public PageCacheWarmer(long maxFileBytes) {
+        mMaxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Queues a file to be warmed. Does nothing if it is already queued.
+     *
+     * @param filePath the path of the file about to be sent.
+     */
+    public synchronized void warm(String filePath) {
+        if (!mQueue.add(Path.of(filePath).toAbsolutePath().normalize()) || mWarmerThread != null) {
+            notifyAll();
+            return;
+        }
+        mWarmerThread = new WarmerThread();
+        mWarmerThread.start();
+    }
+
+    /**
+     * @return the number of bytes read so far.
+     */
+    public long getWarmedBytes() {
+        return mWarmedBytes;
+    }
+
+    /**
+     * @return the files waiting to be warmed, in queue order.
+     */
+    synchronized List<Path> getQueuedFiles() {
+        return new ArrayList<>(mQueue);
+    }
+
+    private synchronized Path take() throws InterruptedException {
+        while (mQueue.isEmpty()) {
+            wait();
+        }
+        Path path = mQueue.iterator().next();
+        mQueue.remove(path);
+        return path;
+    }
+
+    /**
+     * A Thread subclass reading the queued files, for the lifetime of the process.
+     */
+    private class WarmerThread extends Thread {
+
+        WarmerThread() {
+            super("page-cache-warmer");
+            setDaemon(true);
+            // Warming must not slow down the transfers themselves
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_SIZE);
+            while (true) {
+                Path path;
+                try {
+                    path = take();
+                } catch (InterruptedException interruptedException) {
+                    return;
+                }
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long position = 0;
+                    int read = 0;
+                    while (position < mMaxFileBytes && read >= 0) {
+                        buffer.clear();
+                        read = channel.read(buffer, position);
+                        position += Math.max(read, 0);
+                        mWarmedBytes += Math.max(read, 0);
+                    }
+                } catch (IOException ioException) {
+                    // The transfer reports the problem when it reads the file
+                    System.err.println("Cannot warm " + path + ": " + ioException);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.data.download;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * Reads a file sequentially in a separate thread, a bounded number of large reads ahead of the socket writer.
+ * <p>
+ * On spinning disks and network storage a read costs a seek or a round trip, so small reads issued one at a
+ * time between socket writes leave both the disk and the socket idle half of the time. The reading thread
+ * keeps up to 'windowReads' buffers of 'readSize' bytes filled ahead of the writer, which only blocks when the
+ * disk is really slower than the network. Memory stays bounded by the window, whatever the file size.
+ * <p>
+ * The writer takes the filled buffers in file order with {@link #next()} and gives each one back with
+ * {@link #recycle(ByteBuffer)} once written.
+ */
+public class ReadAheadReader implements Closeable {
+
+    /** Default size in bytes of a read */
+    public static final int DEFAULT_READ_SIZE = 1024 * 1024;
+    /** Default number of reads ahead of the writer */
+    public static final int DEFAULT_WINDOW_READS = 4;
+
+    /** Marks the end of the file, or a failed read */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /** The channel the file is read from, owned by the caller */
+    private final FileChannel mChannel;
+    /** The buffers ready to be filled */
+    private final BlockingQueue<ByteBuffer> mFree = new LinkedBlockingQueue<>();
+    /** The filled buffers, in file order, followed by END */
+    private final BlockingQueue<ByteBuffer> mFilled = new LinkedBlockingQueue<>();
+    /** Fills the buffers */
+    private final ReaderThread mReaderThread;
+
+    /** The error of the reading thread, thrown to the writer once it reaches it */
+    private volatile IOException mError;
+    /** Set once the writer reached END */
+    private boolean isEnded;
+    /** This flag is used to stop the reading thread */
+    private volatile boolean isClosed;
+
+    /**
+     * Creates a reader with the default read size and window, and starts reading.
+     *
+     * @param channel     the channel the file is read from, still to be closed by the caller after this reader.
+     * @param startOffset the file offset the reading starts from.
+     */
+    public ReadAheadReader(FileChannel channel, long startOffset) {
+        this(channel, startOffset, DEFAULT_READ_SIZE, DEFAULT_WINDOW_READS);
+    }
+
+    /**
+     * Creates a reader and starts reading.
+     *
+     * @param channel     the channel the file is read from, still to be closed by the caller after this reader.
+     * @param startOffset the file offset the reading starts from.
+     * @param readSize    the size in bytes of a read.
+     * @param windowReads the largest number of filled buffers waiting for the writer.
+     */
+    public ReadAheadReader(FileChannel channel, long startOffset, int readSize, int windowReads) {
+        mChannel = channel;
+        for (int index = 0; index < windowReads; index++) {
+            mFree.add(ByteBuffer.allocate(readSize));
+        }
+        mReaderThread = new ReaderThread(startOffset);
+        mReaderThread.start();
+    }
+
+    /**
+     * Waits for the next buffer of the file.
+     *
+     * @return the next bytes of the file between position and limit, or null at the end of the file.
+     * @throws IOException if a read failed.
+     */
+    public ByteBuffer next() throws IOException {
+        if (isEnded) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try {
+            buffer = mFilled.take();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the disk", interruptedException);
+        }
+        if (buffer == END) {
+            isEnded = true;
+            if (mError != null) {
+                throw mError;
+            }
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer returned by next() once its bytes are written, so the reading thread can fill it again.
+     */
+    public void recycle(ByteBuffer buffer) {
+        mFree.add(buffer);
+    }
+
+    /**
+     * Stops the reading thread and waits for the read in progress, so the channel can be closed afterwards.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        // Wakes the reading thread up if it waits for a free buffer
+        mFree.add(END);
+        try {
+            mReaderThread.join();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A Thread subclass filling the free buffers with the file, in order.
+     */
+    private class ReaderThread extends Thread {
+
+        /** The file offset of the next read */
+        private long mPosition;
+
+        ReaderThread(long startOffset) {
+            super("read-ahead");
+            mPosition = startOffset;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    ByteBuffer buffer = mFree.take();
+                    if (isClosed) {
+                        return;
+                    }
+                    buffer.clear();
+                    // Fills the whole buffer unless the end of the file comes first
+                    int read = 0;
+                    while (buffer.hasRemaining() && (read = mChannel.read(buffer, mPosition)) >= 0) {
+                        mPosition += read;
+                    }
+                    buffer.flip();
+                    if (buffer.hasRemaining()) {
+                        mFilled.add(buffer);
+                    }
+                    if (read < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException ioException) {
+                mError = ioException;
+            } catch (InterruptedException interruptedException) {
+                return;
+            }
+            mFilled.add(END);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.data.download;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
+/**
+ * Resolves the file names requested by clients against a served root directory.
+ * <p>
+ * A name resolves only to a regular file inside the root: ".." segments, absolute names pointing elsewhere,
+ * and symbolic links leading out of the root are all rejected. There is no way to serve any path: a root
+ * directory is required.
+ */
+public class ServedRoot {
+
+    /** The real path of the served root directory */
+    private final Path mRoot;
+
+    /**
+     * Creates a resolver for the given root directory.
+     *
+     * @param root the served root directory.
+     * @throws IOException if the root directory is null or does not exist.
+     */
+    public ServedRoot(Path root) throws IOException {
+        if (root == null || !Files.isDirectory(root)) {
+            throw new IOException(root + " is not a directory");
+        }
+        mRoot = root.toRealPath();
+    }
+
+    /**
+     * @return the real path of the served root directory.
+     */
+    public Path getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Resolves a requested name to a regular file.
+     *
+     * @param name the requested name, relative to the root, or absolute.
+     * @return the real path of the file, or null if the name does not resolve to a served regular file.
+     */
+    public Path resolve(String name) {
+        if (name == null || name.isEmpty() || name.indexOf('\0') >= 0) {
+            return null;
+        }
+        try {
+            Path requested = Path.of(name);
+            Path candidate = mRoot.resolve(requested).normalize();
+            if (!candidate.startsWith(mRoot)) {
+                return null;
+            }
+            // Symbolic links are followed before checking the root again
+            Path realPath = candidate.toRealPath();
+            if (!realPath.startsWith(mRoot)) {
+                return null;
+            }
+            return Files.isRegularFile(realPath) && Files.isReadable(realPath) ? realPath : null;
+        } catch (InvalidPathException | IOException exception) {
+            return null;
+        }
+    }
+}
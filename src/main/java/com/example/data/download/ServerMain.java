@@ -1,21 +1,122 @@
 package com.example.data.download;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 public class ServerMain {
+
+    /** The wire format used to send the file, RAW by default */
+    private TransferMode mTransferMode = TransferMode.RAW;
+
+    /** The engine moving the file data to the socket, BLOCKING by default */
+    private TransferEngine mEngine = TransferEngine.BLOCKING;
+
+    /** Holds the content and hash of small files, null to always read the file */
+    private SmallFileCache mFileCache;
+
+    /** Reads the file into the page cache while the server waits for its client, null to leave it cold */
+    private PageCacheWarmer mPageCacheWarmer;
+
+    /** The addresses the STRIPED engine listens on, empty to listen on every address */
+    private List<String> mLocalAddresses = new ArrayList<>();
+
+    /**
+     * Sets the wire format used to send the file.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        mTransferMode = transferMode;
+    }
+
+    /**
+     * Sets the cache of small files, used for the hash and, with the BLOCKING engine, for the data.
+     */
+    public void setFileCache(SmallFileCache fileCache) {
+        mFileCache = fileCache;
+    }
+
+    /**
+     * Sets the warmer reading the file into the page cache while the server waits for its client. Not used by
+     * the UDP engine.
+     */
+    public void setPageCacheWarmer(PageCacheWarmer pageCacheWarmer) {
+        mPageCacheWarmer = pageCacheWarmer;
+    }
+
+    /**
+     * Sets the engine moving the file data to the socket. ASYNC only applies to the RAW wire format, UDP and
+     * STRIPED always send the whole file in the RAW wire format.
+     */
+    public void setEngine(TransferEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Sets the addresses the STRIPED engine listens on, one per network interface.
+     */
+    public void setLocalAddresses(List<String> localAddresses) {
+        mLocalAddresses = new ArrayList<>(localAddresses);
+    }
 	
 	  /**
      * Main method, to start the server.
      */
     public  void start ( int tcpPort,String pathOfFileToSend ) throws InterruptedException {
+        start(tcpPort, pathOfFileToSend, null);
+    }
+
+    /**
+     * Starts the server and reports the hash and the sending progress to the given progress object.
+     */
+    public  void start ( int tcpPort,String pathOfFileToSend, TransferProgress progress ) throws InterruptedException {
        
-        // create hash value for demo app
-        String hash = FileUtils.createHash(pathOfFileToSend);
+        // create hash value for demo app, precomputed for cached files, the tree root for the TREE wire format
+        TransferPhaseEvent hashEvent = TransferPhaseEvent.start(TransferPhaseEvent.Phase.HASH, pathOfFileToSend);
+        TreeHash treeHash = mTransferMode == TransferMode.TREE ? FileUtils.createTreeHash(pathOfFileToSend) : null;
+        // Only looks the hash up, the cache is filled by the engine that sends from it
+        String cachedHash = mFileCache == null || treeHash != null ? null : mFileCache.getHash(pathOfFileToSend);
+        String hash = treeHash != null ? treeHash.getRootHex()
+                : cachedHash != null ? cachedHash : FileUtils.createHash(pathOfFileToSend);
+        hashEvent.end(null, hashEvent.isEnabled() ? new File(pathOfFileToSend).length() : 0);
         System.out.println("Hash: " + hash);
 
-        LocalFastDownloadServer server = new LocalFastDownloadServer(tcpPort, pathOfFileToSend);
-
-        LocalFastDownloadServer.Result result = server.start();
+        if (progress != null) {
+            progress.setHash(hash);
+        }
+        LocalFastDownloadServer.Result result;
+        BooleanSupplier abortAction;
+        if (mEngine == TransferEngine.UDP) {
+            UdpDownloadServer server = new UdpDownloadServer(tcpPort, pathOfFileToSend);
+            server.setProgress(progress);
+            result = server.start();
+            abortAction = server::abort;
+        } else if (mEngine == TransferEngine.STRIPED) {
+            StripedDownloadServer server = new StripedDownloadServer(tcpPort, pathOfFileToSend);
+            server.setLocalAddresses(mLocalAddresses);
+            server.setProgress(progress);
+            result = server.start();
+            abortAction = server::abort;
+        } else if (mEngine == TransferEngine.ASYNC && mTransferMode == TransferMode.RAW) {
+            AsyncDownloadServer server = new AsyncDownloadServer(tcpPort, pathOfFileToSend);
+            server.setProgress(progress);
+            server.setPageCacheWarmer(mPageCacheWarmer);
+            result = server.start();
+            abortAction = server::abort;
+        } else {
+            LocalFastDownloadServer server = new LocalFastDownloadServer(tcpPort, pathOfFileToSend);
+            server.setProgress(progress);
+            server.setTransferMode(mTransferMode);
+            server.setFileCache(mFileCache);
+            server.setTreeHash(treeHash);
+            server.setPageCacheWarmer(mPageCacheWarmer);
+            result = server.start();
+            abortAction = server::abort;
+        }
         System.out.println("LocalFastDownloadServer start result = " + result.name());
+        if (result != LocalFastDownloadServer.Result.SUCCESS && progress != null) {
+            progress.finish(TransferProgress.State.FAILED);
+        }
         switch (result) {
             case SUCCESS:
                 // This means server just connects and begins sending data to client
@@ -23,7 +124,7 @@ public class ServerMain {
                 if (wantToAbort) {
                     // Wait until time to abort
                     Thread.sleep(100);
-                    boolean abortResult = server.abort();
+                    boolean abortResult = abortAction.getAsBoolean();
                     System.out.println("LocalFastDownloadServer abort result = " + abortResult);
                 }
                 break;
@@ -0,0 +1,204 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Keeps the content and the hash of hot small files in off-heap buffers.
+ * <p>
+ * Files up to 'maxFileBytes' are cached when first requested, and the least recently used ones are evicted
+ * once the cached content exceeds 'capacityBytes'. An entry is only served while the size and modification
+ * time of the file match the ones it was read with, so a changed file is read again. A hit costs one stat of
+ * the file; the content is written to sockets straight from the direct buffer, without reading the disk or
+ * copying it to the heap.
+ */
+public class SmallFileCache {
+
+    /** Default size in bytes of the largest cached file */
+    public static final int DEFAULT_MAX_FILE_BYTES = 1024 * 1024;
+    /** Default total size in bytes of the cached content */
+    public static final long DEFAULT_CAPACITY_BYTES = 64L * 1024 * 1024;
+
+    /** The size in bytes of the largest cached file */
+    private final int mMaxFileBytes;
+    /** The total size in bytes of the cached content */
+    private final long mCapacityBytes;
+
+    /** The cached files by real path, in access order */
+    private final LinkedHashMap<Path, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size in bytes of the cached content */
+    private long mCachedBytes;
+
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Creates a cache with the default limits.
+     */
+    public SmallFileCache() {
+        this(DEFAULT_MAX_FILE_BYTES, DEFAULT_CAPACITY_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxFileBytes  the size in bytes of the largest cached file.
+     * @param capacityBytes the total size in bytes of the cached content.
+     */
+    public SmallFileCache(int maxFileBytes, long capacityBytes) {
+        mMaxFileBytes = maxFileBytes;
+        mCapacityBytes = capacityBytes;
+    }
+
+    /**
+     * Returns the cached content of a file, reading and caching it if the file is small enough and is not
+     * cached yet or changed since it was cached.
+     *
+     * @param filePath the path of the file.
+     * @return the entry, or null if the file is too large or cannot be read.
+     */
+    public Entry get(String filePath) {
+        try {
+            Path path = Path.of(filePath).toRealPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() > mMaxFileBytes) {
+                return null;
+            }
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            synchronized (this) {
+                Entry entry = mEntries.get(path);
+                if (entry != null && entry.mSize == attributes.size() && entry.mLastModified == lastModified) {
+                    mHits++;
+                    return entry;
+                }
+            }
+
+            // Read outside the lock, so a miss does not hold back the hits of other files
+            Entry entry = load(path, attributes.size(), lastModified);
+            synchronized (this) {
+                mMisses++;
+                Entry replaced = mEntries.put(path, entry);
+                if (replaced != null) {
+                    mCachedBytes -= replaced.mSize;
+                }
+                mCachedBytes += entry.mSize;
+                evict();
+            }
+            return entry;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the hash of a file if its current content is cached, without reading the file or caching it.
+     *
+     * @param filePath the path of the file.
+     * @return the hash, or null if the file is not cached, changed since it was cached, or cannot be read.
+     */
+    public String getHash(String filePath) {
+        try {
+            Path path = Path.of(filePath).toRealPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            synchronized (this) {
+                Entry entry = mEntries.get(path);
+                if (entry != null && entry.mSize == attributes.size()
+                        && entry.mLastModified == attributes.lastModifiedTime().toMillis()) {
+                    return entry.mHash;
+                }
+            }
+            return null;
+        } catch (IOException ioException) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cached content fits in the capacity.
+     * Must be called with the lock held.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mCachedBytes > mCapacityBytes && iterator.hasNext()) {
+            // The direct buffer is freed once the last transfer writing from it drops its view
+            mCachedBytes -= iterator.next().getValue().mSize;
+            iterator.remove();
+        }
+    }
+
+    private static Entry load(Path path, long size, long lastModified) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining() && fileChannel.read(content) >= 0) {
+                // Keep reading until the buffer is full or the end of file
+            }
+        }
+        content.flip();
+        // A file truncated while being read keeps a size that no longer matches, so it is read again next time
+        return new Entry(content, FileUtils.createHash(content.duplicate()), content.remaining(), lastModified);
+    }
+
+    /**
+     * @return the number of requests served from the cache.
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return the number of requests that had to read the file.
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return the total size in bytes of the cached content.
+     */
+    public synchronized long getCachedBytes() {
+        return mCachedBytes;
+    }
+
+    /**
+     * The content and hash of a cached file. Immutable, and still valid after being evicted.
+     */
+    public static class Entry {
+        private final ByteBuffer mContent;
+        private final String mHash;
+        private final long mSize;
+        private final long mLastModified;
+
+        Entry(ByteBuffer content, String hash, long size, long lastModified) {
+            mContent = content;
+            mHash = hash;
+            mSize = size;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * @return a read-only view of the content, positioned at its start, owned by the caller.
+         */
+        public ByteBuffer getContent() {
+            return mContent.asReadOnlyBuffer();
+        }
+
+        public String getHash() {
+            return mHash;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.data.download;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a stream written by {@link SparseStreamWriter} and recreates the file.
+ * <p>
+ * Only DATA extents are written to disk, at their own offset. HOLE extents are skipped, and the file is
+ * finally extended to its full length, so on file systems that support sparse files the skipped regions
+ * stay holes and the disk writes are proportional to the real data.
+ * <p>
+ * A DATA extent is copied through a buffer of DEFAULT_BLOCK_SIZE bytes, one slice at a time, so the memory used
+ * does not depend on the extent lengths chosen by the sender.
+ */
+public class SparseStreamReader {
+
+    /** The stream the extents are read from */
+    private final DataInputStream mInputStream;
+    /** The destination file, expected to be empty */
+    private final RandomAccessFile mTarget;
+    /** The channel used for positional writes to the destination file */
+    private final FileChannel mTargetChannel;
+    /** Holds one slice of an extent at a time */
+    private final byte[] mBuffer = new byte[SparseStreamWriter.DEFAULT_BLOCK_SIZE];
+
+    /** The file length announced by the header, -1 until the header is read */
+    private long mFileLength = -1;
+    /** Number of data bytes written to disk so far */
+    private long mDataBytes;
+    /** Set once the end marker has been read */
+    private boolean mFinished;
+
+    /**
+     * Creates a reader.
+     *
+     * @param inputStream the stream the extents are read from.
+     * @param target      the destination file, which should be empty.
+     */
+    public SparseStreamReader(DataInputStream inputStream, RandomAccessFile target) {
+        mInputStream = inputStream;
+        mTarget = target;
+        mTargetChannel = target.getChannel();
+    }
+
+    /**
+     * Reads and checks the stream header.
+     *
+     * @throws IOException if an I/O error occurs or the stream is not a SPARSE stream.
+     */
+    public void readHeader() throws IOException {
+        int magic = mInputStream.readInt();
+        if (magic != SparseStreamWriter.MAGIC) {
+            throw new IOException("Not a sparse stream, magic = " + Integer.toHexString(magic));
+        }
+        mFileLength = mInputStream.readLong();
+        if (mFileLength < 0) {
+            throw new IOException("Invalid file length " + mFileLength);
+        }
+    }
+
+    /**
+     * Reads the next extent and applies it to the destination file.
+     *
+     * @return false once the end marker has been read; otherwise true.
+     * @throws IOException if an I/O error occurs or the stream is malformed.
+     */
+    public boolean readNextExtent() throws IOException {
+        if (mFinished) {
+            return false;
+        }
+        byte tag = mInputStream.readByte();
+        switch (tag) {
+            case SparseStreamWriter.EXTENT_END:
+                // Extending the file leaves a trailing hole if the file ends with zeros
+                if (mTarget.length() < mFileLength) {
+                    mTarget.setLength(mFileLength);
+                }
+                mFinished = true;
+                return false;
+            case SparseStreamWriter.EXTENT_HOLE:
+                checkExtent(mInputStream.readLong(), mInputStream.readLong());
+                return true;
+            case SparseStreamWriter.EXTENT_DATA:
+                long offset = mInputStream.readLong();
+                long length = mInputStream.readLong();
+                checkExtent(offset, length);
+                writeData(offset, length);
+                return true;
+            default:
+                throw new IOException("Unknown extent tag " + tag);
+        }
+    }
+
+    /**
+     * @return the number of data bytes written to disk so far.
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    /**
+     * @return the file length announced by the sender, -1 if the header has not been read yet.
+     */
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    private void checkExtent(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset > mFileLength || length > mFileLength - offset) {
+            throw new IOException("Invalid extent [" + offset + ", +" + length + "] for file length " + mFileLength);
+        }
+    }
+
+    private void writeData(long offset, long length) throws IOException {
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            int sliceLength = (int) Math.min(mBuffer.length, end - position);
+            mInputStream.readFully(mBuffer, 0, sliceLength);
+            ByteBuffer data = ByteBuffer.wrap(mBuffer, 0, sliceLength);
+            while (data.hasRemaining()) {
+                position += mTargetChannel.write(data, position);
+            }
+            mDataBytes += sliceLength;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.data.download;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a file in the SPARSE wire format.
+ * <p>
+ * The file is scanned block by block in a single pass. Blocks made only of zero bytes (which is also what
+ * the file system returns for holes) are coalesced into one HOLE extent, every other block is sent as a
+ * DATA extent. The JDK gives no access to SEEK_DATA/SEEK_HOLE, so holes are found by this scan, which only
+ * touches the page cache for real holes and never puts them on the wire.
+ * <p>
+ * Wire format: {@code MAGIC, fileLength}, then a sequence of extents
+ * {@code (EXTENT_DATA, offset, length, bytes...)} or {@code (EXTENT_HOLE, offset, length)}, then {@code EXTENT_END}.
+ */
+public class SparseStreamWriter {
+
+    /** Marks the start of a SPARSE stream ("SPRS") */
+    static final int MAGIC = 0x53505253;
+
+    /** Tag of the extent that terminates the stream */
+    static final byte EXTENT_END = 0;
+    /** Tag of an extent followed by its data */
+    static final byte EXTENT_DATA = 1;
+    /** Tag of an extent that the receiver leaves as a hole */
+    static final byte EXTENT_HOLE = 2;
+
+    /** Default size in bytes of the blocks that are checked for zeros */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** Size in bytes of an extent header: tag, offset and length */
+    private static final int EXTENT_HEADER_SIZE = 1 + Long.BYTES + Long.BYTES;
+
+    /** The channel of the file to send */
+    private final FileChannel mSource;
+    /** The stream the extents are written to */
+    private final DataOutputStream mOutputStream;
+    /** Holds an extent header followed by the block currently scanned, so a DATA extent is one write */
+    private final byte[] mFrame;
+    /** View of 'mFrame' past the header, the block currently scanned */
+    private final ByteBuffer mBlock;
+    /** The length of the file when the stream started */
+    private final long mFileLength;
+
+    /** The file offset of the next block to scan */
+    private long mPosition;
+    /** The file offset where the pending (not yet written) hole starts */
+    private long mHoleStart;
+    /** The length of the pending hole, 0 if there is none */
+    private long mHoleLength;
+    /** Number of data bytes written so far */
+    private long mDataBytes;
+
+    /**
+     * Creates a writer with the default block size.
+     *
+     * @param source       the channel of the file to send.
+     * @param outputStream the stream the extents are written to.
+     * @throws IOException if the file size cannot be read.
+     */
+    public SparseStreamWriter(FileChannel source, DataOutputStream outputStream) throws IOException {
+        this(source, outputStream, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param source       the channel of the file to send.
+     * @param outputStream the stream the extents are written to.
+     * @param blockSize    the granularity in bytes at which zero regions are detected.
+     * @throws IOException if the file size cannot be read.
+     */
+    public SparseStreamWriter(FileChannel source, DataOutputStream outputStream, int blockSize) throws IOException {
+        if (blockSize <= 0 || blockSize % Long.BYTES != 0) {
+            throw new IllegalArgumentException("blockSize must be a positive multiple of 8: " + blockSize);
+        }
+        mSource = source;
+        mOutputStream = outputStream;
+        mFrame = new byte[EXTENT_HEADER_SIZE + blockSize];
+        mBlock = ByteBuffer.wrap(mFrame, EXTENT_HEADER_SIZE, blockSize).slice();
+        mFileLength = source.size();
+    }
+
+    /**
+     * Writes the stream header. Must be called once before {@link #writeNextBlock()}.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeHeader() throws IOException {
+        mOutputStream.writeInt(MAGIC);
+        mOutputStream.writeLong(mFileLength);
+    }
+
+    /**
+     * Scans the next block of the file and writes it as data, or adds it to the pending hole.
+     *
+     * @return false when the whole file has been scanned; otherwise true.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean writeNextBlock() throws IOException {
+        if (mPosition >= mFileLength) {
+            return false;
+        }
+        mBlock.clear();
+        int limit = (int) Math.min(mBlock.capacity(), mFileLength - mPosition);
+        mBlock.limit(limit);
+        while (mBlock.hasRemaining()) {
+            if (mSource.read(mBlock, mPosition + mBlock.position()) < 0) {
+                break;
+            }
+        }
+        mBlock.flip();
+        int length = mBlock.limit();
+        if (length == 0) {
+            // The file shrank while being sent
+            mPosition = mFileLength;
+            return false;
+        }
+
+        if (isZero(mBlock)) {
+            if (mHoleLength == 0) {
+                mHoleStart = mPosition;
+            }
+            mHoleLength += length;
+        } else {
+            flushHole();
+            ByteBuffer header = ByteBuffer.wrap(mFrame, 0, EXTENT_HEADER_SIZE);
+            header.put(EXTENT_DATA).putLong(mPosition).putLong(length);
+            mOutputStream.write(mFrame, 0, EXTENT_HEADER_SIZE + length);
+            mDataBytes += length;
+        }
+        mPosition += length;
+        return mPosition < mFileLength;
+    }
+
+    /**
+     * Writes the pending hole, if any, and the end marker.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeEnd() throws IOException {
+        flushHole();
+        mOutputStream.writeByte(EXTENT_END);
+        mOutputStream.flush();
+    }
+
+    /**
+     * @return the number of file bytes scanned so far, holes included.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return the number of data bytes written so far, holes excluded.
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    private void flushHole() throws IOException {
+        if (mHoleLength == 0) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.wrap(mFrame, 0, EXTENT_HEADER_SIZE);
+        header.put(EXTENT_HOLE).putLong(mHoleStart).putLong(mHoleLength);
+        mOutputStream.write(mFrame, 0, EXTENT_HEADER_SIZE);
+        mHoleLength = 0;
+    }
+
+    /**
+     * Checks eight bytes at a time whether the given block only holds zeros.
+     */
+    static boolean isZero(ByteBuffer block) {
+        int index = block.position();
+        int limit = block.limit();
+        for (; index + Long.BYTES <= limit; index += Long.BYTES) {
+            if (block.getLong(index) != 0L) {
+                return false;
+            }
+        }
+        for (; index < limit; index++) {
+            if (block.get(index) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
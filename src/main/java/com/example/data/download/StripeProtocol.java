@@ -0,0 +1,247 @@
+package com.example.data.download;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ObjLongConsumer;
+
+
+/**
+ * Connection layout of the striped transport, shared by {@link StripedFileSender} and {@link StripedFileReceiver}.
+ * <p>
+ * A transfer runs over several TCP connections, its paths, each one between its own pair of local and remote
+ * addresses so the paths cross different interfaces. The connecting side opens every path with
+ * {@code MAGIC, session}; the session id is the same on all the paths of a transfer, so the listening side
+ * groups them and turns away the paths of another transfer.
+ * <ul>
+ * <li>Sender to receiver: {@code fileLength, chunkSize}, then any number of {@code chunk, data} frames, where
+ * chunk 'n' holds the file bytes from n * chunkSize, and END once the receiver has the whole file.</li>
+ * <li>Receiver to sender: the index of every chunk written to the destination file.</li>
+ * </ul>
+ * A chunk may arrive twice, once on a path declared stalled and once on the path it was moved to; both copies
+ * hold the same bytes.
+ */
+final class StripeProtocol {
+
+    static final int MAGIC = 0x53545250;
+
+    /**
+     * Number of file bytes per chunk, large enough for the per-chunk bookkeeping not to matter. Also the largest
+     * chunk size a receiver accepts.
+     */
+    static final int CHUNK_SIZE = 256 * 1024;
+    /** Chunk index ending the frames of a path */
+    static final int END = -1;
+
+    /** Size in bytes of the socket buffers of a path */
+    private static final int SOCKET_BUFFER_SIZE = 1024 * 1024;
+    /** Maximum time in milliseconds to wait for the first bytes of an accepted path */
+    private static final int HELLO_TIMEOUT = 10_000;
+
+    private StripeProtocol() {
+    }
+
+    /**
+     * @return a random session id, never 0 as 0 stands for a session not known yet.
+     */
+    static long newSession() {
+        long session;
+        do {
+            session = ThreadLocalRandom.current().nextLong();
+        } while (session == 0);
+        return session;
+    }
+
+    /**
+     * Opens one path per pair of local and remote addresses, the shorter list being reused in turn, and
+     * announces the session on each of them. A path that cannot be opened is reported and left out.
+     *
+     * @param localAddresses  the addresses the paths are bound to, empty to let the system choose.
+     * @param remoteAddresses the addresses connected to, as 'host' or 'host:port'.
+     * @param port            the port of the remote addresses given without one.
+     * @param timeout         the timeout in milliseconds for opening each path.
+     * @param session         the session id of the transfer.
+     * @return the open paths, at least one.
+     * @throws IOException the error of the first path if no path could be opened.
+     */
+    static List<Socket> connect(List<String> localAddresses, List<String> remoteAddresses, int port, int timeout,
+            long session) throws IOException {
+        int pathCount = Math.max(localAddresses.size(), remoteAddresses.size());
+        List<Socket> paths = new ArrayList<>();
+        IOException firstException = null;
+        for (int index = 0; index < pathCount; index++) {
+            Socket socket = new Socket();
+            try {
+                configure(socket);
+                if (!localAddresses.isEmpty()) {
+                    socket.bind(new InetSocketAddress(localAddresses.get(index % localAddresses.size()), 0));
+                }
+                socket.connect(parseAddress(remoteAddresses.get(index % remoteAddresses.size()), port), timeout);
+                DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+                outputStream.writeInt(MAGIC);
+                outputStream.writeLong(session);
+                outputStream.flush();
+                paths.add(socket);
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+                socket.close();
+                if (firstException == null) {
+                    firstException = ioException;
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            throw firstException;
+        }
+        return paths;
+    }
+
+    /**
+     * Binds one listening socket per local address, all on the same port.
+     *
+     * @param localAddresses the addresses to listen on, empty to listen on every address.
+     * @param port           the port to listen on, 0 for a free port chosen when binding the first address.
+     * @return the bound sockets, in the order of the addresses.
+     * @throws IOException if an address cannot be bound; the sockets already bound are closed.
+     */
+    static List<ServerSocket> listen(List<String> localAddresses, int port) throws IOException {
+        List<ServerSocket> serverSockets = new ArrayList<>();
+        try {
+            if (localAddresses.isEmpty()) {
+                serverSockets.add(bind(new InetSocketAddress(port)));
+            }
+            for (String localAddress : localAddresses) {
+                int boundPort = serverSockets.isEmpty() ? port : serverSockets.get(0).getLocalPort();
+                serverSockets.add(bind(new InetSocketAddress(localAddress, boundPort)));
+            }
+            return serverSockets;
+        } catch (IOException | RuntimeException exception) {
+            close(serverSockets);
+            throw exception;
+        }
+    }
+
+    static void close(List<ServerSocket> serverSockets) {
+        for (ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+    }
+
+    static void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+        socket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+    }
+
+    private static ServerSocket bind(InetSocketAddress address) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            serverSocket.bind(address);
+            return serverSocket;
+        } catch (IOException ioException) {
+            serverSocket.close();
+            throw ioException;
+        }
+    }
+
+    private static InetSocketAddress parseAddress(String address, int defaultPort) {
+        int colon = address.lastIndexOf(':');
+        // An IPv6 literal holds colons too, a port only follows its closing bracket
+        if (colon < 0 || address.indexOf(':') != colon && !address.startsWith("[")) {
+            return new InetSocketAddress(address, defaultPort);
+        }
+        String host = address.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    /**
+     * Accepts the paths arriving on a listening socket and hands them over with their session, until the socket
+     * is closed. The session of each path is read by a thread of its own, so a peer slow to send it does not
+     * hold up the paths accepted after it.
+     */
+    static class Acceptor extends Thread {
+
+        /** The socket the paths arrive on, closed by the owner to stop accepting */
+        private final ServerSocket mServerSocket;
+        /** Receives every accepted path with its session id, and closes the paths it turns away */
+        private final ObjLongConsumer<Socket> mAttach;
+
+        Acceptor(ServerSocket serverSocket, ObjLongConsumer<Socket> attach) {
+            super("stripe-acceptor-" + serverSocket.getLocalSocketAddress());
+            mServerSocket = serverSocket;
+            mAttach = attach;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException ioException) {
+                    if (!mServerSocket.isClosed()) {
+                        ioException.printStackTrace();
+                    }
+                    return;
+                }
+                new HelloReader(socket, mAttach).start();
+            }
+        }
+    }
+
+    /**
+     * A Thread subclass reading the session of one accepted path, then handing the path over.
+     */
+    private static class HelloReader extends Thread {
+
+        private final Socket mSocket;
+        private final ObjLongConsumer<Socket> mAttach;
+
+        HelloReader(Socket socket, ObjLongConsumer<Socket> attach) {
+            super("stripe-hello-" + socket.getRemoteSocketAddress());
+            mSocket = socket;
+            mAttach = attach;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                configure(mSocket);
+                mSocket.setSoTimeout(HELLO_TIMEOUT);
+                DataInputStream inputStream = new DataInputStream(mSocket.getInputStream());
+                if (inputStream.readInt() != MAGIC) {
+                    throw new IOException("Not a striped transfer path: " + mSocket.getRemoteSocketAddress());
+                }
+                long session = inputStream.readLong();
+                mSocket.setSoTimeout(0);
+                mAttach.accept(mSocket, session);
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+                try {
+                    mSocket.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+        }
+    }
+}
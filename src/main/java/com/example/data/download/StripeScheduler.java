@@ -0,0 +1,350 @@
+package com.example.data.download;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Hands the chunks of a striped transfer to its paths, by their measured throughput.
+ * <p>
+ * Every path pulls its next chunk when it has room for one. The room of a path is the data it delivers in
+ * WINDOW_HORIZON at its throughput measured from the acknowledgements, so a faster path has more chunks in
+ * flight; a path with more room than it uses delivers faster, and gets more room in turn. Near the end of the
+ * file, a slower path only takes a chunk if it would deliver it before the fastest path delivers everything
+ * still pending, so the last chunks are not stuck behind a slow link.
+ * <p>
+ * A path with chunks in flight and no acknowledgement for the stall timeout, or four times the time its
+ * throughput needs for them if longer, is declared stalled: its connection is closed and its unacknowledged
+ * chunks go back at the head of the queue for the healthy paths.
+ */
+class StripeScheduler {
+
+    /** Smallest and largest number of chunks in flight on a path */
+    private static final int MIN_WINDOW_CHUNKS = 2;
+    private static final int MAX_WINDOW_CHUNKS = 64;
+    /** Number of chunks in flight on a path before its throughput is measured */
+    private static final int INITIAL_WINDOW_CHUNKS = 4;
+    /** Time in nanoseconds of data a path keeps in flight at its measured throughput */
+    private static final long WINDOW_HORIZON_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    /** Shortest time in nanoseconds a throughput sample is measured over */
+    private static final long RATE_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** Interval in milliseconds between two checks for stalled paths by a waiting thread */
+    private static final long CHECK_INTERVAL_MILLIS = 50;
+
+    private final long mFileLength;
+    private final int mChunkSize;
+    private final int mChunkCount;
+    /** The time in nanoseconds without acknowledgement after which a busy path is stalled */
+    private final long mStallNanos;
+
+    /** The chunks no path is sending, those moved from a stalled path first */
+    private final ArrayDeque<Integer> mPending = new ArrayDeque<>();
+    /** The chunks the receiver has */
+    private final BitSet mAcknowledged = new BitSet();
+    private int mAcknowledgedCount;
+    private final List<Path> mPaths = new ArrayList<>();
+    private boolean isAborted;
+
+    /**
+     * @param fileLength  the number of bytes to send.
+     * @param chunkSize   the number of bytes per chunk.
+     * @param stallMillis the time in milliseconds without acknowledgement after which a busy path is stalled.
+     */
+    StripeScheduler(long fileLength, int chunkSize, long stallMillis) {
+        mFileLength = fileLength;
+        mChunkSize = chunkSize;
+        mChunkCount = (int) ((fileLength + chunkSize - 1) / chunkSize);
+        mStallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        for (int chunk = 0; chunk < mChunkCount; chunk++) {
+            mPending.add(chunk);
+        }
+    }
+
+    long getFileLength() {
+        return mFileLength;
+    }
+
+    int getChunkSize() {
+        return mChunkSize;
+    }
+
+    long getOffset(int chunk) {
+        return (long) chunk * mChunkSize;
+    }
+
+    int getLength(int chunk) {
+        return (int) Math.min(mChunkSize, mFileLength - getOffset(chunk));
+    }
+
+    /**
+     * Adds a path, which starts pulling chunks.
+     *
+     * @param name       the name of the path in the reports.
+     * @param connection closed when the path is declared stalled.
+     */
+    synchronized Path addPath(String name, Closeable connection) {
+        Path path = new Path(name, connection);
+        mPaths.add(path);
+        notifyAll();
+        return path;
+    }
+
+    synchronized List<Path> getPaths() {
+        return new ArrayList<>(mPaths);
+    }
+
+    /**
+     * Waits until the path may send a chunk.
+     *
+     * @return the index of the chunk to send, or -1 once the path has nothing more to send: the receiver has
+     * the whole file, the transfer is aborted or the path failed.
+     */
+    synchronized int next(Path path) throws InterruptedException {
+        while (true) {
+            checkStalls(System.nanoTime());
+            if (isDone() || isAborted || path.isFailed) {
+                return -1;
+            }
+            // A chunk moved from a stalled path may have been acknowledged on it after all
+            while (!mPending.isEmpty() && mAcknowledged.get(mPending.peek())) {
+                mPending.poll();
+            }
+            if (!mPending.isEmpty() && path.mInFlight.size() < getWindow(path) && isWorthSending(path)) {
+                int chunk = mPending.poll();
+                if (path.mInFlight.isEmpty()) {
+                    // Idle time is neither a stall nor a lack of throughput
+                    path.mProgressTime = System.nanoTime();
+                    path.mSampleTime = path.mProgressTime;
+                    path.mSampleBytes = 0;
+                }
+                path.mInFlight.add(chunk);
+                path.mInFlightBytes += getLength(chunk);
+                return chunk;
+            }
+            wait(CHECK_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Records that the receiver wrote a chunk sent on the path.
+     */
+    synchronized void acknowledge(Path path, int chunk) {
+        if (chunk < 0 || chunk >= mChunkCount) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (path.mInFlight.remove(chunk)) {
+            int length = getLength(chunk);
+            path.mInFlightBytes -= length;
+            path.mAcknowledgedBytes += length;
+            path.mSampleBytes += length;
+            path.mProgressTime = now;
+            long elapsed = now - path.mSampleTime;
+            if (elapsed >= RATE_SAMPLE_NANOS) {
+                double rate = path.mSampleBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+                path.mRate = path.mRate == 0 ? rate : 0.75 * path.mRate + 0.25 * rate;
+                path.mSampleTime = now;
+                path.mSampleBytes = 0;
+            }
+        }
+        if (!mAcknowledged.get(chunk)) {
+            mAcknowledged.set(chunk);
+            mAcknowledgedCount++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Declares a path failed and moves its unacknowledged chunks to the other paths. Does nothing once the
+     * receiver has the whole file.
+     */
+    synchronized void fail(Path path) {
+        if (path.isFailed || isDone() || isAborted) {
+            return;
+        }
+        path.isFailed = true;
+        int moved = 0;
+        // Pushed at the head in reverse, so they are sent again in file order
+        Integer[] inFlight = path.mInFlight.toArray(new Integer[0]);
+        for (int index = inFlight.length - 1; index >= 0; index--) {
+            if (!mAcknowledged.get(inFlight[index])) {
+                mPending.addFirst(inFlight[index]);
+                moved++;
+            }
+        }
+        path.mInFlight.clear();
+        path.mInFlightBytes = 0;
+        System.out.println("Path " + path.mName + " failed, " + moved + " chunk(s) moved to the other paths");
+        try {
+            path.mConnection.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        notifyAll();
+    }
+
+    synchronized void abort() {
+        isAborted = true;
+        notifyAll();
+    }
+
+    synchronized boolean isAborted() {
+        return isAborted;
+    }
+
+    synchronized boolean isDone() {
+        return mAcknowledgedCount == mChunkCount;
+    }
+
+    synchronized long getAcknowledgedBytes() {
+        if (mChunkCount == 0) {
+            return 0;
+        }
+        long bytes = (long) mAcknowledgedCount * mChunkSize;
+        // Only the last chunk may be shorter
+        return mAcknowledged.get(mChunkCount - 1) ? bytes - mChunkSize + getLength(mChunkCount - 1) : bytes;
+    }
+
+    /**
+     * Waits until a first path is added.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait forever.
+     * @return true if a path was added; otherwise false.
+     */
+    synchronized boolean awaitPath(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mPaths.isEmpty() && !isAborted) {
+            long wait = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+            if (timeoutMillis != 0 && wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return !mPaths.isEmpty();
+    }
+
+    /**
+     * Waits until the transfer ends, checking for stalled paths meanwhile.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds.
+     * @return true once the receiver has the whole file, the transfer is aborted or every path failed.
+     */
+    synchronized boolean awaitEnd(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long wait;
+        while (!isEnded() && (wait = deadline - System.currentTimeMillis()) > 0) {
+            wait(Math.min(wait, CHECK_INTERVAL_MILLIS));
+            checkStalls(System.nanoTime());
+        }
+        return isEnded();
+    }
+
+    private boolean isEnded() {
+        if (isDone() || isAborted) {
+            return true;
+        }
+        for (Path path : mPaths) {
+            if (!path.isFailed) {
+                return false;
+            }
+        }
+        return !mPaths.isEmpty();
+    }
+
+    private void checkStalls(long now) {
+        for (Path path : mPaths) {
+            if (path.isFailed || path.mInFlight.isEmpty()) {
+                continue;
+            }
+            long stallNanos = mStallNanos;
+            if (path.mRate > 0) {
+                stallNanos = Math.max(stallNanos,
+                        (long) (4 * path.mInFlightBytes * TimeUnit.SECONDS.toNanos(1) / path.mRate));
+            }
+            if (now - path.mProgressTime > stallNanos) {
+                System.out.println("Path " + path.mName + " stalled for "
+                        + TimeUnit.NANOSECONDS.toMillis(now - path.mProgressTime) + " ms");
+                fail(path);
+            }
+        }
+    }
+
+    /**
+     * @return the largest number of chunks the path may have in flight, for its measured throughput.
+     */
+    private int getWindow(Path path) {
+        if (path.mRate == 0) {
+            return INITIAL_WINDOW_CHUNKS;
+        }
+        long chunks = (long) Math.ceil(path.mRate * WINDOW_HORIZON_NANOS / TimeUnit.SECONDS.toNanos(1) / mChunkSize);
+        // One more than the throughput needs, so the window can grow when the path is faster than measured
+        return (int) Math.max(MIN_WINDOW_CHUNKS, Math.min(MAX_WINDOW_CHUNKS, chunks + 1));
+    }
+
+    /**
+     * @return whether the path delivers a chunk before the fastest other path delivers all the pending ones.
+     */
+    private boolean isWorthSending(Path path) {
+        Path fastest = null;
+        for (Path other : mPaths) {
+            if (other != path && !other.isFailed && (fastest == null || other.mRate > fastest.mRate)) {
+                fastest = other;
+            }
+        }
+        if (fastest == null || path.mRate == 0 || fastest.mRate <= path.mRate) {
+            return true;
+        }
+        double pathTime = (path.mInFlightBytes + mChunkSize) / path.mRate;
+        double fastestTime = (fastest.mInFlightBytes + (double) mPending.size() * mChunkSize) / fastest.mRate;
+        return pathTime <= fastestTime;
+    }
+
+    /**
+     * One connection of the transfer, with what it has in flight and its measured throughput.
+     */
+    static class Path {
+
+        private final String mName;
+        private final Closeable mConnection;
+        /** The chunks sent and not acknowledged yet, in sending order */
+        private final LinkedHashSet<Integer> mInFlight = new LinkedHashSet<>();
+        private long mInFlightBytes;
+        private volatile long mAcknowledgedBytes;
+        /** Smoothed throughput in bytes per second, 0 until measured */
+        private volatile double mRate;
+        /** The start time in nanoseconds of the throughput sample, and the bytes acknowledged since */
+        private long mSampleTime;
+        private long mSampleBytes;
+        /** The time in nanoseconds the path last made progress, or started to be busy */
+        private long mProgressTime;
+        private volatile boolean isFailed;
+
+        private Path(String name, Closeable connection) {
+            mName = name;
+            mConnection = connection;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        long getAcknowledgedBytes() {
+            return mAcknowledgedBytes;
+        }
+
+        boolean isFailed() {
+            return isFailed;
+        }
+
+        double getRate() {
+            return mRate;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Striped counterpart of {@link LocalFastDownloadClient}: opens one path per pair of local and remote
+ * addresses to a listening {@link StripedDownloadReceiver} and sends it the file over all of them, spread by
+ * their measured throughput, see {@link StripeScheduler}.
+ * <p>
+ * start() opens the paths, at most for the timeout each, so it returns the same Result codes as the blocking
+ * client; the paths that cannot be opened are left out. The whole file is always sent, in its RAW form.
+ */
+public class StripedDownloadClient {
+
+    /** The IP address of the server host */
+    private final String mHost;
+    /** The TCP port of the server host */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server */
+    private final int mTimeout;
+    /** The path to the file to send to the server */
+    private final String mFilepath;
+    /** The addresses the paths are bound to, empty to let the system choose */
+    private List<String> mLocalAddresses = new ArrayList<>();
+    /** The addresses of the server the paths connect to, empty for the host only */
+    private List<String> mRemoteAddresses = new ArrayList<>();
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The time in milliseconds without acknowledgement after which a busy path is stalled */
+    private long mStallTimeout = StripedDownloadServer.DEFAULT_STALL_TIMEOUT;
+
+    /** Sends the file over the paths */
+    private StripedFileSender sender;
+    /** Set once the sender finished, whatever the result */
+    private volatile boolean isFinished = false;
+
+    /**
+     * Creates a client instance using given parameters.
+     *
+     * @param host     The IP address of the server host.
+     * @param port     The TCP port of the server host.
+     * @param timeout  The timeout in milliseconds for making connection to the server.
+     * @param filepath The path to the file to send to the server.
+     */
+    public StripedDownloadClient(String host, int port, int timeout, String filepath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mFilepath = filepath;
+    }
+
+    /**
+     * Sets the addresses the paths are bound to in turn, one per network interface. Must be called before
+     * start().
+     *
+     * @param localAddresses the local addresses, empty to let the system choose.
+     */
+    public void setLocalAddresses(List<String> localAddresses) {
+        mLocalAddresses = new ArrayList<>(localAddresses);
+    }
+
+    /**
+     * Sets the addresses of the server the paths connect to in turn, as 'host' or 'host:port'. Must be called
+     * before start().
+     *
+     * @param remoteAddresses the addresses of the server, empty to only connect to the host.
+     */
+    public void setRemoteAddresses(List<String> remoteAddresses) {
+        mRemoteAddresses = new ArrayList<>(remoteAddresses);
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the time without acknowledgement after which a path with chunks in flight is declared stalled, and
+     * its chunks moved to the other paths. Must be called before start().
+     *
+     * @param stallTimeout the time in milliseconds.
+     */
+    public void setStallTimeout(long stallTimeout) {
+        mStallTimeout = stallTimeout;
+    }
+
+    /**
+     * Validates the file, opens the paths to the server, and starts sending the file data in a separate thread.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public LocalFastDownloadClient.Result start() {
+        if (mFilepath == null || !new File(mFilepath).isFile()) {
+            System.err.println(mFilepath + " is NOT valid!");
+            return LocalFastDownloadClient.Result.FILE_PATH_INVALID;
+        }
+
+        List<String> remoteAddresses = mRemoteAddresses.isEmpty() ? List.of(mHost) : mRemoteAddresses;
+        System.out.println("Connecting to SERVER " + remoteAddresses + " on port " + mPort);
+        long session = StripeProtocol.newSession();
+        List<Socket> paths = new ArrayList<>();
+        try {
+            paths = StripeProtocol.connect(mLocalAddresses, remoteAddresses, mPort, mTimeout, session);
+            System.out.println("Just opened " + paths.size() + " path(s) to SERVER");
+            isFinished = false;
+            sender = new StripedFileSender(mFilepath, session, 0, mStallTimeout, mProgress, state -> {
+                isFinished = true;
+                if (mProgress != null) {
+                    mProgress.finish(state);
+                }
+            });
+        } catch (ConnectException connectException) {
+            connectException.printStackTrace();
+            return LocalFastDownloadClient.Result.SERVER_NOT_STARTED;
+        } catch (UnknownHostException unknownHostException) {
+            unknownHostException.printStackTrace();
+            return LocalFastDownloadClient.Result.UNKNOWN_HOST;
+        } catch (SocketTimeoutException socketTimeoutException) {
+            // Timeout expires before connecting
+            socketTimeoutException.printStackTrace();
+            return LocalFastDownloadClient.Result.SOCKET_TIMEOUT;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening a path or the file
+            ioException.printStackTrace();
+            for (Socket path : paths) {
+                try {
+                    path.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+            return LocalFastDownloadClient.Result.IO_ERROR;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            return LocalFastDownloadClient.Result.SECURITY_ERROR;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            return LocalFastDownloadClient.Result.PORT_OUT_OF_RANGE;
+        }
+
+        for (Socket path : paths) {
+            sender.attach(path, session);
+        }
+        sender.start();
+        return LocalFastDownloadClient.Result.SUCCESS;
+    }
+
+    /**
+     * Aborts the process of sending data to server.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (sender != null && !isFinished) {
+            sender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (sender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+
+        return false;
+    }
+}
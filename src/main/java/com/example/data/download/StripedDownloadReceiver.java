@@ -0,0 +1,222 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Striped counterpart of {@link LocalFastDownloadReceiver}: opens one path per pair of local and remote
+ * addresses to a {@link StripedDownloadServer} and receives the file over all of them, or, created with a port
+ * only, listens on the local addresses for the paths of a {@link StripedDownloadClient}.
+ * <p>
+ * The chunks are written to the destination file as they arrive, out of order, so the file only holds the
+ * whole data once {@link #awaitCompletion(long)} returned true.
+ */
+public class StripedDownloadReceiver {
+
+    /** The IP address of the server host, null to wait for a client */
+    private final String mHost;
+    /** The TCP port of the server host, or the local port to wait for a client on */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server */
+    private final int mTimeout;
+    /** The path to the file the received data is written to */
+    private final String mDestinationPath;
+    /** The addresses the paths are bound to, or listened on, empty to let the system choose */
+    private List<String> mLocalAddresses = new ArrayList<>();
+    /** The addresses of the server the paths connect to, empty for the host only */
+    private List<String> mRemoteAddresses = new ArrayList<>();
+
+    /** Holds a listening socket per local address, when waiting for a client */
+    private List<ServerSocket> serverSockets = new ArrayList<>();
+    /** Receives the file data over the paths */
+    private StripedFileReceiver receiver;
+
+    /**
+     * Creates a receiver connecting to a {@link StripedDownloadServer}.
+     *
+     * @param host            The IP address of the server host.
+     * @param port            The TCP port of the server host.
+     * @param timeout         The timeout in milliseconds for making connection to the server.
+     * @param destinationPath The path to the file the received data is written to.
+     */
+    public StripedDownloadReceiver(String host, int port, int timeout, String destinationPath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mDestinationPath = destinationPath;
+    }
+
+    /**
+     * Creates a receiver waiting for a {@link StripedDownloadClient} to connect.
+     *
+     * @param port            The local TCP port to wait on, 0 for any free port.
+     * @param timeout         The maximum time in milliseconds to wait for the client.
+     * @param destinationPath The path to the file the received data is written to.
+     */
+    public StripedDownloadReceiver(int port, int timeout, String destinationPath) {
+        this(null, port, timeout, destinationPath);
+    }
+
+    /**
+     * Sets the local addresses, one per network interface: the paths are bound to them in turn, or, when
+     * waiting for a client, they are listened on. Must be called before start().
+     *
+     * @param localAddresses the local addresses, empty to let the system choose.
+     */
+    public void setLocalAddresses(List<String> localAddresses) {
+        mLocalAddresses = new ArrayList<>(localAddresses);
+    }
+
+    /**
+     * Sets the addresses of the server the paths connect to in turn, as 'host' or 'host:port'. Must be called
+     * before start().
+     *
+     * @param remoteAddresses the addresses of the server, empty to only connect to the host.
+     */
+    public void setRemoteAddresses(List<String> remoteAddresses) {
+        mRemoteAddresses = new ArrayList<>(remoteAddresses);
+    }
+
+    /**
+     * Validates the destination, opens the paths to the server or binds the local addresses, and starts
+     * receiving the file data in a separate thread.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public LocalFastDownloadReceiver.Result start() {
+        if (mDestinationPath == null) {
+            return LocalFastDownloadReceiver.Result.DESTINATION_INVALID;
+        }
+        File destination = new File(mDestinationPath);
+        File parent = destination.getAbsoluteFile().getParentFile();
+        if (destination.isDirectory() || parent == null || !parent.isDirectory()) {
+            System.err.println(mDestinationPath + " is NOT valid!");
+            return LocalFastDownloadReceiver.Result.DESTINATION_INVALID;
+        }
+
+        List<Socket> paths = new ArrayList<>();
+        long session = 0;
+        try {
+            if (mHost != null) {
+                List<String> remoteAddresses = mRemoteAddresses.isEmpty() ? List.of(mHost) : mRemoteAddresses;
+                System.out.println("Connecting to SERVER " + remoteAddresses + " on port " + mPort);
+                session = StripeProtocol.newSession();
+                paths = StripeProtocol.connect(mLocalAddresses, remoteAddresses, mPort, mTimeout, session);
+                System.out.println("Just opened " + paths.size() + " path(s) to SERVER");
+            } else {
+                serverSockets = StripeProtocol.listen(mLocalAddresses, mPort);
+                if (mPort == 0) {
+                    System.out.println("Automatically Allocated Port: " + getLocalPort());
+                }
+            }
+            receiver = new StripedFileReceiver(session, mTimeout, new RandomAccessFile(destination, "rw"),
+                    () -> StripeProtocol.close(serverSockets));
+        } catch (ConnectException connectException) {
+            connectException.printStackTrace();
+            return LocalFastDownloadReceiver.Result.SERVER_NOT_STARTED;
+        } catch (UnknownHostException unknownHostException) {
+            unknownHostException.printStackTrace();
+            return LocalFastDownloadReceiver.Result.UNKNOWN_HOST;
+        } catch (SocketTimeoutException socketTimeoutException) {
+            // Timeout expires before connecting
+            socketTimeoutException.printStackTrace();
+            return LocalFastDownloadReceiver.Result.SOCKET_TIMEOUT;
+        } catch (BindException bindException) {
+            // Port already in use, or an address of another host
+            bindException.printStackTrace();
+            return LocalFastDownloadReceiver.Result.IO_ERROR;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            close(paths);
+            StripeProtocol.close(serverSockets);
+            return LocalFastDownloadReceiver.Result.IO_ERROR;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            close(paths);
+            return LocalFastDownloadReceiver.Result.SECURITY_ERROR;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            close(paths);
+            return LocalFastDownloadReceiver.Result.PORT_OUT_OF_RANGE;
+        }
+
+        for (Socket path : paths) {
+            receiver.attach(path, session);
+        }
+        for (ServerSocket serverSocket : serverSockets) {
+            System.out.println("Waiting for CLIENT paths on " + serverSocket.getLocalSocketAddress());
+            new StripeProtocol.Acceptor(serverSocket, receiver::attach).start();
+        }
+        receiver.start();
+        return LocalFastDownloadReceiver.Result.SUCCESS;
+    }
+
+    /**
+     * @return the local port of the receiver when waiting for a client, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return serverSockets.isEmpty() ? -1 : serverSockets.get(0).getLocalPort();
+    }
+
+    /**
+     * Aborts the process of receiving data. The paths are closed, which the sender sees as failed.
+     *
+     * @return true if the receiving process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (receiver != null && receiver.isAlive()) {
+            receiver.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (receiver != null) {
+            System.out.println("Too late to abort as the receiving process Already Completed");
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the receiving process to finish.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait forever.
+     * @return true if the whole file has been received; otherwise false.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        if (receiver == null) {
+            return false;
+        }
+        receiver.join(timeoutMillis);
+        return receiver.isCompleted();
+    }
+
+    /**
+     * @return the number of bytes written to the destination file so far.
+     */
+    public long getBytesWritten() {
+        return receiver == null ? 0 : receiver.getBytesWritten();
+    }
+
+    private static void close(List<Socket> paths) {
+        for (Socket path : paths) {
+            try {
+                path.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+    }
+}
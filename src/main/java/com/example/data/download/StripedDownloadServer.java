@@ -0,0 +1,183 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Striped counterpart of {@link LocalFastDownloadServer}: listens on several local addresses at once, one per
+ * network interface, and sends the file to one {@link StripedDownloadReceiver} over all the paths it opens,
+ * spread by their measured throughput, see {@link StripeScheduler}.
+ * <p>
+ * start() returns as soon as the addresses are bound, with the same Result codes as the blocking server. A
+ * receiver that opens no path within the timeout fails the transfer, which is reported to the progress object
+ * as FAILED. The whole file is always sent, in its RAW form.
+ */
+public class StripedDownloadServer {
+
+    /** Default maximum time in milliseconds to wait for client connection */
+    private static final int DEFAULT_SOCKET_TIMEOUT = 90_000;
+    /** Default time in milliseconds without acknowledgement after which a busy path is stalled */
+    public static final long DEFAULT_STALL_TIMEOUT = 5_000;
+
+    /** The tcp port number on which server waits for client connection, on every local address */
+    private final int mPort;
+    /** The maximum time in milliseconds to wait for client connection */
+    private final int mTimeout;
+    /** The path to file to send to client */
+    private final String mFilePath;
+    /** The addresses the server listens on, empty to listen on every address */
+    private List<String> mLocalAddresses = new ArrayList<>();
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The time in milliseconds without acknowledgement after which a busy path is stalled */
+    private long mStallTimeout = DEFAULT_STALL_TIMEOUT;
+
+    /** Holds a listening socket per local address */
+    private List<ServerSocket> serverSockets = new ArrayList<>();
+    /** Sends the file over the paths of the receiver */
+    private StripedFileSender sender;
+    /** Set once the sender finished, whatever the result */
+    private volatile boolean isFinished = false;
+
+    /**
+     * Creates a server instance with given port, default socket timeout and given filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public StripedDownloadServer(int port, String filePath) {
+        this(port, DEFAULT_SOCKET_TIMEOUT, filePath);
+    }
+
+    /**
+     * Creates a server instance with given port, socket timeout and filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param timeout  indicates maximum time in milliseconds to wait for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public StripedDownloadServer(int port, int timeout, String filePath) {
+        mPort = port;
+        mTimeout = timeout;
+        mFilePath = filePath;
+    }
+
+    /**
+     * Sets the addresses the server listens on, one per network interface. Must be called before start().
+     *
+     * @param localAddresses the local addresses, empty to listen on every address.
+     */
+    public void setLocalAddresses(List<String> localAddresses) {
+        mLocalAddresses = new ArrayList<>(localAddresses);
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Sets the time without acknowledgement after which a path with chunks in flight is declared stalled, and
+     * its chunks moved to the other paths. Must be called before start().
+     *
+     * @param stallTimeout the time in milliseconds.
+     */
+    public void setStallTimeout(long stallTimeout) {
+        mStallTimeout = stallTimeout;
+    }
+
+    /**
+     * Validates the file, binds the local addresses and starts waiting for the paths of the receiver.
+     *
+     * @return Returns a Result enum case to indicate the result of preparation work.
+     */
+    public LocalFastDownloadServer.Result start() {
+        if (sender != null && !isFinished) {
+            return LocalFastDownloadServer.Result.SERVER_ALREADY_RUNNING;
+        }
+        if (mFilePath == null || !new File(mFilePath).isFile()) {
+            System.err.println(mFilePath + " is NOT valid!");
+            return LocalFastDownloadServer.Result.FILE_PATH_INVALID;
+        }
+
+        try {
+            serverSockets = StripeProtocol.listen(mLocalAddresses, mPort);
+            if (mPort == 0) {
+                System.out.println("Automatically Allocated Port: " + getLocalPort());
+            }
+            isFinished = false;
+            sender = new StripedFileSender(mFilePath, 0, mTimeout, mStallTimeout, mProgress, state -> {
+                isFinished = true;
+                StripeProtocol.close(serverSockets);
+                if (mProgress != null) {
+                    mProgress.finish(state);
+                }
+            });
+        } catch (BindException bindException) {
+            // Port already in use, or an address of another host
+            bindException.printStackTrace();
+            return LocalFastDownloadServer.Result.PORT_ALREADY_IN_USE;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Port outside the specified range of valid port values, which is between 0 and 65535
+            illegalArgumentException.printStackTrace();
+            return LocalFastDownloadServer.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            // A security manager exists and its checkListen method doesn't allow the operation
+            securityException.printStackTrace();
+            return LocalFastDownloadServer.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening a socket or the file
+            ioException.printStackTrace();
+            StripeProtocol.close(serverSockets);
+            return LocalFastDownloadServer.Result.IO_ERROR;
+        }
+
+        for (ServerSocket serverSocket : serverSockets) {
+            System.out.println("Waiting for CLIENT paths on " + serverSocket.getLocalSocketAddress());
+            new StripeProtocol.Acceptor(serverSocket, sender::attach).start();
+        }
+        sender.start();
+        return LocalFastDownloadServer.Result.SUCCESS;
+    }
+
+    /**
+     * @return the port the server listens on, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return serverSockets.isEmpty() ? -1 : serverSockets.get(0).getLocalPort();
+    }
+
+    /**
+     * @return the number of bytes each path of the receiver delivered so far, in the order the paths arrived.
+     */
+    public List<Long> getPathBytes() {
+        return sender == null ? new ArrayList<>() : sender.getPathBytes();
+    }
+
+    /**
+     * This method is used to abort the file data sending process that is in progress, or the wait for the client.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (sender != null && !isFinished) {
+            sender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+        if (sender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+        return false;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.data.download;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * Receives a file sent by a {@link StripedFileSender} over several TCP connections at once.
+ * <p>
+ * Each path has a thread writing the chunks it receives at their own offset of the destination file, and
+ * acknowledging them. The chunks arrive out of order, so the file only holds the whole data once every chunk
+ * is received. The paths are then closed, including those the sender declared stalled, which may never send
+ * END.
+ */
+class StripedFileReceiver extends Thread {
+
+    /** Maximum time in milliseconds for the paths to read END once every chunk is received */
+    private static final long CLOSE_TIMEOUT_MILLIS = 2_000;
+
+    /** The destination file, written by all the paths */
+    private final RandomAccessFile mDestination;
+    private final FileChannel mFileChannel;
+    /** The maximum time in milliseconds to wait for the first path, 0 to wait forever */
+    private final int mAcceptTimeout;
+    /** Called once the paths are closed, whatever the result */
+    private final Runnable mOnFinished;
+
+    /** The session id of the paths, 0 until the first one is attached */
+    private long mSession;
+    private final List<PathReceiver> mPathReceivers = new ArrayList<>();
+    /** The number of paths still receiving */
+    private int mOpenPaths;
+    /** The length of the file, -1 until the first path received it */
+    private long mFileLength = -1;
+    private int mChunkSize;
+    private int mChunkCount;
+    /** The chunks written to the destination file */
+    private final BitSet mReceived = new BitSet();
+    private int mReceivedCount;
+    /** Set once the transfer ended, the paths attached later are closed */
+    private boolean isEnded;
+
+    /** Number of bytes written to the destination file, chunks received twice counted once */
+    private volatile long mBytesWritten;
+    /** Set when every chunk was received */
+    private volatile boolean isCompleted = false;
+    /** This flag is used to abort receiving data */
+    private volatile boolean isAborted = false;
+
+    /**
+     * @param session       the session id of the paths, or 0 to take the one of the first path attached.
+     * @param acceptTimeout the maximum time in milliseconds to wait for the first path, 0 to wait forever.
+     * @param destination   the destination file, sized to the sent file and closed when the receiving finishes.
+     * @param onFinished    called once the receiving finished, whatever the result.
+     */
+    StripedFileReceiver(long session, int acceptTimeout, RandomAccessFile destination, Runnable onFinished) {
+        super("striped-receiver");
+        mSession = session;
+        mAcceptTimeout = acceptTimeout;
+        mDestination = destination;
+        mOnFinished = onFinished;
+        mFileChannel = destination.getChannel();
+    }
+
+    /**
+     * Adds a path to the transfer. A path of another session, or arriving once the transfer ended, is closed.
+     *
+     * @param socket  the connected path.
+     * @param session the session id the path was opened with.
+     */
+    synchronized void attach(Socket socket, long session) {
+        if (isEnded || mSession != 0 && session != mSession) {
+            System.err.println("Path " + socket.getRemoteSocketAddress() + " turned away");
+            closeQuietly(socket);
+            return;
+        }
+        mSession = session;
+        PathReceiver pathReceiver = new PathReceiver(socket);
+        mPathReceivers.add(pathReceiver);
+        mOpenPaths++;
+        pathReceiver.start();
+        notifyAll();
+    }
+
+    void abort() {
+        isAborted = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    boolean isCompleted() {
+        return isCompleted;
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    @Override
+    public void run() {
+        List<PathReceiver> pathReceivers;
+        synchronized (this) {
+            try {
+                long deadline = System.currentTimeMillis() + mAcceptTimeout;
+                while (mPathReceivers.isEmpty() && !isAborted) {
+                    long wait = mAcceptTimeout == 0 ? 0 : deadline - System.currentTimeMillis();
+                    if (mAcceptTimeout != 0 && wait <= 0) {
+                        System.err.println("No path of the sender within " + mAcceptTimeout + " ms");
+                        break;
+                    }
+                    wait(wait);
+                }
+                System.out.println("Receiving ...");
+                while (!isAborted && !isAllReceived() && mOpenPaths > 0) {
+                    wait();
+                }
+                // Lets the healthy paths read END, so closing them does not reset the last acknowledgements
+                long closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+                long wait;
+                while (!isAborted && mOpenPaths > 0 && (wait = closeDeadline - System.currentTimeMillis()) > 0) {
+                    wait(wait);
+                }
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            isCompleted = !isAborted && isAllReceived();
+            isEnded = true;
+            pathReceivers = new ArrayList<>(mPathReceivers);
+        }
+        // Unblocks the paths still waiting for data, stalled ones included
+        for (PathReceiver pathReceiver : pathReceivers) {
+            closeQuietly(pathReceiver.mSocket);
+        }
+        for (PathReceiver pathReceiver : pathReceivers) {
+            try {
+                pathReceiver.join();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try {
+            mDestination.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        System.out.println(isCompleted ? "Receiving Completed" : isAborted ? "Receiving Aborted" : "Receiving Failed");
+        mOnFinished.run();
+    }
+
+    private boolean isAllReceived() {
+        return mFileLength >= 0 && mReceivedCount == mChunkCount;
+    }
+
+    /**
+     * Records the layout the sender announced on a path, and sizes the destination file on the first one.
+     */
+    private synchronized void setLayout(long fileLength, int chunkSize) throws IOException {
+        if (mFileLength < 0) {
+            // The chunk size sizes the buffer of every path, so it is bounded before anything is allocated
+            if (fileLength < 0 || chunkSize <= 0 || chunkSize > StripeProtocol.CHUNK_SIZE
+                    || (fileLength + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid layout: " + fileLength + " bytes in chunks of " + chunkSize);
+            }
+            mDestination.setLength(fileLength);
+            mFileLength = fileLength;
+            mChunkSize = chunkSize;
+            mChunkCount = (int) ((fileLength + chunkSize - 1) / chunkSize);
+            notifyAll();
+        } else if (fileLength != mFileLength || chunkSize != mChunkSize) {
+            throw new IOException("Paths announce different files");
+        }
+    }
+
+    private synchronized void received(int chunk, int length) {
+        if (!mReceived.get(chunk)) {
+            mReceived.set(chunk);
+            mReceivedCount++;
+            mBytesWritten += length;
+            if (isAllReceived()) {
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void pathEnded() {
+        mOpenPaths--;
+        notifyAll();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * A Thread subclass writing the chunks of one path to the destination file and acknowledging them.
+     */
+    private class PathReceiver extends Thread {
+
+        private final Socket mSocket;
+
+        PathReceiver(Socket socket) {
+            super("striped-receiver-path");
+            mSocket = socket;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream inputStream = new DataInputStream(
+                        new BufferedInputStream(mSocket.getInputStream(), StripeProtocol.CHUNK_SIZE));
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+                long fileLength = inputStream.readLong();
+                int chunkSize = inputStream.readInt();
+                setLayout(fileLength, chunkSize);
+                byte[] data = new byte[chunkSize];
+                int chunkCount = (int) ((fileLength + chunkSize - 1) / chunkSize);
+                int chunk;
+                while (!isAborted && (chunk = inputStream.readInt()) != StripeProtocol.END) {
+                    if (chunk < 0 || chunk >= chunkCount) {
+                        throw new IOException("Invalid chunk " + chunk + " from " + mSocket.getRemoteSocketAddress());
+                    }
+                    long offset = (long) chunk * chunkSize;
+                    int length = (int) Math.min(chunkSize, fileLength - offset);
+                    inputStream.readFully(data, 0, length);
+                    ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                    while (buffer.hasRemaining()) {
+                        mFileChannel.write(buffer, offset + buffer.position());
+                    }
+                    // Acknowledged first, so the last acknowledgement leaves before the paths are closed
+                    outputStream.writeInt(chunk);
+                    outputStream.flush();
+                    received(chunk, length);
+                }
+            } catch (IOException ioException) {
+                synchronized (StripedFileReceiver.this) {
+                    // Expected once the transfer ended, or on a path the sender declared stalled
+                    if (!isEnded && !isAllReceived()) {
+                        System.err.println("Path " + mSocket.getRemoteSocketAddress() + " ended: " + ioException);
+                    }
+                }
+            } finally {
+                pathEnded();
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.data.download;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * Sends a file over several TCP connections at once, each one between its own pair of local and remote
+ * addresses, so a transfer is not capped by a single network interface.
+ * <p>
+ * Each path has a thread writing the chunks the {@link StripeScheduler} hands to it, read from the file at
+ * their own offset, and a thread reading the acknowledgements of the receiver. Paths may be attached while the
+ * transfer runs: they take their share of the remaining chunks. The transfer completes once the receiver has
+ * every chunk, and fails when every path failed.
+ */
+class StripedFileSender extends Thread {
+
+    /** Interval in milliseconds between two progress updates */
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+    /** Maximum time in milliseconds for a path to end once the receiver has the whole file */
+    private static final long CLOSE_TIMEOUT_MILLIS = 2_000;
+
+    /** The path of the file to send */
+    private final String mFilePath;
+    /** The file, read by all the paths */
+    private final FileChannel mFileChannel;
+    /** The maximum time in milliseconds to wait for the first path, 0 to wait forever */
+    private final int mAcceptTimeout;
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private final TransferProgress mProgress;
+    /** Called once with the final state, after the paths are closed */
+    private final Consumer<TransferProgress.State> mOnFinished;
+    private final StripeScheduler mScheduler;
+
+    /** The session id of the paths, 0 until the first one is attached */
+    private long mSession;
+    private final List<PathSender> mPathSenders = new ArrayList<>();
+    /** Set once the transfer ended, the paths attached later are closed */
+    private boolean isEnded;
+
+    /**
+     * @param filePath      the path of the file to send.
+     * @param session       the session id of the paths, or 0 to take the one of the first path attached.
+     * @param acceptTimeout the maximum time in milliseconds to wait for the first path, 0 to wait forever.
+     * @param stallMillis   the time in milliseconds without acknowledgement after which a busy path is stalled.
+     * @param progress      receives the progress of the sending process, or null.
+     * @param onFinished    called once with COMPLETED, ABORTED or FAILED.
+     * @throws IOException if the file cannot be opened.
+     */
+    StripedFileSender(String filePath, long session, int acceptTimeout, long stallMillis, TransferProgress progress,
+            Consumer<TransferProgress.State> onFinished) throws IOException {
+        super("striped-sender");
+        mFilePath = filePath;
+        mFileChannel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        mSession = session;
+        mAcceptTimeout = acceptTimeout;
+        mProgress = progress;
+        mOnFinished = onFinished;
+        mScheduler = new StripeScheduler(mFileChannel.size(), StripeProtocol.CHUNK_SIZE, stallMillis);
+    }
+
+    /**
+     * Adds a path to the transfer. A path of another session, or arriving once the transfer ended, is closed.
+     *
+     * @param socket  the connected path.
+     * @param session the session id the path was opened with.
+     */
+    synchronized void attach(Socket socket, long session) {
+        if (isEnded || mSession != 0 && session != mSession) {
+            System.err.println("Path " + socket.getRemoteSocketAddress() + " turned away");
+            closeQuietly(socket);
+            return;
+        }
+        mSession = session;
+        String name = socket.getLocalSocketAddress() + " -> " + socket.getRemoteSocketAddress();
+        PathSender pathSender = new PathSender(socket, mScheduler.addPath(name, socket));
+        mPathSenders.add(pathSender);
+        pathSender.start();
+    }
+
+    /**
+     * Stops the transfer. The paths are closed and the transfer reported as ABORTED.
+     */
+    void abort() {
+        mScheduler.abort();
+    }
+
+    /**
+     * @return the number of bytes each path delivered so far, in the order the paths were attached.
+     */
+    List<Long> getPathBytes() {
+        List<Long> pathBytes = new ArrayList<>();
+        for (StripeScheduler.Path path : mScheduler.getPaths()) {
+            pathBytes.add(path.getAcknowledgedBytes());
+        }
+        return pathBytes;
+    }
+
+    @Override
+    public void run() {
+        TransferProgress.State state = TransferProgress.State.FAILED;
+        try {
+            if (mProgress != null) {
+                mProgress.begin(mScheduler.getFileLength());
+            }
+            if (!mScheduler.awaitPath(mAcceptTimeout)) {
+                if (mScheduler.isAborted()) {
+                    state = TransferProgress.State.ABORTED;
+                } else {
+                    System.err.println("No path of the receiver within " + mAcceptTimeout + " ms");
+                }
+            } else {
+                System.out.println("Sending ...");
+                while (!mScheduler.awaitEnd(PROGRESS_INTERVAL_MILLIS)) {
+                    updateProgress();
+                }
+                updateProgress();
+                state = mScheduler.isDone() ? TransferProgress.State.COMPLETED
+                        : mScheduler.isAborted() ? TransferProgress.State.ABORTED : TransferProgress.State.FAILED;
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } finally {
+            List<PathSender> pathSenders;
+            synchronized (this) {
+                isEnded = true;
+                pathSenders = new ArrayList<>(mPathSenders);
+            }
+            mScheduler.abort();
+            closePaths(pathSenders);
+            try {
+                mFileChannel.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+            for (StripeScheduler.Path path : mScheduler.getPaths()) {
+                System.out.println("Path " + path.getName() + ": " + path.getAcknowledgedBytes() + " bytes"
+                        + (path.isFailed() ? ", failed" : ""));
+            }
+            System.out.println("Sending " + state + " " + mFilePath);
+            mOnFinished.accept(state);
+        }
+    }
+
+    private void updateProgress() {
+        if (mProgress != null) {
+            mProgress.set(mScheduler.getAcknowledgedBytes());
+        }
+    }
+
+    /**
+     * Lets the paths send END and the receiver close them, then closes those still open.
+     */
+    private void closePaths(List<PathSender> pathSenders) {
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (PathSender pathSender : pathSenders) {
+            try {
+                pathSender.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (PathSender pathSender : pathSenders) {
+            closeQuietly(pathSender.mSocket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * A Thread subclass writing the chunks of one path, while a second thread reads their acknowledgements.
+     */
+    private class PathSender extends Thread {
+
+        private final Socket mSocket;
+        private final StripeScheduler.Path mPath;
+
+        PathSender(Socket socket, StripeScheduler.Path path) {
+            super("striped-sender-path");
+            mSocket = socket;
+            mPath = path;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Thread acknowledgementReader = new Thread(this::readAcknowledgements, "striped-sender-acks");
+            acknowledgementReader.setDaemon(true);
+            acknowledgementReader.start();
+            try {
+                DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(mSocket.getOutputStream(), StripeProtocol.CHUNK_SIZE));
+                outputStream.writeLong(mScheduler.getFileLength());
+                outputStream.writeInt(mScheduler.getChunkSize());
+                outputStream.flush();
+                ByteBuffer buffer = ByteBuffer.allocate(mScheduler.getChunkSize());
+                int chunk;
+                while ((chunk = mScheduler.next(mPath)) >= 0) {
+                    long offset = mScheduler.getOffset(chunk);
+                    buffer.clear().limit(mScheduler.getLength(chunk));
+                    while (buffer.hasRemaining()) {
+                        if (mFileChannel.read(buffer, offset + buffer.position()) < 0) {
+                            throw new EOFException(mFilePath + " is shorter than announced");
+                        }
+                    }
+                    outputStream.writeInt(chunk);
+                    outputStream.write(buffer.array(), 0, buffer.limit());
+                    outputStream.flush();
+                }
+                if (mScheduler.isDone()) {
+                    outputStream.writeInt(StripeProtocol.END);
+                    outputStream.flush();
+                    // The receiver closes the path once it has read END
+                    mSocket.shutdownOutput();
+                    acknowledgementReader.join(CLOSE_TIMEOUT_MILLIS);
+                }
+            } catch (IOException ioException) {
+                if (!mPath.isFailed() && !mScheduler.isDone()) {
+                    ioException.printStackTrace();
+                }
+                mScheduler.fail(mPath);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void readAcknowledgements() {
+            try {
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+                while (true) {
+                    mScheduler.acknowledge(mPath, inputStream.readInt());
+                }
+            } catch (IOException ioException) {
+                // The receiver closed the path, or the path failed
+                mScheduler.fail(mPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package com.example.data.download;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Forwards every TCP connection it accepts to a target, through a simulated link with a one-way delay, a random
+ * jitter, a bandwidth cap and losses, so the transfers can be tried on a dev box as if they crossed a WAN.
+ * <p>
+ * The data is forwarded in segments of at most SEGMENT_SIZE bytes. Each segment is held for the delay plus a
+ * random jitter, but never overtakes the previous one, as TCP delivers the bytes in order. A lost segment is
+ * what the application sees of a loss under TCP: the segment and all the ones behind it arrive a retransmission
+ * timeout late. The bandwidth cap is shared by all the connections, one link per direction.
+ * <p>
+ * All the connections are forwarded by this thread, with non-blocking channels and a selector. Each link keeps
+ * the directions of the connections that wait for a segment to cross it in a timer queue, ordered by the time
+ * their next segment is due, so thousands of connections cost a selection key and a queue entry each rather
+ * than threads. A direction holds at most MAX_QUEUED_SEGMENTS segments, 4 MB, while the link delays them; past
+ * that the proxy stops reading it and the rest waits in the socket buffers.
+ */
+public class TcpImpairmentProxy extends Thread {
+
+    /** Largest number of bytes forwarded at once */
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    /** Largest number of segments held per direction of a connection, the rest waits in the socket buffers */
+    private static final int MAX_QUEUED_SEGMENTS = 256;
+    /** Smallest retransmission timeout in milliseconds added to a lost segment */
+    private static final long MIN_RETRANSMISSION_MILLIS = 200;
+
+    /** The tcp port the clients connect to */
+    private final int mListenPort;
+    /** The address the connections are forwarded to */
+    private final SocketAddress mTarget;
+
+    /** The one-way delay in nanoseconds added to every segment */
+    private volatile long mDelayNanos;
+    /** The largest random delay in nanoseconds added to the fixed one */
+    private volatile long mJitterNanos;
+    /** The capacity of the link in bytes per second, in each direction, 0 for no limit */
+    private volatile long mBandwidth;
+    /** The probability for a segment to be lost, between 0 and 1 */
+    private volatile double mLossRate;
+
+    /** The simulated link from the clients to the target, and back */
+    private final Link mUpLink = new Link();
+    private final Link mDownLink = new Link();
+
+    /** Holds the server channel bound to port 'mListenPort' */
+    private ServerSocketChannel mServerChannel;
+    /** Wakes the thread up when a connection can be accepted, connected, read or written */
+    private Selector mSelector;
+    /** The port the clients connect to, -1 until bound */
+    private volatile int mLocalPort = -1;
+    /** Receives the bytes read from a channel before they are copied to a segment */
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+    /** Number of connections forwarded and not closed yet */
+    private int mOpenConnections;
+
+    /** This flag is used to stop forwarding */
+    private volatile boolean isStopped = false;
+
+    /** Number of connections accepted and segments lost so far */
+    private volatile long mConnections;
+    private volatile long mLostSegments;
+
+    /**
+     * @param listenPort the tcp port the clients connect to, 0 for any free port.
+     * @param targetHost the host the connections are forwarded to.
+     * @param targetPort the port the connections are forwarded to.
+     */
+    public TcpImpairmentProxy(int listenPort, String targetHost, int targetPort) {
+        super("tcp-proxy");
+        mListenPort = listenPort;
+        mTarget = new InetSocketAddress(targetHost, targetPort);
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the one-way delay added to every segment. Can be changed while forwarding.
+     *
+     * @param delayMillis the delay in milliseconds.
+     */
+    public void setDelayMillis(long delayMillis) {
+        mDelayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * Sets the largest random delay added to the fixed one. Can be changed while forwarding.
+     *
+     * @param jitterMillis the jitter in milliseconds.
+     */
+    public void setJitterMillis(long jitterMillis) {
+        mJitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+    }
+
+    /**
+     * Caps the capacity of the link, shared by all the connections. Can be changed while forwarding.
+     *
+     * @param bandwidth the capacity in bytes per second in each direction, 0 for no limit.
+     */
+    public void setBandwidth(long bandwidth) {
+        mBandwidth = bandwidth;
+    }
+
+    /**
+     * Sets the probability for a segment to be lost and arrive a retransmission timeout late. Can be changed
+     * while forwarding.
+     *
+     * @param lossRate the loss rate, between 0 and 1.
+     */
+    public void setLossRate(double lossRate) {
+        mLossRate = lossRate;
+    }
+
+    /**
+     * Binds the listening port and starts forwarding in this thread.
+     *
+     * @throws IOException if an I/O error occurs when binding the port.
+     */
+    public void open() throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel serverChannel = null;
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(mListenPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ioException) {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            throw ioException;
+        }
+        mSelector = selector;
+        mServerChannel = serverChannel;
+        mLocalPort = serverChannel.socket().getLocalPort();
+        start();
+        System.out.println("Forwarding port " + getLocalPort() + " to " + mTarget);
+    }
+
+    /**
+     * @return the port the clients connect to, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return mLocalPort;
+    }
+
+    public long getConnections() {
+        return mConnections;
+    }
+
+    public long getLostSegments() {
+        return mLostSegments;
+    }
+
+    /**
+     * Stops accepting connections. The connections already forwarded go on until one of their ends closes, then
+     * the thread ends.
+     */
+    public void shutdown() {
+        isStopped = true;
+        if (mSelector != null) {
+            mSelector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isStopped || mOpenConnections > 0) {
+                if (isStopped && mServerChannel.isOpen()) {
+                    mServerChannel.close();
+                }
+                long wait = Math.min(mUpLink.getNextTime(), mDownLink.getNextTime());
+                if (wait == Long.MAX_VALUE) {
+                    mSelector.select();
+                } else if ((wait -= System.nanoTime()) > 0) {
+                    // Rounded up, a segment is never written before its time
+                    mSelector.select(Math.max(1, (wait + TimeUnit.MILLISECONDS.toNanos(1) - 1)
+                            / TimeUnit.MILLISECONDS.toNanos(1)));
+                } else {
+                    mSelector.selectNow();
+                }
+                for (SelectionKey key : mSelector.selectedKeys()) {
+                    if (key.attachment() == null) {
+                        accept();
+                    } else {
+                        handle(key, (Connection) key.attachment());
+                    }
+                }
+                mSelector.selectedKeys().clear();
+                long now = System.nanoTime();
+                mUpLink.runTimers(now);
+                mDownLink.runTimers(now);
+            }
+        } catch (IOException ioException) {
+            if (!isStopped) {
+                ioException.printStackTrace();
+            }
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(mServerChannel);
+            closeQuietly(mSelector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client;
+        while ((client = mServerChannel.accept()) != null) {
+            mConnections++;
+            SocketChannel target = null;
+            try {
+                client.configureBlocking(false);
+                target = SocketChannel.open();
+                target.configureBlocking(false);
+                Connection connection = new Connection(client, target);
+                connection.isConnected = target.connect(mTarget);
+                client.register(mSelector, 0, connection);
+                target.register(mSelector, 0, connection);
+                mOpenConnections++;
+                updateInterest(connection);
+            } catch (IOException ioException) {
+                // Like a target that does not listen: the client sees its connection closed
+                ioException.printStackTrace();
+                closeQuietly(client);
+                closeQuietly(target);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key, Connection connection) {
+        if (connection.isClosed || !key.isValid()) {
+            // Closed while handling the other end of the connection
+            return;
+        }
+        long now = System.nanoTime();
+        boolean isClient = key.channel() == connection.mClient;
+        try {
+            if (key.isConnectable() && connection.mTarget.finishConnect()) {
+                connection.isConnected = true;
+                // The first segments of the client may be waiting for the connection
+                connection.mUp.isWaitingWritable = false;
+                advance(connection.mUp, now);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(isClient ? connection.mUp : connection.mDown, now);
+            }
+            if (!connection.isClosed && key.isValid() && key.isWritable()) {
+                Direction direction = isClient ? connection.mDown : connection.mUp;
+                direction.isWaitingWritable = false;
+                advance(direction, now);
+            }
+            if (!connection.isClosed) {
+                updateInterest(connection);
+            }
+        } catch (IOException ioException) {
+            if (!connection.isConnected) {
+                // Like a target that does not listen: the client sees its connection closed
+                ioException.printStackTrace();
+            }
+            // Otherwise one end reset the connection, the other end sees it reset too
+            close(connection);
+        }
+    }
+
+    /**
+     * Reads the segments available in one direction, stamping each one with the time it is delivered.
+     */
+    private void read(Direction direction, long now) throws IOException {
+        while (!direction.isEnded && direction.mQueue.size() < MAX_QUEUED_SEGMENTS) {
+            mReadBuffer.clear();
+            int length = direction.mFrom.read(mReadBuffer);
+            if (length < 0) {
+                direction.isEnded = true;
+            } else if (length == 0) {
+                break;
+            } else {
+                byte[] data = new byte[length];
+                mReadBuffer.flip();
+                mReadBuffer.get(data);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long dueTime = now + mDelayNanos + (mJitterNanos > 0 ? random.nextLong(mJitterNanos + 1) : 0);
+                if (random.nextDouble() < mLossRate) {
+                    mLostSegments++;
+                    dueTime += Math.max(2 * mDelayNanos, TimeUnit.MILLISECONDS.toNanos(MIN_RETRANSMISSION_MILLIS));
+                }
+                // The bytes are delivered in order, a segment waits for the previous one
+                direction.mLastDueTime = Math.max(direction.mLastDueTime, dueTime);
+                direction.mQueue.add(new Segment(direction.mLastDueTime, data));
+            }
+        }
+        if (!direction.isScheduled && !direction.isWaitingWritable) {
+            advance(direction, now);
+        }
+    }
+
+    /**
+     * Writes the segments of a direction whose time has come, then waits for the next one on the timer queue of
+     * its link, or for the channel to be writable again.
+     */
+    private void advance(Direction direction, long now) throws IOException {
+        if (direction.isFinished) {
+            return;
+        }
+        if (!direction.mConnection.isConnected) {
+            direction.isWaitingWritable = true;
+            return;
+        }
+        Segment head;
+        while ((head = direction.mQueue.peek()) != null) {
+            if (head.mSendTime < 0) {
+                if (head.mDueTime > now) {
+                    direction.mLink.schedule(direction, head.mDueTime);
+                    return;
+                }
+                head.mSendTime = direction.mLink.transmit(head.mData.remaining(), head.mDueTime);
+            }
+            if (head.mSendTime > now) {
+                direction.mLink.schedule(direction, head.mSendTime);
+                return;
+            }
+            direction.mTo.write(head.mData);
+            if (head.mData.hasRemaining()) {
+                direction.isWaitingWritable = true;
+                return;
+            }
+            direction.mQueue.poll();
+        }
+        if (direction.isEnded) {
+            // Half close, the other direction may still have data to forward
+            direction.mTo.shutdownOutput();
+            direction.isFinished = true;
+            if (--direction.mConnection.mOpenDirections == 0) {
+                close(direction.mConnection);
+            }
+        }
+    }
+
+    /**
+     * Reads a direction while it has room for more segments, and writes it while a segment waits for room in
+     * the socket buffer.
+     */
+    private void updateInterest(Connection connection) {
+        int clientOps = (connection.mUp.isReadable() ? SelectionKey.OP_READ : 0)
+                | (connection.mDown.isWaitingWritable ? SelectionKey.OP_WRITE : 0);
+        int targetOps = !connection.isConnected ? SelectionKey.OP_CONNECT
+                : (connection.mDown.isReadable() ? SelectionKey.OP_READ : 0)
+                        | (connection.mUp.isWaitingWritable ? SelectionKey.OP_WRITE : 0);
+        setInterest(connection.mClient.keyFor(mSelector), clientOps);
+        setInterest(connection.mTarget.keyFor(mSelector), targetOps);
+    }
+
+    private static void setInterest(SelectionKey key, int ops) {
+        if (key != null && key.isValid() && key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Closes both ends of a connection. Its directions still in a timer queue are skipped when their time comes.
+     */
+    private void close(Connection connection) {
+        if (connection.isClosed) {
+            return;
+        }
+        connection.isClosed = true;
+        connection.mUp.mQueue.clear();
+        connection.mDown.mQueue.clear();
+        closeQuietly(connection.mClient);
+        closeQuietly(connection.mTarget);
+        mOpenConnections--;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * One direction of the simulated link, shared by all the connections so they compete for its bandwidth.
+     */
+    private class Link {
+
+        /** The time in nanoseconds the link finishes sending the segments already given to it */
+        private long mFreeTime;
+        /** The directions waiting for their next segment, the one due first at the head */
+        private final PriorityQueue<Direction> mTimers = new PriorityQueue<>(
+                Comparator.comparingLong((Direction direction) -> direction.mTimerTime));
+
+        /**
+         * Books the link for a segment once it has crossed the delay. The link is booked from the time the
+         * segment is due rather than the time the thread gets to it, so a late wake-up does not lower its
+         * capacity.
+         *
+         * @return the time in nanoseconds the last byte of the segment has been sent.
+         */
+        long transmit(int length, long dueTime) {
+            long bandwidth = mBandwidth;
+            if (bandwidth <= 0) {
+                return dueTime;
+            }
+            mFreeTime = Math.max(mFreeTime, dueTime) + TimeUnit.SECONDS.toNanos(1) * length / bandwidth;
+            return mFreeTime;
+        }
+
+        void schedule(Direction direction, long time) {
+            direction.mTimerTime = time;
+            direction.isScheduled = true;
+            mTimers.add(direction);
+        }
+
+        /**
+         * @return the time in nanoseconds of the next timer, or Long.MAX_VALUE if there is none.
+         */
+        long getNextTime() {
+            Direction head = mTimers.peek();
+            return head == null ? Long.MAX_VALUE : head.mTimerTime;
+        }
+
+        /**
+         * Advances every direction whose time has come.
+         */
+        void runTimers(long now) {
+            Direction direction;
+            while ((direction = mTimers.peek()) != null && direction.mTimerTime <= now) {
+                mTimers.poll();
+                direction.isScheduled = false;
+                Connection connection = direction.mConnection;
+                if (connection.isClosed) {
+                    continue;
+                }
+                try {
+                    advance(direction, now);
+                    updateInterest(connection);
+                } catch (IOException ioException) {
+                    // One end reset the connection, the other end sees it reset too
+                    close(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * A forwarded connection: the client end, the target end, and a direction of each link between them.
+     */
+    private class Connection {
+        private final SocketChannel mClient;
+        private final SocketChannel mTarget;
+        private final Direction mUp;
+        private final Direction mDown;
+        /** Number of directions still forwarding, the last one closes the channels */
+        private int mOpenDirections = 2;
+        /** Set once the connection to the target is established */
+        private boolean isConnected;
+        private boolean isClosed;
+
+        Connection(SocketChannel client, SocketChannel target) {
+            mClient = client;
+            mTarget = target;
+            mUp = new Direction(this, client, target, mUpLink);
+            mDown = new Direction(this, target, client, mDownLink);
+        }
+    }
+
+    /**
+     * One direction of a connection: the segments read from one end and not written to the other yet.
+     */
+    private static class Direction {
+        private final Connection mConnection;
+        /** The channel the segments are read from */
+        private final SocketChannel mFrom;
+        /** The channel the segments are written to */
+        private final SocketChannel mTo;
+        /** The direction of the link the segments cross */
+        private final Link mLink;
+        /** The segments read and not written yet, in order */
+        private final ArrayDeque<Segment> mQueue = new ArrayDeque<>();
+        /** The time in nanoseconds the last segment read is delivered */
+        private long mLastDueTime;
+        /** The time in nanoseconds of its entry in the timer queue of the link */
+        private long mTimerTime;
+        /** Set while the direction is in the timer queue of the link */
+        private boolean isScheduled;
+        /** Set while a segment waits for room in the socket buffer, or for the target to be connected */
+        private boolean isWaitingWritable;
+        /** Set once the end of the stream has been read */
+        private boolean isEnded;
+        /** Set once the end of the stream has been forwarded */
+        private boolean isFinished;
+
+        Direction(Connection connection, SocketChannel from, SocketChannel to, Link link) {
+            mConnection = connection;
+            mFrom = from;
+            mTo = to;
+            mLink = link;
+        }
+
+        boolean isReadable() {
+            return !isEnded && mQueue.size() < MAX_QUEUED_SEGMENTS;
+        }
+    }
+
+    /**
+     * Bytes read at once, with the time they are delivered.
+     */
+    private static class Segment {
+        private final long mDueTime;
+        private final ByteBuffer mData;
+        /** The time in nanoseconds the link has sent the segment, -1 until booked */
+        private long mSendTime = -1;
+
+        Segment(long dueTime, byte[] data) {
+            mDueTime = dueTime;
+            mData = ByteBuffer.wrap(data);
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.example.data.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded, file-backed catalog of the served files and of the transfer history.
+ * <p>
+ * Everything is held in memory and indexed by path and by hash, so queries never touch the disk. The catalog
+ * is persisted as one snapshot file, rewritten atomically by {@link #flush()} when something changed.
+ * The history is bounded, the oldest records are dropped first.
+ */
+public class TransferCatalog {
+
+    /** Marks a catalog snapshot file ("CTLG") */
+    private static final int MAGIC = 0x43544C47;
+    /** Version of the snapshot format */
+    private static final int VERSION = 1;
+
+    /** Default maximum number of transfer records kept in the history */
+    public static final int DEFAULT_HISTORY_SIZE = 10_000;
+
+    /** The path to the snapshot file */
+    private final Path mPath;
+    /** The maximum number of transfer records kept in the history */
+    private final int mHistorySize;
+
+    /** The served files, by absolute normalized path */
+    private final Map<String, FileEntry> mFiles = new ConcurrentHashMap<>();
+    /** The paths of the served files, by hash */
+    private final Map<String, Set<String>> mPathsByHash = new ConcurrentHashMap<>();
+    /** The most recent transfers, oldest first. Guarded by itself */
+    private final ArrayDeque<TransferRecord> mHistory = new ArrayDeque<>();
+
+    /** Set when the catalog changed since the last flush */
+    private volatile boolean isDirty = false;
+
+    /**
+     * Opens the catalog with the default history size, loading the snapshot file if it exists.
+     *
+     * @param path the path to the snapshot file.
+     * @throws IOException if the snapshot file exists but cannot be read.
+     */
+    public TransferCatalog(Path path) throws IOException {
+        this(path, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * Opens the catalog, loading the snapshot file if it exists.
+     *
+     * @param path        the path to the snapshot file.
+     * @param historySize the maximum number of transfer records kept in the history.
+     * @throws IOException if the snapshot file exists but cannot be read.
+     */
+    public TransferCatalog(Path path, int historySize) throws IOException {
+        mPath = path;
+        mHistorySize = historySize;
+        if (Files.exists(path)) {
+            load();
+        }
+    }
+
+    /**
+     * Records that a file starts being served, refreshing its size and modification time.
+     *
+     * @param filePath the path to the served file.
+     * @return the up to date entry of the file, or null if the file cannot be read.
+     */
+    public FileEntry recordServed(String filePath) {
+        String key = normalize(filePath);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Path.of(key), BasicFileAttributes.class);
+        } catch (IOException ioException) {
+            System.err.println(filePath + " is NOT valid!");
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        FileEntry entry = mFiles.compute(key, (path, current) -> {
+            FileEntry updated = current == null ? new FileEntry(path) : current;
+            synchronized (updated) {
+                updated.refresh(attributes.size(), attributes.lastModifiedTime().toMillis());
+                updated.mServeCount++;
+                updated.mLastServed = now;
+            }
+            return updated;
+        });
+        isDirty = true;
+        return entry;
+    }
+
+    /**
+     * Stores the hash of a file, as long as the file did not change since the given size and modification time.
+     *
+     * @param filePath     the path to the file.
+     * @param size         the size of the file when the hash was computed.
+     * @param lastModified the modification time in milliseconds of the file when the hash was computed.
+     * @param hash         the hash of the file data.
+     */
+    public void recordHash(String filePath, long size, long lastModified, String hash) {
+        if (hash == null || hash.isEmpty()) {
+            return;
+        }
+        String key = normalize(filePath);
+        FileEntry entry = mFiles.computeIfAbsent(key, FileEntry::new);
+        synchronized (entry) {
+            if (entry.mSize == -1) {
+                entry.refresh(size, lastModified);
+            } else if (entry.mSize != size || entry.mLastModified != lastModified) {
+                // The file changed after it was hashed
+                return;
+            }
+            unindexHash(key, entry.mHash);
+            entry.mHash = hash;
+        }
+        mPathsByHash.computeIfAbsent(hash, value -> ConcurrentHashMap.newKeySet()).add(key);
+        isDirty = true;
+    }
+
+    /**
+     * Returns the hash of a file, computing and storing it only when the file changed since it was last hashed.
+     *
+     * @param filePath the path to the file.
+     * @return the hash of the file data, or an empty string if the file cannot be read.
+     */
+    public String getOrComputeHash(String filePath) {
+        String key = normalize(filePath);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Path.of(key), BasicFileAttributes.class);
+        } catch (IOException ioException) {
+            return "";
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        FileEntry entry = mFiles.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.mHash != null && entry.mSize == size && entry.mLastModified == lastModified) {
+                    return entry.mHash;
+                }
+            }
+        }
+        String hash = FileUtils.createHash(key);
+        if (!hash.isEmpty()) {
+            entry = mFiles.computeIfAbsent(key, FileEntry::new);
+            synchronized (entry) {
+                entry.refresh(size, lastModified);
+                unindexHash(key, entry.mHash);
+                entry.mHash = hash;
+            }
+            mPathsByHash.computeIfAbsent(hash, value -> ConcurrentHashMap.newKeySet()).add(key);
+            isDirty = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Adds a finished transfer to the history and to the byte count of its file.
+     *
+     * @param record the finished transfer.
+     */
+    public void recordTransfer(TransferRecord record) {
+        FileEntry entry = mFiles.get(normalize(record.getFilePath()));
+        if (entry != null) {
+            synchronized (entry) {
+                entry.mBytesServed += record.getBytes();
+                if (record.getState() == TransferProgress.State.COMPLETED) {
+                    entry.mCompletedCount++;
+                }
+            }
+        }
+        synchronized (mHistory) {
+            mHistory.addLast(record);
+            while (mHistory.size() > mHistorySize) {
+                mHistory.removeFirst();
+            }
+        }
+        isDirty = true;
+    }
+
+    /**
+     * @param filePath the path to the file.
+     * @return the entry of the file, or null if the file has never been served or hashed.
+     */
+    public FileEntry getFile(String filePath) {
+        return mFiles.get(normalize(filePath));
+    }
+
+    /**
+     * @param hash the hash of the file data.
+     * @return the entries of the files with the given hash.
+     */
+    public List<FileEntry> getFilesByHash(String hash) {
+        Set<String> paths = mPathsByHash.get(hash);
+        if (paths == null) {
+            return Collections.emptyList();
+        }
+        List<FileEntry> entries = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            FileEntry entry = mFiles.get(path);
+            // The index is cleaned lazily, a file that changed since it was hashed no longer matches
+            if (entry != null && hash.equals(entry.getHash())) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the entries of all the files, most recently served first.
+     */
+    public List<FileEntry> getFiles() {
+        List<FileEntry> entries = new ArrayList<>(mFiles.values());
+        entries.sort(Comparator.comparingLong(FileEntry::getLastServed).reversed());
+        return entries;
+    }
+
+    /**
+     * @param limit the maximum number of records to return.
+     * @return the most recent transfers, most recent first.
+     */
+    public List<TransferRecord> getHistory(int limit) {
+        synchronized (mHistory) {
+            List<TransferRecord> records = new ArrayList<>(Math.min(limit, mHistory.size()));
+            Iterator<TransferRecord> iterator = mHistory.descendingIterator();
+            while (iterator.hasNext() && records.size() < limit) {
+                records.add(iterator.next());
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Writes the snapshot file if the catalog changed since the last flush.
+     * The new snapshot replaces the old one atomically.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void flush() throws IOException {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+        if (mPath.getParent() != null) {
+            Files.createDirectories(mPath.getParent());
+        }
+        Path temporaryPath = mPath.resolveSibling(mPath.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temporaryPath)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            List<FileEntry> entries = new ArrayList<>(mFiles.values());
+            out.writeInt(entries.size());
+            for (FileEntry entry : entries) {
+                synchronized (entry) {
+                    entry.write(out);
+                }
+            }
+
+            List<TransferRecord> records;
+            synchronized (mHistory) {
+                records = new ArrayList<>(mHistory);
+            }
+            out.writeInt(records.size());
+            for (TransferRecord record : records) {
+                record.write(out);
+            }
+            out.flush();
+        } catch (IOException ioException) {
+            isDirty = true;
+            throw ioException;
+        }
+        Files.move(temporaryPath, mPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (InputStream inputStream = Files.newInputStream(mPath)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(mPath + " is not a catalog snapshot");
+            }
+            int fileCount = in.readInt();
+            for (int index = 0; index < fileCount; index++) {
+                FileEntry entry = FileEntry.read(in);
+                mFiles.put(entry.getPath(), entry);
+                if (entry.mHash != null) {
+                    mPathsByHash.computeIfAbsent(entry.mHash, value -> ConcurrentHashMap.newKeySet()).add(entry.getPath());
+                }
+            }
+            int recordCount = in.readInt();
+            for (int index = 0; index < recordCount; index++) {
+                mHistory.addLast(TransferRecord.read(in));
+            }
+            while (mHistory.size() > mHistorySize) {
+                mHistory.removeFirst();
+            }
+        }
+    }
+
+    private void unindexHash(String path, String hash) {
+        if (hash == null) {
+            return;
+        }
+        Set<String> paths = mPathsByHash.get(hash);
+        if (paths != null) {
+            paths.remove(path);
+        }
+    }
+
+    private static String normalize(String filePath) {
+        return Path.of(filePath).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * What the catalog knows about one served file.
+     */
+    public static class FileEntry {
+        private final String mPath;
+        private long mSize = -1;
+        private long mLastModified = -1;
+        private String mHash;
+        private long mServeCount;
+        private long mCompletedCount;
+        private long mBytesServed;
+        private long mLastServed;
+
+        FileEntry(String path) {
+            mPath = path;
+        }
+
+        /**
+         * Updates size and modification time, forgetting the hash if the file changed.
+         */
+        synchronized void refresh(long size, long lastModified) {
+            if (mSize != size || mLastModified != lastModified) {
+                mHash = null;
+            }
+            mSize = size;
+            mLastModified = lastModified;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(mPath);
+            out.writeLong(mSize);
+            out.writeLong(mLastModified);
+            out.writeUTF(mHash == null ? "" : mHash);
+            out.writeLong(mServeCount);
+            out.writeLong(mCompletedCount);
+            out.writeLong(mBytesServed);
+            out.writeLong(mLastServed);
+        }
+
+        static FileEntry read(DataInputStream in) throws IOException {
+            FileEntry entry = new FileEntry(in.readUTF());
+            entry.mSize = in.readLong();
+            entry.mLastModified = in.readLong();
+            String hash = in.readUTF();
+            entry.mHash = hash.isEmpty() ? null : hash;
+            entry.mServeCount = in.readLong();
+            entry.mCompletedCount = in.readLong();
+            entry.mBytesServed = in.readLong();
+            entry.mLastServed = in.readLong();
+            return entry;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public synchronized long getSize() {
+            return mSize;
+        }
+
+        public synchronized long getLastModified() {
+            return mLastModified;
+        }
+
+        public synchronized String getHash() {
+            return mHash;
+        }
+
+        public synchronized long getServeCount() {
+            return mServeCount;
+        }
+
+        public synchronized long getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        public synchronized long getBytesServed() {
+            return mBytesServed;
+        }
+
+        public synchronized long getLastServed() {
+            return mLastServed;
+        }
+    }
+
+    /**
+     * One finished transfer of the history.
+     */
+    public static class TransferRecord {
+        private final String mTransferId;
+        private final String mRole;
+        private final String mFilePath;
+        private final String mPeer;
+        private final long mBytes;
+        private final TransferProgress.State mState;
+        private final long mStartTime;
+        private final long mEndTime;
+
+        public TransferRecord(String transferId, String role, String filePath, String peer, long bytes,
+                TransferProgress.State state, long startTime, long endTime) {
+            mTransferId = transferId;
+            mRole = role;
+            mFilePath = filePath;
+            mPeer = peer;
+            mBytes = bytes;
+            mState = state;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(mTransferId);
+            out.writeUTF(mRole);
+            out.writeUTF(mFilePath);
+            out.writeUTF(mPeer == null ? "" : mPeer);
+            out.writeLong(mBytes);
+            out.writeUTF(mState.name());
+            out.writeLong(mStartTime);
+            out.writeLong(mEndTime);
+        }
+
+        static TransferRecord read(DataInputStream in) throws IOException {
+            return new TransferRecord(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(),
+                    TransferProgress.State.valueOf(in.readUTF()), in.readLong(), in.readLong());
+        }
+
+        public String getTransferId() {
+            return mTransferId;
+        }
+
+        public String getRole() {
+            return mRole;
+        }
+
+        public String getFilePath() {
+            return mFilePath;
+        }
+
+        public String getPeer() {
+            return mPeer;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public TransferProgress.State getState() {
+            return mState;
+        }
+
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        public long getEndTime() {
+            return mEndTime;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.data.download;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Headless entry point running a transfer without Spring nor the web container, for short-lived workers.
+ * <p>
+ * Usage:
+ * <pre>
+ * TransferCli server  &lt;port&gt; &lt;file&gt; [--sparse|--tree|--dedup] [--async|--udp|--striped] [stripe options]
+ * TransferCli client  &lt;host&gt; &lt;port&gt; &lt;file&gt; [--sparse|--tree|--dedup] [--async|--udp|--striped] [stripe options]
+ * TransferCli receive &lt;host&gt; &lt;port&gt; &lt;destination&gt; [--sparse|--tree|--dedup] [--store=&lt;dir&gt;] [--udp|--striped]
+ *                     [stripe options]
+ * TransferCli serve   &lt;port&gt; &lt;root directory&gt;
+ * TransferCli fetch   &lt;host&gt; &lt;port&gt; &lt;name&gt; &lt;destination&gt; [--sparse|--tree|--dedup] [--store=&lt;dir&gt;]
+ * TransferCli broadcast &lt;port&gt; &lt;file&gt;
+ * TransferCli udp-proxy &lt;port&gt; &lt;host&gt; &lt;port&gt; &lt;delay ms&gt; &lt;loss rate&gt;
+ * TransferCli tcp-proxy &lt;port&gt; &lt;host&gt; &lt;port&gt; [link options]
+ * TransferCli load    &lt;clients&gt; &lt;concurrency&gt; &lt;file sizes&gt; [--sparse|--tree|--dedup] [link options]
+ * </pre>
+ * The process exits with status 0 once the transfer completed, 1 if it failed or was aborted, 2 on bad usage.
+ * 'serve' runs a {@link NamedFileServer} and 'broadcast' a {@link LocalFastBroadcastServer}, until the process
+ * is killed. DEDUP receivers keep the chunks in the '--store' directory, by default data-transfer/chunks in
+ * the temporary directory, so later transfers only receive the chunks it lacks. '--udp' moves the data over
+ * UDP, see {@link TransferEngine#UDP}; 'udp-proxy' runs a {@link UdpImpairmentProxy} in front of a UDP server,
+ * until the process is killed.
+ * <p>
+ * 'tcp-proxy' runs a {@link TcpImpairmentProxy} until the process is killed, and 'load' runs a
+ * {@link LoadHarness} and prints its report; the file sizes are parsed by {@link LoadHarness.FileSizes#parse}.
+ * Both take the link options '--delay=&lt;ms&gt;', '--jitter=&lt;ms&gt;', '--bandwidth=&lt;bytes per second&gt;' and
+ * '--loss=&lt;rate&gt;'.
+ * <p>
+ * '--striped' spreads the transfer over several TCP connections, see {@link TransferEngine#STRIPED}, between
+ * the comma-separated addresses of the stripe options '--local=&lt;addresses&gt;', the local ones the server
+ * listens on or the connections are bound to, and '--remote=&lt;addresses&gt;', the ones of the peer the
+ * connections are opened to, as 'host' or 'host:port'. Several 127.0.0.x addresses try it on one host.
+ */
+public class TransferCli {
+
+    /** The timeout in milliseconds for making connection to the server */
+    private static final int CONNECT_TIMEOUT = 2_000;
+
+    /** Option setting the chunk store directory of DEDUP receivers */
+    private static final String STORE_OPTION = "--store=";
+    /** Options setting the impairments of the simulated link */
+    private static final String DELAY_OPTION = "--delay=";
+    private static final String JITTER_OPTION = "--jitter=";
+    private static final String BANDWIDTH_OPTION = "--bandwidth=";
+    private static final String LOSS_OPTION = "--loss=";
+    /** Options setting the addresses of the STRIPED engine */
+    private static final String LOCAL_OPTION = "--local=";
+    private static final String REMOTE_OPTION = "--remote=";
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs the command described by the arguments and waits until the transfer is finished.
+     *
+     * @return the process exit status.
+     */
+    static int run(String[] args) throws InterruptedException {
+        // Options come after the positional arguments
+        int argumentCount = args.length;
+        TransferMode transferMode = TransferMode.RAW;
+        TransferEngine engine = TransferEngine.BLOCKING;
+        Path storeDirectory = Path.of(System.getProperty("java.io.tmpdir"), "data-transfer", "chunks");
+        long delayMillis = 0;
+        long jitterMillis = 0;
+        long bandwidth = 0;
+        double lossRate = 0;
+        List<String> localAddresses = new ArrayList<>();
+        List<String> remoteAddresses = new ArrayList<>();
+        while (argumentCount > 0 && args[argumentCount - 1].startsWith("--")) {
+            String option = args[--argumentCount];
+            try {
+                if (option.startsWith(STORE_OPTION)) {
+                    storeDirectory = Path.of(option.substring(STORE_OPTION.length()));
+                    continue;
+                } else if (option.startsWith(DELAY_OPTION)) {
+                    delayMillis = Long.parseLong(option.substring(DELAY_OPTION.length()));
+                    continue;
+                } else if (option.startsWith(JITTER_OPTION)) {
+                    jitterMillis = Long.parseLong(option.substring(JITTER_OPTION.length()));
+                    continue;
+                } else if (option.startsWith(BANDWIDTH_OPTION)) {
+                    bandwidth = Long.parseLong(option.substring(BANDWIDTH_OPTION.length()));
+                    continue;
+                } else if (option.startsWith(LOSS_OPTION)) {
+                    lossRate = Double.parseDouble(option.substring(LOSS_OPTION.length()));
+                    continue;
+                } else if (option.startsWith(LOCAL_OPTION)) {
+                    localAddresses = Arrays.asList(option.substring(LOCAL_OPTION.length()).split(","));
+                    continue;
+                } else if (option.startsWith(REMOTE_OPTION)) {
+                    remoteAddresses = Arrays.asList(option.substring(REMOTE_OPTION.length()).split(","));
+                    continue;
+                }
+            } catch (NumberFormatException numberFormatException) {
+                return usage();
+            }
+            switch (option) {
+                case "--sparse":
+                    transferMode = TransferMode.SPARSE;
+                    break;
+                case "--tree":
+                    transferMode = TransferMode.TREE;
+                    break;
+                case "--dedup":
+                    transferMode = TransferMode.DEDUP;
+                    break;
+                case "--async":
+                    engine = TransferEngine.ASYNC;
+                    break;
+                case "--udp":
+                    engine = TransferEngine.UDP;
+                    break;
+                case "--striped":
+                    engine = TransferEngine.STRIPED;
+                    break;
+                default:
+                    return usage();
+            }
+        }
+        if (argumentCount == 0) {
+            return usage();
+        }
+
+        // The positional arguments are all parsed first, so only a malformed one is reported as bad usage
+        int port;
+        int targetPort = 0;
+        int clientCount = 0;
+        int concurrency = 0;
+        LoadHarness.FileSizes fileSizes = null;
+        try {
+            switch (args[0]) {
+                case "server":
+                case "serve":
+                case "broadcast":
+                    if (argumentCount != 3) {
+                        return usage();
+                    }
+                    port = Integer.parseInt(args[1]);
+                    break;
+                case "client":
+                case "receive":
+                    if (argumentCount != 4) {
+                        return usage();
+                    }
+                    port = Integer.parseInt(args[2]);
+                    break;
+                case "fetch":
+                    if (argumentCount != 5) {
+                        return usage();
+                    }
+                    port = Integer.parseInt(args[2]);
+                    break;
+                case "udp-proxy":
+                    if (argumentCount != 6) {
+                        return usage();
+                    }
+                    port = Integer.parseInt(args[1]);
+                    targetPort = Integer.parseInt(args[3]);
+                    delayMillis = Long.parseLong(args[4]);
+                    lossRate = Double.parseDouble(args[5]);
+                    break;
+                case "tcp-proxy":
+                    if (argumentCount != 4) {
+                        return usage();
+                    }
+                    port = Integer.parseInt(args[1]);
+                    targetPort = Integer.parseInt(args[3]);
+                    break;
+                case "load":
+                    if (argumentCount != 4) {
+                        return usage();
+                    }
+                    port = 0;
+                    clientCount = Integer.parseInt(args[1]);
+                    concurrency = Integer.parseInt(args[2]);
+                    fileSizes = LoadHarness.FileSizes.parse(args[3]);
+                    break;
+                default:
+                    return usage();
+            }
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Also thrown by the number parsing
+            return usage();
+        }
+
+        TransferProgress progress = new TransferProgress("cli");
+        switch (args[0]) {
+            case "server":
+                ServerMain serverMain = new ServerMain();
+                serverMain.setTransferMode(transferMode);
+                serverMain.setEngine(engine);
+                serverMain.setPageCacheWarmer(new PageCacheWarmer());
+                serverMain.setLocalAddresses(localAddresses);
+                serverMain.start(port, args[2], progress);
+                break;
+            case "client":
+                ClientMain clientMain = new ClientMain();
+                clientMain.setTransferMode(transferMode);
+                clientMain.setEngine(engine);
+                clientMain.setLocalAddresses(localAddresses);
+                clientMain.setRemoteAddresses(remoteAddresses);
+                clientMain.start(args[1], port, args[3], progress);
+                break;
+            case "receive":
+                if (engine == TransferEngine.UDP) {
+                    return receiveUdp(args[1], port, args[3]);
+                }
+                if (engine == TransferEngine.STRIPED) {
+                    return receiveStriped(args[1], port, args[3], localAddresses, remoteAddresses);
+                }
+                return receive(args[1], port, args[3], null, transferMode, storeDirectory);
+            case "serve":
+                return serve(port, args[2]);
+            case "fetch":
+                return receive(args[1], port, args[4], args[3], transferMode, storeDirectory);
+            case "broadcast":
+                return broadcast(port, args[2]);
+            case "udp-proxy":
+                return udpProxy(port, args[2], targetPort, delayMillis, lossRate);
+            case "tcp-proxy":
+                TcpImpairmentProxy proxy = new TcpImpairmentProxy(port, args[2], targetPort);
+                proxy.setDelayMillis(delayMillis);
+                proxy.setJitterMillis(jitterMillis);
+                proxy.setBandwidth(bandwidth);
+                proxy.setLossRate(lossRate);
+                return runProxy(proxy);
+            case "load":
+                LoadHarness harness = new LoadHarness(
+                        Path.of(System.getProperty("java.io.tmpdir"), "data-transfer", "load"));
+                harness.setClientCount(clientCount);
+                harness.setConcurrency(concurrency);
+                harness.setFileSizes(fileSizes);
+                harness.setTransferMode(transferMode);
+                harness.setLink(delayMillis, jitterMillis, bandwidth, lossRate);
+                return load(harness);
+            default:
+                return usage();
+        }
+        return awaitResult(progress);
+    }
+
+    private static int receive(String host, int port, String destination, String requestedName,
+            TransferMode transferMode, Path storeDirectory) throws InterruptedException {
+        try (ChunkStore chunkStore = transferMode == TransferMode.DEDUP ? new ChunkStore(storeDirectory) : null) {
+            LocalFastDownloadReceiver receiver = new LocalFastDownloadReceiver(host, port, CONNECT_TIMEOUT, destination);
+            receiver.setTransferMode(transferMode);
+            receiver.setRequestedName(requestedName);
+            receiver.setChunkStore(chunkStore);
+            LocalFastDownloadReceiver.Result result = receiver.start();
+            System.out.println("LocalFastDownloadReceiver start result = " + result);
+            if (result != LocalFastDownloadReceiver.Result.SUCCESS) {
+                return EXIT_FAILURE;
+            }
+            return receiver.awaitCompletion(0) ? EXIT_SUCCESS : EXIT_FAILURE;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int receiveUdp(String host, int port, String destination) throws InterruptedException {
+        UdpDownloadReceiver receiver = new UdpDownloadReceiver(host, port, CONNECT_TIMEOUT, destination);
+        LocalFastDownloadReceiver.Result result = receiver.start();
+        System.out.println("UdpDownloadReceiver start result = " + result);
+        if (result != LocalFastDownloadReceiver.Result.SUCCESS) {
+            return EXIT_FAILURE;
+        }
+        return receiver.awaitCompletion(0) ? EXIT_SUCCESS : EXIT_FAILURE;
+    }
+
+    private static int receiveStriped(String host, int port, String destination, List<String> localAddresses,
+            List<String> remoteAddresses) throws InterruptedException {
+        StripedDownloadReceiver receiver = new StripedDownloadReceiver(host, port, CONNECT_TIMEOUT, destination);
+        receiver.setLocalAddresses(localAddresses);
+        receiver.setRemoteAddresses(remoteAddresses);
+        LocalFastDownloadReceiver.Result result = receiver.start();
+        System.out.println("StripedDownloadReceiver start result = " + result);
+        if (result != LocalFastDownloadReceiver.Result.SUCCESS) {
+            return EXIT_FAILURE;
+        }
+        return receiver.awaitCompletion(0) ? EXIT_SUCCESS : EXIT_FAILURE;
+    }
+
+    private static int serve(int port, String root) throws InterruptedException {
+        NamedFileServer server;
+        try {
+            server = new NamedFileServer(port, Path.of(root));
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+        NamedFileServer.Result result = server.start();
+        System.out.println("NamedFileServer start result = " + result);
+        if (result != NamedFileServer.Result.SUCCESS) {
+            return EXIT_FAILURE;
+        }
+        Thread.currentThread().join();
+        return EXIT_SUCCESS;
+    }
+
+    private static int broadcast(int port, String filePath) throws InterruptedException {
+        LocalFastBroadcastServer server = new LocalFastBroadcastServer(port, filePath);
+        LocalFastBroadcastServer.Result result = server.start();
+        System.out.println("LocalFastBroadcastServer start result = " + result);
+        if (result != LocalFastBroadcastServer.Result.SUCCESS) {
+            return EXIT_FAILURE;
+        }
+        Thread.currentThread().join();
+        return EXIT_SUCCESS;
+    }
+
+    private static int udpProxy(int port, String targetHost, int targetPort, long delayMillis, double lossRate)
+            throws InterruptedException {
+        UdpImpairmentProxy proxy = new UdpImpairmentProxy(port, targetHost, targetPort);
+        proxy.setDelayMillis(delayMillis);
+        proxy.setLossRate(lossRate);
+        try {
+            proxy.open();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+        proxy.join();
+        return EXIT_SUCCESS;
+    }
+
+    private static int runProxy(TcpImpairmentProxy proxy) throws InterruptedException {
+        try {
+            proxy.open();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+        proxy.join();
+        return EXIT_SUCCESS;
+    }
+
+    private static int load(LoadHarness harness) throws InterruptedException {
+        try {
+            LoadHarness.Report report = harness.run();
+            System.out.println(report);
+            return report.getFailed() == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int awaitResult(TransferProgress progress) throws InterruptedException {
+        try {
+            TransferProgress finished = progress.getCompletion().get();
+            System.out.println("Transfer " + finished.getState() + ", " + finished.getBytesDone() + " bytes");
+            return finished.getState() == TransferProgress.State.COMPLETED ? EXIT_SUCCESS : EXIT_FAILURE;
+        } catch (ExecutionException executionException) {
+            executionException.printStackTrace();
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int usage() {
+        System.err.println("Usage:");
+        System.err.println("  TransferCli server  <port> <file> [--sparse|--tree|--dedup] [--async|--udp|--striped] [stripe options]");
+        System.err.println("  TransferCli client  <host> <port> <file> [--sparse|--tree|--dedup] [--async|--udp|--striped] [stripe options]");
+        System.err.println("  TransferCli receive <host> <port> <destination> [--sparse|--tree|--dedup] [--store=<dir>] [--udp|--striped]");
+        System.err.println("                      [stripe options]");
+        System.err.println("  TransferCli serve   <port> <root directory>");
+        System.err.println("  TransferCli fetch   <host> <port> <name> <destination> [--sparse|--tree|--dedup] [--store=<dir>]");
+        System.err.println("  TransferCli broadcast <port> <file>");
+        System.err.println("  TransferCli udp-proxy <port> <host> <port> <delay ms> <loss rate>");
+        System.err.println("  TransferCli tcp-proxy <port> <host> <port> [link options]");
+        System.err.println("  TransferCli load    <clients> <concurrency> <fixed:<size>|uniform:<min>-<max>|lognormal:<median>,<sigma>>");
+        System.err.println("                      [--sparse|--tree|--dedup] [link options]");
+        System.err.println("  link options: --delay=<ms> --jitter=<ms> --bandwidth=<bytes per second> --loss=<rate>");
+        System.err.println("  stripe options: --local=<address,...> --remote=<host[:port],...>");
+        return EXIT_USAGE;
+    }
+}
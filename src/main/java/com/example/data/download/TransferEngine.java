@@ -0,0 +1,31 @@
+package com.example.data.download;
+
+/**
+ * Represents every way a sender can move the file data from disk to the socket.
+ * BLOCKING and ASYNC write the same wire format, so the receiver does not need to know which one the sender uses.
+ * UDP needs a UDP receiver, see {@link UdpDownloadReceiver}, and STRIPED a striped one, see
+ * {@link StripedDownloadReceiver}.
+ */
+public enum TransferEngine {
+    /** One thread per transfer, blocked on each socket write. Supports every transfer mode. */
+    BLOCKING,
+
+    /**
+     * Completion handlers with several file reads in flight ahead of the socket, no thread per transfer.
+     * RAW transfer mode only, other modes fall back to BLOCKING. See {@link AsyncFileSender}.
+     */
+    ASYNC,
+
+    /**
+     * Datagrams paced by a rate-based congestion control, with the lost ones sent again, for links with a long
+     * round trip. Always sends the whole file in the RAW wire format. See {@link UdpFileSender}.
+     */
+    UDP,
+
+    /**
+     * Several TCP connections at once, each one between its own pair of local and remote addresses, the chunks
+     * spread by the measured throughput of each connection. Always sends the whole file in the RAW wire
+     * format. See {@link StripedFileSender}.
+     */
+    STRIPED
+}
@@ -0,0 +1,618 @@
+package com.example.data.download;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of transfer jobs, used to restart in-flight transfers after a restart.
+ * <p>
+ * A job is recorded with a START record holding its descriptor, then CHECKPOINT records holding the file
+ * offset reached, and finally an END record. All records are written by a single writer thread:
+ * <ul>
+ * <li>records are group-committed, every batch collected during one commit interval costs one write and one
+ * force;</li>
+ * <li>checkpoints are sampled by the writer thread from the job's {@link TransferProgress}, so the sending
+ * loop never touches the journal;</li>
+ * <li>an END record is written once the job's progress reaches a final state;</li>
+ * <li>the file is compacted down to the live jobs once it grows past a threshold.</li>
+ * </ul>
+ * The checkpoint offset is the number of bytes handed to the socket, which may be ahead of the bytes the receiver
+ * wrote: the bytes still in flight when the process stopped are counted. It reports how far the job went, it is
+ * not a position the job can be resumed from.
+ * <p>
+ * Record format: {@code length, type, payload..., crc32}. A torn record at the end of the file is dropped
+ * when the journal is opened.
+ */
+public class TransferJournal implements AutoCloseable {
+
+    /** Default time in milliseconds during which records are batched into one commit */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 50;
+    /** Default time in milliseconds between two checkpoints of the same job */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1_000;
+    /** Default journal size in bytes above which the journal is compacted */
+    public static final long DEFAULT_COMPACT_THRESHOLD = 1024 * 1024;
+
+    private static final byte RECORD_START = 1;
+    private static final byte RECORD_CHECKPOINT = 2;
+    private static final byte RECORD_END = 3;
+
+    /** Upper bound of a record length, larger values mean a corrupt length field */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    /** The path to the journal file */
+    private final Path mPath;
+    /** The time in milliseconds during which records are batched into one commit */
+    private final long mCommitInterval;
+    /** The time in milliseconds between two checkpoints of the same job */
+    private final long mCheckpointInterval;
+    /** The journal size in bytes above which the journal is compacted */
+    private final long mCompactThreshold;
+
+    /** Records waiting for the next group commit */
+    private final LinkedBlockingQueue<PendingRecord> mQueue = new LinkedBlockingQueue<>();
+    /** Jobs whose progress is sampled for checkpoints, by job id */
+    private final Map<String, TrackedJob> mTrackedJobs = new ConcurrentHashMap<>();
+    /** Jobs started and not ended as of the last commit, by job id. Only used by the writer thread */
+    private final Map<String, Job> mLiveJobs = new LinkedHashMap<>();
+    /** Jobs found unfinished when the journal was opened */
+    private final List<Job> mInterruptedJobs;
+
+    /** The channel the records are appended to. Only used by the writer thread after open */
+    private FileChannel mChannel;
+    /** The journal size right after the last compaction. Only used by the writer thread */
+    private long mCompactedSize;
+    /** Holds the writer thread */
+    private final WriterThread mWriterThread;
+
+    /** This flag is used to stop the writer thread */
+    private volatile boolean isClosed = false;
+
+    /**
+     * Opens the journal with default intervals, replays it, and starts its writer thread.
+     *
+     * @param path the path to the journal file, created if missing.
+     * @throws IOException if the journal cannot be read or opened for writing.
+     */
+    public TransferJournal(Path path) throws IOException {
+        this(path, DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_INTERVAL_MILLIS, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * Opens the journal, replays it, and starts its writer thread.
+     *
+     * @param path               the path to the journal file, created if missing.
+     * @param commitInterval     the time in milliseconds during which records are batched into one commit.
+     * @param checkpointInterval the time in milliseconds between two checkpoints of the same job.
+     * @param compactThreshold   the journal size in bytes above which the journal is compacted.
+     * @throws IOException if the journal cannot be read or opened for writing.
+     */
+    public TransferJournal(Path path, long commitInterval, long checkpointInterval, long compactThreshold)
+            throws IOException {
+        mPath = path;
+        mCommitInterval = commitInterval;
+        mCheckpointInterval = checkpointInterval;
+        mCompactThreshold = compactThreshold;
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        long validLength = replay();
+        mInterruptedJobs = new ArrayList<>(mLiveJobs.values());
+
+        mChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a torn record left by a crash in the middle of a write
+        mChannel.truncate(validLength);
+        mChannel.position(validLength);
+
+        mWriterThread = new WriterThread();
+        mWriterThread.start();
+    }
+
+    /**
+     * @return the jobs that were started and not ended when the journal was opened, with their last checkpoint.
+     */
+    public List<Job> getInterruptedJobs() {
+        return new ArrayList<>(mInterruptedJobs);
+    }
+
+    /**
+     * Records the start of a job and tracks its progress for checkpoints and for its END record.
+     *
+     * @param job      the descriptor of the job.
+     * @param progress the progress object updated by the transfer.
+     * @return a future completed once the START record is durable.
+     */
+    public CompletableFuture<Void> begin(Job job, TransferProgress progress) {
+        // The job is only sampled once its START record is committed, so no checkpoint can be committed before it
+        TrackedJob trackedJob = new TrackedJob(job.copy(), progress);
+        PendingRecord record = new PendingRecord(RECORD_START, job.copy());
+        record.mTrackedJob = trackedJob;
+        mTrackedJobs.put(job.getId(), trackedJob);
+        return enqueue(record);
+    }
+
+    /**
+     * Records the end of a job that is not tracked, e.g. an interrupted job that will not be resumed.
+     *
+     * @param jobId the id of the job.
+     * @param state the final state of the job.
+     * @return a future completed once the END record is durable.
+     */
+    public CompletableFuture<Void> end(String jobId, TransferProgress.State state) {
+        mTrackedJobs.remove(jobId);
+        Job job = new Job(jobId, null, null, 0, null, null, 0);
+        job.mEndState = state;
+        return enqueue(RECORD_END, job);
+    }
+
+    /**
+     * Stops the writer thread after a last commit and closes the journal file. Waits at most one commit interval
+     * plus the last commit.
+     */
+    @Override
+    public void close() {
+        // Not interrupted: an interrupt during a write would close the channel and lose the last commit. The
+        // writer thread sees the flag within one commit interval
+        isClosed = true;
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(byte type, Job job) {
+        return enqueue(new PendingRecord(type, job));
+    }
+
+    private CompletableFuture<Void> enqueue(PendingRecord record) {
+        if (isClosed) {
+            record.mFuture.completeExceptionally(new IOException("Journal closed"));
+        } else {
+            mQueue.add(record);
+        }
+        return record.mFuture;
+    }
+
+    /**
+     * Reads the journal and rebuilds 'mLiveJobs'.
+     *
+     * @return the length of the valid part of the journal.
+     */
+    private long replay() throws IOException {
+        if (!Files.exists(mPath)) {
+            return 0;
+        }
+        long validLength = 0;
+        try (InputStream inputStream = Files.newInputStream(mPath)) {
+            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream));
+            while (true) {
+                int length;
+                try {
+                    length = dataInputStream.readInt();
+                } catch (EOFException endOfJournal) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    System.err.println("Journal " + mPath + " has a corrupt record at " + validLength);
+                    break;
+                }
+                byte[] body = new byte[length];
+                int checksum;
+                try {
+                    dataInputStream.readFully(body);
+                    checksum = dataInputStream.readInt();
+                } catch (EOFException tornRecord) {
+                    System.err.println("Journal " + mPath + " ends with a torn record at " + validLength);
+                    break;
+                }
+                if (checksum != crc(body)) {
+                    System.err.println("Journal " + mPath + " has a bad checksum at " + validLength);
+                    break;
+                }
+                apply(decode(body));
+                validLength += Integer.BYTES + length + Integer.BYTES;
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Updates 'mLiveJobs' with a committed record.
+     */
+    private void apply(PendingRecord record) {
+        Job job = record.mJob;
+        switch (record.mType) {
+            case RECORD_START:
+                mLiveJobs.put(job.getId(), job);
+                break;
+            case RECORD_CHECKPOINT:
+                Job liveJob = mLiveJobs.get(job.getId());
+                if (liveJob != null) {
+                    liveJob.mOffset = job.mOffset;
+                }
+                break;
+            case RECORD_END:
+                mLiveJobs.remove(job.getId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static byte[] encode(PendingRecord record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(body);
+        Job job = record.mJob;
+        out.writeByte(record.mType);
+        out.writeUTF(job.getId());
+        switch (record.mType) {
+            case RECORD_START:
+                out.writeUTF(job.getRole().name());
+                out.writeUTF(job.getHost() == null ? "" : job.getHost());
+                out.writeInt(job.getPort());
+                out.writeUTF(job.getFilePath());
+                out.writeUTF(job.getTransferMode().name());
+                out.writeLong(job.getOffset());
+                break;
+            case RECORD_CHECKPOINT:
+                out.writeLong(job.getOffset());
+                break;
+            case RECORD_END:
+                out.writeUTF(job.mEndState.name());
+                break;
+            default:
+                throw new IOException("Unknown record type " + record.mType);
+        }
+        byte[] bytes = body.toByteArray();
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(bytes.length + 2 * Integer.BYTES);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        frameOut.writeInt(bytes.length);
+        frameOut.write(bytes);
+        frameOut.writeInt(crc(bytes));
+        return frame.toByteArray();
+    }
+
+    private static PendingRecord decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String id = in.readUTF();
+        switch (type) {
+            case RECORD_START:
+                Role role = Role.valueOf(in.readUTF());
+                String host = in.readUTF();
+                int port = in.readInt();
+                String filePath = in.readUTF();
+                TransferMode transferMode = TransferMode.valueOf(in.readUTF());
+                long offset = in.readLong();
+                return new PendingRecord(type, new Job(id, role, host.isEmpty() ? null : host, port, filePath,
+                        transferMode, offset));
+            case RECORD_CHECKPOINT:
+                Job checkpoint = new Job(id, null, null, 0, null, null, in.readLong());
+                return new PendingRecord(type, checkpoint);
+            case RECORD_END:
+                Job ended = new Job(id, null, null, 0, null, null, 0);
+                ended.mEndState = TransferProgress.State.valueOf(in.readUTF());
+                return new PendingRecord(type, ended);
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * A Thread subclass that owns the journal file: it group-commits queued records, samples checkpoints,
+     * and compacts the journal.
+     */
+    class WriterThread extends Thread {
+
+        WriterThread() {
+            super("transfer-journal");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<PendingRecord> batch = new ArrayList<>();
+            long lastCheckpointTime = 0;
+            while (true) {
+                try {
+                    PendingRecord first = mQueue.poll(mCommitInterval, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                    }
+                } catch (InterruptedException interruptedException) {
+                    // Only close() stops the thread
+                }
+                mQueue.drainTo(batch);
+
+                long now = System.currentTimeMillis();
+                boolean checkpointDue = now - lastCheckpointTime >= mCheckpointInterval;
+                if (checkpointDue || isClosed) {
+                    lastCheckpointTime = now;
+                    sampleTrackedJobs(batch);
+                }
+
+                commit(batch);
+                batch.clear();
+
+                if (isClosed && mQueue.isEmpty()) {
+                    // Samples the jobs whose START record was in the last batch too
+                    sampleTrackedJobs(batch);
+                    commit(batch);
+                    break;
+                }
+                compactIfNeeded();
+            }
+            try {
+                mChannel.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+
+        /**
+         * Adds a CHECKPOINT record for every tracked job that moved, and an END record for every finished job.
+         */
+        private void sampleTrackedJobs(List<PendingRecord> batch) {
+            for (TrackedJob trackedJob : mTrackedJobs.values()) {
+                if (!trackedJob.isStarted) {
+                    continue;
+                }
+                TransferProgress progress = trackedJob.mProgress;
+                // Read the state first, so the last checkpoint before END holds the final offset
+                boolean finished = progress.isFinished();
+                long offset = progress.getBytesDone();
+                if (offset > trackedJob.mJob.mOffset) {
+                    trackedJob.mJob.mOffset = offset;
+                    batch.add(new PendingRecord(RECORD_CHECKPOINT, trackedJob.mJob.copy()));
+                }
+                if (finished) {
+                    mTrackedJobs.remove(trackedJob.mJob.getId(), trackedJob);
+                    Job ended = trackedJob.mJob.copy();
+                    ended.mEndState = progress.getState();
+                    batch.add(new PendingRecord(RECORD_END, ended));
+                }
+            }
+        }
+
+        /**
+         * Writes the whole batch with one write and one force, then completes its futures.
+         */
+        private void commit(List<PendingRecord> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<PendingRecord> encoded = new ArrayList<>(batch.size());
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            for (PendingRecord record : batch) {
+                try {
+                    frames.write(encode(record));
+                    encoded.add(record);
+                } catch (IOException ioException) {
+                    // E.g. a path too long for writeUTF: only this record is rejected, not the whole batch
+                    ioException.printStackTrace();
+                    if (record.mTrackedJob != null) {
+                        mTrackedJobs.remove(record.mJob.getId(), record.mTrackedJob);
+                    }
+                    record.mFuture.completeExceptionally(ioException);
+                }
+            }
+            if (encoded.isEmpty()) {
+                return;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+                while (buffer.hasRemaining()) {
+                    mChannel.write(buffer);
+                }
+                mChannel.force(false);
+                for (PendingRecord record : encoded) {
+                    apply(record);
+                    if (record.mTrackedJob != null) {
+                        record.mTrackedJob.isStarted = true;
+                    }
+                    record.mFuture.complete(null);
+                }
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+                for (PendingRecord record : encoded) {
+                    record.mFuture.completeExceptionally(ioException);
+                }
+            }
+        }
+
+        /**
+         * Rewrites the journal with only the live jobs once it grows past the threshold.
+         */
+        private void compactIfNeeded() {
+            try {
+                // Compacting again before the journal doubled would not gain much
+                if (mChannel.size() < Math.max(mCompactThreshold, 2 * mCompactedSize)) {
+                    return;
+                }
+                Path compactPath = mPath.resolveSibling(mPath.getFileName() + ".compact");
+                try (FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+                    for (Job job : liveJobsSnapshot()) {
+                        frames.write(encode(new PendingRecord(RECORD_START, job)));
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        compactChannel.write(buffer);
+                    }
+                    compactChannel.force(true);
+                }
+                mChannel.close();
+                Files.move(compactPath, mPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                mChannel = FileChannel.open(mPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                mCompactedSize = mChannel.size();
+                System.out.println("Journal compacted to " + mChannel.size() + " bytes");
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+                reopenAfterFailedCompaction();
+            }
+        }
+
+        private Collection<Job> liveJobsSnapshot() {
+            // A START record holding the last offset replaces START + CHECKPOINT records
+            List<Job> jobs = new ArrayList<>();
+            for (Job job : mLiveJobs.values()) {
+                jobs.add(job.copy());
+            }
+            return jobs;
+        }
+
+        private void reopenAfterFailedCompaction() {
+            if (mChannel.isOpen()) {
+                return;
+            }
+            try {
+                mChannel = FileChannel.open(mPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A record waiting to be committed.
+     */
+    private static class PendingRecord {
+        private final byte mType;
+        private final Job mJob;
+        private final CompletableFuture<Void> mFuture = new CompletableFuture<>();
+        /** The job a START record begins tracking, null for the other records */
+        private TrackedJob mTrackedJob;
+
+        PendingRecord(byte type, Job job) {
+            mType = type;
+            mJob = job;
+        }
+    }
+
+    /**
+     * A job whose progress is sampled by the writer thread.
+     */
+    private static class TrackedJob {
+        private final Job mJob;
+        private final TransferProgress mProgress;
+        /** Set once the START record of the job is committed. Only used by the writer thread */
+        private boolean isStarted;
+
+        TrackedJob(Job job, TransferProgress progress) {
+            mJob = job;
+            mProgress = progress;
+        }
+    }
+
+    /**
+     * Represents which side of the transfer the job runs.
+     */
+    public enum Role {
+        /** The job runs a LocalFastDownloadServer waiting on 'port'. */
+        SERVER,
+        /** The job runs a LocalFastDownloadClient connecting to 'host' and 'port'. */
+        CLIENT
+    }
+
+    /**
+     * The descriptor of a journaled job and the last offset recorded for it.
+     */
+    public static class Job {
+        private final String mId;
+        private final Role mRole;
+        private final String mHost;
+        private final int mPort;
+        private final String mFilePath;
+        private final TransferMode mTransferMode;
+        private long mOffset;
+        private TransferProgress.State mEndState;
+
+        /**
+         * Creates a job descriptor.
+         *
+         * @param id           the transfer id of the job.
+         * @param role         which side of the transfer the job runs.
+         * @param host         the IP address of the server host for a CLIENT job, null for a SERVER job.
+         * @param port         the TCP port of the transfer.
+         * @param filePath     the path to the file to send.
+         * @param transferMode the wire format of the transfer.
+         * @param offset       the file offset the job starts from.
+         */
+        public Job(String id, Role role, String host, int port, String filePath, TransferMode transferMode,
+                long offset) {
+            mId = id;
+            mRole = role;
+            mHost = host;
+            mPort = port;
+            mFilePath = filePath;
+            mTransferMode = transferMode;
+            mOffset = offset;
+        }
+
+        Job copy() {
+            Job job = new Job(mId, mRole, mHost, mPort, mFilePath, mTransferMode, mOffset);
+            job.mEndState = mEndState;
+            return job;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public Role getRole() {
+            return mRole;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        public int getPort() {
+            return mPort;
+        }
+
+        public String getFilePath() {
+            return mFilePath;
+        }
+
+        public TransferMode getTransferMode() {
+            return mTransferMode;
+        }
+
+        public long getOffset() {
+            return mOffset;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.data.download;
+
+/**
+ * Represents every wire format a sender can use to stream a file to a receiver.
+ * Both sides of a transfer must be configured with the same mode.
+ */
+public enum TransferMode {
+    /** The file data is written as is, byte for byte. */
+    RAW,
+
+    /**
+     * Zero-filled regions of the file are sent as compact hole markers instead of data,
+     * and the receiver recreates them as holes. See {@link SparseStreamWriter}.
+     */
+    SPARSE,
+
+    /**
+     * The file is sent in pieces checked against a Merkle tree hash sent first, and only the pieces that do not
+     * match are sent again. See {@link TreeStreamWriter}.
+     */
+    TREE,
+
+    /**
+     * The file is cut into content-defined chunks, and only the chunks missing from the chunk store of the
+     * receiver are sent. The receiver rebuilds the file from its store. See {@link DedupStreamWriter}.
+     */
+    DEDUP
+}
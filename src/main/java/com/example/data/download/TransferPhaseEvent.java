@@ -0,0 +1,84 @@
+package com.example.data.download;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight Recorder event covering one phase of a transfer, so a slow transfer shows where its time went.
+ * <p>
+ * Only costs an allocation and a check of the event settings when no recording is running. Record it with
+ * {@code jcmd <pid> JFR.start}, and look for "Transfer Phase" in the Data / Transfer category.
+ */
+@Name("com.example.data.download.TransferPhase")
+@Label("Transfer Phase")
+@Category({"Data", "Transfer"})
+@Description("A phase of a file transfer: hash, accept, connect, first write or close")
+@StackTrace(false)
+class TransferPhaseEvent extends Event {
+
+    /** The phases of a transfer */
+    enum Phase {
+        /** Computing the hash of the file before sending it */
+        HASH,
+        /** Waiting for the peer to connect */
+        ACCEPT,
+        /** Connecting to the peer */
+        CONNECT,
+        /** From the start of the stream until the first file data is written */
+        FIRST_WRITE,
+        /** Flushing and closing the stream */
+        CLOSE
+    }
+
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String file;
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Starts timing a phase.
+     *
+     * @param phase the phase.
+     * @param file  the path of the transferred file, or null.
+     * @return the event, to be passed to end(...) once the phase is over.
+     */
+    static TransferPhaseEvent start(Phase phase, String file) {
+        TransferPhaseEvent event = new TransferPhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase.name();
+            event.file = file;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends the phase and records it if a recording wants it.
+     *
+     * @param peer  the address of the peer, or null if not known.
+     * @param bytes the number of bytes the phase processed.
+     */
+    void end(Object peer, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.peer = peer == null ? null : peer.toString();
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.data.download;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds the progress of one transfer.
+ * <p>
+ * The transfer thread is the only writer, and it only updates a couple of volatile fields per chunk.
+ * Readers such as the progress publisher sample this object at their own pace, so watching a transfer
+ * adds no work to the sending loop.
+ */
+public class TransferProgress {
+
+    /** The identifier the transfer is known by outside the download package */
+    private final String mTransferId;
+
+    /** Number of bytes of the file processed so far */
+    private volatile long mBytesDone;
+    /** Total number of bytes of the file, -1 while unknown */
+    private volatile long mTotalBytes = -1;
+    /** Current state of the transfer */
+    private volatile State mState = State.PENDING;
+    /** The hash of the file data, null until computed */
+    private volatile String mHash;
+    /** Time in milliseconds when the transfer started sending, 0 while pending */
+    private volatile long mStartTime;
+    /** Time in milliseconds when the transfer reached a final state, 0 while not finished */
+    private volatile long mEndTime;
+    /** Completed with this object once the transfer reaches a final state */
+    private final CompletableFuture<TransferProgress> mCompletion = new CompletableFuture<>();
+
+    /**
+     * Creates a progress object for the given transfer.
+     *
+     * @param transferId the identifier the transfer is known by.
+     */
+    public TransferProgress(String transferId) {
+        mTransferId = transferId;
+    }
+
+    /**
+     * Marks the transfer as started.
+     *
+     * @param totalBytes the total number of bytes of the file.
+     */
+    public void begin(long totalBytes) {
+        mTotalBytes = totalBytes;
+        mStartTime = System.currentTimeMillis();
+        mState = State.RUNNING;
+    }
+
+    /**
+     * Adds bytes to the processed count. Must only be called by the transfer thread.
+     *
+     * @param bytes the number of bytes just processed.
+     */
+    public void add(long bytes) {
+        // Single writer, so a plain read-modify-write of the volatile field is enough
+        mBytesDone += bytes;
+    }
+
+    /**
+     * Sets the processed count. Must only be called by the transfer thread.
+     *
+     * @param bytesDone the number of bytes processed so far.
+     */
+    public void set(long bytesDone) {
+        mBytesDone = bytesDone;
+    }
+
+    /**
+     * Marks the transfer as finished with the given final state.
+     *
+     * @param state one of COMPLETED, ABORTED or FAILED.
+     */
+    public void finish(State state) {
+        mEndTime = System.currentTimeMillis();
+        mState = state;
+        mCompletion.complete(this);
+    }
+
+    /**
+     * @return a future completed with this object once the transfer reaches a final state.
+     */
+    public CompletableFuture<TransferProgress> getCompletion() {
+        return mCompletion;
+    }
+
+    public void setHash(String hash) {
+        mHash = hash;
+    }
+
+    public String getTransferId() {
+        return mTransferId;
+    }
+
+    public long getBytesDone() {
+        return mBytesDone;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public String getHash() {
+        return mHash;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * @return whether the transfer reached a final state.
+     */
+    public boolean isFinished() {
+        State state = mState;
+        return state == State.COMPLETED || state == State.ABORTED || state == State.FAILED;
+    }
+
+    /**
+     * Represents every state a transfer goes through.
+     */
+    public enum State {
+        /** The transfer is registered but does not send yet, e.g. waiting for a connection. */
+        PENDING,
+        /** The transfer is sending file data. */
+        RUNNING,
+        /** All the file data has been sent. */
+        COMPLETED,
+        /** The transfer has been aborted. */
+        ABORTED,
+        /** The transfer could not start or stopped on an error. */
+        FAILED
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/**
+ * Merkle tree hash of a file: the file is cut into fixed-size leaves, each leaf is hashed on its own, and
+ * the leaf hashes are combined pairwise up to a single root.
+ * <p>
+ * The leaves are independent, so they are hashed in parallel and hashing scales with the cores. A receiver
+ * holding the leaf hashes can check each piece as soon as it arrives, and only ask again for a bad piece.
+ * <p>
+ * Hashes are SHA-256. Leaf and node hashes are prefixed with a different byte, so a node can never be taken
+ * for a leaf. A level with an odd number of hashes promotes its last hash to the next level unchanged.
+ */
+public class TreeHash {
+
+    /** Default size in bytes of a leaf */
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+    /** Size in bytes of each hash */
+    public static final int HASH_SIZE = 32;
+    /** Largest number of leaves of a tree, bounds the leaf hashes held in memory to 512 MiB */
+    public static final int MAX_LEAF_COUNT = 16 * 1024 * 1024;
+
+    /** Number of hashing tasks per worker of the pool */
+    private static final int TASKS_PER_WORKER = 4;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    /** Number of bytes of the hashed data */
+    private final long mLength;
+    /** Size in bytes of a leaf, the last one may be shorter */
+    private final int mLeafSize;
+    /** The hash of each leaf, in file order */
+    private final byte[][] mLeafHashes;
+    /** The root of the tree */
+    private final byte[] mRoot;
+
+    /**
+     * Creates a tree from leaf hashes, computing its root.
+     *
+     * @param length     number of bytes of the hashed data.
+     * @param leafSize   size in bytes of a leaf.
+     * @param leafHashes the hash of each leaf, in order.
+     */
+    public TreeHash(long length, int leafSize, byte[][] leafHashes) {
+        mLength = length;
+        mLeafSize = leafSize;
+        mLeafHashes = leafHashes;
+        mRoot = computeRoot(leafHashes);
+    }
+
+    /**
+     * Hashes a file with the default leaf size, using every core.
+     *
+     * @param path the file to hash.
+     * @return the tree hash of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TreeHash compute(Path path) throws IOException {
+        return compute(path, DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hashes a file, its leaves being hashed in parallel in the given pool.
+     *
+     * @param path     the file to hash.
+     * @param leafSize size in bytes of a leaf.
+     * @param pool     the pool the leaves are hashed in.
+     * @return the tree hash of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TreeHash compute(Path path, int leafSize, ForkJoinPool pool) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = fileChannel.size();
+            long count = getLeafCount(length, leafSize);
+            if (count > MAX_LEAF_COUNT) {
+                throw new IOException("File of " + length + " bytes has too many leaves of " + leafSize + " bytes");
+            }
+            int leafCount = (int) count;
+            byte[][] leafHashes = new byte[leafCount][];
+            // Each task hashes a run of leaves with its own heap buffer, dropped with the task: a few tasks per
+            // worker balance the load without allocating a buffer per leaf
+            int taskCount = Math.min(leafCount, pool.getParallelism() * TASKS_PER_WORKER);
+            pool.submit(() -> IntStream.range(0, taskCount).parallel().forEach(task -> {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(leafSize, Math.max(length, 1)));
+                int endLeaf = (int) ((long) leafCount * (task + 1) / taskCount);
+                for (int leaf = (int) ((long) leafCount * task / taskCount); leaf < endLeaf; leaf++) {
+                    buffer.clear();
+                    long offset = (long) leaf * leafSize;
+                    buffer.limit((int) Math.min(leafSize, length - offset));
+                    try {
+                        while (buffer.hasRemaining()) {
+                            if (fileChannel.read(buffer, offset + buffer.position()) < 0) {
+                                throw new IOException("File truncated while hashing");
+                            }
+                        }
+                    } catch (IOException ioException) {
+                        throw new UncheckedIOException(ioException);
+                    }
+                    buffer.flip();
+                    leafHashes[leaf] = hashLeaf(buffer);
+                }
+            })).get();
+            return new TreeHash(length, leafSize, leafHashes);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException(interruptedException);
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            throw cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause()
+                    : new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the number of leaves of data of the given length, at least one. Computed in long, it may exceed
+     * MAX_LEAF_COUNT.
+     */
+    public static long getLeafCount(long length, int leafSize) {
+        return Math.max(1, length / leafSize + (length % leafSize == 0 ? 0 : 1));
+    }
+
+    /**
+     * Hashes the data of one leaf, from its position to its limit.
+     */
+    public static byte[] hashLeaf(ByteBuffer data) {
+        MessageDigest digest = newDigest();
+        digest.update(LEAF_PREFIX);
+        digest.update(data);
+        return digest.digest();
+    }
+
+    /**
+     * Hashes the data of one leaf.
+     */
+    public static byte[] hashLeaf(byte[] data, int offset, int length) {
+        return hashLeaf(ByteBuffer.wrap(data, offset, length));
+    }
+
+    private static byte[] computeRoot(byte[][] leafHashes) {
+        byte[][] level = leafHashes;
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int index = 0; index < parents.length; index++) {
+                int left = index * 2;
+                if (left + 1 == level.length) {
+                    parents[index] = level[left];
+                    continue;
+                }
+                MessageDigest digest = newDigest();
+                digest.update(NODE_PREFIX);
+                digest.update(level[left]);
+                digest.update(level[left + 1]);
+                parents[index] = digest.digest();
+            }
+            level = parents;
+        }
+        return level[0];
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
+    /**
+     * @return whether a piece matches the hash of its leaf.
+     */
+    public boolean verifyLeaf(int leaf, byte[] data, int offset, int length) {
+        return MessageDigest.isEqual(mLeafHashes[leaf], hashLeaf(data, offset, length));
+    }
+
+    /**
+     * @return the file offset of a leaf.
+     */
+    public long getLeafOffset(int leaf) {
+        return (long) leaf * mLeafSize;
+    }
+
+    /**
+     * @return the number of bytes of a leaf.
+     */
+    public int getLeafLength(int leaf) {
+        return (int) Math.min(mLeafSize, mLength - getLeafOffset(leaf));
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public int getLeafSize() {
+        return mLeafSize;
+    }
+
+    public int getLeafCount() {
+        return mLeafHashes.length;
+    }
+
+    public byte[] getLeafHash(int leaf) {
+        return mLeafHashes[leaf].clone();
+    }
+
+    public byte[] getRoot() {
+        return mRoot.clone();
+    }
+
+    /**
+     * @return the root as an upper-case hexadecimal string, like the hashes of {@link FileUtils}.
+     */
+    public String getRootHex() {
+        StringBuilder hex = new StringBuilder(HASH_SIZE * 2);
+        for (byte value : mRoot) {
+            hex.append(Character.toUpperCase(Character.forDigit((value >>> 4) & 0xF, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TreeHash && Arrays.equals(mRoot, ((TreeHash) other).mRoot);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mRoot);
+    }
+}
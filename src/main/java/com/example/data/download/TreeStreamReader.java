@@ -0,0 +1,180 @@
+package com.example.data.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reads a stream written by {@link TreeStreamWriter}, checking each piece against its leaf hash.
+ * <p>
+ * The leaf hashes of the header are first checked against the root they were sent with. A piece is written
+ * to the destination file only if it matches its leaf hash; at the end of each round the receiver asks for the
+ * pieces it is still missing, so a corrupted piece costs one piece on the wire rather than the whole file.
+ */
+public class TreeStreamReader {
+
+    /** Largest leaf size accepted from a sender, bounds the piece buffer */
+    private static final int MAX_LEAF_SIZE = 64 * 1024 * 1024;
+    /** Number of leaf hashes the header array starts with */
+    private static final int INITIAL_LEAF_HASHES = 1024;
+
+    /** The stream the pieces are read from */
+    private final DataInputStream mInputStream;
+    /** The stream the pieces to send again are requested on */
+    private final DataOutputStream mOutputStream;
+    /** The destination file */
+    private final RandomAccessFile mTarget;
+    /** The channel used for positional writes to the destination file */
+    private final FileChannel mTargetChannel;
+
+    /** The tree hash announced by the header, null until the header is read */
+    private TreeHash mTree;
+    /** Holds the data of one piece at a time */
+    private byte[] mBuffer;
+    /** The leaves written to disk after matching their hash */
+    private BitSet mVerified;
+    /** Number of data bytes verified and written to disk so far */
+    private long mVerifiedBytes;
+    /** Number of pieces that did not match their hash */
+    private long mCorruptedPieces;
+    /** Set once the whole file has been verified */
+    private boolean mFinished;
+
+    /**
+     * Creates a reader.
+     *
+     * @param inputStream  the stream the pieces are read from.
+     * @param outputStream the stream the pieces to send again are requested on.
+     * @param target       the destination file.
+     */
+    public TreeStreamReader(DataInputStream inputStream, DataOutputStream outputStream, RandomAccessFile target) {
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+        mTarget = target;
+        mTargetChannel = target.getChannel();
+    }
+
+    /**
+     * Reads the stream header and checks the leaf hashes against the root.
+     *
+     * @throws IOException if an I/O error occurs or the header is malformed or corrupted.
+     */
+    public void readHeader() throws IOException {
+        int magic = mInputStream.readInt();
+        if (magic != TreeStreamWriter.MAGIC) {
+            throw new IOException("Not a tree stream, magic = " + Integer.toHexString(magic));
+        }
+        long fileLength = mInputStream.readLong();
+        int leafSize = mInputStream.readInt();
+        int leafCount = mInputStream.readInt();
+        if (fileLength < 0 || leafSize <= 0 || leafSize > MAX_LEAF_SIZE || leafCount > TreeHash.MAX_LEAF_COUNT
+                || leafCount != TreeHash.getLeafCount(fileLength, leafSize)) {
+            throw new IOException("Invalid tree of " + leafCount + " leaves of " + leafSize + " bytes for file length "
+                    + fileLength);
+        }
+        // Grown as the hashes arrive rather than sized from the header, so a lying header costs no memory
+        byte[][] leafHashes = new byte[Math.min(leafCount, INITIAL_LEAF_HASHES)][];
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            if (leaf == leafHashes.length) {
+                leafHashes = Arrays.copyOf(leafHashes, (int) Math.min(leafCount, 2L * leafHashes.length));
+            }
+            leafHashes[leaf] = new byte[TreeHash.HASH_SIZE];
+            mInputStream.readFully(leafHashes[leaf]);
+        }
+        byte[] root = new byte[TreeHash.HASH_SIZE];
+        mInputStream.readFully(root);
+        TreeHash tree = new TreeHash(fileLength, leafSize, leafHashes);
+        if (!MessageDigest.isEqual(root, tree.getRoot())) {
+            throw new IOException("Corrupted tree header, the leaf hashes do not match the root");
+        }
+        mTree = tree;
+        mBuffer = new byte[(int) Math.min(leafSize, Math.max(fileLength, 1))];
+        mVerified = new BitSet(leafCount);
+        mTarget.setLength(fileLength);
+    }
+
+    /**
+     * Reads the next piece and writes it to the destination file if it matches its hash. At the end of a
+     * round, requests the pieces still missing.
+     *
+     * @return false once the whole file has been verified; otherwise true.
+     * @throws IOException if an I/O error occurs or the stream is malformed.
+     */
+    public boolean readNextPiece() throws IOException {
+        if (mFinished) {
+            return false;
+        }
+        byte tag = mInputStream.readByte();
+        switch (tag) {
+            case TreeStreamWriter.PIECE_DATA:
+                int leaf = mInputStream.readInt();
+                if (leaf < 0 || leaf >= mTree.getLeafCount()) {
+                    throw new IOException("Invalid piece " + leaf + " for " + mTree.getLeafCount() + " leaves");
+                }
+                int length = mTree.getLeafLength(leaf);
+                mInputStream.readFully(mBuffer, 0, length);
+                if (mVerified.get(leaf)) {
+                    return true;
+                }
+                if (!mTree.verifyLeaf(leaf, mBuffer, 0, length)) {
+                    mCorruptedPieces++;
+                    System.err.println("Piece " + leaf + " is corrupted, it will be requested again");
+                    return true;
+                }
+                writePiece(mTree.getLeafOffset(leaf), length);
+                mVerified.set(leaf);
+                return true;
+            case TreeStreamWriter.PIECE_END:
+                requestMissing();
+                return !mFinished;
+            default:
+                throw new IOException("Unknown piece tag " + tag);
+        }
+    }
+
+    /**
+     * @return the number of data bytes verified and written to disk so far.
+     */
+    public long getVerifiedBytes() {
+        return mVerifiedBytes;
+    }
+
+    /**
+     * @return the number of pieces received that did not match their hash.
+     */
+    public long getCorruptedPieces() {
+        return mCorruptedPieces;
+    }
+
+    /**
+     * @return the tree hash announced by the sender, null if the header has not been read yet.
+     */
+    public TreeHash getTree() {
+        return mTree;
+    }
+
+    private void requestMissing() throws IOException {
+        int missing = mTree.getLeafCount() - mVerified.cardinality();
+        mOutputStream.writeInt(missing);
+        for (int leaf = mVerified.nextClearBit(0); leaf < mTree.getLeafCount(); leaf = mVerified.nextClearBit(leaf + 1)) {
+            mOutputStream.writeInt(leaf);
+        }
+        mOutputStream.flush();
+        mFinished = missing == 0;
+    }
+
+    private void writePiece(long offset, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(mBuffer, 0, length);
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += mTargetChannel.write(data, position);
+        }
+        mVerifiedBytes += length;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.data.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Writes a file in the TREE wire format, and sends again the pieces the receiver could not verify.
+ * <p>
+ * The header carries the {@link TreeHash} of the file: its geometry, the hash of every leaf and the root. The
+ * file then follows piece by piece, a piece being the data of one leaf, so the receiver checks each piece as
+ * soon as it arrives. At the end of a round the receiver answers with the pieces it is missing or found corrupted,
+ * and only those are sent in the next round.
+ * <p>
+ * Wire format: {@code MAGIC, fileLength, leafSize, leafCount, leafHashes..., root}, then rounds of
+ * {@code (PIECE, leaf, bytes...)} ended by {@code END}. After each {@code END} the receiver writes
+ * {@code count, leaf...}, a count of 0 ending the stream.
+ */
+public class TreeStreamWriter {
+
+    /** Marks the start of a TREE stream ("TREE") */
+    static final int MAGIC = 0x54524545;
+
+    /** Tag of the marker that ends a round */
+    static final byte PIECE_END = 0;
+    /** Tag of a piece followed by its data */
+    static final byte PIECE_DATA = 1;
+
+    /** Maximum number of rounds re-sending pieces before the transfer fails */
+    static final int MAX_RESEND_ROUNDS = 3;
+
+    /** Size in bytes of a piece header: tag and leaf */
+    private static final int PIECE_HEADER_SIZE = 1 + Integer.BYTES;
+
+    /** The channel of the file to send */
+    private final FileChannel mSource;
+    /** The tree hash of the file */
+    private final TreeHash mTree;
+    /** The stream the pieces are written to */
+    private final DataOutputStream mOutputStream;
+    /** The stream the receiver answers on */
+    private final DataInputStream mInputStream;
+    /** Holds a piece header followed by the piece data, so a piece is one write */
+    private final byte[] mFrame;
+
+    /** The leaves to send in the current round */
+    private final Queue<Integer> mPending = new ArrayDeque<>();
+    /** The file offset after the furthest piece written so far */
+    private long mPosition;
+    /** Number of rounds re-sending pieces so far */
+    private int mResendRounds;
+    /** Number of pieces sent again so far */
+    private long mResentPieces;
+
+    /**
+     * Creates a writer.
+     *
+     * @param source       the channel of the file to send.
+     * @param tree         the tree hash of the file.
+     * @param outputStream the stream the pieces are written to.
+     * @param inputStream  the stream the receiver answers on.
+     */
+    public TreeStreamWriter(FileChannel source, TreeHash tree, DataOutputStream outputStream,
+            DataInputStream inputStream) {
+        mSource = source;
+        mTree = tree;
+        mOutputStream = outputStream;
+        mInputStream = inputStream;
+        mFrame = new byte[PIECE_HEADER_SIZE + tree.getLeafSize()];
+        for (int leaf = 0; leaf < tree.getLeafCount(); leaf++) {
+            mPending.add(leaf);
+        }
+    }
+
+    /**
+     * Writes the stream header. Must be called once before {@link #writeNextPiece()}.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeHeader() throws IOException {
+        mOutputStream.writeInt(MAGIC);
+        mOutputStream.writeLong(mTree.getLength());
+        mOutputStream.writeInt(mTree.getLeafSize());
+        mOutputStream.writeInt(mTree.getLeafCount());
+        for (int leaf = 0; leaf < mTree.getLeafCount(); leaf++) {
+            mOutputStream.write(mTree.getLeafHash(leaf));
+        }
+        mOutputStream.write(mTree.getRoot());
+    }
+
+    /**
+     * Writes the next piece of the current round.
+     *
+     * @return false once every piece of the round has been written; otherwise true.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean writeNextPiece() throws IOException {
+        Integer leaf = mPending.poll();
+        if (leaf == null) {
+            return false;
+        }
+        long offset = mTree.getLeafOffset(leaf);
+        int length = mTree.getLeafLength(leaf);
+        ByteBuffer data = ByteBuffer.wrap(mFrame, PIECE_HEADER_SIZE, length);
+        while (data.hasRemaining()) {
+            if (mSource.read(data, offset + data.position() - PIECE_HEADER_SIZE) < 0) {
+                throw new IOException("File truncated while sending");
+            }
+        }
+        ByteBuffer.wrap(mFrame, 0, PIECE_HEADER_SIZE).put(PIECE_DATA).putInt(leaf);
+        mOutputStream.write(mFrame, 0, PIECE_HEADER_SIZE + length);
+        mPosition = Math.max(mPosition, offset + length);
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * Ends the current round and reads which pieces the receiver wants again.
+     *
+     * @return true if a new round must be sent, false once the receiver verified the whole file.
+     * @throws IOException if an I/O error occurs, the answer is malformed, or pieces are still corrupted
+     *                     after {@link #MAX_RESEND_ROUNDS} rounds.
+     */
+    public boolean writeEnd() throws IOException {
+        mOutputStream.writeByte(PIECE_END);
+        mOutputStream.flush();
+        int count = mInputStream.readInt();
+        if (count == 0) {
+            return false;
+        }
+        if (count < 0 || count > mTree.getLeafCount()) {
+            throw new IOException("Invalid count of pieces to send again: " + count);
+        }
+        if (++mResendRounds > MAX_RESEND_ROUNDS) {
+            throw new IOException(count + " pieces still corrupted after " + MAX_RESEND_ROUNDS + " rounds");
+        }
+        for (int index = 0; index < count; index++) {
+            int leaf = mInputStream.readInt();
+            if (leaf < 0 || leaf >= mTree.getLeafCount()) {
+                throw new IOException("Invalid piece to send again: " + leaf);
+            }
+            mPending.add(leaf);
+        }
+        mResentPieces += count;
+        System.out.println("Sending again " + count + " corrupted piece(s)");
+        return true;
+    }
+
+    /**
+     * @return the file offset after the furthest piece written so far.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return the number of pieces sent again because the receiver could not verify them.
+     */
+    public long getResentPieces() {
+        return mResentPieces;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.UnresolvedAddressException;
+
+
+/**
+ * UDP counterpart of {@link LocalFastDownloadClient}: connects to a listening {@link UdpDownloadReceiver} and
+ * sends it the file with the rate-based congestion control of {@link UdpFileSender}.
+ * <p>
+ * start() waits for the handshake, at most for the timeout, so it returns the same Result codes as the
+ * blocking client. The whole file is always sent, in its RAW form.
+ */
+public class UdpDownloadClient {
+
+    /** The IP address of the server host */
+    private final String mHost;
+    /** The UDP port of the server host */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server, 0 to wait forever */
+    private final int mTimeout;
+    /** The path to the file to send to the server */
+    private final String mFilepath;
+
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The highest sending rate in bytes per second, 0 for no limit */
+    private long mMaxRate;
+
+    /** Sends the file once connected */
+    private UdpFileSender sender;
+    /** Set once the sender finished, whatever the result */
+    private volatile boolean isFinished = false;
+
+    /**
+     * Creates a client instance using given parameters.
+     *
+     * @param host     The IP address of the server host.
+     * @param port     The UDP port of the server host.
+     * @param timeout  The timeout in milliseconds for making connection to the server.
+     * @param filepath The path to the file to send to the server.
+     */
+    public UdpDownloadClient(String host, int port, int timeout, String filepath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mFilepath = filepath;
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Caps the sending rate, so a transfer leaves room to the other traffic of the link. Must be called before
+     * start().
+     *
+     * @param maxRate the highest rate in bytes per second, 0 for no limit.
+     */
+    public void setMaxRate(long maxRate) {
+        mMaxRate = maxRate;
+    }
+
+    /**
+     * Validates the file, connects to server, and starts sending the file data in a separate thread.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public LocalFastDownloadClient.Result start() {
+        if (mFilepath == null || !new File(mFilepath).isFile()) {
+            System.err.println(mFilepath + " is NOT valid!");
+            return LocalFastDownloadClient.Result.FILE_PATH_INVALID;
+        }
+
+        System.out.println("Connecting to SERVER " + mHost + " on port " + mPort);
+        Selector selector = null;
+        DatagramChannel channel = null;
+        try {
+            selector = Selector.open();
+            channel = UdpProtocol.open(selector);
+            int session = UdpProtocol.connect(channel, selector, new InetSocketAddress(mHost, mPort), mTimeout);
+            System.out.println("Just connected to SERVER " + channel.getRemoteAddress());
+
+            System.out.println("Sending ...");
+            sender = new UdpFileSender(mFilepath, channel, selector, session, 0, mMaxRate, mProgress, state -> {
+                isFinished = true;
+                if (mProgress != null) {
+                    mProgress.finish(state);
+                }
+            });
+            sender.start();
+            return LocalFastDownloadClient.Result.SUCCESS;
+        } catch (PortUnreachableException portUnreachableException) {
+            // Nothing listens on the port of the server
+            portUnreachableException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.SERVER_NOT_STARTED;
+        } catch (SocketTimeoutException socketTimeoutException) {
+            // Timeout expires before connecting
+            socketTimeoutException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.SOCKET_TIMEOUT;
+        } catch (UnresolvedAddressException unresolvedAddressException) {
+            unresolvedAddressException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.UNKNOWN_HOST;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            close(channel, selector);
+            return LocalFastDownloadClient.Result.IO_ERROR;
+        }
+    }
+
+    /**
+     * Aborts the process of sending data to server.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (sender != null && !isFinished) {
+            sender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (sender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+
+        return false;
+    }
+
+    private static void close(DatagramChannel channel, Selector selector) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.UnresolvedAddressException;
+
+
+/**
+ * UDP counterpart of {@link LocalFastDownloadReceiver}: receives the file sent by a {@link UdpDownloadServer}, or,
+ * created with a port only, waits for a {@link UdpDownloadClient} to connect and receives the file it sends.
+ * <p>
+ * The packets are written to the destination file as they arrive, out of order, so the file only holds the
+ * whole data once {@link #awaitCompletion(long)} returned true.
+ */
+public class UdpDownloadReceiver {
+
+    /** The IP address of the server host, null to wait for a client */
+    private final String mHost;
+    /** The UDP port of the server host, or the local port to wait for a client on */
+    private final int mPort;
+    /** The timeout in milliseconds for making connection to the server, 0 to wait forever */
+    private final int mTimeout;
+    /** The path to the file the received data is written to */
+    private final String mDestinationPath;
+
+    /** Receives the file data in a separate thread */
+    private UdpFileReceiver receiver;
+    /** Holds the channel of the receiver */
+    private DatagramChannel channel;
+
+    /**
+     * Creates a receiver connecting to a {@link UdpDownloadServer}.
+     *
+     * @param host            The IP address of the server host.
+     * @param port            The UDP port of the server host.
+     * @param timeout         The timeout in milliseconds for making connection to the server.
+     * @param destinationPath The path to the file the received data is written to.
+     */
+    public UdpDownloadReceiver(String host, int port, int timeout, String destinationPath) {
+        mHost = host;
+        mPort = port;
+        mTimeout = timeout;
+        mDestinationPath = destinationPath;
+    }
+
+    /**
+     * Creates a receiver waiting for a {@link UdpDownloadClient} to connect.
+     *
+     * @param port            The local UDP port to wait on, 0 for any free port.
+     * @param timeout         The maximum time in milliseconds to wait for the client.
+     * @param destinationPath The path to the file the received data is written to.
+     */
+    public UdpDownloadReceiver(int port, int timeout, String destinationPath) {
+        this(null, port, timeout, destinationPath);
+    }
+
+    /**
+     * Validates the destination, connects to server or binds the local port, and starts receiving the file data
+     * in a separate thread.
+     *
+     * @return Result enum case to indicate the method invocation result.
+     */
+    public LocalFastDownloadReceiver.Result start() {
+        if (mDestinationPath == null) {
+            return LocalFastDownloadReceiver.Result.DESTINATION_INVALID;
+        }
+        File destination = new File(mDestinationPath);
+        File parent = destination.getAbsoluteFile().getParentFile();
+        if (destination.isDirectory() || parent == null || !parent.isDirectory()) {
+            System.err.println(mDestinationPath + " is NOT valid!");
+            return LocalFastDownloadReceiver.Result.DESTINATION_INVALID;
+        }
+
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            channel = UdpProtocol.open(selector);
+            int session = 0;
+            long roundTrip = 0;
+            if (mHost != null) {
+                System.out.println("Connecting to SERVER " + mHost + " on port " + mPort);
+                InetSocketAddress server = new InetSocketAddress(mHost, mPort);
+                // Lost HELLOs lengthen the measure, which only makes the receiver linger longer
+                long connectTime = System.nanoTime();
+                session = UdpProtocol.connect(channel, selector, server, mTimeout);
+                roundTrip = System.nanoTime() - connectTime;
+                System.out.println("Just connected to SERVER " + channel.getRemoteAddress());
+            } else {
+                channel.bind(new InetSocketAddress(mPort));
+                if (mPort == 0) {
+                    System.out.println("Automatically Allocated Port: " + getLocalPort());
+                }
+            }
+            receiver = new UdpFileReceiver(channel, selector, session, roundTrip, mTimeout,
+                    new RandomAccessFile(destination, "rw"));
+            receiver.start();
+            return LocalFastDownloadReceiver.Result.SUCCESS;
+        } catch (PortUnreachableException portUnreachableException) {
+            // Nothing listens on the port of the server
+            portUnreachableException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.SERVER_NOT_STARTED;
+        } catch (SocketTimeoutException socketTimeoutException) {
+            // Timeout expires before connecting
+            socketTimeoutException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.SOCKET_TIMEOUT;
+        } catch (UnresolvedAddressException unresolvedAddressException) {
+            unresolvedAddressException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.UNKNOWN_HOST;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            illegalArgumentException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            securityException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            close(selector);
+            return LocalFastDownloadReceiver.Result.IO_ERROR;
+        }
+    }
+
+    /**
+     * @return the local port of the receiver, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * Aborts the process of receiving data, and tells the sender.
+     *
+     * @return true if the receiving process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (receiver != null && receiver.isAlive()) {
+            receiver.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+
+        if (receiver != null) {
+            System.out.println("Too late to abort as the receiving process Already Completed");
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the receiving process to finish.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait forever.
+     * @return true if the whole file has been received; otherwise false.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        if (receiver == null) {
+            return false;
+        }
+        receiver.join(timeoutMillis);
+        return receiver.isCompleted();
+    }
+
+    /**
+     * @return the number of bytes written to the destination file so far.
+     */
+    public long getBytesWritten() {
+        return receiver == null ? 0 : receiver.getBytesWritten();
+    }
+
+    private void close(Selector selector) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+}
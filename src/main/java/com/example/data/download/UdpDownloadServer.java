@@ -0,0 +1,184 @@
+package com.example.data.download;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+
+
+/**
+ * UDP counterpart of {@link LocalFastDownloadServer}: waits for one receiver on a UDP port and sends it the file
+ * with the rate-based congestion control of {@link UdpFileSender}, which keeps long, lossy links busy where a
+ * single TCP stream is limited by its window.
+ * <p>
+ * start() returns as soon as the port is bound, with the same Result codes as the blocking server. The wait
+ * for the receiver and the transfer run in the sender thread. A receiver that does not connect within the
+ * timeout fails the transfer, which is reported to the progress object as FAILED. The whole file is always
+ * sent, in its RAW form.
+ */
+public class UdpDownloadServer {
+
+    /** Default maximum time in milliseconds to wait for client connection */
+    private static final int DEFAULT_SOCKET_TIMEOUT = 90_000;
+
+    /** The udp port number on which server waits for client connection */
+    private final int mPort;
+    /** The maximum time in milliseconds to wait for client connection */
+    private final int mTimeout;
+    /** The path to file to send to client */
+    private final String mFilePath;
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private TransferProgress mProgress;
+    /** The highest sending rate in bytes per second, 0 for no limit */
+    private long mMaxRate;
+
+    /** Holds the channel bound to port 'mPort' */
+    private DatagramChannel channel;
+    /** Waits for the client and sends the file */
+    private UdpFileSender sender;
+    /** Set once the sender finished, whatever the result */
+    private volatile boolean isFinished = false;
+
+    /**
+     * Creates a server instance with given port, default socket timeout and given filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public UdpDownloadServer(int port, String filePath) {
+        this(port, DEFAULT_SOCKET_TIMEOUT, filePath);
+    }
+
+    /**
+     * Creates a server instance with given port, socket timeout and filePath.
+     *
+     * @param port     indicates port number on which server waits for client connection.
+     * @param timeout  indicates maximum time in milliseconds to wait for client connection.
+     * @param filePath indicates path to file to send to client.
+     */
+    public UdpDownloadServer(int port, int timeout, String filePath) {
+        mPort = port;
+        mTimeout = timeout;
+        mFilePath = filePath;
+    }
+
+    /**
+     * Sets the object that receives the progress of the sending process. Must be called before start().
+     *
+     * @param progress the progress object to update, or null.
+     */
+    public void setProgress(TransferProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Caps the sending rate, so a transfer leaves room to the other traffic of the link. Must be called before
+     * start().
+     *
+     * @param maxRate the highest rate in bytes per second, 0 for no limit.
+     */
+    public void setMaxRate(long maxRate) {
+        mMaxRate = maxRate;
+    }
+
+    /**
+     * Validates the file, binds the port and starts waiting for the client in the sender thread.
+     *
+     * @return Returns a Result enum case to indicate the result of preparation work.
+     */
+    public LocalFastDownloadServer.Result start() {
+        if (sender != null && !isFinished) {
+            return LocalFastDownloadServer.Result.SERVER_ALREADY_RUNNING;
+        }
+        if (mFilePath == null || !new File(mFilePath).isFile()) {
+            System.err.println(mFilePath + " is NOT valid!");
+            return LocalFastDownloadServer.Result.FILE_PATH_INVALID;
+        }
+
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            channel = UdpProtocol.open(selector);
+            channel.bind(new InetSocketAddress(mPort));
+            if (mPort == 0) {
+                System.out.println("Automatically Allocated Port: " + getLocalPort());
+            }
+        } catch (BindException bindException) {
+            // Port already in use
+            bindException.printStackTrace();
+            releaseServer(selector);
+            return LocalFastDownloadServer.Result.PORT_ALREADY_IN_USE;
+        } catch (IllegalArgumentException illegalArgumentException) {
+            // Port outside the specified range of valid port values, which is between 0 and 65535
+            illegalArgumentException.printStackTrace();
+            releaseServer(selector);
+            return LocalFastDownloadServer.Result.PORT_OUT_OF_RANGE;
+        } catch (SecurityException securityException) {
+            // A security manager exists and its checkListen method doesn't allow the operation
+            securityException.printStackTrace();
+            releaseServer(selector);
+            return LocalFastDownloadServer.Result.SECURITY_ERROR;
+        } catch (IOException ioException) {
+            // An I/O error occurs when opening the socket
+            ioException.printStackTrace();
+            releaseServer(selector);
+            return LocalFastDownloadServer.Result.IO_ERROR;
+        }
+
+        isFinished = false;
+        sender = new UdpFileSender(mFilePath, channel, selector, 0, mTimeout, mMaxRate, mProgress, state -> {
+            isFinished = true;
+            if (mProgress != null) {
+                mProgress.finish(state);
+            }
+        });
+        sender.start();
+        return LocalFastDownloadServer.Result.SUCCESS;
+    }
+
+    /**
+     * @return the port the server listens on, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * This method is used to abort the file data sending process that is in progress, or the wait for the client.
+     *
+     * @return true if the sending process is in progress; otherwise false.
+     */
+    public boolean abort() {
+        if (sender != null && !isFinished) {
+            sender.abort();
+            System.out.println("Aborting ...");
+            return true;
+        }
+        if (sender != null) {
+            System.out.println("Too late to abort as the sending process Already Completed");
+        }
+        return false;
+    }
+
+    /**
+     * Closes the channel and the selector when the sender could not be started, so the server is not seen as
+     * bound anymore.
+     */
+    private void releaseServer(Selector selector) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        } finally {
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Receives a file sent by {@link UdpFileSender} over a connected datagram channel.
+ * <p>
+ * Each DATA packet is written at its own file offset as soon as it arrives, whatever the order. Every
+ * FEEDBACK_INTERVAL_MILLIS the receiver reports the packets received so far, the receive rate and the packets
+ * missing below the highest one received. Once the whole file is received it sends DONE, and keeps answering
+ * DONE for a while in case its DONE was lost.
+ */
+class UdpFileReceiver extends Thread {
+
+    /** Time in milliseconds without any packet from the sender after which the transfer fails */
+    private static final long PEER_TIMEOUT_MILLIS = 10_000;
+    /** Shortest time in milliseconds DONE is sent again to a sender that keeps sending */
+    private static final long MIN_LINGER_MILLIS = 5_000;
+    /**
+     * Time in round trips DONE is sent again to a sender that keeps sending, when longer than MIN_LINGER_MILLIS.
+     * The sender sends the tail again after 4 round trips without progress, so this outlasts two of its tries.
+     */
+    private static final int LINGER_ROUND_TRIPS = 10;
+
+    /** The channel connected to the sender */
+    private final DatagramChannel mChannel;
+    /** Wakes the thread up when a packet arrives */
+    private final Selector mSelector;
+    /** The maximum time in milliseconds to wait for the sender to connect, when the session is not known yet */
+    private final int mAcceptTimeout;
+    /** The session id of every packet, 0 until the sender connects */
+    private int mSession;
+    /** Round-trip time in nanoseconds measured when connecting, 0 until measured */
+    private long mRoundTrip;
+    /** The destination file */
+    private final RandomAccessFile mDestination;
+
+    private final ByteBuffer mPacket = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET_SIZE);
+    private final ByteBuffer mFeedback = ByteBuffer.allocate(UdpProtocol.MAX_PACKET_SIZE);
+
+    /** The file length announced by the sender, -1 until the first DATA packet */
+    private long mFileLength = -1;
+    private int mPacketCount;
+    /** The packets received */
+    private BitSet mReceived;
+    /** Number of packets received */
+    private int mReceivedCount;
+    /** All the packets before it are received */
+    private int mCumulative;
+    /** The highest packet received */
+    private int mHighest = -1;
+    /** Timestamp of the last DATA packet, echoed to the sender */
+    private long mEcho;
+    /** Number of packets received since the last FEEDBACK */
+    private long mIntervalPackets;
+
+    /** Number of bytes written to the destination file */
+    private volatile long mBytesWritten;
+    /** Set when the whole file has been received */
+    private volatile boolean isCompleted;
+    /** This flag is used to abort receiving data */
+    private volatile boolean isAborted;
+
+    /**
+     * @param channel     the channel connected to the sender, closed when the receiving finishes.
+     * @param selector    the selector the channel is registered with for reads, closed with it.
+     * @param session     the session id of the connection, or 0 to wait for the sender to connect first.
+     * @param roundTrip   the time in nanoseconds the connection took, 0 to measure it when the sender connects.
+     * @param acceptTimeout the maximum time in milliseconds to wait for the sender to connect, 0 to wait forever.
+     * @param destination the destination file, closed when the receiving finishes.
+     */
+    UdpFileReceiver(DatagramChannel channel, Selector selector, int session, long roundTrip, int acceptTimeout,
+            RandomAccessFile destination) {
+        super("udp-receiver");
+        mChannel = channel;
+        mSelector = selector;
+        mSession = session;
+        mRoundTrip = roundTrip;
+        mAcceptTimeout = acceptTimeout;
+        mDestination = destination;
+        setDaemon(true);
+    }
+
+    void abort() {
+        isAborted = true;
+        mSelector.wakeup();
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    boolean isCompleted() {
+        return isCompleted;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (mSession == 0) {
+                System.out.println("Waiting for SERVER connection on port " + mChannel.socket().getLocalPort());
+                mSession = UdpProtocol.accept(mChannel, mSelector, mAcceptTimeout, () -> isAborted);
+                if (mSession == 0) {
+                    throw new IOException("Aborted while waiting for SERVER connection");
+                }
+                System.out.println("Just connected to SERVER " + mChannel.getRemoteAddress());
+            }
+            receive();
+            if (isCompleted) {
+                linger();
+            } else if (mChannel.isConnected()) {
+                UdpProtocol.sendControl(mChannel, UdpProtocol.ABORT, mSession);
+            }
+        } catch (IOException ioException) {
+            if (!isAborted) {
+                ioException.printStackTrace();
+            }
+        } finally {
+            try {
+                mDestination.close();
+                mChannel.close();
+                mSelector.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+        System.out.println(isCompleted ? "Receiving Completed" : "Receiving Aborted");
+    }
+
+    private void receive() throws IOException {
+        FileChannel fileChannel = mDestination.getChannel();
+        // The first DATA comes one round trip after the HELLO_ACK
+        long acceptTime = System.nanoTime();
+        long lastPacketTime = System.currentTimeMillis();
+        long lastFeedbackTime = lastPacketTime;
+        while (!isAborted) {
+            mSelector.select(UdpProtocol.FEEDBACK_INTERVAL_MILLIS);
+            mSelector.selectedKeys().clear();
+            while (true) {
+                mPacket.clear();
+                if (mChannel.receive(mPacket) == null) {
+                    break;
+                }
+                mPacket.flip();
+                if (mPacket.remaining() < UdpProtocol.HEADER_SIZE || mPacket.getInt(1) != mSession) {
+                    continue;
+                }
+                lastPacketTime = System.currentTimeMillis();
+                byte type = mPacket.get(0);
+                if (type == UdpProtocol.DATA && mPacket.remaining() >= UdpProtocol.DATA_HEADER_SIZE) {
+                    if (mRoundTrip == 0) {
+                        mRoundTrip = Math.max(1, System.nanoTime() - acceptTime);
+                    }
+                    onData(fileChannel);
+                } else if (type == UdpProtocol.HELLO) {
+                    UdpProtocol.sendControl(mChannel, UdpProtocol.HELLO_ACK, mSession);
+                } else if (type == UdpProtocol.ABORT) {
+                    throw new IOException("Transfer aborted by the sender");
+                }
+            }
+            if (mFileLength >= 0 && mReceivedCount == mPacketCount) {
+                isCompleted = true;
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastPacketTime > PEER_TIMEOUT_MILLIS) {
+                throw new IOException("No packet from the sender for " + PEER_TIMEOUT_MILLIS + " ms");
+            }
+            if (mFileLength >= 0 && now - lastFeedbackTime >= UdpProtocol.FEEDBACK_INTERVAL_MILLIS) {
+                sendFeedback(now - lastFeedbackTime);
+                lastFeedbackTime = now;
+            }
+        }
+    }
+
+    private void onData(FileChannel fileChannel) throws IOException {
+        mPacket.position(UdpProtocol.HEADER_SIZE);
+        int seq = mPacket.getInt();
+        long fileLength = mPacket.getLong();
+        long timestamp = mPacket.getLong();
+        if (mFileLength < 0) {
+            mFileLength = fileLength;
+            mPacketCount = UdpProtocol.packetCount(fileLength);
+            mReceived = new BitSet(mPacketCount);
+            mDestination.setLength(fileLength);
+        }
+        if (fileLength != mFileLength || seq < 0 || seq >= mPacketCount) {
+            return;
+        }
+        mEcho = timestamp;
+        mIntervalPackets++;
+        mHighest = Math.max(mHighest, seq);
+        if (mReceived.get(seq)) {
+            return;
+        }
+        long position = (long) seq * UdpProtocol.PAYLOAD_SIZE;
+        while (mPacket.hasRemaining()) {
+            position += fileChannel.write(mPacket, position);
+        }
+        mReceived.set(seq);
+        mReceivedCount++;
+        mBytesWritten += mPacket.limit() - UdpProtocol.DATA_HEADER_SIZE;
+        mCumulative = mReceived.nextClearBit(mCumulative);
+    }
+
+    private void sendFeedback(long intervalMillis) throws IOException {
+        mFeedback.clear();
+        mFeedback.put(UdpProtocol.FEEDBACK).putInt(mSession);
+        mFeedback.putInt(mCumulative).putInt(mHighest).putLong(mEcho)
+                .putLong(mIntervalPackets * TimeUnit.SECONDS.toMillis(1) / Math.max(1, intervalMillis));
+        int countPosition = mFeedback.position();
+        mFeedback.putShort((short) 0);
+        short nakCount = 0;
+        for (int seq = mReceived.nextClearBit(mCumulative); seq < mHighest && nakCount < UdpProtocol.MAX_NAKS;
+                seq = mReceived.nextClearBit(seq + 1)) {
+            mFeedback.putInt(seq);
+            nakCount++;
+        }
+        mFeedback.putShort(countPosition, nakCount).flip();
+        mChannel.write(mFeedback);
+        mIntervalPackets = 0;
+    }
+
+    /**
+     * Sends DONE, and again to every packet the sender keeps sending, for LINGER_ROUND_TRIPS round trips and at
+     * least MIN_LINGER_MILLIS.
+     */
+    private void linger() throws IOException {
+        UdpProtocol.sendControl(mChannel, UdpProtocol.DONE, mSession);
+        long deadline = System.currentTimeMillis()
+                + Math.max(MIN_LINGER_MILLIS, TimeUnit.NANOSECONDS.toMillis(LINGER_ROUND_TRIPS * mRoundTrip));
+        while (!isAborted && System.currentTimeMillis() < deadline) {
+            if (mSelector.select(UdpProtocol.FEEDBACK_INTERVAL_MILLIS * 10) == 0) {
+                continue;
+            }
+            mSelector.selectedKeys().clear();
+            boolean isPacketReceived = false;
+            while (true) {
+                mPacket.clear();
+                if (mChannel.receive(mPacket) == null) {
+                    break;
+                }
+                isPacketReceived = true;
+            }
+            if (isPacketReceived) {
+                UdpProtocol.sendControl(mChannel, UdpProtocol.DONE, mSession);
+            }
+        }
+    }
+}
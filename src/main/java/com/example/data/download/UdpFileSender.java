@@ -0,0 +1,422 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+
+/**
+ * Sends a file over a connected datagram channel, paced by a rate-based congestion control in the style of UDT.
+ * <p>
+ * DATA packets are sent at the current rate rather than as fast as a window allows, so a long round trip does
+ * not limit the throughput the way it limits a single TCP stream. The rate doubles every round trip without a
+ * new loss until the first loss, then starts from the receive rate measured by the receiver. Afterwards it grows
+ * by a fixed step every round trip without a new loss, and drops by 1/9 at most once per congestion epoch, when
+ * a packet sent after the previous decrease is reported missing. The step is 1/64 of the rate left by the last
+ * decrease, so the increase is additive within an epoch and the rate converges instead of growing
+ * exponentially between losses. The rate does not grow while the sender sends less than half of what the rate
+ * allows, since such a rate was never tested against the network.
+ * <p>
+ * Missing packets are sent again before new ones, unless they were already sent again less than a round trip
+ * ago. Packets lost at the tail of the file are never reported missing, so they are sent again once no
+ * FEEDBACK made progress for a few round trips. At most FLOW_WINDOW packets are in flight beyond the
+ * cumulative acknowledgement.
+ */
+class UdpFileSender extends Thread {
+
+    /** Largest number of packets sent beyond the cumulative acknowledgement */
+    private static final int FLOW_WINDOW = 32 * 1024;
+    /** Rate in packets per second the transfer starts with */
+    private static final double INITIAL_RATE = 1_000;
+    /** Lowest rate in packets per second */
+    private static final double MIN_RATE = 100;
+    /** Longest burst in nanoseconds sent to catch up after the thread was late */
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Time in milliseconds without any packet from the receiver after which the transfer fails */
+    private static final long PEER_TIMEOUT_MILLIS = 10_000;
+    /** Smallest time in nanoseconds before a packet reported missing is sent again */
+    private static final long MIN_RESEND_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** Smallest time in nanoseconds between two increases of the rate, when the round trip is shorter */
+    private static final long MIN_INCREASE_NANOS = TimeUnit.MILLISECONDS.toNanos(UdpProtocol.FEEDBACK_INTERVAL_MILLIS);
+    /** Smallest step in packets per second the rate grows by every round trip */
+    private static final double MIN_INCREASE_STEP = 10;
+    /** Size in bytes of a FEEDBACK body without the missing packets */
+    private static final int FEEDBACK_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Short.BYTES;
+    /** Smallest time in nanoseconds without progress before the tail is sent again */
+    private static final long MIN_EXPIRY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** The path of the file to send */
+    private final String mFilePath;
+    /** The channel connected to the receiver */
+    private final DatagramChannel mChannel;
+    /** Wakes the thread up when a packet arrives */
+    private final Selector mSelector;
+    /** The maximum time in milliseconds to wait for the receiver to connect, when the session is not known yet */
+    private final int mAcceptTimeout;
+    /** The session id of every packet, 0 until the receiver connects */
+    private int mSession;
+    /** The highest rate in packets per second, 0 for no limit */
+    private final double mMaxRate;
+    /** Receives the progress of the sending process, null if nobody watches it */
+    private final TransferProgress mProgress;
+    /** Called once with the final state, after the channel is closed */
+    private final Consumer<TransferProgress.State> mOnFinished;
+
+    private final ByteBuffer mPacket = ByteBuffer.allocateDirect(UdpProtocol.MAX_PACKET_SIZE);
+    private final ByteBuffer mFeedback = ByteBuffer.allocate(UdpProtocol.MAX_PACKET_SIZE);
+
+    private long mFileLength;
+    private int mPacketCount;
+    /** The time in nanoseconds each packet of the flow window was last sent, by seq % FLOW_WINDOW */
+    private final long[] mSendTimes = new long[FLOW_WINDOW];
+    /** The packets to send again, in the order they were reported missing */
+    private final ArrayDeque<Integer> mRetransmits = new ArrayDeque<>();
+    /** The packets in 'mRetransmits' */
+    private BitSet mQueued;
+    /** The next packet never sent */
+    private int mNextSeq;
+    /** All the packets before it are received */
+    private int mCumulative;
+    /** The highest packet received */
+    private int mHighest = -1;
+
+    /** Current rate in packets per second */
+    private double mRate = INITIAL_RATE;
+    private boolean isSlowStart = true;
+    /** Step in packets per second the rate grows by every round trip, set by the last decrease */
+    private double mIncreaseStep = MIN_INCREASE_STEP;
+    /** The time in nanoseconds the rate was last increased, or the increase last skipped */
+    private long mIncreaseTime;
+    /** Number of packets sent, new or again */
+    private long mSentPackets;
+    /** The value of 'mSentPackets' at 'mIncreaseTime' */
+    private long mIncreaseSentPackets;
+    /** A loss of a packet before it belongs to a congestion epoch already handled */
+    private int mDecreaseSeq;
+    /** Smoothed round-trip time in nanoseconds, 0 until measured */
+    private long mRoundTrip;
+    /** The time in nanoseconds the acknowledgements last made progress */
+    private long mProgressTime;
+    /** The time in nanoseconds the last packet from the receiver arrived */
+    private long mFeedbackTime;
+    private boolean isDone;
+
+    /** This flag is used to abort sending data */
+    private volatile boolean isAborted;
+
+    /**
+     * @param filePath   the path of the file to send.
+     * @param channel    the channel connected to the receiver, closed when the sending finishes.
+     * @param selector   the selector the channel is registered with for reads, closed with it.
+     * @param session    the session id of the connection, or 0 to wait for the receiver to connect first.
+     * @param acceptTimeout the maximum time in milliseconds to wait for the receiver to connect, 0 to wait forever.
+     * @param maxRate    the highest rate in bytes per second, 0 for no limit.
+     * @param progress   receives the progress of the sending process, or null.
+     * @param onFinished called once with COMPLETED, ABORTED or FAILED.
+     */
+    UdpFileSender(String filePath, DatagramChannel channel, Selector selector, int session, int acceptTimeout,
+            long maxRate, TransferProgress progress, Consumer<TransferProgress.State> onFinished) {
+        super("udp-sender");
+        mFilePath = filePath;
+        mChannel = channel;
+        mSelector = selector;
+        mSession = session;
+        mAcceptTimeout = acceptTimeout;
+        mMaxRate = (double) maxRate / UdpProtocol.PAYLOAD_SIZE;
+        mProgress = progress;
+        mOnFinished = onFinished;
+        setDaemon(true);
+    }
+
+    /**
+     * Stops the sending and tells the receiver.
+     */
+    void abort() {
+        isAborted = true;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        TransferProgress.State state;
+        try (FileChannel fileChannel = FileChannel.open(Path.of(mFilePath), StandardOpenOption.READ)) {
+            if (mSession == 0) {
+                System.out.println("Waiting for CLIENT connection on port " + mChannel.socket().getLocalPort());
+                mSession = UdpProtocol.accept(mChannel, mSelector, mAcceptTimeout, () -> isAborted);
+                if (mSession == 0) {
+                    throw new IOException("Aborted while waiting for CLIENT connection");
+                }
+                System.out.println("Just connected to CLIENT " + mChannel.getRemoteAddress());
+            }
+            mFileLength = fileChannel.size();
+            mPacketCount = UdpProtocol.packetCount(mFileLength);
+            mQueued = new BitSet(mPacketCount);
+            if (mProgress != null) {
+                mProgress.begin(mFileLength);
+            }
+            state = send(fileChannel);
+        } catch (IOException | RuntimeException exception) {
+            // A malformed packet must not end the thread without reporting the end of the transfer
+            exception.printStackTrace();
+            state = isAborted ? TransferProgress.State.ABORTED : TransferProgress.State.FAILED;
+        }
+        try {
+            if (state != TransferProgress.State.COMPLETED && mChannel.isConnected()) {
+                UdpProtocol.sendControl(mChannel, UdpProtocol.ABORT, mSession);
+            }
+            mChannel.close();
+            mSelector.close();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+        System.out.println(state == TransferProgress.State.COMPLETED ? "Sending Completed" : "Sending " + state);
+        mOnFinished.accept(state);
+    }
+
+    private TransferProgress.State send(FileChannel fileChannel) throws IOException {
+        long now = System.nanoTime();
+        long nextSendTime = now;
+        mProgressTime = now;
+        mFeedbackTime = now;
+        mIncreaseTime = now;
+        int pendingSeq = -1;
+        while (true) {
+            readFeedback();
+            if (isDone) {
+                return TransferProgress.State.COMPLETED;
+            }
+            if (isAborted) {
+                return TransferProgress.State.ABORTED;
+            }
+            now = System.nanoTime();
+            if (TimeUnit.NANOSECONDS.toMillis(now - mFeedbackTime) > PEER_TIMEOUT_MILLIS) {
+                System.err.println("No answer from the receiver for " + PEER_TIMEOUT_MILLIS + " ms");
+                return TransferProgress.State.FAILED;
+            }
+            checkExpiry(now);
+
+            if (now < nextSendTime) {
+                long wait = nextSendTime - now;
+                if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                    select(TimeUnit.NANOSECONDS.toMillis(wait));
+                } else {
+                    LockSupport.parkNanos(wait);
+                }
+                continue;
+            }
+            if (pendingSeq < 0) {
+                pendingSeq = nextPacket();
+            }
+            if (pendingSeq < 0) {
+                // Everything is sent, wait for the receiver
+                select(UdpProtocol.FEEDBACK_INTERVAL_MILLIS);
+                nextSendTime = System.nanoTime();
+                continue;
+            }
+            if (!sendPacket(fileChannel, pendingSeq, now)) {
+                // The socket buffer is full, try again a little later
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                continue;
+            }
+            pendingSeq = -1;
+            nextSendTime = Math.max(nextSendTime + (long) (TimeUnit.SECONDS.toNanos(1) / mRate), now - MAX_BURST_NANOS);
+        }
+    }
+
+    private void select(long timeoutMillis) throws IOException {
+        mSelector.select(Math.max(1, timeoutMillis));
+        mSelector.selectedKeys().clear();
+    }
+
+    /**
+     * @return the packet to send, a missing one first, or -1 if there is none for now.
+     */
+    private int nextPacket() {
+        Integer seq;
+        while ((seq = mRetransmits.poll()) != null) {
+            mQueued.clear(seq);
+            if (seq >= mCumulative) {
+                return seq;
+            }
+        }
+        if (mNextSeq < mPacketCount && mNextSeq - mCumulative < FLOW_WINDOW) {
+            return mNextSeq++;
+        }
+        return -1;
+    }
+
+    private boolean sendPacket(FileChannel fileChannel, int seq, long now) throws IOException {
+        long offset = (long) seq * UdpProtocol.PAYLOAD_SIZE;
+        int length = (int) Math.min(UdpProtocol.PAYLOAD_SIZE, mFileLength - offset);
+        mPacket.clear();
+        mPacket.put(UdpProtocol.DATA).putInt(mSession).putInt(seq).putLong(mFileLength).putLong(now);
+        mPacket.limit(UdpProtocol.DATA_HEADER_SIZE + length);
+        while (mPacket.hasRemaining()) {
+            if (fileChannel.read(mPacket, offset + mPacket.position() - UdpProtocol.DATA_HEADER_SIZE) < 0) {
+                throw new IOException("File truncated while sending");
+            }
+        }
+        mPacket.flip();
+        if (mChannel.write(mPacket) == 0) {
+            return false;
+        }
+        mSendTimes[seq % FLOW_WINDOW] = now;
+        mSentPackets++;
+        return true;
+    }
+
+    /**
+     * Handles every packet received from the receiver since the last call.
+     */
+    private void readFeedback() throws IOException {
+        while (true) {
+            mFeedback.clear();
+            if (mChannel.receive(mFeedback) == null) {
+                return;
+            }
+            mFeedback.flip();
+            if (mFeedback.remaining() < UdpProtocol.HEADER_SIZE || mFeedback.getInt(1) != mSession) {
+                continue;
+            }
+            mFeedbackTime = System.nanoTime();
+            switch (mFeedback.get(0)) {
+                case UdpProtocol.DONE:
+                    isDone = true;
+                    if (mProgress != null) {
+                        mProgress.set(mFileLength);
+                    }
+                    return;
+                case UdpProtocol.ABORT:
+                    throw new IOException("Transfer aborted by the receiver");
+                case UdpProtocol.HELLO:
+                    UdpProtocol.sendControl(mChannel, UdpProtocol.HELLO_ACK, mSession);
+                    break;
+                case UdpProtocol.FEEDBACK:
+                    if (!isFeedbackValid(mFeedback)) {
+                        System.err.println("Ignoring a malformed FEEDBACK of " + mFeedback.limit() + " bytes");
+                        break;
+                    }
+                    onFeedback(mFeedback.position(UdpProtocol.HEADER_SIZE));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return whether the FEEDBACK holds its fields and every missing packet it announces.
+     */
+    private static boolean isFeedbackValid(ByteBuffer feedback) {
+        int length = feedback.limit() - UdpProtocol.HEADER_SIZE;
+        if (length < FEEDBACK_SIZE) {
+            return false;
+        }
+        int nakCount = feedback.getShort(UdpProtocol.HEADER_SIZE + FEEDBACK_SIZE - Short.BYTES);
+        return nakCount >= 0 && nakCount <= UdpProtocol.MAX_NAKS
+                && length >= FEEDBACK_SIZE + nakCount * Integer.BYTES;
+    }
+
+    private void onFeedback(ByteBuffer feedback) {
+        long now = System.nanoTime();
+        int cumulative = feedback.getInt();
+        int highest = feedback.getInt();
+        long echo = feedback.getLong();
+        double receiveRate = feedback.getLong();
+        int nakCount = feedback.getShort();
+
+        if (echo > 0 && echo <= now) {
+            long sample = now - echo;
+            mRoundTrip = mRoundTrip == 0 ? sample : (mRoundTrip * 7 + sample) / 8;
+        }
+        if (cumulative > mCumulative || highest > mHighest) {
+            mProgressTime = now;
+        }
+        mCumulative = Math.max(mCumulative, Math.min(cumulative, mPacketCount));
+        mHighest = Math.max(mHighest, highest);
+        if (mProgress != null) {
+            mProgress.set(Math.min((long) mCumulative * UdpProtocol.PAYLOAD_SIZE, mFileLength));
+        }
+
+        boolean isNewLoss = false;
+        for (int index = 0; index < nakCount; index++) {
+            int seq = feedback.getInt();
+            if (seq < mCumulative || seq >= mNextSeq || mQueued.get(seq)
+                    || now - mSendTimes[seq % FLOW_WINDOW] < Math.max(mRoundTrip, MIN_RESEND_NANOS)) {
+                continue;
+            }
+            mRetransmits.add(seq);
+            mQueued.set(seq);
+            if (seq >= mDecreaseSeq) {
+                isNewLoss = true;
+            }
+        }
+
+        if (isNewLoss) {
+            if (isSlowStart) {
+                isSlowStart = false;
+                mRate = Math.max(receiveRate, MIN_RATE);
+            } else {
+                mRate = Math.max(mRate * 8 / 9, MIN_RATE);
+            }
+            mIncreaseStep = Math.max(mRate / 64, MIN_INCREASE_STEP);
+            mDecreaseSeq = mNextSeq;
+            // The next increase waits for a full round trip at the new rate
+            mIncreaseTime = now;
+            mIncreaseSentPackets = mSentPackets;
+        } else {
+            increaseRate(now);
+        }
+        if (mMaxRate > 0) {
+            mRate = Math.min(mRate, mMaxRate);
+        }
+    }
+
+    /**
+     * Grows the rate once per round trip, unless the sender did not use at least half of the current rate since
+     * the last increase.
+     */
+    private void increaseRate(long now) {
+        long elapsed = now - mIncreaseTime;
+        if (elapsed < Math.max(mRoundTrip, MIN_INCREASE_NANOS)) {
+            return;
+        }
+        double allowedPackets = mRate * elapsed / TimeUnit.SECONDS.toNanos(1);
+        boolean isRateLimited = mSentPackets - mIncreaseSentPackets >= allowedPackets / 2;
+        mIncreaseTime = now;
+        mIncreaseSentPackets = mSentPackets;
+        if (!isRateLimited) {
+            return;
+        }
+        mRate = isSlowStart ? mRate * 2 : mRate + mIncreaseStep;
+    }
+
+    /**
+     * Sends the tail again when every packet has been sent and the acknowledgements stopped progressing.
+     */
+    private void checkExpiry(long now) {
+        if (mNextSeq < mPacketCount || !mRetransmits.isEmpty() || mCumulative >= mPacketCount) {
+            return;
+        }
+        if (now - mProgressTime < Math.max(4 * mRoundTrip, MIN_EXPIRY_NANOS)) {
+            return;
+        }
+        for (int seq = Math.max(mCumulative, mHighest + 1); seq < mPacketCount; seq++) {
+            if (!mQueued.get(seq)) {
+                mRetransmits.add(seq);
+                mQueued.set(seq);
+            }
+        }
+        mProgressTime = now;
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.data.download;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Forwards the datagrams between one peer and a target, after a fixed delay and with random losses, so the UDP
+ * transport can be tried on loopback as if it crossed a long, lossy link.
+ * <p>
+ * The first peer sending to the listening port is the one the answers of the target go back to. Both
+ * directions get the same delay and the same loss rate, so the round-trip time is twice the delay.
+ */
+public class UdpImpairmentProxy extends Thread {
+
+    /** Size in bytes of the socket buffers, large enough to hold a delay worth of packets */
+    private static final int SOCKET_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    /** The port the peer sends to */
+    private final int mListenPort;
+    /** The address the datagrams of the peer are forwarded to */
+    private final SocketAddress mTarget;
+
+    /** The one-way delay in nanoseconds added to every datagram */
+    private volatile long mDelayNanos;
+    /** The probability for a datagram to be dropped, between 0 and 1 */
+    private volatile double mLossRate;
+
+    /** Holds the channel bound to port 'mListenPort' */
+    private DatagramChannel mListenChannel;
+    /** Holds the channel connected to the target */
+    private DatagramChannel mTargetChannel;
+    private Selector mSelector;
+    /** The peer answers of the target go back to, null until it sends its first datagram */
+    private SocketAddress mPeer;
+
+    /** The datagrams waiting for their delay to expire, in the order they arrived */
+    private final ArrayDeque<Delayed> mQueue = new ArrayDeque<>();
+
+    /** This flag is used to stop forwarding */
+    private volatile boolean isStopped = false;
+
+    /** Number of datagrams forwarded and dropped so far */
+    private volatile long mForwarded;
+    private volatile long mDropped;
+
+    /**
+     * @param listenPort the port the peer sends to, 0 for any free port.
+     * @param targetHost the host the datagrams are forwarded to.
+     * @param targetPort the port the datagrams are forwarded to.
+     */
+    public UdpImpairmentProxy(int listenPort, String targetHost, int targetPort) {
+        super("udp-proxy");
+        mListenPort = listenPort;
+        mTarget = new InetSocketAddress(targetHost, targetPort);
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the one-way delay added to every datagram. Can be changed while forwarding.
+     *
+     * @param delayMillis the delay in milliseconds.
+     */
+    public void setDelayMillis(long delayMillis) {
+        mDelayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * Sets the probability for a datagram to be dropped. Can be changed while forwarding.
+     *
+     * @param lossRate the loss rate, between 0 and 1.
+     */
+    public void setLossRate(double lossRate) {
+        mLossRate = lossRate;
+    }
+
+    /**
+     * Binds the listening port and starts forwarding in this thread.
+     *
+     * @throws IOException if an I/O error occurs when binding the port.
+     */
+    public void open() throws IOException {
+        Selector selector = Selector.open();
+        DatagramChannel listenChannel = null;
+        DatagramChannel targetChannel = null;
+        try {
+            listenChannel = openChannel(selector);
+            listenChannel.bind(new InetSocketAddress(mListenPort));
+            targetChannel = openChannel(selector);
+            targetChannel.connect(mTarget);
+        } catch (IOException | RuntimeException exception) {
+            // Nothing is kept open when the port is taken or the target cannot be resolved
+            closeQuietly(listenChannel);
+            closeQuietly(targetChannel);
+            closeQuietly(selector);
+            throw exception;
+        }
+        mSelector = selector;
+        mListenChannel = listenChannel;
+        mTargetChannel = targetChannel;
+        start();
+        System.out.println("Forwarding port " + getLocalPort() + " to " + mTarget);
+    }
+
+    private static DatagramChannel openChannel(Selector selector) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            return channel;
+        } catch (IOException ioException) {
+            channel.close();
+            throw ioException;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the port the peer sends to, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        return mListenChannel == null ? -1 : mListenChannel.socket().getLocalPort();
+    }
+
+    public long getForwarded() {
+        return mForwarded;
+    }
+
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Stops forwarding and closes the channels. The datagrams still delayed are lost.
+     */
+    public void shutdown() {
+        isStopped = true;
+        if (mSelector != null) {
+            mSelector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (!isStopped) {
+                Delayed head = mQueue.peek();
+                long wait = head == null ? 100 : TimeUnit.NANOSECONDS.toMillis(head.mDueTime - System.nanoTime());
+                if (wait > 0) {
+                    mSelector.select(wait);
+                } else {
+                    mSelector.selectNow();
+                }
+                mSelector.selectedKeys().clear();
+                receive(buffer, mListenChannel, true);
+                receive(buffer, mTargetChannel, false);
+                forwardDue();
+            }
+        } catch (IOException ioException) {
+            if (!isStopped) {
+                ioException.printStackTrace();
+            }
+        } finally {
+            try {
+                mListenChannel.close();
+                mTargetChannel.close();
+                mSelector.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+    }
+
+    private void receive(ByteBuffer buffer, DatagramChannel channel, boolean isFromPeer) throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress source;
+            try {
+                source = channel.receive(buffer);
+            } catch (PortUnreachableException portUnreachableException) {
+                // The target is not listening yet, like a lost datagram
+                continue;
+            }
+            if (source == null) {
+                return;
+            }
+            if (isFromPeer) {
+                mPeer = source;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < mLossRate) {
+                mDropped++;
+                continue;
+            }
+            buffer.flip();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            mQueue.add(new Delayed(System.nanoTime() + mDelayNanos, isFromPeer, data));
+        }
+    }
+
+    private void forwardDue() throws IOException {
+        long now = System.nanoTime();
+        Delayed head;
+        while ((head = mQueue.peek()) != null && head.mDueTime <= now) {
+            mQueue.poll();
+            ByteBuffer data = ByteBuffer.wrap(head.mData);
+            if (head.isToTarget) {
+                try {
+                    mTargetChannel.write(data);
+                } catch (PortUnreachableException portUnreachableException) {
+                    // The target is not listening yet, like a lost datagram
+                }
+            } else if (mPeer != null) {
+                mListenChannel.send(data, mPeer);
+            }
+            mForwarded++;
+        }
+    }
+
+    /**
+     * A datagram waiting for its delay to expire.
+     */
+    private static class Delayed {
+        private final long mDueTime;
+        private final boolean isToTarget;
+        private final byte[] mData;
+
+        Delayed(long dueTime, boolean isToTarget, byte[] data) {
+            mDueTime = dueTime;
+            this.isToTarget = isToTarget;
+            mData = data;
+        }
+    }
+}
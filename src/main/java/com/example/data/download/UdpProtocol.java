@@ -0,0 +1,165 @@
+package com.example.data.download;
+
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Packet layout and handshake of the UDP transport, shared by {@link UdpFileSender} and {@link UdpFileReceiver}.
+ * <p>
+ * Every packet starts with its type and the session id chosen by the connecting side, so packets of an older
+ * session are ignored. The connecting side repeats HELLO until the listening side answers HELLO_ACK; the
+ * listening side answers every HELLO it receives, in case its answer was lost.
+ * <ul>
+ * <li>DATA: {@code seq, fileLength, timestamp, payload}. Packet 'seq' holds the file bytes from
+ * seq * PAYLOAD_SIZE; the timestamp is echoed by the receiver to measure the round-trip time.</li>
+ * <li>FEEDBACK: {@code cumulative, highest, echo, receiveRate, nakCount, seq...}. All the packets before
+ * 'cumulative' are received, 'highest' is the highest packet received, and the listed packets are missing.</li>
+ * <li>DONE: the receiver has the whole file. ABORT: the peer stopped the transfer.</li>
+ * </ul>
+ */
+final class UdpProtocol {
+
+    static final byte HELLO = 1;
+    static final byte HELLO_ACK = 2;
+    static final byte DATA = 3;
+    static final byte FEEDBACK = 4;
+    static final byte DONE = 5;
+    static final byte ABORT = 6;
+
+    /** Size in bytes of the header of every packet: type and session */
+    static final int HEADER_SIZE = 1 + Integer.BYTES;
+    /** Size in bytes of the header of a DATA packet */
+    static final int DATA_HEADER_SIZE = HEADER_SIZE + Integer.BYTES + Long.BYTES + Long.BYTES;
+    /** Number of file bytes per DATA packet, so a packet fits in an Ethernet frame */
+    static final int PAYLOAD_SIZE = 1400;
+    /** Largest number of missing packets listed by one FEEDBACK */
+    static final int MAX_NAKS = 256;
+    /** Size in bytes of the largest packet */
+    static final int MAX_PACKET_SIZE = Math.max(DATA_HEADER_SIZE + PAYLOAD_SIZE,
+            HEADER_SIZE + 2 * Integer.BYTES + 2 * Long.BYTES + Short.BYTES + MAX_NAKS * Integer.BYTES);
+
+    /** Interval in milliseconds between two FEEDBACK packets of the receiver */
+    static final int FEEDBACK_INTERVAL_MILLIS = 10;
+    /** Interval in milliseconds between two HELLO packets */
+    private static final int HELLO_INTERVAL_MILLIS = 100;
+    /** Size in bytes of the socket buffers, large enough to absorb bursts at high rates */
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private UdpProtocol() {
+    }
+
+    /**
+     * Opens a non-blocking channel with large socket buffers, registered for reads with the given selector.
+     */
+    static DatagramChannel open(Selector selector) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            return channel;
+        } catch (IOException ioException) {
+            channel.close();
+            throw ioException;
+        }
+    }
+
+    /**
+     * @return the number of DATA packets of a file, at least one so an empty file is announced too.
+     */
+    static int packetCount(long fileLength) {
+        return (int) Math.max(1, (fileLength + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE);
+    }
+
+    /**
+     * Connects the channel to a listening peer.
+     *
+     * @return the session id.
+     * @throws SocketTimeoutException   if the peer does not answer within the timeout.
+     * @throws PortUnreachableException if nothing listens on the peer port.
+     * @throws IOException              if an I/O error occurs.
+     */
+    static int connect(DatagramChannel channel, Selector selector, SocketAddress peer, int timeoutMillis)
+            throws IOException {
+        channel.connect(peer);
+        int session = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        long deadline = System.currentTimeMillis() + (timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE / 2);
+        while (System.currentTimeMillis() < deadline) {
+            sendControl(channel, HELLO, session);
+            if (selector.select(HELLO_INTERVAL_MILLIS) == 0) {
+                continue;
+            }
+            selector.selectedKeys().clear();
+            while (true) {
+                packet.clear();
+                if (channel.receive(packet) == null) {
+                    break;
+                }
+                packet.flip();
+                if (packet.remaining() >= HEADER_SIZE && packet.get(0) == HELLO_ACK && packet.getInt(1) == session) {
+                    return session;
+                }
+            }
+        }
+        throw new SocketTimeoutException("No answer to HELLO from " + peer);
+    }
+
+    /**
+     * Waits for a peer to connect, connects the channel to it and answers.
+     *
+     * @return the session id, or 0 if aborted.
+     * @throws SocketTimeoutException if no peer connects within the timeout.
+     * @throws IOException            if an I/O error occurs.
+     */
+    static int accept(DatagramChannel channel, Selector selector, int timeoutMillis, BooleanSupplier isAborted)
+            throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        long deadline = System.currentTimeMillis() + (timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE / 2);
+        while (System.currentTimeMillis() < deadline) {
+            if (isAborted.getAsBoolean()) {
+                return 0;
+            }
+            if (selector.select(HELLO_INTERVAL_MILLIS) == 0) {
+                continue;
+            }
+            selector.selectedKeys().clear();
+            while (true) {
+                packet.clear();
+                SocketAddress peer = channel.receive(packet);
+                if (peer == null) {
+                    break;
+                }
+                packet.flip();
+                if (packet.remaining() >= HEADER_SIZE && packet.get(0) == HELLO) {
+                    int session = packet.getInt(1);
+                    channel.connect(peer);
+                    sendControl(channel, HELLO_ACK, session);
+                    return session;
+                }
+            }
+        }
+        throw new SocketTimeoutException("No peer connected within " + timeoutMillis + " ms");
+    }
+
+    /**
+     * Sends a packet made of the header only. A full socket buffer drops it, like the network would.
+     */
+    static void sendControl(DatagramChannel channel, byte type, int session) throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(HEADER_SIZE);
+        packet.put(type).putInt(session).flip();
+        channel.write(packet);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.data.Controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.example.data.Services.CatalogService;
+
+class DownloadControllerTests {
+
+	@TempDir
+	Path tempDir;
+
+	private CatalogService catalogService;
+
+	private MockMvc mockMvc;
+
+	private byte[] data;
+
+	private String etag;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Path root = Files.createDirectories(tempDir.resolve("root"));
+		data = new byte[1000];
+		for (int index = 0; index < data.length; index++) {
+			data[index] = (byte) (index % 251);
+		}
+		Path file = Files.write(root.resolve("data.bin"), data);
+		Files.writeString(tempDir.resolve("secret.txt"), "secret");
+
+		catalogService = new CatalogService(tempDir.resolve("catalog.db").toString(), 100, 60_000);
+		etag = "\"" + catalogService.getHash(file.toRealPath().toString()) + "\"";
+		mockMvc = controller(root.toString());
+	}
+
+	@AfterEach
+	void tearDown() {
+		catalogService.shutdown();
+	}
+
+	@Test
+	void wholeFileIsSentWithItsETag() throws Exception {
+		MvcResult result = mockMvc.perform(get("/server/download").param("path", "data.bin"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(header().string(HttpHeaders.ETAG, etag))
+				.andReturn();
+		assertArrayEquals(data, result.getResponse().getContentAsByteArray());
+	}
+
+	@Test
+	void matchingETagGetsNotModified() throws Exception {
+		MvcResult result = mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified())
+				.andReturn();
+		assertEquals(0, result.getResponse().getContentAsByteArray().length);
+	}
+
+	@Test
+	void singleRangeGetsPartialContent() throws Exception {
+		MvcResult result = mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=100-199"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-199/1000"))
+				.andReturn();
+		assertArrayEquals(Arrays.copyOfRange(data, 100, 200), result.getResponse().getContentAsByteArray());
+	}
+
+	@Test
+	void rangeIsIgnoredWhenIfRangeDoesNotMatch() throws Exception {
+		MvcResult result = mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=100-199")
+				.header(HttpHeaders.IF_RANGE, "\"another-version\""))
+				.andExpect(status().isOk())
+				.andReturn();
+		assertArrayEquals(data, result.getResponse().getContentAsByteArray());
+
+		mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=100-199")
+				.header(HttpHeaders.IF_RANGE, etag))
+				.andExpect(status().isPartialContent());
+	}
+
+	@Test
+	void severalRangesAreSentAsMultipartByteRanges() throws Exception {
+		MvcResult result = mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=0-9,500-509"))
+				.andExpect(status().isPartialContent())
+				.andReturn();
+		assertTrue(result.getResponse().getContentType().startsWith("multipart/byteranges"));
+		String content = new String(result.getResponse().getContentAsByteArray(), StandardCharsets.ISO_8859_1);
+		assertTrue(content.contains("Content-Range: bytes 0-9/1000"), content);
+		assertTrue(content.contains("Content-Range: bytes 500-509/1000"), content);
+		assertTrue(content.contains(new String(Arrays.copyOfRange(data, 500, 510), StandardCharsets.ISO_8859_1)));
+	}
+
+	@Test
+	void headWithSeveralRangesHasNoBody() throws Exception {
+		MvcResult result = mockMvc.perform(head("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=0-9,500-509"))
+				.andExpect(status().isPartialContent())
+				.andReturn();
+		assertEquals(0, result.getResponse().getContentAsByteArray().length);
+	}
+
+	@Test
+	void unsatisfiableRangeGets416() throws Exception {
+		mockMvc.perform(get("/server/download").param("path", "data.bin")
+				.header(HttpHeaders.RANGE, "bytes=2000-2999"))
+				.andExpect(status().isRequestedRangeNotSatisfiable())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */1000"));
+	}
+
+	@Test
+	void pathOutsideTheRootIsNotFound() throws Exception {
+		mockMvc.perform(get("/server/download").param("path", "../secret.txt"))
+				.andExpect(status().isNotFound());
+		mockMvc.perform(get("/server/download").param("path", tempDir.resolve("secret.txt").toString()))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void nothingIsServedWithoutARoot() throws Exception {
+		controller("").perform(get("/server/download").param("path", "data.bin"))
+				.andExpect(status().isNotFound());
+	}
+
+	private MockMvc controller(String root) throws Exception {
+		DownloadController controller = new DownloadController(root);
+		ReflectionTestUtils.setField(controller, "catalogService", catalogService);
+		return MockMvcBuilders.standaloneSetup(controller).build();
+	}
+}
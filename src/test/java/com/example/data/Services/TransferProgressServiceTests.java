@@ -0,0 +1,88 @@
+package com.example.data.Services;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.data.download.TransferProgress;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class TransferProgressServiceTests {
+
+	private TransferProgressService service;
+
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() {
+		service = new TransferProgressService(new ObjectMapper(), 20);
+		mockMvc = MockMvcBuilders.standaloneSetup(new ProgressController(service)).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.shutdown();
+	}
+
+	@Test
+	void watcherOfARunningTransferGetsTheFinalEvent() throws Exception {
+		TransferProgress progress = service.register("running");
+		progress.begin(100);
+		MvcResult result = mockMvc.perform(get("/progress").param("transferId", "running"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		progress.set(100);
+		progress.finish(TransferProgress.State.COMPLETED);
+		// Completing the emitter sets the async result, this fails if the watcher is left open
+		result.getAsyncResult(5_000);
+		String content = result.getResponse().getContentAsString();
+		assertTrue(content.contains("\"state\":\"COMPLETED\""), content);
+	}
+
+	@Test
+	void watcherSubscribingAfterTheEndGetsTheFinalEventAndIsCompleted() throws Exception {
+		TransferProgress progress = service.register("finished");
+		progress.begin(100);
+		progress.set(100);
+		progress.finish(TransferProgress.State.COMPLETED);
+		// The scheduler sees the end while nobody watches
+		Thread.sleep(200);
+
+		MvcResult result = mockMvc.perform(get("/progress").param("transferId", "finished"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		result.getAsyncResult(5_000);
+		String content = result.getResponse().getContentAsString();
+		assertTrue(content.contains("event:progress"), content);
+		assertTrue(content.contains("\"state\":\"COMPLETED\""), content);
+		assertTrue(content.contains("\"bytesDone\":100"), content);
+	}
+
+	@RestController
+	static class ProgressController {
+
+		private final TransferProgressService service;
+
+		ProgressController(TransferProgressService service) {
+			this.service = service;
+		}
+
+		@GetMapping(path = "/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+		SseEmitter progress(@RequestParam(name = "transferId") String transferId) {
+			return service.subscribe(transferId);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.example.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the wall-clock time from JVM launch until the process is ready to transfer, for each way of
+ * starting a worker. Every run is a fresh JVM on the test class path.
+ * <ul>
+ * <li>web: DataApplication with the default profile;</li>
+ * <li>web-fast: DataApplication with the fast profile (lazy beans, pruned auto-configuration);</li>
+ * <li>web-fast-cds: same, with the AppCDS archive built by the fast-startup build profile, if present;</li>
+ * <li>cli: TransferCli, up to its first connection attempt.</li>
+ * </ul>
+ * The web variants use 'startup.training-run' to exit as soon as the application has started.
+ * <p>
+ * Run with: java -cp &lt;test class path&gt; com.example.data.StartupBenchmark [iterations]
+ */
+public class StartupBenchmark {
+
+	private static final int DEFAULT_ITERATIONS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+		Path workDirectory = Files.createTempDirectory("startup-benchmark");
+		List<String> webProperties = Arrays.asList(
+				"-Dstartup.training-run=true",
+				"-Dserver.port=0",
+				"-Dtransfer.journal.path=" + workDirectory.resolve("journal.wal"),
+				"-Dtransfer.catalog.path=" + workDirectory.resolve("catalog.db"));
+
+		List<String> web = new ArrayList<>(webProperties);
+		web.add(DataApplication.class.getName());
+		report("web", iterations, web);
+
+		List<String> webFast = new ArrayList<>(webProperties);
+		webFast.add("-Dspring.profiles.active=fast");
+		webFast.add(DataApplication.class.getName());
+		report("web-fast", iterations, webFast);
+
+		Path archive = Path.of("target", "app-cds.jsa");
+		if (Files.exists(archive)) {
+			List<String> webFastCds = new ArrayList<>(webFast);
+			webFastCds.add(0, "-XX:SharedArchiveFile=" + archive.toAbsolutePath());
+			report("web-fast-cds", iterations, webFastCds);
+		}
+
+		// Port 1 refuses the connection, so the run stops right after the first connection attempt
+		report("cli", iterations, Arrays.asList("com.example.data.download.TransferCli", "receive", "127.0.0.1", "1",
+				workDirectory.resolve("received.bin").toString()));
+	}
+
+	private static void report(String name, int iterations, List<String> arguments)
+			throws IOException, InterruptedException {
+		long[] durations = new long[iterations];
+		for (int index = 0; index < iterations; index++) {
+			durations[index] = launch(arguments);
+		}
+		Arrays.sort(durations);
+		System.out.printf("%-14s min %6d ms   median %6d ms   max %6d ms%n", name, durations[0],
+				durations[iterations / 2], durations[iterations - 1]);
+	}
+
+	private static long launch(List<String> arguments) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.addAll(arguments);
+
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.to(new File(System.getProperty("java.io.tmpdir"),
+						"startup-benchmark.log")))
+				.start();
+		process.waitFor();
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+}
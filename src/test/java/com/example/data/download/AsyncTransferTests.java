@@ -0,0 +1,118 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AsyncTransferTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void serverSendsTheFileOverLoopback() throws Exception {
+		byte[] content = randomBytes(3_000_000);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+		TransferProgress progress = new TransferProgress("server");
+		AsyncDownloadServer server = new AsyncDownloadServer(0, 10_000, file.toString());
+		server.setProgress(progress);
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+
+		try (Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+				InputStream inputStream = socket.getInputStream()) {
+			assertArrayEquals(content, inputStream.readAllBytes());
+		}
+		progress.getCompletion().get(10, TimeUnit.SECONDS);
+		assertEquals(TransferProgress.State.COMPLETED, progress.getState());
+		assertEquals(content.length, progress.getBytesDone());
+	}
+
+	@Test
+	void clientSendsTheFileOverLoopback() throws Exception {
+		byte[] content = randomBytes(3_000_000);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+		TransferProgress progress = new TransferProgress("client");
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			AsyncDownloadClient client = new AsyncDownloadClient("127.0.0.1", serverSocket.getLocalPort(), 5_000,
+					file.toString());
+			client.setProgress(progress);
+			assertEquals(LocalFastDownloadClient.Result.SUCCESS, client.start());
+			try (Socket socket = serverSocket.accept(); InputStream inputStream = socket.getInputStream()) {
+				assertArrayEquals(content, inputStream.readAllBytes());
+			}
+		}
+		progress.getCompletion().get(10, TimeUnit.SECONDS);
+		assertEquals(TransferProgress.State.COMPLETED, progress.getState());
+	}
+
+	@Test
+	void abortDuringAStuckWriteIsReportedAsAborted() throws Exception {
+		Path file = Files.write(tempDir.resolve("source.bin"), randomBytes(32_000_000));
+		TransferProgress progress = new TransferProgress("aborted");
+		AsyncDownloadServer server = new AsyncDownloadServer(0, 10_000, file.toString());
+		server.setProgress(progress);
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+
+		// The peer never reads, so once the socket buffers are full the write in flight cannot complete
+		try (Socket socket = connectWithSmallBuffer(server.getLocalPort())) {
+			waitForStalledWrite(progress);
+			assertTrue(server.abort());
+			progress.getCompletion().get(5, TimeUnit.SECONDS);
+			assertEquals(TransferProgress.State.ABORTED, progress.getState());
+		}
+	}
+
+	@Test
+	void stalledPeerFailsOnWriteTimeout() throws Exception {
+		Path file = Files.write(tempDir.resolve("source.bin"), randomBytes(32_000_000));
+		TransferProgress progress = new TransferProgress("stalled");
+		AsyncDownloadServer server = new AsyncDownloadServer(0, 10_000, file.toString());
+		server.setProgress(progress);
+		server.setWriteTimeout(500);
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+
+		try (Socket socket = connectWithSmallBuffer(server.getLocalPort())) {
+			progress.getCompletion().get(10, TimeUnit.SECONDS);
+			assertEquals(TransferProgress.State.FAILED, progress.getState());
+			assertTrue(progress.getBytesDone() < 32_000_000);
+		}
+	}
+
+	private static Socket connectWithSmallBuffer(int port) throws Exception {
+		Socket socket = new Socket();
+		socket.setReceiveBufferSize(16 * 1024);
+		socket.connect(new InetSocketAddress("127.0.0.1", port), 5_000);
+		return socket;
+	}
+
+	/**
+	 * Waits until the progress stops moving, the sender is then blocked on a write.
+	 */
+	private static void waitForStalledWrite(TransferProgress progress) throws Exception {
+		long lastBytes = -1;
+		while (progress.getBytesDone() != lastBytes) {
+			lastBytes = progress.getBytesDone();
+			Thread.sleep(200);
+		}
+		assertFalse(progress.isFinished());
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,231 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BroadcastRingTests {
+
+	private static final int SLOT_SIZE = 4096;
+
+	/** Runs each task in its own thread, so blocking readers never starve each other on a small common pool */
+	private static final Executor THREAD_PER_TASK = task -> new Thread(task).start();
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void concurrentReadersSeeTheSameBytesFromOneRead() throws Exception {
+		byte[] content = randomBytes(1_000_000);
+		AtomicLong bytesRead = new AtomicLong();
+		try (FileChannel channel = open(content)) {
+			BroadcastRing ring = new BroadcastRing(channel, SLOT_SIZE, 8, 10_000, bytesRead);
+			List<CompletableFuture<byte[]>> readers = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				BroadcastRing.Cursor cursor = ring.attach(0);
+				readers.add(CompletableFuture.supplyAsync(() -> readToEnd(ring, cursor), THREAD_PER_TASK));
+			}
+			ring.start();
+
+			for (CompletableFuture<byte[]> reader : readers) {
+				assertArrayEquals(content, reader.get(30, TimeUnit.SECONDS));
+			}
+			assertEquals(content.length, bytesRead.get());
+			assertTrue(ring.isClosed());
+		}
+	}
+
+	@Test
+	void slowReaderIsDetachedWithoutItsSlotBeingOverwritten() throws Exception {
+		byte[] content = randomBytes(256 * 1024);
+		try (FileChannel channel = open(content)) {
+			BroadcastRing ring = new BroadcastRing(channel, SLOT_SIZE, 4, 50, new AtomicLong());
+			BroadcastRing.Cursor fast = ring.attach(0);
+			BroadcastRing.Cursor slow = ring.attach(0);
+			CompletableFuture<byte[]> fastReader = CompletableFuture.supplyAsync(() -> readToEnd(ring, fast),
+					THREAD_PER_TASK);
+			ring.start();
+
+			// The slow reader holds its first slot long past the grace, while the fast one laps the ring
+			ByteBuffer view = ring.next(slow);
+			Thread.sleep(500);
+			byte[] held = new byte[view.remaining()];
+			view.get(held);
+			assertArrayEquals(Arrays.copyOfRange(content, 0, held.length), held);
+			ring.advance(slow, held.length);
+
+			assertNull(ring.next(slow));
+			assertTrue(slow.isLagging());
+			assertArrayEquals(content, fastReader.get(30, TimeUnit.SECONDS));
+			// The beginning of the file left the ring, a late reader cannot attach there
+			assertNull(ring.attach(0));
+		}
+	}
+
+	@Test
+	void lateReaderCatchesUpBehindTheRing() throws Exception {
+		byte[] content = randomBytes(256 * 1024);
+		AtomicLong bytesRead = new AtomicLong();
+		try (FileChannel channel = open(content)) {
+			BroadcastRing ring = new BroadcastRing(channel, SLOT_SIZE, 4, 10_000, bytesRead);
+			BroadcastRing.Cursor early = ring.attach(0);
+			ring.start();
+			// The early reader goes past the ring size, so the beginning of the file leaves the ring
+			ByteArrayOutputStream earlyRead = new ByteArrayOutputStream();
+			while (earlyRead.size() < SLOT_SIZE * 6) {
+				ByteBuffer view = ring.next(early);
+				byte[] bytes = new byte[view.remaining()];
+				view.get(bytes);
+				earlyRead.write(bytes, 0, bytes.length);
+				ring.advance(early, bytes.length);
+			}
+			assertNull(ring.attach(0));
+			BroadcastRing.Cursor late = ring.attachBehind(0);
+			long tail = ring.getTailPosition();
+			assertTrue(tail > 0);
+			CompletableFuture<byte[]> earlyReader = CompletableFuture.supplyAsync(() -> readToEnd(ring, early),
+					THREAD_PER_TASK);
+
+			// The ring waits while the late reader reads the beginning directly
+			Thread.sleep(100);
+			assertEquals(tail, ring.getTailPosition());
+			ByteBuffer direct = ByteBuffer.allocate((int) tail);
+			channel.read(direct, 0);
+			ring.advance(late, tail);
+
+			ByteArrayOutputStream lateRead = new ByteArrayOutputStream();
+			lateRead.write(direct.array(), 0, (int) tail);
+			lateRead.write(readToEnd(ring, late));
+			assertArrayEquals(content, lateRead.toByteArray());
+			earlyRead.write(earlyReader.get(30, TimeUnit.SECONDS));
+			assertArrayEquals(content, earlyRead.toByteArray());
+			assertEquals(content.length, bytesRead.get());
+		}
+	}
+
+	@Test
+	void endOfFileAndCloseReachTheReaders() throws Exception {
+		byte[] content = randomBytes(10_000);
+		try (FileChannel channel = open(content)) {
+			BroadcastRing ring = new BroadcastRing(channel, SLOT_SIZE, 4, 10_000, new AtomicLong());
+			BroadcastRing.Cursor cursor = ring.attach(0);
+			ring.start();
+			assertArrayEquals(content, readToEnd(ring, cursor));
+			// Past the end the reader keeps getting an empty view
+			assertEquals(0, ring.next(cursor).remaining());
+		}
+
+		try (FileChannel channel = open(content)) {
+			BroadcastRing ring = new BroadcastRing(channel, SLOT_SIZE, 4, 10_000, new AtomicLong());
+			BroadcastRing.Cursor cursor = ring.attach(0);
+			// Not started, so the reader waits for data until the ring is closed
+			CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> {
+				try {
+					return ring.next(cursor);
+				} catch (InterruptedException interruptedException) {
+					throw new IllegalStateException(interruptedException);
+				}
+			}, THREAD_PER_TASK);
+			Thread.sleep(100);
+			ring.close();
+			assertNull(waiting.get(10, TimeUnit.SECONDS));
+			assertNull(ring.attach(0));
+		}
+	}
+
+	@Test
+	void serverSendsTheWholeFileToSimultaneousClients() throws Exception {
+		// Larger than what the socket buffers of one connection hold, so no client is served before the others attach
+		byte[] content = randomBytes(8_000_000);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+		LocalFastBroadcastServer server = new LocalFastBroadcastServer(0, file.toString());
+		server.setRingSize(SLOT_SIZE * 16, 4);
+		// No connection is detached from the ring on a slow machine, so the file is read once
+		server.setDetachGraceMillis(30_000);
+		assertEquals(LocalFastBroadcastServer.Result.SUCCESS, server.start());
+		List<Socket> sockets = new ArrayList<>();
+		try {
+			// All connected before any reads, so they all start within the data the ring still holds
+			for (int i = 0; i < 3; i++) {
+				Socket socket = new Socket();
+				socket.setReceiveBufferSize(64 * 1024);
+				sockets.add(socket);
+				socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+			}
+			List<CompletableFuture<byte[]>> clients = new ArrayList<>();
+			for (Socket socket : sockets) {
+				clients.add(CompletableFuture.supplyAsync(() -> download(socket), THREAD_PER_TASK));
+			}
+			for (CompletableFuture<byte[]> client : clients) {
+				assertArrayEquals(content, client.get(30, TimeUnit.SECONDS));
+			}
+			long diskBytesRead = server.getDiskBytesRead();
+			assertTrue(diskBytesRead >= content.length, "read " + diskBytesRead);
+			// At most a late connection reading the beginning of the file directly, not one read per client
+			assertTrue(diskBytesRead < content.length + content.length / 4, "read " + diskBytesRead);
+		} finally {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			server.stop();
+		}
+	}
+
+	private FileChannel open(byte[] content) throws Exception {
+		Path file = Files.createTempFile(tempDir, "ring", ".bin");
+		Files.write(file, content);
+		return FileChannel.open(file, StandardOpenOption.READ);
+	}
+
+	private static byte[] readToEnd(BroadcastRing ring, BroadcastRing.Cursor cursor) {
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		try {
+			ByteBuffer view;
+			while ((view = ring.next(cursor)) != null && view.hasRemaining()) {
+				byte[] bytes = new byte[view.remaining()];
+				view.get(bytes);
+				read.write(bytes, 0, bytes.length);
+				ring.advance(cursor, bytes.length);
+			}
+		} catch (InterruptedException interruptedException) {
+			throw new IllegalStateException(interruptedException);
+		}
+		return read.toByteArray();
+	}
+
+	private static byte[] download(Socket socket) {
+		try (InputStream inputStream = socket.getInputStream()) {
+			return inputStream.readAllBytes();
+		} catch (Exception exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+}
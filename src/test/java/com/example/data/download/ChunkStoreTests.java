@@ -0,0 +1,215 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkStoreTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void insertionOnlyChangesNearbyChunks() throws Exception {
+		byte[] original = new byte[2 * 1024 * 1024];
+		new Random(1).nextBytes(original);
+		ByteArrayOutputStream edited = new ByteArrayOutputStream();
+		edited.write(original, 0, 1_000_000);
+		edited.write(new byte[] { 1, 2, 3, 4, 5 });
+		edited.write(original, 1_000_000, original.length - 1_000_000);
+
+		Set<ByteBuffer> originalChunks = chunkHashes(Files.write(tempDir.resolve("v1.bin"), original));
+		Set<ByteBuffer> editedChunks = chunkHashes(Files.write(tempDir.resolve("v2.bin"), edited.toByteArray()));
+		editedChunks.removeAll(originalChunks);
+		assertTrue(editedChunks.size() <= 2, editedChunks.size() + " new chunks");
+	}
+
+	@Test
+	void indexGrowsAndIsRebuiltOnOpen() throws Exception {
+		Random random = new Random(2);
+		byte[][] chunks = new byte[5000][];
+		ChunkStore store = new ChunkStore(tempDir);
+		for (int index = 0; index < chunks.length; index++) {
+			chunks[index] = new byte[32 + random.nextInt(68)];
+			random.nextBytes(chunks[index]);
+			store.put(ChunkStore.hash(chunks[index], 0, chunks[index].length), chunks[index], 0, chunks[index].length);
+		}
+		store.close();
+
+		store = new ChunkStore(tempDir);
+		assertEquals(chunks.length, store.getChunkCount());
+		byte[] buffer = new byte[100];
+		for (byte[] chunk : chunks) {
+			int length = store.read(ChunkStore.hash(chunk, 0, chunk.length), buffer);
+			assertArrayEquals(chunk, Arrays.copyOf(buffer, length));
+		}
+		assertEquals(-1, store.read(new byte[TreeHash.HASH_SIZE], buffer));
+		store.close();
+	}
+
+	@Test
+	void onlyMissingChunksCrossTheWire() throws Exception {
+		byte[] original = new byte[4 * 1024 * 1024];
+		new Random(3).nextBytes(original);
+		byte[] edited = original.clone();
+		Arrays.fill(edited, 2_000_000, 2_000_100, (byte) 7);
+		Path v1 = Files.write(tempDir.resolve("v1.bin"), original);
+		Path v2 = Files.write(tempDir.resolve("v2.bin"), edited);
+
+		ChunkStore store = new ChunkStore(tempDir.resolve("store"));
+		DedupStreamReader first = transfer(v1, tempDir.resolve("copy1.bin"), store);
+		assertEquals(original.length, first.getReceivedBytes());
+		assertEquals(-1L, Files.mismatch(v1, tempDir.resolve("copy1.bin")));
+
+		DedupStreamReader second = transfer(v2, tempDir.resolve("copy2.bin"), store);
+		assertEquals(-1L, Files.mismatch(v2, tempDir.resolve("copy2.bin")));
+		assertTrue(second.getReceivedBytes() < edited.length / 8, second.getReceivedBytes() + " bytes received");
+		assertEquals(edited.length, second.getReceivedBytes() + second.getReusedBytes());
+		store.close();
+	}
+
+	@Test
+	void recordWithBadDataIsDroppedOnOpen() throws Exception {
+		byte[] first = new byte[1000];
+		byte[] second = new byte[1000];
+		new Random(4).nextBytes(first);
+		new Random(5).nextBytes(second);
+		ChunkStore store = new ChunkStore(tempDir);
+		store.put(ChunkStore.hash(first, 0, first.length), first, 0, first.length);
+		store.force();
+		Path watermark = tempDir.resolve(ChunkStore.WATERMARK_FILE);
+		byte[] forcedWatermark = Files.readAllBytes(watermark);
+		store.put(ChunkStore.hash(second, 0, second.length), second, 0, second.length);
+		store.close();
+
+		// A crash before the second force can leave a complete header in front of data that never reached the disk
+		Files.write(watermark, forcedWatermark);
+		Path pack = tempDir.resolve(ChunkStore.PACK_FILE);
+		overwriteEnd(pack, 100);
+
+		store = new ChunkStore(tempDir);
+		assertEquals(1, store.getChunkCount());
+		assertEquals(-1, store.read(ChunkStore.hash(second, 0, second.length), new byte[1000]));
+		// The chunk can be stored again over the dropped record
+		assertTrue(store.put(ChunkStore.hash(second, 0, second.length), second, 0, second.length));
+		store.close();
+		store = new ChunkStore(tempDir);
+		assertEquals(2, store.getChunkCount());
+		store.close();
+	}
+
+	@Test
+	void forcedRecordsAreNotCheckedAgainOnOpen() throws Exception {
+		byte[] chunk = new byte[1000];
+		new Random(6).nextBytes(chunk);
+		ChunkStore store = new ChunkStore(tempDir);
+		store.put(ChunkStore.hash(chunk, 0, chunk.length), chunk, 0, chunk.length);
+		store.close();
+
+		// Damage the store could not cause itself: only reading the data would tell
+		Path pack = tempDir.resolve(ChunkStore.PACK_FILE);
+		overwriteEnd(pack, 100);
+		long packLength = Files.size(pack);
+
+		store = new ChunkStore(tempDir);
+		assertEquals(1, store.getChunkCount());
+		assertEquals(chunk.length, store.getStoredBytes());
+		store.close();
+		assertEquals(packLength, Files.size(pack));
+	}
+
+	@Test
+	void damagedWatermarkChecksTheWholePack() throws Exception {
+		byte[] first = new byte[1000];
+		byte[] second = new byte[1000];
+		new Random(7).nextBytes(first);
+		new Random(8).nextBytes(second);
+		ChunkStore store = new ChunkStore(tempDir);
+		store.put(ChunkStore.hash(first, 0, first.length), first, 0, first.length);
+		store.put(ChunkStore.hash(second, 0, second.length), second, 0, second.length);
+		store.close();
+
+		Path watermark = tempDir.resolve(ChunkStore.WATERMARK_FILE);
+		byte[] damaged = Files.readAllBytes(watermark);
+		damaged[damaged.length - 1] ^= 1;
+		Files.write(watermark, damaged);
+		overwriteEnd(tempDir.resolve(ChunkStore.PACK_FILE), 100);
+
+		store = new ChunkStore(tempDir);
+		assertEquals(1, store.getChunkCount());
+		store.close();
+
+		// Without a watermark file every record is checked, and the checked pack is trusted from then on
+		Files.delete(watermark);
+		store = new ChunkStore(tempDir);
+		assertEquals(1, store.getChunkCount());
+		store.close();
+		assertTrue(Files.size(watermark) > 0);
+	}
+
+	private static void overwriteEnd(Path pack, int length) throws IOException {
+		try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(length), Files.size(pack) - length);
+		}
+	}
+
+	private static DedupStreamReader transfer(Path source, Path destination, ChunkStore store) throws Exception {
+		PipedInputStream senderToReceiver = new PipedInputStream(64 * 1024);
+		PipedInputStream receiverToSender = new PipedInputStream();
+		DataOutputStream wire = new DataOutputStream(new PipedOutputStream(senderToReceiver));
+		DataOutputStream receiverAnswers = new DataOutputStream(new PipedOutputStream(receiverToSender));
+
+		CompletableFuture<DedupStreamReader> receiving = CompletableFuture.supplyAsync(() -> {
+			try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+				DedupStreamReader reader = new DedupStreamReader(new DataInputStream(senderToReceiver),
+						receiverAnswers, store, file);
+				reader.readHeader();
+				while (reader.readNextChunk()) {
+				}
+				reader.rebuild();
+				return reader;
+			} catch (IOException ioException) {
+				throw new RuntimeException(ioException);
+			}
+		});
+
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			DedupStreamWriter writer = new DedupStreamWriter(channel, wire, new DataInputStream(receiverToSender));
+			writer.writeHeader();
+			while (writer.writeNextChunk()) {
+			}
+			writer.writeEnd();
+		}
+		return receiving.get();
+	}
+
+	private static Set<ByteBuffer> chunkHashes(Path file) throws Exception {
+		Set<ByteBuffer> hashes = new HashSet<>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			new FastCdcChunker().chunk(channel,
+					(fileOffset, data, offset, length) -> hashes.add(ByteBuffer.wrap(ChunkStore.hash(data, offset, length))));
+		}
+		return hashes;
+	}
+}
@@ -0,0 +1,55 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LoadHarnessTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void clientsCompleteThroughImpairedLink() throws Exception {
+		LoadHarness harness = new LoadHarness(tempDir);
+		harness.setClientCount(12);
+		harness.setConcurrency(4);
+		harness.setFileSizes(LoadHarness.FileSizes.parse("uniform:16k-256k"));
+		harness.setLink(20, 5, 8 * 1024 * 1024, 0.05);
+
+		LoadHarness.Report report = harness.run();
+		assertEquals(12, report.getCompleted());
+		assertEquals(0, report.getFailed());
+		// The request and the first byte of the answer cross the link once each way
+		assertTrue(report.getDurationMillis(0) >= 40, report.toString());
+		assertTrue(report.getDurationMillis(50) <= report.getDurationMillis(99));
+		assertTrue(report.getThroughput() > 0);
+	}
+
+	@Test
+	void transferPastTheTimeoutFails() throws Exception {
+		LoadHarness harness = new LoadHarness(tempDir);
+		harness.setFileSizes(LoadHarness.FileSizes.fixed(1024 * 1024));
+		harness.setLink(0, 0, 64 * 1024, 0);
+		harness.setTransferTimeout(500);
+
+		LoadHarness.Report report = harness.run();
+		assertEquals(0, report.getCompleted());
+		assertEquals(1, report.getFailed());
+	}
+
+	@Test
+	void fileSizesAreParsed() {
+		Random random = new Random(1);
+		assertEquals(3 * 1024 * 1024, LoadHarness.FileSizes.parse("fixed:3m").sample(random));
+		for (int sample = 0; sample < 1000; sample++) {
+			long size = LoadHarness.FileSizes.parse("uniform:1k-2k").sample(random);
+			assertTrue(size >= 1024 && size <= 2048, Long.toString(size));
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NamedFileServerTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void servesTheNamedFile() throws Exception {
+		Path root = Files.createDirectories(tempDir.resolve("root"));
+		byte[] data = randomBytes(300_000);
+		Files.write(Files.createDirectories(root.resolve("sub")).resolve("data.bin"), data);
+		NamedFileServer server = start(root, NamedFileServer.DEFAULT_METADATA_TTL_MILLIS);
+		try {
+			assertArrayEquals(data, fetch(server, "sub/data.bin"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	void namesOutsideTheRootAreRefused() throws Exception {
+		Path root = Files.createDirectories(tempDir.resolve("root"));
+		Path secret = Files.write(tempDir.resolve("secret.bin"), new byte[] { 1, 2, 3 });
+		NamedFileServer server = start(root, NamedFileServer.DEFAULT_METADATA_TTL_MILLIS);
+		try {
+			assertNull(fetch(server, "../secret.bin"));
+			assertNull(fetch(server, secret.toString()));
+			assertEquals(0, server.getOpenedFileCount());
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	void missingFileIsNotFound() throws Exception {
+		Path root = Files.createDirectories(tempDir.resolve("root"));
+		NamedFileServer server = start(root, NamedFileServer.DEFAULT_METADATA_TTL_MILLIS);
+		try {
+			assertNull(fetch(server, "missing.bin"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	void cachedFileIsReusedUntilItChanges() throws Exception {
+		Path root = Files.createDirectories(tempDir.resolve("root"));
+		Path file = Files.write(root.resolve("data.bin"), randomBytes(1_000));
+		// Metadata is checked on every request, so the change below is seen right away
+		NamedFileServer server = start(root, 0);
+		try {
+			byte[] first = fetch(server, "data.bin");
+			assertArrayEquals(first, fetch(server, "data.bin"));
+			// Another name of the same file shares its cache entry
+			assertArrayEquals(first, fetch(server, "./data.bin"));
+			assertEquals(1, server.getOpenedFileCount());
+
+			byte[] changed = randomBytes(2_000);
+			Files.write(file, changed);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5_000));
+			assertArrayEquals(changed, fetch(server, "data.bin"));
+			assertEquals(2, server.getOpenedFileCount());
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static NamedFileServer start(Path root, long metadataTtl) throws Exception {
+		NamedFileServer server = new NamedFileServer(0, root, metadataTtl, NamedFileServer.DEFAULT_MAX_OPEN_FILES,
+				4);
+		assertEquals(NamedFileServer.Result.SUCCESS, server.start());
+		return server;
+	}
+
+	/**
+	 * @return the data of the file, or null if the server refused the request.
+	 */
+	private static byte[] fetch(NamedFileServer server, String name) throws Exception {
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()), 5_000);
+			socket.setSoTimeout(5_000);
+			NamedFileServer.writeRequest(new DataOutputStream(socket.getOutputStream()), name, TransferMode.RAW);
+			DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+			byte status = inputStream.readByte();
+			long length = inputStream.readLong();
+			if (status != NamedFileServer.STATUS_OK) {
+				assertEquals(NamedFileServer.STATUS_NOT_FOUND, status);
+				return null;
+			}
+			byte[] data = new byte[(int) length];
+			inputStream.readFully(data);
+			// The server closes the connection after the data
+			assertEquals(-1, inputStream.read());
+			return data;
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,60 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageCacheWarmerTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void filesAreWarmedOnceInQueueOrder() throws Exception {
+		Path first = Files.write(tempDir.resolve("first.bin"), new byte[1_000]);
+		Path second = Files.write(tempDir.resolve("second.bin"), new byte[20_000]);
+		Path third = Files.write(tempDir.resolve("third.bin"), new byte[300_000]);
+		PageCacheWarmer warmer = new PageCacheWarmer();
+
+		// Holding the warmer's lock keeps its thread from taking a file
+		synchronized (warmer) {
+			warmer.warm(first.toString());
+			warmer.warm(second.toString());
+			warmer.warm(first.toString());
+			warmer.warm(third.toString());
+			warmer.warm(tempDir.resolve(".").resolve("second.bin").toString());
+			assertEquals(List.of(first, second, third), warmer.getQueuedFiles());
+		}
+		awaitWarmedBytes(warmer, 321_000);
+		assertEquals(List.of(), warmer.getQueuedFiles());
+
+		// A file already warmed is read again when queued again
+		warmer.warm(first.toString());
+		awaitWarmedBytes(warmer, 322_000);
+	}
+
+	@Test
+	void onlyTheBeginningOfALargeFileIsRead() throws Exception {
+		Path file = Files.write(tempDir.resolve("large.bin"), new byte[3 * 1024 * 1024]);
+		PageCacheWarmer warmer = new PageCacheWarmer(1024 * 1024);
+		warmer.warm(file.toString());
+		awaitWarmedBytes(warmer, 1024 * 1024);
+	}
+
+	/**
+	 * Waits for the warmer to read a number of bytes, then checks it reads no more.
+	 */
+	private static void awaitWarmedBytes(PageCacheWarmer warmer, long bytes) throws Exception {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (warmer.getWarmedBytes() < bytes && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertEquals(bytes, warmer.getWarmedBytes());
+	}
+}
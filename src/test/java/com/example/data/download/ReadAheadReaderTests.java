@@ -0,0 +1,98 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReadAheadReaderTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void readsFileFromOffsetInOrder() throws Exception {
+		byte[] content = new byte[100_000];
+		new Random(7).nextBytes(content);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+
+		assertArrayEquals(Arrays.copyOfRange(content, 1234, content.length), readAll(file, 1234, 4096, 3));
+		// The last read ends exactly at the end of the file
+		assertArrayEquals(content, readAll(file, 0, 10_000, 2));
+		assertArrayEquals(new byte[0], readAll(file, content.length, 4096, 3));
+	}
+
+	@Test
+	void failedReadIsThrownByNext() throws Exception {
+		byte[] content = new byte[100_000];
+		new Random(8).nextBytes(content);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try (ReadAheadReader reader = new ReadAheadReader(channel, 0, 4096, 1)) {
+			ByteBuffer buffer = reader.next();
+			assertArrayEquals(Arrays.copyOf(content, 4096), Arrays.copyOf(buffer.array(), buffer.limit()));
+			// The only buffer is with the writer, so the reading thread waits for it before the next read
+			channel.close();
+			reader.recycle(buffer);
+			assertThrows(IOException.class, reader::next);
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	void closeStopsAReaderWaitingForAFreeBuffer() throws Exception {
+		Path file = Files.write(tempDir.resolve("source.bin"), new byte[1024 * 1024]);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ReadAheadReader reader = new ReadAheadReader(channel, 0, 4096, 2);
+			assertEquals(4096, reader.next().remaining());
+			awaitWaitingReader();
+			Thread closer = new Thread(reader::close);
+			closer.start();
+			closer.join(5_000);
+			assertFalse(closer.isAlive());
+		}
+	}
+
+	/**
+	 * Waits for a reading thread to block on a full window.
+	 */
+	private static void awaitWaitingReader() throws Exception {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (System.currentTimeMillis() < deadline) {
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().equals("read-ahead") && thread.getState() == Thread.State.WAITING) {
+					return;
+				}
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static byte[] readAll(Path file, long offset, int readSize, int windowReads) throws Exception {
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				ReadAheadReader reader = new ReadAheadReader(channel, offset, readSize, windowReads)) {
+			ByteBuffer buffer;
+			while ((buffer = reader.next()) != null) {
+				read.write(buffer.array(), buffer.position(), buffer.remaining());
+				reader.recycle(buffer);
+			}
+			assertNull(reader.next());
+		}
+		return read.toByteArray();
+	}
+}
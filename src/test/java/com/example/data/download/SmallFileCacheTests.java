@@ -0,0 +1,106 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SmallFileCacheTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void leastRecentlyUsedFileIsEvictedAtCapacity() throws Exception {
+		Path first = write("first.bin", 1_000);
+		Path second = write("second.bin", 1_000);
+		Path third = write("third.bin", 1_000);
+		SmallFileCache cache = new SmallFileCache(1_000, 2_000);
+
+		SmallFileCache.Entry firstEntry = cache.get(first.toString());
+		cache.get(second.toString());
+		// Used again, so the second file is now the least recently used
+		assertSame(firstEntry, cache.get(first.toString()));
+		cache.get(third.toString());
+		assertEquals(2_000, cache.getCachedBytes());
+
+		long misses = cache.getMisses();
+		assertSame(firstEntry, cache.get(first.toString()));
+		cache.get(second.toString());
+		assertEquals(misses + 1, cache.getMisses());
+	}
+
+	@Test
+	void changedFileIsReadAgain() throws Exception {
+		Path file = write("file.bin", 1_000);
+		SmallFileCache cache = new SmallFileCache(10_000, 100_000);
+		SmallFileCache.Entry entry = cache.get(file.toString());
+		assertSame(entry, cache.get(file.toString()));
+		assertEquals(1, cache.getHits());
+
+		// Same size, only the modification time tells the content changed
+		byte[] sameSize = randomBytes(1_000, 2);
+		Files.write(file, sameSize);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5_000));
+		SmallFileCache.Entry rewritten = cache.get(file.toString());
+		assertNotSame(entry, rewritten);
+		assertArrayEquals(sameSize, toBytes(rewritten.getContent()));
+
+		// Same modification time, only the size tells the content changed
+		FileTime lastModified = Files.getLastModifiedTime(file);
+		byte[] longer = randomBytes(1_500, 3);
+		Files.write(file, longer);
+		Files.setLastModifiedTime(file, lastModified);
+		SmallFileCache.Entry grown = cache.get(file.toString());
+		assertNotSame(rewritten, grown);
+		assertArrayEquals(longer, toBytes(grown.getContent()));
+		assertEquals(1_500, cache.getCachedBytes());
+	}
+
+	@Test
+	void fileOverTheLimitIsNotCached() throws Exception {
+		Path file = write("large.bin", 2_000);
+		SmallFileCache cache = new SmallFileCache(1_000, 100_000);
+		assertNull(cache.get(file.toString()));
+		assertEquals(0, cache.getCachedBytes());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	void hashLookupDoesNotFillTheCache() throws Exception {
+		Path file = write("file.bin", 1_000);
+		SmallFileCache cache = new SmallFileCache(10_000, 100_000);
+		assertNull(cache.getHash(file.toString()));
+		assertEquals(0, cache.getCachedBytes());
+
+		SmallFileCache.Entry entry = cache.get(file.toString());
+		assertEquals(entry.getHash(), cache.getHash(file.toString()));
+		assertEquals(FileUtils.createHash(file.toString()), cache.getHash(file.toString()));
+	}
+
+	private Path write(String name, int length) throws Exception {
+		return Files.write(tempDir.resolve(name), randomBytes(length, length));
+	}
+
+	private static byte[] toBytes(ByteBuffer content) {
+		byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
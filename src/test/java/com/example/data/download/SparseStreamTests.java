@@ -0,0 +1,139 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SparseStreamTests {
+
+	private static final int BLOCK_SIZE = 4096;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void onlyDataBlocksCrossTheWire() throws Exception {
+		Path source = tempDir.resolve("source.img");
+		try (RandomAccessFile file = new RandomAccessFile(source.toFile(), "rw")) {
+			file.setLength(64L * BLOCK_SIZE);
+			file.seek(3L * BLOCK_SIZE + 10);
+			file.write(new byte[] { 1, 2, 3 });
+			file.seek(40L * BLOCK_SIZE);
+			file.write(new byte[] { 4 });
+		}
+
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			SparseStreamWriter writer = new SparseStreamWriter(channel, new DataOutputStream(wire), BLOCK_SIZE);
+			writer.writeHeader();
+			while (writer.writeNextBlock()) {
+			}
+			writer.writeEnd();
+			assertEquals(2L * BLOCK_SIZE, writer.getDataBytes());
+		}
+
+		Path destination = tempDir.resolve("destination.img");
+		try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+			SparseStreamReader reader = new SparseStreamReader(
+					new DataInputStream(new ByteArrayInputStream(wire.toByteArray())), file);
+			reader.readHeader();
+			while (reader.readNextExtent()) {
+			}
+			assertEquals(2L * BLOCK_SIZE, reader.getDataBytes());
+		}
+
+		assertEquals(-1L, Files.mismatch(source, destination));
+	}
+
+	@Test
+	void trailingHoleKeepsFileLength() throws Exception {
+		Path source = tempDir.resolve("zeros.img");
+		try (RandomAccessFile file = new RandomAccessFile(source.toFile(), "rw")) {
+			file.setLength(10L * BLOCK_SIZE + 7);
+		}
+
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			SparseStreamWriter writer = new SparseStreamWriter(channel, new DataOutputStream(wire), BLOCK_SIZE);
+			writer.writeHeader();
+			while (writer.writeNextBlock()) {
+			}
+			writer.writeEnd();
+		}
+
+		Path destination = tempDir.resolve("zeros-copy.img");
+		try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+			SparseStreamReader reader = new SparseStreamReader(
+					new DataInputStream(new ByteArrayInputStream(wire.toByteArray())), file);
+			reader.readHeader();
+			while (reader.readNextExtent()) {
+			}
+			assertEquals(0L, reader.getDataBytes());
+		}
+
+		assertEquals(Files.size(source), Files.size(destination));
+	}
+
+	@Test
+	void largeExtentIsCopiedInSlices() throws Exception {
+		byte[] data = new byte[3 * SparseStreamWriter.DEFAULT_BLOCK_SIZE + 5];
+		new Random(6).nextBytes(data);
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(wire);
+		output.writeInt(SparseStreamWriter.MAGIC);
+		output.writeLong(data.length + 100L);
+		output.writeByte(SparseStreamWriter.EXTENT_DATA);
+		output.writeLong(100);
+		output.writeLong(data.length);
+		output.write(data);
+		output.writeByte(SparseStreamWriter.EXTENT_END);
+
+		Path destination = tempDir.resolve("large-extent.img");
+		try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+			SparseStreamReader reader = new SparseStreamReader(
+					new DataInputStream(new ByteArrayInputStream(wire.toByteArray())), file);
+			reader.readHeader();
+			while (reader.readNextExtent()) {
+			}
+			assertEquals(data.length, reader.getDataBytes());
+		}
+		byte[] received = Files.readAllBytes(destination);
+		assertEquals(data.length + 100, received.length);
+		assertArrayEquals(data, Arrays.copyOfRange(received, 100, received.length));
+	}
+
+	@Test
+	void announcedExtentLengthDoesNotSizeTheBuffer() throws Exception {
+		// An extent of almost 2 GB followed by nothing must fail on the missing data, not on the heap
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(wire);
+		output.writeInt(SparseStreamWriter.MAGIC);
+		output.writeLong(Integer.MAX_VALUE);
+		output.writeByte(SparseStreamWriter.EXTENT_DATA);
+		output.writeLong(0);
+		output.writeLong(Integer.MAX_VALUE - 8);
+
+		try (RandomAccessFile file = new RandomAccessFile(tempDir.resolve("truncated.img").toFile(), "rw")) {
+			SparseStreamReader reader = new SparseStreamReader(
+					new DataInputStream(new ByteArrayInputStream(wire.toByteArray())), file);
+			reader.readHeader();
+			assertThrows(EOFException.class, reader::readNextExtent);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StripedTransferTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void fileCrossesSeveralLoopbackAddresses() throws Exception {
+		byte[] data = new byte[5 * 1024 * 1024 + 123];
+		new Random(5).nextBytes(data);
+		Path source = Files.write(tempDir.resolve("source.bin"), data);
+		Path destination = tempDir.resolve("destination.bin");
+		List<String> addresses = List.of("127.0.0.1", "127.0.0.2", "127.0.0.3");
+
+		TransferProgress progress = new TransferProgress("striped");
+		StripedDownloadServer server = new StripedDownloadServer(0, 10_000, source.toString());
+		server.setLocalAddresses(addresses);
+		server.setProgress(progress);
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+		StripedDownloadReceiver receiver = new StripedDownloadReceiver("127.0.0.1", server.getLocalPort(), 5_000,
+				destination.toString());
+		receiver.setRemoteAddresses(addresses);
+		receiver.setLocalAddresses(List.of("127.0.0.4", "127.0.0.5", "127.0.0.6"));
+		assertEquals(LocalFastDownloadReceiver.Result.SUCCESS, receiver.start());
+
+		assertTrue(receiver.awaitCompletion(60_000));
+		assertEquals(TransferProgress.State.COMPLETED, progress.getCompletion().get(10, TimeUnit.SECONDS).getState());
+		assertArrayEquals(data, Files.readAllBytes(destination));
+		List<Long> pathBytes = server.getPathBytes();
+		assertEquals(3, pathBytes.size());
+		assertEquals(data.length, pathBytes.stream().mapToLong(Long::longValue).sum());
+		assertTrue(pathBytes.stream().allMatch(bytes -> bytes > 0), pathBytes.toString());
+	}
+
+	@Test
+	void silentConnectionDoesNotHoldUpThePaths() throws Exception {
+		byte[] data = new byte[1024 * 1024];
+		new Random(6).nextBytes(data);
+		Path source = Files.write(tempDir.resolve("source.bin"), data);
+		Path destination = tempDir.resolve("destination.bin");
+		StripedDownloadServer server = new StripedDownloadServer(0, 10_000, source.toString());
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+
+		// Connected first and never sending its session
+		try (Socket silent = new Socket("127.0.0.1", server.getLocalPort())) {
+			long startTime = System.nanoTime();
+			StripedDownloadReceiver receiver = new StripedDownloadReceiver("127.0.0.1", server.getLocalPort(), 5_000,
+					destination.toString());
+			assertEquals(LocalFastDownloadReceiver.Result.SUCCESS, receiver.start());
+			assertTrue(receiver.awaitCompletion(60_000));
+			assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+			assertArrayEquals(data, Files.readAllBytes(destination));
+		}
+	}
+
+	@Test
+	void oversizedChunkSizeIsRefused() throws Exception {
+		StripedDownloadReceiver receiver = new StripedDownloadReceiver(0, 5_000,
+				tempDir.resolve("destination.bin").toString());
+		assertEquals(LocalFastDownloadReceiver.Result.SUCCESS, receiver.start());
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress("127.0.0.1", receiver.getLocalPort()), 5_000);
+			socket.setSoTimeout(10_000);
+			DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+			outputStream.writeInt(StripeProtocol.MAGIC);
+			outputStream.writeLong(StripeProtocol.newSession());
+			// Would make the path allocate a 2 GB buffer
+			outputStream.writeLong(1000);
+			outputStream.writeInt(Integer.MAX_VALUE);
+			outputStream.flush();
+
+			assertFalse(receiver.awaitCompletion(10_000));
+			assertEquals(-1, new DataInputStream(socket.getInputStream()).read());
+		}
+	}
+
+	@Test
+	void stalledPathChunksMoveToHealthyPath() throws Exception {
+		StripeScheduler scheduler = new StripeScheduler(10 * 1024, 1024, 100);
+		AtomicBoolean stalledClosed = new AtomicBoolean();
+		StripeScheduler.Path healthy = scheduler.addPath("healthy", () -> { });
+		StripeScheduler.Path stalled = scheduler.addPath("stalled", () -> stalledClosed.set(true));
+
+		int stalledChunk = scheduler.next(stalled);
+		scheduler.acknowledge(healthy, scheduler.next(healthy));
+		// The stalled path never acknowledges its chunk
+		Thread.sleep(200);
+		assertEquals(stalledChunk, scheduler.next(healthy));
+		assertTrue(stalled.isFailed());
+		assertTrue(stalledClosed.get());
+		assertEquals(-1, scheduler.next(stalled));
+
+		scheduler.acknowledge(healthy, stalledChunk);
+		int chunk;
+		while ((chunk = scheduler.next(healthy)) >= 0) {
+			scheduler.acknowledge(healthy, chunk);
+		}
+		assertTrue(scheduler.isDone());
+		assertEquals(10 * 1024, scheduler.getAcknowledgedBytes());
+	}
+}
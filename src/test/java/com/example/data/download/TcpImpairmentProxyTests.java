@@ -0,0 +1,149 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TcpImpairmentProxyTests {
+
+	@Test
+	void echoCrossesTheDelayInOrder() throws Exception {
+		byte[] data = new byte[300_000];
+		new Random(1).nextBytes(data);
+		try (ServerSocket target = new ServerSocket(0)) {
+			Thread echo = new Thread(() -> {
+				try (Socket socket = target.accept()) {
+					socket.getInputStream().transferTo(socket.getOutputStream());
+				} catch (IOException ioException) {
+					ioException.printStackTrace();
+				}
+			});
+			echo.start();
+			TcpImpairmentProxy proxy = open(target.getLocalPort(), 50, 0.05);
+			try (Socket socket = connect(proxy)) {
+				long startTime = System.nanoTime();
+				socket.getOutputStream().write(data);
+				// Half close: the echo still comes back after the end of the request
+				socket.shutdownOutput();
+				assertArrayEquals(data, socket.getInputStream().readAllBytes());
+				assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(100));
+			} finally {
+				proxy.shutdown();
+			}
+			echo.join(5_000);
+		}
+	}
+
+	@Test
+	void manyConnectionsAreForwardedByOneThread() throws Exception {
+		int connectionCount = 200;
+		byte[] answer = new byte[4096];
+		new Random(2).nextBytes(answer);
+		try (ServerSocket target = new ServerSocket(0, connectionCount)) {
+			Thread server = new Thread(() -> {
+				for (int connection = 0; connection < connectionCount; connection++) {
+					try (Socket socket = target.accept()) {
+						socket.getOutputStream().write(answer);
+					} catch (IOException ioException) {
+						ioException.printStackTrace();
+					}
+				}
+			});
+			server.start();
+			TcpImpairmentProxy proxy = open(target.getLocalPort(), 20, 0);
+			int threadCount = Thread.activeCount();
+			List<Socket> sockets = new ArrayList<>();
+			try {
+				for (int connection = 0; connection < connectionCount; connection++) {
+					sockets.add(connect(proxy));
+				}
+				assertTrue(Thread.activeCount() <= threadCount + 1, Thread.activeCount() + " threads");
+				for (Socket socket : sockets) {
+					assertArrayEquals(answer, socket.getInputStream().readAllBytes());
+				}
+				assertEquals(connectionCount, proxy.getConnections());
+			} finally {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+				proxy.shutdown();
+			}
+			server.join(5_000);
+		}
+	}
+
+	@Test
+	void bandwidthCapSlowsTheTransfer() throws Exception {
+		byte[] data = new byte[512 * 1024];
+		try (ServerSocket target = new ServerSocket(0)) {
+			Thread sink = new Thread(() -> {
+				try (Socket socket = target.accept(); OutputStream outputStream = socket.getOutputStream()) {
+					outputStream.write(data);
+				} catch (IOException ioException) {
+					ioException.printStackTrace();
+				}
+			});
+			sink.start();
+			TcpImpairmentProxy proxy = open(target.getLocalPort(), 0, 0);
+			proxy.setBandwidth(1024 * 1024);
+			try (Socket socket = connect(proxy); InputStream inputStream = socket.getInputStream()) {
+				long startTime = System.nanoTime();
+				assertEquals(data.length, inputStream.readAllBytes().length);
+				// Half a second at 1 MB/s, less the segments already on their way when the clock started
+				assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(400));
+			} finally {
+				proxy.shutdown();
+			}
+			sink.join(5_000);
+		}
+	}
+
+	@Test
+	void threadEndsOnceShutDownAndTheConnectionsClosed() throws Exception {
+		try (ServerSocket target = new ServerSocket(0)) {
+			TcpImpairmentProxy proxy = open(target.getLocalPort(), 0, 0);
+			Socket socket = connect(proxy);
+			Socket accepted = target.accept();
+			proxy.shutdown();
+			proxy.join(200);
+			// The connection already forwarded goes on
+			assertTrue(proxy.isAlive());
+			socket.getOutputStream().write(1);
+			assertEquals(1, accepted.getInputStream().read());
+
+			socket.close();
+			accepted.close();
+			proxy.join(5_000);
+			assertFalse(proxy.isAlive());
+		}
+	}
+
+	private static TcpImpairmentProxy open(int targetPort, long delayMillis, double lossRate) throws IOException {
+		TcpImpairmentProxy proxy = new TcpImpairmentProxy(0, "127.0.0.1", targetPort);
+		proxy.setDelayMillis(delayMillis);
+		proxy.setLossRate(lossRate);
+		proxy.open();
+		return proxy;
+	}
+
+	private static Socket connect(TcpImpairmentProxy proxy) throws IOException {
+		Socket socket = new Socket();
+		socket.connect(new InetSocketAddress("127.0.0.1", proxy.getLocalPort()), 5_000);
+		socket.setSoTimeout(30_000);
+		return socket;
+	}
+}
@@ -0,0 +1,92 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TransferCatalogTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void flushedSnapshotIsLoadedBack() throws Exception {
+		Path catalogPath = tempDir.resolve("catalog").resolve("catalog.db");
+		Path file = Files.write(tempDir.resolve("served.bin"), new byte[] { 1, 2, 3, 4 });
+		TransferCatalog catalog = new TransferCatalog(catalogPath);
+		TransferCatalog.FileEntry served = catalog.recordServed(file.toString());
+		catalog.recordHash(file.toString(), served.getSize(), served.getLastModified(), "hash-1");
+		catalog.recordTransfer(record("t1", file, TransferProgress.State.COMPLETED));
+		catalog.flush();
+		assertTrue(Files.exists(catalogPath));
+
+		TransferCatalog reloaded = new TransferCatalog(catalogPath);
+		TransferCatalog.FileEntry entry = reloaded.getFile(file.toString());
+		assertNotNull(entry);
+		assertEquals(4, entry.getSize());
+		assertEquals("hash-1", entry.getHash());
+		assertEquals(1, entry.getServeCount());
+		assertEquals(1, entry.getCompletedCount());
+		assertEquals(100, entry.getBytesServed());
+		assertEquals(1, reloaded.getFilesByHash("hash-1").size());
+		List<TransferCatalog.TransferRecord> history = reloaded.getHistory(10);
+		assertEquals(1, history.size());
+		assertEquals("t1", history.get(0).getTransferId());
+		assertEquals(TransferProgress.State.COMPLETED, history.get(0).getState());
+	}
+
+	@Test
+	void hashIndexDropsAFileThatChanged() throws Exception {
+		Path first = Files.write(tempDir.resolve("first.bin"), new byte[] { 1, 2, 3 });
+		Path second = Files.write(tempDir.resolve("second.bin"), new byte[] { 1, 2, 3 });
+		TransferCatalog catalog = new TransferCatalog(tempDir.resolve("catalog.db"));
+		String hash = catalog.getOrComputeHash(first.toString());
+		assertEquals(hash, catalog.getOrComputeHash(second.toString()));
+		assertEquals(2, catalog.getFilesByHash(hash).size());
+
+		Files.write(second, new byte[] { 4, 5, 6, 7 });
+		Files.setLastModifiedTime(second, FileTime.fromMillis(Files.getLastModifiedTime(second).toMillis() + 5_000));
+		String newHash = catalog.getOrComputeHash(second.toString());
+		assertNotEquals(hash, newHash);
+		List<TransferCatalog.FileEntry> sameContent = catalog.getFilesByHash(hash);
+		assertEquals(1, sameContent.size());
+		assertEquals(first.toAbsolutePath().normalize().toString(), sameContent.get(0).getPath());
+		assertEquals(1, catalog.getFilesByHash(newHash).size());
+	}
+
+	@Test
+	void historyKeepsOnlyTheMostRecentRecords() throws Exception {
+		Path catalogPath = tempDir.resolve("catalog.db");
+		Path file = Files.write(tempDir.resolve("served.bin"), new byte[] { 1 });
+		TransferCatalog catalog = new TransferCatalog(catalogPath, 3);
+		for (int index = 0; index < 5; index++) {
+			catalog.recordTransfer(record("t" + index, file, TransferProgress.State.COMPLETED));
+		}
+		List<TransferCatalog.TransferRecord> history = catalog.getHistory(10);
+		assertEquals(3, history.size());
+		assertEquals("t4", history.get(0).getTransferId());
+		assertEquals("t2", history.get(2).getTransferId());
+		catalog.flush();
+
+		// A smaller history size on the next start drops the oldest records of the snapshot
+		TransferCatalog reloaded = new TransferCatalog(catalogPath, 2);
+		history = reloaded.getHistory(10);
+		assertEquals(2, history.size());
+		assertEquals("t4", history.get(0).getTransferId());
+		assertEquals("t3", history.get(1).getTransferId());
+	}
+
+	private static TransferCatalog.TransferRecord record(String id, Path file, TransferProgress.State state) {
+		return new TransferCatalog.TransferRecord(id, "SERVER", file.toString(), "127.0.0.1:9000", 100, state, 1_000,
+				2_000);
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class TransferEventTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void transferRecordsItsPhasesAndSampledWrites() throws Exception {
+		byte[] content = new byte[4_000_000];
+		new Random(1).nextBytes(content);
+		Path file = Files.write(tempDir.resolve("source.bin"), content);
+		Path recordingPath = tempDir.resolve("transfer.jfr");
+
+		try (Recording recording = new Recording()) {
+			recording.enable("com.example.data.download.TransferPhase").withoutThreshold();
+			recording.enable("com.example.data.download.ChunkWrite").withoutThreshold();
+			recording.start();
+
+			TransferProgress progress = new TransferProgress("recorded");
+			try (ServerSocket serverSocket = new ServerSocket(0)) {
+				LocalFastDownloadClient client = new LocalFastDownloadClient("127.0.0.1", serverSocket.getLocalPort(),
+						5_000, file.toString());
+				client.setProgress(progress);
+				assertEquals(LocalFastDownloadClient.Result.SUCCESS, client.start());
+				try (Socket socket = serverSocket.accept(); InputStream inputStream = socket.getInputStream()) {
+					assertArrayEquals(content, inputStream.readAllBytes());
+				}
+			}
+			progress.getCompletion().get(10, TimeUnit.SECONDS);
+
+			recording.stop();
+			recording.dump(recordingPath);
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+		Set<String> phases = events.stream()
+				.filter(event -> event.getEventType().getName().equals("com.example.data.download.TransferPhase"))
+				.map(event -> event.getString("phase"))
+				.collect(Collectors.toSet());
+		assertTrue(phases.containsAll(Set.of("CONNECT", "FIRST_WRITE", "CLOSE")), phases.toString());
+
+		List<RecordedEvent> writes = events.stream()
+				.filter(event -> event.getEventType().getName().equals("com.example.data.download.ChunkWrite"))
+				.collect(Collectors.toList());
+		assertFalse(writes.isEmpty());
+		for (RecordedEvent write : writes) {
+			assertEquals(file.toString(), write.getString("file"));
+			assertTrue(write.getLong("bytes") > 0);
+			assertTrue(write.getLong("offset") >= 0 && write.getLong("offset") < content.length);
+		}
+		// The first write of the transfer is always sampled
+		assertTrue(writes.stream().anyMatch(write -> write.getLong("offset") == 0));
+	}
+}
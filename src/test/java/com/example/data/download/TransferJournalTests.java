@@ -0,0 +1,126 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TransferJournalTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void replaysUnfinishedJobsWithTheirLastCheckpoint() throws Exception {
+		Path path = tempDir.resolve("journal.wal");
+		try (TransferJournal journal = open(path)) {
+			journal.begin(job("running", 0), progress("running", 600, null)).get();
+			journal.begin(job("completed", 0), progress("completed", 1000, TransferProgress.State.COMPLETED)).get();
+			journal.begin(job("aborted", 0), progress("aborted", 100, null)).get();
+			journal.end("aborted", TransferProgress.State.ABORTED).get();
+		}
+
+		try (TransferJournal journal = open(path)) {
+			List<TransferJournal.Job> jobs = journal.getInterruptedJobs();
+			assertEquals(1, jobs.size());
+			TransferJournal.Job job = jobs.get(0);
+			assertEquals("running", job.getId());
+			assertEquals(TransferJournal.Role.CLIENT, job.getRole());
+			assertEquals("127.0.0.1", job.getHost());
+			assertEquals(8000, job.getPort());
+			assertEquals("/data/file.bin", job.getFilePath());
+			assertEquals(TransferMode.RAW, job.getTransferMode());
+			assertEquals(600, job.getOffset());
+		}
+	}
+
+	@Test
+	void dropsTornRecordAtTheEnd() throws Exception {
+		Path path = tempDir.resolve("journal.wal");
+		try (TransferJournal journal = open(path)) {
+			journal.begin(job("first", 0), progress("first", 300, null)).get();
+		}
+		long validLength = Files.size(path);
+		// A length field and the first bytes of a record, as left by a crash in the middle of a write
+		Files.write(path, new byte[] { 0, 0, 0, 40, 2, 0, 5 }, StandardOpenOption.APPEND);
+
+		try (TransferJournal journal = open(path)) {
+			assertEquals(1, journal.getInterruptedJobs().size());
+			assertEquals(300, journal.getInterruptedJobs().get(0).getOffset());
+			assertEquals(validLength, Files.size(path));
+			journal.begin(job("second", 0), progress("second", 50, null)).get();
+		}
+
+		try (TransferJournal journal = open(path)) {
+			assertEquals(2, journal.getInterruptedJobs().size());
+			assertEquals("second", journal.getInterruptedJobs().get(1).getId());
+		}
+	}
+
+	@Test
+	void restartedJobIsCheckpointedFromTheBeginning() throws Exception {
+		Path path = tempDir.resolve("journal.wal");
+		try (TransferJournal journal = open(path)) {
+			journal.begin(job("job", 0), progress("job", 900, null)).get();
+		}
+
+		try (TransferJournal journal = open(path)) {
+			TransferJournal.Job interrupted = journal.getInterruptedJobs().get(0);
+			assertEquals(900, interrupted.getOffset());
+			// The restarted job sends the whole file again, so its checkpoints start over below the old one
+			journal.begin(job(interrupted.getId(), 0), progress("job", 200, null)).get();
+		}
+
+		try (TransferJournal journal = open(path)) {
+			assertEquals(1, journal.getInterruptedJobs().size());
+			assertEquals(200, journal.getInterruptedJobs().get(0).getOffset());
+		}
+	}
+
+	@Test
+	void recordTooLongToEncodeIsRejectedAlone() throws Exception {
+		Path path = tempDir.resolve("journal.wal");
+		try (TransferJournal journal = open(path)) {
+			TransferJournal.Job longPathJob = new TransferJournal.Job("long", TransferJournal.Role.CLIENT, "127.0.0.1",
+					8000, "/" + "a".repeat(70_000), TransferMode.RAW, 0);
+			// Both records are queued before the writer wakes up, so they end up in the same batch
+			CompletableFuture<Void> rejected = journal.begin(longPathJob, progress("long", 100, null));
+			CompletableFuture<Void> accepted = journal.begin(job("short", 0), progress("short", 400, null));
+			assertThrows(ExecutionException.class, rejected::get);
+			accepted.get();
+		}
+
+		try (TransferJournal journal = open(path)) {
+			assertEquals(1, journal.getInterruptedJobs().size());
+			assertEquals("short", journal.getInterruptedJobs().get(0).getId());
+			assertEquals(400, journal.getInterruptedJobs().get(0).getOffset());
+		}
+	}
+
+	private static TransferJournal open(Path path) throws Exception {
+		return new TransferJournal(path, 5, 5, TransferJournal.DEFAULT_COMPACT_THRESHOLD);
+	}
+
+	private static TransferJournal.Job job(String id, long offset) {
+		return new TransferJournal.Job(id, TransferJournal.Role.CLIENT, "127.0.0.1", 8000, "/data/file.bin",
+				TransferMode.RAW, offset);
+	}
+
+	private static TransferProgress progress(String id, long bytesDone, TransferProgress.State finalState) {
+		TransferProgress progress = new TransferProgress(id);
+		progress.begin(1000);
+		progress.set(bytesDone);
+		if (finalState != null) {
+			progress.finish(finalState);
+		}
+		return progress;
+	}
+}
@@ -0,0 +1,164 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TreeStreamTests {
+
+	private static final int LEAF_SIZE = 4096;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void parallelHashMatchesSequentialHash() throws Exception {
+		Path source = randomFile("source.bin", 37L * LEAF_SIZE + 123);
+
+		TreeHash sequential = TreeHash.compute(source, LEAF_SIZE, new ForkJoinPool(1));
+		TreeHash parallel = TreeHash.compute(source, LEAF_SIZE, new ForkJoinPool(4));
+		assertEquals(38, parallel.getLeafCount());
+		assertEquals(sequential.getRootHex(), parallel.getRootHex());
+
+		try (RandomAccessFile file = new RandomAccessFile(source.toFile(), "rw")) {
+			file.seek(20L * LEAF_SIZE);
+			file.write(~file.read());
+		}
+		assertNotEquals(sequential.getRootHex(), TreeHash.compute(source, LEAF_SIZE, new ForkJoinPool(4)).getRootHex());
+	}
+
+	@Test
+	void leafCountIsComputedWithoutOverflow() {
+		assertEquals(1, TreeHash.getLeafCount(0, LEAF_SIZE));
+		assertEquals(2, TreeHash.getLeafCount(LEAF_SIZE + 1, LEAF_SIZE));
+		assertEquals(Long.MAX_VALUE, TreeHash.getLeafCount(Long.MAX_VALUE, 1));
+	}
+
+	@Test
+	void headerIsNotTrustedForTheLeafHashesSize() throws Exception {
+		Path destination = tempDir.resolve("destination.bin");
+		try (RandomAccessFile target = new RandomAccessFile(destination.toFile(), "rw")) {
+			// Announces the largest tree accepted, but the stream ends after a few hashes
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(header);
+			out.writeInt(TreeStreamWriter.MAGIC);
+			out.writeLong(TreeHash.MAX_LEAF_COUNT);
+			out.writeInt(1);
+			out.writeInt(TreeHash.MAX_LEAF_COUNT);
+			out.write(new byte[10 * TreeHash.HASH_SIZE]);
+			TreeStreamReader reader = new TreeStreamReader(
+					new DataInputStream(new ByteArrayInputStream(header.toByteArray())),
+					new DataOutputStream(OutputStream.nullOutputStream()), target);
+			assertThrows(EOFException.class, reader::readHeader);
+
+			// A tree over the bound is refused before reading any hash
+			header.reset();
+			out.writeInt(TreeStreamWriter.MAGIC);
+			out.writeLong(TreeHash.MAX_LEAF_COUNT + 1L);
+			out.writeInt(1);
+			out.writeInt(TreeHash.MAX_LEAF_COUNT + 1);
+			TreeStreamReader overBound = new TreeStreamReader(
+					new DataInputStream(new ByteArrayInputStream(header.toByteArray())),
+					new DataOutputStream(OutputStream.nullOutputStream()), target);
+			IOException refused = assertThrows(IOException.class, overBound::readHeader);
+			assertTrue(refused.getMessage().startsWith("Invalid tree"), refused.getMessage());
+		}
+	}
+
+	@Test
+	void onlyCorruptedPieceIsSentAgain() throws Exception {
+		Path source = randomFile("source.bin", 16L * LEAF_SIZE + 5);
+		TreeHash tree = TreeHash.compute(source, LEAF_SIZE, ForkJoinPool.commonPool());
+
+		PipedInputStream senderToReceiver = new PipedInputStream(4 * LEAF_SIZE);
+		PipedInputStream receiverToSender = new PipedInputStream();
+		// Flips one byte of the first round, in the data of the fourth piece
+		long corruptedIndex = 4 + 8 + 4 + 4 + 17L * TreeHash.HASH_SIZE + TreeHash.HASH_SIZE + 3L * (5 + LEAF_SIZE) + 100;
+		OutputStream wire = new CorruptingStream(new PipedOutputStream(senderToReceiver), corruptedIndex);
+		DataOutputStream receiverAnswers = new DataOutputStream(new PipedOutputStream(receiverToSender));
+
+		Path destination = tempDir.resolve("destination.bin");
+		CompletableFuture<TreeStreamReader> receiving = CompletableFuture.supplyAsync(() -> {
+			try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+				TreeStreamReader reader = new TreeStreamReader(new DataInputStream(senderToReceiver), receiverAnswers,
+						file);
+				reader.readHeader();
+				while (reader.readNextPiece()) {
+				}
+				return reader;
+			} catch (IOException ioException) {
+				throw new RuntimeException(ioException);
+			}
+		});
+
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			TreeStreamWriter writer = new TreeStreamWriter(channel, tree, new DataOutputStream(wire),
+					new DataInputStream(receiverToSender));
+			writer.writeHeader();
+			do {
+				while (writer.writeNextPiece()) {
+				}
+			} while (writer.writeEnd());
+			assertEquals(1, writer.getResentPieces());
+		}
+
+		TreeStreamReader reader = receiving.get();
+		assertEquals(1, reader.getCorruptedPieces());
+		assertEquals(Files.size(source), reader.getVerifiedBytes());
+		assertEquals(-1L, Files.mismatch(source, destination));
+	}
+
+	private Path randomFile(String name, long length) throws IOException {
+		byte[] data = new byte[(int) length];
+		new Random(length).nextBytes(data);
+		return Files.write(tempDir.resolve(name), data);
+	}
+
+	/**
+	 * Flips the bits of the byte written at the given index of the stream.
+	 */
+	private static class CorruptingStream extends FilterOutputStream {
+		private final long mCorruptedIndex;
+		private long mIndex;
+
+		CorruptingStream(OutputStream out, long corruptedIndex) {
+			super(out);
+			mCorruptedIndex = corruptedIndex;
+		}
+
+		@Override
+		public void write(int value) throws IOException {
+			out.write(mIndex++ == mCorruptedIndex ? ~value : value);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			for (int index = offset; index < offset + length; index++) {
+				write(data[index]);
+			}
+		}
+	}
+}
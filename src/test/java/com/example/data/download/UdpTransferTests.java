@@ -0,0 +1,132 @@
+package com.example.data.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UdpTransferTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void fileCrossesDelayedLossyLink() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024 + 77];
+		new Random(3).nextBytes(data);
+		Path source = Files.write(tempDir.resolve("source.bin"), data);
+		Path destination = tempDir.resolve("destination.bin");
+
+		UdpDownloadReceiver receiver = new UdpDownloadReceiver(0, 10_000, destination.toString());
+		assertEquals(LocalFastDownloadReceiver.Result.SUCCESS, receiver.start());
+		UdpImpairmentProxy proxy = new UdpImpairmentProxy(0, "127.0.0.1", receiver.getLocalPort());
+		proxy.setDelayMillis(20);
+		proxy.setLossRate(0.02);
+		proxy.open();
+		try {
+			TransferProgress progress = new TransferProgress("udp");
+			UdpDownloadClient client = new UdpDownloadClient("127.0.0.1", proxy.getLocalPort(), 5_000, source.toString());
+			client.setProgress(progress);
+			assertEquals(LocalFastDownloadClient.Result.SUCCESS, client.start());
+
+			assertTrue(receiver.awaitCompletion(60_000));
+			assertEquals(TransferProgress.State.COMPLETED, progress.getCompletion().get(10, TimeUnit.SECONDS).getState());
+			assertTrue(proxy.getDropped() > 0);
+			assertArrayEquals(data, Files.readAllBytes(destination));
+		} finally {
+			proxy.shutdown();
+		}
+	}
+
+	@Test
+	void malformedFeedbackIsIgnoredAndTheEndIsStillReported() throws Exception {
+		byte[] data = new byte[1024 * 1024];
+		new Random(4).nextBytes(data);
+		Path source = Files.write(tempDir.resolve("source.bin"), data);
+		UdpDownloadServer server = new UdpDownloadServer(0, 5_000, source.toString());
+		TransferProgress progress = new TransferProgress("udp");
+		server.setProgress(progress);
+		assertEquals(LocalFastDownloadServer.Result.SUCCESS, server.start());
+
+		try (Selector selector = Selector.open(); DatagramChannel channel = UdpProtocol.open(selector)) {
+			int session = UdpProtocol.connect(channel, selector, new InetSocketAddress("127.0.0.1",
+					server.getLocalPort()), 5_000);
+			// Cut in the middle of the fields, then announcing missing packets it does not list
+			ByteBuffer feedback = ByteBuffer.allocate(UdpProtocol.MAX_PACKET_SIZE);
+			feedback.put(UdpProtocol.FEEDBACK).putInt(session).putInt(0).flip();
+			channel.write(feedback);
+			feedback.clear();
+			feedback.put(UdpProtocol.FEEDBACK).putInt(session).putInt(0).putInt(-1).putLong(0).putLong(0)
+					.putShort((short) UdpProtocol.MAX_NAKS).putInt(0).flip();
+			channel.write(feedback);
+			UdpProtocol.sendControl(channel, UdpProtocol.ABORT, session);
+
+			assertEquals(TransferProgress.State.FAILED, progress.getCompletion().get(10, TimeUnit.SECONDS).getState());
+		}
+	}
+
+	@Test
+	void doneIsSentAgainToATailSentLate() throws Exception {
+		Path destination = tempDir.resolve("destination.bin");
+		UdpDownloadReceiver receiver = new UdpDownloadReceiver(0, 10_000, destination.toString());
+		assertEquals(LocalFastDownloadReceiver.Result.SUCCESS, receiver.start());
+
+		try (Selector selector = Selector.open(); DatagramChannel channel = UdpProtocol.open(selector)) {
+			int session = UdpProtocol.connect(channel, selector, new InetSocketAddress("127.0.0.1",
+					receiver.getLocalPort()), 5_000);
+			ByteBuffer packet = ByteBuffer.allocate(UdpProtocol.MAX_PACKET_SIZE);
+			packet.put(UdpProtocol.DATA).putInt(session).putInt(0).putLong(100).putLong(System.nanoTime())
+					.put(new byte[100]).flip();
+			channel.write(packet.duplicate());
+			assertEquals(UdpProtocol.DONE, receiveControl(channel, selector, session));
+
+			// The first DONE is lost, the sender sends the tail again after a few long round trips
+			Thread.sleep(2_500);
+			channel.write(packet.duplicate());
+			assertEquals(UdpProtocol.DONE, receiveControl(channel, selector, session));
+			assertTrue(receiver.awaitCompletion(30_000));
+		}
+	}
+
+	@Test
+	void proxyOnAPortInUseFailsToOpen() throws Exception {
+		try (DatagramChannel taken = DatagramChannel.open()) {
+			taken.bind(new InetSocketAddress(0));
+			UdpImpairmentProxy proxy = new UdpImpairmentProxy(taken.socket().getLocalPort(), "127.0.0.1", 9);
+			assertThrows(IOException.class, proxy::open);
+			assertEquals(-1, proxy.getLocalPort());
+		}
+	}
+
+	/**
+	 * @return the type of the next control packet of the session other than HELLO_ACK, or 0 if none came within 5
+	 *         seconds.
+	 */
+	private static byte receiveControl(DatagramChannel channel, Selector selector, int session) throws IOException {
+		ByteBuffer packet = ByteBuffer.allocate(UdpProtocol.MAX_PACKET_SIZE);
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (System.currentTimeMillis() < deadline) {
+			selector.select(100);
+			selector.selectedKeys().clear();
+			packet.clear();
+			if (channel.receive(packet) != null && packet.position() == UdpProtocol.HEADER_SIZE
+					&& packet.getInt(1) == session && packet.get(0) != UdpProtocol.HELLO_ACK) {
+				return packet.get(0);
+			}
+		}
+		return 0;
+	}
+}